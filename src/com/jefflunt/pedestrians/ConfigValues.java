@@ -38,6 +38,20 @@ public class ConfigValues {
   /** Constant value representing down and to the right, like on a computer screen. */
   public static final int DOWN_RIGHT = 7;
   
+  /** Constant value selecting the plain A* path finder. */
+  public static final int PATH_FINDER_ASTAR = 0;
+  /** Constant value selecting the Jump Point Search path finder. */
+  public static final int PATH_FINDER_JUMP_POINT = 1;
+  /** Constant value selecting the hierarchical (HPA*) path finder, for very large maps. */
+  public static final int PATH_FINDER_HIERARCHICAL = 2;
+  /** Constant value selecting the any-angle (Theta*) path finder, whose paths cut straight across open ground. */
+  public static final int PATH_FINDER_ANY_ANGLE = 3;
+  
+  /** Constant value selecting navigation by a separate Path for each Pedestrian. */
+  public static final int NAVIGATION_PATHS = 0;
+  /** Constant value selecting navigation by FlowFields shared between every Pedestrian headed for the same destination. */
+  public static final int NAVIGATION_FLOW_FIELDS = 1;
+  
   
   // These values are intended to be changed by the simulation, at will. These are the default values.
   // Loading/saving is available to override the defaults.
@@ -48,8 +62,36 @@ public class ConfigValues {
   public static float pedestrianTurnRate = (float) (3*Math.PI);
   /** The maximum length of a path found by the path finder. */
   public static int pathFindingMaxSearchDepth = 1000;
+  /** The kind of path finder the simulation uses - one of PATH_FINDER_ASTAR, PATH_FINDER_JUMP_POINT, PATH_FINDER_HIERARCHICAL, or
+   * PATH_FINDER_ANY_ANGLE. Plain A* is the default: the jump point finder expands far fewer nodes, but each of its jumps costs more, and on
+   * the sim's maps with random obstacles it still takes longer overall. */
+  public static int pathFinderType = PATH_FINDER_ASTAR;
+  /** The number of paths the simulation's path cache will hold. Zero disables the cache. */
+  public static int pathCacheCapacity = 2000;
+  /** The number of background threads used to find paths. Zero finds every path on the game thread, as soon as it is needed. */
+  public static int pathFindingThreads = 2;
+  /** The time, in microseconds, that each tick may spend finding paths on the game thread, when pathFindingThreads is zero. Searches that
+   * don't fit are carried on in the next tick. Zero finds every path in full, as soon as it is needed. */
+  public static long pathFindingBudgetMicros = 2000;
+  /** The number of searches that may be part way through at once, when path finding is spread across ticks. */
+  public static int maxActivePathSearches = 4;
+  /** The number of goals for which the replanner keeps search trees, for repairing paths broken by edits to the map. Zero turns off
+   * replanning, and leaves Pedestrians to walk into new obstacles until their sensors steer them away. */
+  public static int replanMaxGoals = 64;
+  /** The number of landmarks used to guide A* searches around obstacles. Zero falls back on the straight-line distance to the target. Only
+   * plain A* (PATH_FINDER_ASTAR, or the time-sliced search scheduler) uses them, and they aren't built for the other path finders. */
+  public static int landmarkCount = 8;
+  /** How Pedestrians find their way - one of NAVIGATION_PATHS or NAVIGATION_FLOW_FIELDS. */
+  public static int navigationMode = NAVIGATION_PATHS;
+  /** The number of shared destinations Pedestrians wander between, when navigating by flow fields. */
+  public static int flowFieldDestinations = 8;
+  /** The most memory, in bytes, that cached flow fields may use. */
+  public static long flowFieldCacheBytes = 8*1024*1024;
   /** The number of movement history records the Pedestrians will keep. */
   public static int pedestrianMovementHistoryDepth = 1800;
+  /** Whether the Pedestrians' sensors are all worked out together, by a SensorKernel, before anyone moves, rather than by each Pedestrian as
+   * they move. Either way the Pedestrians steer the same; batching is just faster with lots of them. */
+  public static boolean batchSensorEvaluation = true;
   
   /** This variable allows the enabling/disabling of administrator controls in the UI. It is set to true via a command-line switch. */
   public static boolean adminModeEnabled = false;
@@ -60,6 +102,10 @@ public class ConfigValues {
   public static long millisBetweenCongestionCalculations = 50;
   /** The number of milliseconds between saves of the tile map state. */
   public static long millisBetweenTilemapSaves = 1000;
+  /** The number of milliseconds between saves of the pedestrians, or 0 to only save them when the game quits. */
+  public static long millisBetweenPedestrianAutosaves = 60000;
+  /** The number of tile edits the tile map journal may hold before it's folded into the tile map file. */
+  public static int tileMapJournalCompactionEdits = 4096;
   
   /** A flag that specifies whether or not to render pedestrian path finding paths. */
   public static boolean renderPaths = false;
@@ -15,6 +15,9 @@ import org.newdawn.slick.geom.Circle;
 import org.newdawn.slick.util.pathfinding.Mover;
 import org.newdawn.slick.util.pathfinding.Path;
 
+import com.jefflunt.pedestrians.pathfinding.CompactPath;
+import com.jefflunt.pedestrians.pathfinding.FlowField;
+import com.jefflunt.pedestrians.pathfinding.ObstacleDistanceField;
 import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
 import com.jefflunt.pedestrians.physics.Vector;
 
@@ -36,6 +39,24 @@ public class Pedestrian extends Circle implements Renderable, Mover {
   /** Speed for when you're running. */
   public static final float RUNNING_SPEED = 120;
   
+  /** The number of turning sensors each Pedestrian has. */
+  public static final int NUMBER_OF_SENSORS = 8;
+  /** The position of each turning sensor ahead of the Pedestrian's center, along their direction of travel. The sensors are checked in this
+   * order, and the first one that senses something steers the Pedestrian. */
+  static final float[] SENSOR_X = {
+      ConfigValues.PEDESTRIAN_RADIUS,   ConfigValues.PEDESTRIAN_RADIUS,   2*ConfigValues.PEDESTRIAN_RADIUS, 2*ConfigValues.PEDESTRIAN_RADIUS,
+      3*ConfigValues.PEDESTRIAN_RADIUS, 3*ConfigValues.PEDESTRIAN_RADIUS, 4*ConfigValues.PEDESTRIAN_RADIUS, 4*ConfigValues.PEDESTRIAN_RADIUS };
+  /** The position of each turning sensor to the side of the Pedestrian's center (negative is to their left). */
+  static final float[] SENSOR_Y = {
+      -ConfigValues.PEDESTRIAN_RADIUS,      ConfigValues.PEDESTRIAN_RADIUS,      -ConfigValues.PEDESTRIAN_RADIUS*1.5f, ConfigValues.PEDESTRIAN_RADIUS*1.5f,
+      -ConfigValues.PEDESTRIAN_RADIUS*2.5f, ConfigValues.PEDESTRIAN_RADIUS*2.5f, -ConfigValues.PEDESTRIAN_RADIUS,      ConfigValues.PEDESTRIAN_RADIUS };
+  /** The farthest any turning sensor is from the Pedestrian's center, in pixels. */
+  static final float SENSOR_REACH = sensorReach();
+  /** The fraction of ConfigValues.pedestrianTurnRate each sensor turns the Pedestrian by (negative is to their left). */
+  private static final float[] SENSOR_TURN = { 1, -1, 1/2f, -1/2f, 1/3f, -1/3f, 1/3f, -1/3f };
+  /** The multiplier each sensor applies to the Pedestrian's speed, while it senses something. */
+  private static final float[] SENSOR_SPEED_MULTIPLIER = { 0.1f, 0.1f, 0.5f, 0.5f, 1, 1, 1, 1 };
+  
   /** The GameContainer of which this Pedestrian is a part. */
   private GameContainer container;
   /** The Vector representing this Pedestrian's current movement. */
@@ -45,20 +66,32 @@ public class Pedestrian extends Circle implements Renderable, Mover {
   private float targetX;
   /** The y-coordinate of the current target point. */
   private float targetY;
-  /** The history of this Pedestrian's movement, a collection of MovementRecord objects. */
-  private LinkedList<MovementRecord> movementHistory;
+  /** The x-coordinates of this Pedestrian's recent positions, in a ring buffer that starts at historyStart. */
+  private float[] historyX;
+  /** The y-coordinates of this Pedestrian's recent positions. */
+  private float[] historyY;
+  /** This Pedestrian's recent directions of travel. */
+  private float[] historyDirection;
+  /** The position in the ring buffers of the oldest record. */
+  private int historyStart;
+  /** The number of records in the ring buffers. */
+  private int historySize;
   
   /** The Path that this Pedestrian is following. */
-  private Path targetPath;
+  private CompactPath targetPath;
   /** The index of the current point in the Path this this Pedestrian is following. */
   private int targetPathIndex;
+  /** The FlowField this Pedestrian is steering by, instead of a Path. */
+  private FlowField flowField;
+  /** Whether or not a path has been asked for on this Pedestrian's behalf, and not yet handed over. */
+  private boolean waitingForPath;
   /** This Pedestrian's array of turning sensors. */
   private ObstacleSensor[] turningSensors;
+  /** The x-coordinate of each turning sensor, as of the last call to locateSensors(). */
+  private float[] sensorX;
+  /** The y-coordinate of each turning sensor, as of the last call to locateSensors(). */
+  private float[] sensorY;
   
-  /** A record of the tile map block this Pedestrian was in, the last time they moved. NOTE: It's possible, if a Pedestrian only moves a little, or not at all,
-   * or if ConfigValues.TILE_SIZE is defined to have blocks much larger than Pedestrians, that this value won't change very often.
-   */ 
-  private Point lastTileMapBlock;
   /** This Pedestrian's unique ID. */
   private int uniqueID;
   /** This Pedestrian's name (does not have to be unique). */
@@ -87,10 +120,10 @@ public class Pedestrian extends Circle implements Renderable, Mover {
     renderColor = new Color(ois.readInt(), ois.readInt(), ois.readInt());
     
     movementVector = new Vector(ois.readFloat(), ois.readFloat());
-    movementHistory = new LinkedList<MovementRecord>();
     
-    lastTileMapBlock = getCoordinatesOfCurrentBlock();
     turningSensors = buildObstacleSensors();
+    sensorX = new float[turningSensors.length];
+    sensorY = new float[turningSensors.length];
     this.container = container;
   }
   
@@ -108,24 +141,28 @@ public class Pedestrian extends Circle implements Renderable, Mover {
     renderColor = new Color((int) (Math.random()*150)+100, (int) (Math.random()*150)+100, (int) (Math.random()*150)+100);
     
     movementVector = new Vector(0, STOPPED);
-    movementHistory = new LinkedList<MovementRecord>();
     
-    lastTileMapBlock = getCoordinatesOfCurrentBlock();
     turningSensors = buildObstacleSensors();
+    sensorX = new float[turningSensors.length];
+    sensorY = new float[turningSensors.length];
     this.container = container;
   }
   
+  /** Works out SENSOR_REACH. */
+  private static float sensorReach() {
+    float reach = 0;
+    for (int i = 0; i < NUMBER_OF_SENSORS; i++) {
+      reach = Math.max(reach, (float) Math.sqrt((SENSOR_X[i]*SENSOR_X[i]) + (SENSOR_Y[i]*SENSOR_Y[i])));
+    }
+    return reach;
+  }
+  
   private ObstacleSensor[] buildObstacleSensors() {
-    return (new ObstacleSensor[] {
-        new ObstacleSensor(this,   ConfigValues.PEDESTRIAN_RADIUS,      -ConfigValues.PEDESTRIAN_RADIUS,       ConfigValues.pedestrianTurnRate,   0.1f),
-        new ObstacleSensor(this,   ConfigValues.PEDESTRIAN_RADIUS,       ConfigValues.PEDESTRIAN_RADIUS,      -ConfigValues.pedestrianTurnRate,   0.1f),
-        new ObstacleSensor(this, 2*ConfigValues.PEDESTRIAN_RADIUS,      -ConfigValues.PEDESTRIAN_RADIUS*1.5f,  ConfigValues.pedestrianTurnRate/2, 0.5f),
-        new ObstacleSensor(this, 2*ConfigValues.PEDESTRIAN_RADIUS,       ConfigValues.PEDESTRIAN_RADIUS*1.5f, -ConfigValues.pedestrianTurnRate/2, 0.5f),
-        new ObstacleSensor(this, 3*ConfigValues.PEDESTRIAN_RADIUS,      -ConfigValues.PEDESTRIAN_RADIUS*2.5f,  ConfigValues.pedestrianTurnRate/3, 1),
-        new ObstacleSensor(this, 3*ConfigValues.PEDESTRIAN_RADIUS,       ConfigValues.PEDESTRIAN_RADIUS*2.5f, -ConfigValues.pedestrianTurnRate/3, 1),
-        new ObstacleSensor(this, 4*ConfigValues.PEDESTRIAN_RADIUS,      -ConfigValues.PEDESTRIAN_RADIUS,       ConfigValues.pedestrianTurnRate/3, 1),
-        new ObstacleSensor(this, 4*ConfigValues.PEDESTRIAN_RADIUS,       ConfigValues.PEDESTRIAN_RADIUS,      -ConfigValues.pedestrianTurnRate/3, 1),
-    });
+    ObstacleSensor[] sensors = new ObstacleSensor[NUMBER_OF_SENSORS];
+    for (int i = 0; i < NUMBER_OF_SENSORS; i++) {
+      sensors[i] = new ObstacleSensor(SENSOR_X[i], SENSOR_Y[i], ConfigValues.pedestrianTurnRate*SENSOR_TURN[i], SENSOR_SPEED_MULTIPLIER[i]);
+    }
+    return sensors;
   }
   
   /** Allows the saving of Pedestrian state to an ObjectOutputStream.
@@ -176,7 +213,7 @@ public class Pedestrian extends Circle implements Renderable, Mover {
    * 
    * @return the pPath that this Pedestrian is following.
    */
-  public Path getTargetPath() {
+  public CompactPath getTargetPath() {
     return targetPath;
   }
   
@@ -224,42 +261,52 @@ public class Pedestrian extends Circle implements Renderable, Mover {
    * @param timeSlice The amount of time that has elapsed, in milliseconds.
    */
   public void move(long timeSlice) {
-    while (movementHistory.size() >= ConfigValues.pedestrianMovementHistoryDepth) {
-      movementHistory.removeLast();
-    }
-    
-    TILE_MAP.getTileStateAt(lastTileMapBlock.x, lastTileMapBlock.y).unregisterPedestrian(this);
-    
+    move(timeSlice, false, -1);
+  }
+  
+  /** Causes the Pedestrian to move, using what their sensors sensed as already worked out for this tick by a SensorKernel, rather than
+   * sensing for themselves. The result is the same as move(timeSlice), as long as nothing has moved or turned the Pedestrian since the
+   * kernel ran.
+   * 
+   * @param timeSlice The amount of time that has elapsed, in milliseconds.
+   * @param triggeredSensor the first of the Pedestrian's sensors that senses something, or -1 if none do
+   */
+  public void move(long timeSlice, int triggeredSensor) {
+    move(timeSlice, true, triggeredSensor);
+  }
+  
+  /** Does the work of both kinds of move(). */
+  private void move(long timeSlice, boolean sensed, int triggeredSensor) {
     if (hasReachedDestination()) {
       if (isOnAPathSomewhere()) {
         targetPathIndex++;
         if (targetPathIndex >= targetPath.getLength()) {
           stop();
         } else {
-          headToward(targetPath.getX(targetPathIndex), targetPath.getY(targetPathIndex), getSpeed());
+          headToward(targetPath.getPixelX(targetPathIndex), targetPath.getPixelY(targetPathIndex), getSpeed());
         }
+      } else if (isFollowingFlowField()) {
+        headAlongFlowField(getSpeed());
       }
     } else {
       boolean collisionSteeringUsed = false;
       float speedMultiplier = 1.0f;
       
-      Pedestrian thePedestrianSensed = null;
-      boolean theRelativeTileIsBlocked = false;
+      // Basic delta and direction establishment - the rotation is worked out once, and shared with the sensors
+      float cos = (float) Math.cos(getDirection());
+      float sin = (float) Math.sin(getDirection());
+      float deltaX = movementVector.getMagnitude()*cos*(timeSlice/1000.0f);
+      float deltaY = movementVector.getMagnitude()*sin*(timeSlice/1000.0f);
       
-      // Basic delta and direction establishment
-      Vector deltaVector = Vector.getVectorFromComponents(
-          (float) (movementVector.getMagnitude()*Math.cos(getDirection())) * (timeSlice/1000.0f),
-          (float) (movementVector.getMagnitude()*Math.sin(getDirection())) * (timeSlice/1000.0f));
-  
-      for (ObstacleSensor s : turningSensors) {
-        thePedestrianSensed = s.relativePointSensesPedestrian(TILE_MAP);
-        theRelativeTileIsBlocked = s.relativeTileIsBlocked(TILE_MAP);
-        if (theRelativeTileIsBlocked || (thePedestrianSensed != null)) {
-          movementVector.setDirection(movementVector.getDirection()+(s.turnRate*(timeSlice/1000.0f)));
-          speedMultiplier = s.speedMultiplier;
-          collisionSteeringUsed = true;
-          break;
-        }
+      if (!sensed) {
+        locateSensors(cos, sin);
+        triggeredSensor = firstTriggeredSensor();
+      }
+      if (triggeredSensor >= 0) {
+        ObstacleSensor s = turningSensors[triggeredSensor];
+        movementVector.setDirection(movementVector.getDirection()+(s.turnRate*(timeSlice/1000.0f)));
+        speedMultiplier = s.speedMultiplier;
+        collisionSteeringUsed = true;
       }
       
       // Target steering - only done if collision steering was not used
@@ -281,18 +328,104 @@ public class Pedestrian extends Circle implements Renderable, Mover {
         }
       }
       
-      setCenterX(getCenterX() + (deltaVector.getXComponent()*speedMultiplier));
-      setCenterY(getCenterY() + (deltaVector.getYComponent()*speedMultiplier));
-      
-      lastTileMapBlock = getCoordinatesOfCurrentBlock();
+      setCenterX(getCenterX() + (deltaX*speedMultiplier));
+      setCenterY(getCenterY() + (deltaY*speedMultiplier));
+    }
+    recordMovement();
+  }
+  
+  /** Works out where every turning sensor is, from this Pedestrian's center and the cosine and sine of their direction of travel, into
+   * sensorX and sensorY. This is getRelativePointFromCenter() for all the sensors at once, without the Point2D.Float.
+   */
+  private void locateSensors(float cos, float sin) {
+    float centerX = getCenterX();
+    float centerY = getCenterY();
+    
+    for (int i = 0; i < turningSensors.length; i++) {
+      float rx = turningSensors[i].rx;
+      float ry = turningSensors[i].ry;
+      sensorX[i] = centerX + (rx*cos) - (ry*sin);
+      sensorY[i] = centerY + (rx*sin) + (ry*cos);
+    }
+  }
+  
+  /** Gets the first turning sensor that senses something, where locateSensors() last put them, or -1 if none do. */
+  private int firstTriggeredSensor() {
+    // out in the open, none of the sensors can reach a blocked tile, and only other Pedestrians need looking for
+    // a map too big to keep the distance field for has every sensor check its tile
+    ObstacleDistanceField field = TILE_MAP.getObstacleDistanceField();
+    boolean clear = (field != null) && field.hasClearance((int) (getCenterX()/ConfigValues.TILE_SIZE),
+                                                          (int) (getCenterY()/ConfigValues.TILE_SIZE), SENSOR_REACH);
+    for (int i = 0; i < turningSensors.length; i++) {
+      if (sensorIsTriggered(i, clear)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+  
+  /** Gets the first of this Pedestrian's turning sensors that senses something, where they are now, or -1 if none do. This is what move()
+   * steers by.
+   */
+  public int findTriggeredSensor() {
+    locateSensors((float) Math.cos(getDirection()), (float) Math.sin(getDirection()));
+    return firstTriggeredSensor();
+  }
+  
+  /** Gets whether a turning sensor, where locateSensors() last put it, is over a blocked tile or another Pedestrian.
+   * 
+   * @param i the sensor
+   * @param clear whether the obstacle distance field has already shown there are no blocked tiles within reach of the sensor
+   */
+  private boolean sensorIsTriggered(int i, boolean clear) {
+    float x = sensorX[i];
+    float y = sensorY[i];
+    
+    return ((!clear && TILE_MAP.blocked(null, (int) (x/ConfigValues.TILE_SIZE), (int) (y/ConfigValues.TILE_SIZE)))
+        || (TILE_MAP.getPedestrianGrid().findPedestrianNear(x, y, ConfigValues.PEDESTRIAN_RADIUS, this) != null));
+  }
+  
+  /** Adds where this Pedestrian is now to their movement history, dropping the oldest record if the history is full. */
+  private void recordMovement() {
+    int depth = ConfigValues.pedestrianMovementHistoryDepth;
+    if (depth <= 0) {
+      return;
+    }
+    if ((historyX == null) || (historyX.length != depth)) {
+      historyX = new float[depth];
+      historyY = new float[depth];
+      historyDirection = new float[depth];
+      historyStart = 0;
+      historySize = 0;
+    }
+    
+    int i = historyStart + historySize;
+    if (historySize == depth) {
+      historyStart = (historyStart + 1) % depth;
+    } else {
+      historySize++;
     }
-    TILE_MAP.getTileStateAt(lastTileMapBlock.x, lastTileMapBlock.y).registerPedestrian(this);
-    movementHistory.add(new MovementRecord(getCenterX(), getCenterY(), getDirection()));
+    i %= depth;
+    historyX[i] = getCenterX();
+    historyY[i] = getCenterY();
+    historyDirection[i] = getDirection();
   }
   
-  /** Gets this Pedestrian's movement history. */
+  /** Gets the number of records in this Pedestrian's movement history. */
+  public int getMovementHistorySize() {
+    return historySize;
+  }
+  
+  /** Gets this Pedestrian's movement history, oldest first. The history is kept in primitive arrays, so this builds a new list each time
+   * it's called.
+   */
   public LinkedList<MovementRecord> getMovementHistory() {
-    return movementHistory;
+    LinkedList<MovementRecord> records = new LinkedList<MovementRecord>();
+    for (int age = 0; age < historySize; age++) {
+      int i = (historyStart + age) % historyX.length;
+      records.add(new MovementRecord(historyX[i], historyY[i], historyDirection[i]));
+    }
+    return records;
   }
   
   /** Gets the (x, y) coordinate of the block that this Pedestrian currently occupies.
@@ -330,10 +463,7 @@ public class Pedestrian extends Circle implements Renderable, Mover {
     float totalDistance = distanceToTarget();
     
     if (targetPath != null) {
-      for (int i = targetPathIndex+1; i < targetPath.getLength(); i++) {
-        totalDistance += Math.hypot(targetPath.getX(i)-targetPath.getX(i-1),
-                                    targetPath.getY(i)-targetPath.getY(i-1));
-      }
+      totalDistance += targetPath.getLengthFrom(targetPathIndex);
     }
     
     return totalDistance;
@@ -347,6 +477,87 @@ public class Pedestrian extends Circle implements Renderable, Mover {
     return (targetPath != null);
   }
   
+  /** Whether or not the Pedestrian is steering by a FlowField.
+   * 
+   * @return true if the Pedestrian is following a flow field toward its goal, false otherwise.
+   */
+  public boolean isFollowingFlowField() {
+    return (flowField != null);
+  }
+  
+  /** Gets the FlowField this Pedestrian is steering by.
+   * 
+   * @return the flow field, or null if this Pedestrian isn't following one.
+   */
+  public FlowField getFlowField() {
+    return flowField;
+  }
+  
+  /** Tells the Pedestrian to forget any Path they're on, and steer by the given FlowField until they reach its goal. If the goal can't be
+   * reached from where the Pedestrian is standing, they stop instead.
+   * 
+   * @param field the flow field to follow
+   * @param speed the speed at which you want them to travel
+   */
+  public void followFlowField(FlowField field, float speed) {
+    targetPath = null;
+    targetPathIndex = 0;
+    flowField = field;
+    headAlongFlowField(speed);
+  }
+  
+  /** Heads for the next tile on this Pedestrian's FlowField that isn't already within STOP_DISTNACE. Stops the Pedestrian once the goal has
+   * been reached, the goal can't be reached, or the field is no longer being kept up to date.
+   */
+  private void headAlongFlowField(float speed) {
+    if (!flowField.isValid()) {
+      stop();
+      return;
+    }
+    
+    Point tile = getCoordinatesOfCurrentBlock();
+    int width = TILE_MAP.getWidthInTiles();
+    int tileX = tile.x;
+    int tileY = tile.y;
+    boolean headingSomewhere = false;
+    
+    // the next tile's center is often already within STOP_DISTNACE, so look a few steps ahead, as following a Path does
+    for (int step = 0; step < 3; step++) {
+      int next = flowField.getNextTile(tileX, tileY);
+      if (next < 0) {
+        break;
+      }
+      
+      tileX = next % width;
+      tileY = next / width;
+      headToward((tileX*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2), (tileY*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2), speed);
+      headingSomewhere = true;
+      if (!hasReachedDestination()) {
+        break;
+      }
+    }
+    
+    if (!headingSomewhere || hasReachedDestination()) {
+      stop();
+    }
+  }
+  
+  /** Whether or not a path has been asked for on this Pedestrian's behalf, and is still being searched for.
+   * 
+   * @return true if this Pedestrian is waiting for a path, false otherwise.
+   */
+  public boolean isWaitingForPath() {
+    return waitingForPath;
+  }
+  
+  /** Sets whether or not a path is being searched for on this Pedestrian's behalf.
+   * 
+   * @param waitingForPath true when a path has been asked for, false once it has been handed over.
+   */
+  public void setWaitingForPath(boolean waitingForPath) {
+    this.waitingForPath = waitingForPath;
+  }
+  
   /** Sets a new target (x, y) for this Pedestrian.
    * 
    * @param x the x-coordinate of the new target location.
@@ -360,41 +571,39 @@ public class Pedestrian extends Circle implements Renderable, Mover {
   
   /** Tells the Pedestrian to head from their current location, along the specified Path.
    * 
-   * @param p the Path to follow.
+   * @param p the Path to follow. A path in tiles is followed through the center of each tile.
    * @param speed the speed at which you want them to travel along this path.
    */
-  public void headAlongPath(Path p, float speed) throws IllegalArgumentException {
+  public void headAlongPath(CompactPath p, float speed) throws IllegalArgumentException {
     if (p != null) {
       targetPath = p;
       targetPathIndex = 0;
+      flowField = null;
       if (p.getLength() == 0)
         throw new IllegalArgumentException("The path you send a Pedestrian on, must have at least one step.");
       else
-        setNewTargetPoint(targetPath.getX(targetPathIndex), targetPath.getY(targetPathIndex), speed);
+        setNewTargetPoint(targetPath.getPixelX(targetPathIndex), targetPath.getPixelY(targetPathIndex), speed);
     }
   }
   
+  /** Tells the Pedestrian to head from their current location, along the specified Path.
+   * 
+   * @param p the Path to follow, in pixels.
+   * @param speed the speed at which you want them to travel along this path.
+   */
+  public void headAlongPath(Path p, float speed) throws IllegalArgumentException {
+    headAlongPath(CompactPath.fromPath(p, false), speed);
+  }
+  
   /** Tells the Pedestrian to head from their current location, along the specified Path.
    * 
    * @param p the Path to follow
    * @param speed the speed at which you want them to travel along this path.
-   * @param expandPath if true, the path passed in is expanded by PedestrianSim.TILE_SIZE. This method is provided to handle paths generated by the PathFinder.
+   * @param expandPath if true, the path passed in is in tiles, and is followed through the center of each one. This method is provided to handle paths generated by the PathFinder.
    * @throws IllegalArgumentException
    */
   public void headAlongPath(Path p, float speed, boolean expandPath) throws IllegalArgumentException {
-    if (p != null) {
-      if (expandPath) {
-        Path expandedPath = new Path();
-        for (int i = 0; i < p.getLength(); i++) {
-          expandedPath.appendStep((p.getStep(i).getX()*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2),
-                                  (p.getStep(i).getY()*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2));
-        }
-        
-        headAlongPath(expandedPath, speed);
-      } else {
-        headAlongPath(p, speed);
-      }
-    }
+    headAlongPath(CompactPath.fromPath(p, expandPath), speed);
   }
   
   /** Adds an additional step to the already defined path, or sets this Pedestrian along a path if they are not currently on one.
@@ -405,8 +614,11 @@ public class Pedestrian extends Circle implements Renderable, Mover {
   public void addStepToPath(int x, int y) {
     boolean wasNotOnAPath = (targetPath == null);
     if (wasNotOnAPath) {
-      targetPath = new Path();
+      targetPath = new CompactPath(false);
       targetPathIndex = 0;
+    } else {
+      // the new step is in pixels, so a path found in tiles has to be copied into pixels first
+      targetPath = targetPath.toPixels();
     }
     
     if ((targetPath.getLength() == 0) || ((targetPath.getX(targetPath.getLength()-1) != x) || (targetPath.getY(targetPath.getLength()-1) != y))) 
@@ -460,6 +672,7 @@ public class Pedestrian extends Circle implements Renderable, Mover {
     targetY = getCenterY();
     targetPath = null;
     targetPathIndex = 0;
+    flowField = null;
   }
   
   /** Changes the Pedestrian's speed, but does not change their destination. If the Pedestrian has already arrived
@@ -650,7 +863,7 @@ public class Pedestrian extends Circle implements Renderable, Mover {
             g.setColor(Color.cyan);
           else
             g.setColor(Color.orange);
-          g.drawLine(targetPath.getX(i)-ConfigValues.viewportX, targetPath.getY(i)-ConfigValues.viewportY, targetPath.getX(i-1)-ConfigValues.viewportX, targetPath.getY(i-1)-ConfigValues.viewportY);
+          g.drawLine(targetPath.getPixelX(i)-ConfigValues.viewportX, targetPath.getPixelY(i)-ConfigValues.viewportY, targetPath.getPixelX(i-1)-ConfigValues.viewportX, targetPath.getPixelY(i-1)-ConfigValues.viewportY);
         }
         
         g.setColor(Color.red);
@@ -659,14 +872,14 @@ public class Pedestrian extends Circle implements Renderable, Mover {
     }
     
     if (ConfigValues.renderTurnSensors) { 
-      for (ObstacleSensor s : turningSensors) {
-        Point2D.Float sensorLocation = getRelativePointFromCenter(s.rx, s.ry);
-        if (s.relativeTileIsBlocked(TILE_MAP) || (s.relativePointSensesPedestrian(TILE_MAP) != null)) { 
+      locateSensors((float) Math.cos(getDirection()), (float) Math.sin(getDirection()));
+      for (int i = 0; i < turningSensors.length; i++) {
+        if (sensorIsTriggered(i, false)) { 
           g.setColor(Color.white);
-          g.fillOval(sensorLocation.x-ConfigValues.viewportX, sensorLocation.y-ConfigValues.viewportY, 4, 4);
+          g.fillOval(sensorX[i]-ConfigValues.viewportX, sensorY[i]-ConfigValues.viewportY, 4, 4);
         } else {
           g.setColor(Color.green);
-          g.fillOval(sensorLocation.x-ConfigValues.viewportX, sensorLocation.y-ConfigValues.viewportY, 2, 2);
+          g.fillOval(sensorX[i]-ConfigValues.viewportX, sensorY[i]-ConfigValues.viewportY, 2, 2);
         }
         
       }
@@ -686,62 +899,29 @@ public class Pedestrian extends Circle implements Renderable, Mover {
     }
   }
   
-  /** This class implements a simple obstacle sensor, used to tell the Pedestrian when an obstacle is encountered. */
-  private class ObstacleSensor {
+  /** This class describes a simple obstacle sensor, used to tell the Pedestrian when an obstacle is encountered. Where the sensor is, and
+   * whether it senses anything, is worked out by the Pedestrian for all of their sensors at once (see locateSensors()).
+   */
+  private static class ObstacleSensor {
     
-    /** The Pedestrian associated with this ObstacleSensor. */
-    private Pedestrian pedestrian;
     private float rx, ry;
     private float speedMultiplier;
     private float turnRate;
     
     /** Builds a new obstacle sensor.
      * 
-     * @param ped the Pedestrian who owns this sensor.
      * @param relativeX the x-coordinate of the position relative to the Pedestrian's center point and direction of travel
      * @param relativeY the y-coordinate of the position relative to the Pedestrian's center point, and direction of travel
      * @param turnRate the rate at which the Pedestrian should turn when this sensor indicates an obstacle
      * @param speedMultiplier the speed multiplier applied to the Pedestrian's speed, when this sensor indicates an obstacle
      */
-    public ObstacleSensor(Pedestrian ped, float relativeX, float relativeY, float turnRate, float speedMultiplier) {
-      this.pedestrian = ped;
+    public ObstacleSensor(float relativeX, float relativeY, float turnRate, float speedMultiplier) {
       this.rx = relativeX;
       this.ry = relativeY;
       this.turnRate = turnRate;
       this.speedMultiplier = speedMultiplier;
     }
     
-    /** Gets whether or not the PedestrianTileBasedMap tile is blocked, or open.
-     * 
-     * @param tileMap the PedestrianTileBasedMap to use
-     * @return true, if the corresponding tile is blocked, false if it is open.
-     */
-    public boolean relativeTileIsBlocked(PedestrianTileBasedMap tileMap) {
-      Point2D.Float relativePoint = pedestrian.getRelativePointFromCenter(rx, ry);
-      
-      return (tileMap.blocked(null, (int) (relativePoint.x/ConfigValues.TILE_SIZE), (int) (relativePoint.y/ConfigValues.TILE_SIZE)));
-    }
-    
-    /** Gets whether or not this sensor senses a Pedestrian.
-     * 
-     * @param tileMap the PedestrianTileBasedMap to use, to get the TileState, and the resulting list of Pedestrians in that tile
-     * @return true if a Pedestrian is detected, false otherwise.
-     */
-    public Pedestrian relativePointSensesPedestrian(PedestrianTileBasedMap tileMap) {
-      Pedestrian thePedestrianSensed = null;
-      Point2D.Float relativePoint = pedestrian.getRelativePointFromCenter(rx, ry);
-      LinkedList<Pedestrian> peds = tileMap.getTileStateAt((int) (relativePoint.x/ConfigValues.TILE_SIZE), (int) (relativePoint.y/ConfigValues.TILE_SIZE)).getRegisteredPedestrians();
-      
-      for (Pedestrian p : peds) {
-        if (Math.hypot(relativePoint.x - p.getCenterX(), relativePoint.y - p.getCenterY()) <= ConfigValues.PEDESTRIAN_RADIUS) {
-          thePedestrianSensed = p;
-          break;
-        }
-      }
-      
-      return thePedestrianSensed;
-    }
-    
   }
 
 }
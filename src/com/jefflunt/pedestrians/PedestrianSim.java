@@ -3,10 +3,10 @@ package com.jefflunt.pedestrians;
 import java.awt.Point;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 
 import org.newdawn.slick.BasicGame;
@@ -20,19 +20,56 @@ import org.newdawn.slick.gui.AbstractComponent;
 import org.newdawn.slick.gui.ComponentListener;
 import org.newdawn.slick.gui.MouseOverArea;
 import org.newdawn.slick.util.Log;
+import org.newdawn.slick.util.pathfinding.PathFinder;
 
+import com.jefflunt.pedestrians.pathfinding.AnyAnglePathFinder;
+import com.jefflunt.pedestrians.pathfinding.CachingPathFinder;
+import com.jefflunt.pedestrians.pathfinding.CompactPath;
+import com.jefflunt.pedestrians.pathfinding.FlowFieldCache;
+import com.jefflunt.pedestrians.pathfinding.HierarchicalPathFinder;
+import com.jefflunt.pedestrians.pathfinding.IncrementalPathFinder;
+import com.jefflunt.pedestrians.pathfinding.JumpPointPathFinder;
+import com.jefflunt.pedestrians.pathfinding.LandmarkHeuristic;
+import com.jefflunt.pedestrians.pathfinding.PathFinderFactory;
+import com.jefflunt.pedestrians.pathfinding.PathRequest;
+import com.jefflunt.pedestrians.pathfinding.PathRequestService;
+import com.jefflunt.pedestrians.pathfinding.PathSearchScheduler;
 import com.jefflunt.pedestrians.pathfinding.PedestrianPathFinder;
 import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+import com.jefflunt.pedestrians.pathfinding.TileMapJournal;
+import com.jefflunt.pedestrians.pathfinding.TileMapListener;
 
 /** The Pedestrian Simulation that handles the initial simulation state, logic, and rendering. */
-public class PedestrianSim extends BasicGame implements ComponentListener {
+public class PedestrianSim extends BasicGame implements ComponentListener, TileMapListener {
+  
+  /** The farthest a Pedestrian will wander to, in tiles. */
+  private static final int WANDER_RADIUS = 40;
   
   private GameContainer gc;
   
   private LinkedList<Pedestrian> peds;
-  private PedestrianPathFinder pathFinder;
+  private PathFinder pathFinder;
+  /** Every path cache in use - one per path finder, so one per path finding thread when there are any. */
+  private ArrayList<CachingPathFinder> pathCaches = new ArrayList<CachingPathFinder>();
+  private PathRequestService pathRequests;
+  private PathSearchScheduler pathSearches;
+  private FlowFieldCache flowFields;
+  private Point[] flowFieldDestinations;
+  private IncrementalPathFinder replanner;
+  private LandmarkHeuristic landmarks;
+  private HashSet<Integer> tilesBlockedSinceLastReplan;
   private PedestrianTileBasedMap tileMap;
+  private TileMapJournal tileMapJournal;
   private long nextTileMapSaveTime;
+  private long nextPedestrianAutosaveTime;
+  /** Writes the tile map and the pedestrians to disk, off the game thread. */
+  private SnapshotWriter snapshotWriter;
+  /** Whether or not a snapshot of the pedestrians is waiting to be (or being) written. */
+  private volatile boolean savingPedestrians;
+  /** Whether or not the game is waiting for its snapshots to be written, before it exits. */
+  private boolean quitting;
+  /** Works out what every Pedestrian's sensors sense, all at once, before they move. */
+  private SensorKernel sensorKernel = new SensorKernel();
   private static Image[] images;
   
   private MouseOverArea quitButton;
@@ -49,6 +86,8 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
     super(title);
     
     nextTileMapSaveTime = System.currentTimeMillis() + ConfigValues.millisBetweenTilemapSaves;
+    nextPedestrianAutosaveTime = System.currentTimeMillis() + ConfigValues.millisBetweenPedestrianAutosaves;
+    snapshotWriter = new SnapshotWriter();
   }
   
   /** Gets the tile map used by this instance of the simulation.
@@ -90,26 +129,45 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
     }
   }
   
-  /** Saves all the states of all the pedestrians in the simulation. */
+  /** Takes a snapshot of the states of all the pedestrians in the simulation, and saves it on the snapshot writer's thread. */
   private void savePedestriansState() {
-    try {
-      ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("pedestrian.state"));
-      
-      oos.writeInt(peds.size());
-      for (Pedestrian ped : peds) {
-        ped.save(oos);
+    final PedestrianSnapshot snapshot = new PedestrianSnapshot(peds);
+    savingPedestrians = true;
+    snapshotWriter.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          snapshot.save("pedestrian.state");
+        } catch (IOException ioEx) {
+          Log.error(ioEx);
+        } finally {
+          savingPedestrians = false;
+        }
       }
-      
-      oos.close();
-    } catch (IOException ioEx) {
-      Log.info(ioEx.getStackTrace().toString());
-      System.exit(1);
+    });
+  }
+  
+  /** Saves the pedestrians if it's time for an autosave, and the last one has been written. */
+  private void autosavePedestriansIfNecessary() {
+    if ((ConfigValues.millisBetweenPedestrianAutosaves > 0) && (System.currentTimeMillis() > nextPedestrianAutosaveTime)) {
+      if (!savingPedestrians) {
+        savePedestriansState();
+      }
+      nextPedestrianAutosaveTime = System.currentTimeMillis() + ConfigValues.millisBetweenPedestrianAutosaves;
     }
   }
   
-  /** Exits the game normally. */
+  /** Starts saving the game, and exits once everything has been written. The game keeps rendering (with the "Saving" notice up) while the
+   * snapshots are written.
+   */
   private void quitGame() {
-    System.exit(0);
+    savePedestriansState();
+    try {
+      tileMapJournal.compact();
+    } catch (IOException ioEx) {
+      Log.error(ioEx);
+    }
+    quitting = true;
   }
   
   /** Restores the game state from disk, or creates a new game with default values.
@@ -123,9 +181,59 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
       tileMap = new PedestrianTileBasedMap(100, 100);
       tileMap.randomizeObstacles();
     }
+    if (tileMapJournal != null) {
+      tileMapJournal.detach();
+    }
+    tileMapJournal = new TileMapJournal(tileMap, "default.tilemap", ConfigValues.tileMapJournalCompactionEdits, snapshotWriter);
     
     Pedestrian.setGlobalTileMap(tileMap);
-    pathFinder = new PedestrianPathFinder(tileMap, ConfigValues.pathFindingMaxSearchDepth, true);
+    if (pathRequests != null) {
+      pathRequests.shutdown();
+      pathRequests = null;
+    }
+    pathCaches.clear();
+    if (landmarks != null) {
+      landmarks.shutdown();
+      landmarks = null;
+    }
+    // whatever the last game state searched with belongs to the old map, and the branches below only set up what this mode needs
+    pathSearches = null;
+    pathFinder = null;
+    flowFields = null;
+    flowFieldDestinations = null;
+    replanner = null;
+    tilesBlockedSinceLastReplan = null;
+    if (usesAStar() && (ConfigValues.landmarkCount > 0) && tileMap.isIndexed()) {
+      landmarks = new LandmarkHeuristic(tileMap, ConfigValues.landmarkCount, "default.landmarks");
+    }
+    if (ConfigValues.navigationMode == ConfigValues.NAVIGATION_FLOW_FIELDS) {
+      flowFields = new FlowFieldCache(tileMap, ConfigValues.flowFieldCacheBytes);
+      flowFieldDestinations = new Point[ConfigValues.flowFieldDestinations];
+    } else if (ConfigValues.pathFindingThreads > 0) {
+      final PedestrianTileBasedMap searchedMap = tileMap;
+      pathRequests = new PathRequestService(tileMap, new PathFinderFactory() {
+        @Override
+        public PathFinder createPathFinder() {
+          return createCachedPathFinder(searchedMap);
+        }
+      }, ConfigValues.pathFindingThreads);
+    } else if (ConfigValues.pathFindingBudgetMicros > 0) {
+      if (landmarks != null) {
+        pathSearches = new PathSearchScheduler(tileMap, ConfigValues.pathFindingMaxSearchDepth, ConfigValues.maxActivePathSearches, landmarks);
+      } else {
+        pathSearches = new PathSearchScheduler(tileMap, ConfigValues.pathFindingMaxSearchDepth, ConfigValues.maxActivePathSearches);
+      }
+    } else {
+      pathFinder = createCachedPathFinder(tileMap);
+    }
+    
+    if ((ConfigValues.navigationMode == ConfigValues.NAVIGATION_PATHS) && (ConfigValues.replanMaxGoals > 0)) {
+      // a goal's first broken path is found afresh, and only goals whose paths keep breaking get a search tree of their own
+      replanner = new IncrementalPathFinder(tileMap, ConfigValues.pathFindingMaxSearchDepth, ConfigValues.replanMaxGoals,
+                                            createPathFinder(tileMap));
+      tilesBlockedSinceLastReplan = new HashSet<Integer>();
+      tileMap.addTileMapListener(this);
+    }
     
     if ((new File("pedestrian.state")).exists()) {
       Log.info("Loading pedestrians from disk...");
@@ -138,6 +246,62 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
     tileMap.resetAllCongestionValues();
   }
   
+  /** Whether paths are found by plain A* - either by the time-sliced search scheduler, or by PedestrianPathFinder as the selected
+   * path finder - which is the only search the landmark heuristic guides. The landmark tables take 2 bytes per tile for each landmark, and
+   * are rebuilt after every edit, so they're only built when something will read them.
+   */
+  private boolean usesAStar() {
+    if (ConfigValues.navigationMode != ConfigValues.NAVIGATION_PATHS) {
+      return false;
+    }
+    if ((ConfigValues.pathFindingThreads == 0) && (ConfigValues.pathFindingBudgetMicros > 0)) {
+      return true;
+    }
+    // anything createPathFinder() doesn't recognize gets A* too
+    return ((ConfigValues.pathFinderType != ConfigValues.PATH_FINDER_JUMP_POINT) &&
+            (ConfigValues.pathFinderType != ConfigValues.PATH_FINDER_HIERARCHICAL) &&
+            (ConfigValues.pathFinderType != ConfigValues.PATH_FINDER_ANY_ANGLE));
+  }
+  
+  /** Creates a path finder for the given map, wrapped in a path cache if ConfigValues.pathCacheCapacity allows for one. When there is
+   * more than one path finder (i.e. one per path finding thread), each gets its own cache of that capacity, and the F1 overlay shows the
+   * counters of all of them added together.
+   * 
+   * @param tileMap the map that the path finder will search
+   * @return a new path finder for the given map
+   */
+  private PathFinder createCachedPathFinder(PedestrianTileBasedMap tileMap) {
+    PathFinder finder = createPathFinder(tileMap);
+    if (ConfigValues.pathCacheCapacity > 0) {
+      CachingPathFinder pathCache = new CachingPathFinder(finder, tileMap, ConfigValues.pathCacheCapacity);
+      pathCaches.add(pathCache);
+      finder = pathCache;
+    }
+    
+    return finder;
+  }
+  
+  /** Creates the kind of path finder selected by ConfigValues.pathFinderType.
+   * 
+   * @param tileMap the map that the path finder will search
+   * @return a new path finder for the given map
+   */
+  private PathFinder createPathFinder(PedestrianTileBasedMap tileMap) {
+    switch (ConfigValues.pathFinderType) {
+      case ConfigValues.PATH_FINDER_JUMP_POINT:
+        return new JumpPointPathFinder(tileMap, ConfigValues.pathFindingMaxSearchDepth);
+      case ConfigValues.PATH_FINDER_HIERARCHICAL:
+        return new HierarchicalPathFinder(tileMap);
+      case ConfigValues.PATH_FINDER_ANY_ANGLE:
+        return new AnyAnglePathFinder(tileMap, ConfigValues.pathFindingMaxSearchDepth);
+      default:
+        if (landmarks != null) {
+          return new PedestrianPathFinder(tileMap, ConfigValues.pathFindingMaxSearchDepth, true, landmarks);
+        }
+        return new PedestrianPathFinder(tileMap, ConfigValues.pathFindingMaxSearchDepth, true);
+    }
+  }
+  
   /** Sets up the UI components and event listeners. */
   public void initUI(GameContainer container) {
     Log.info("Setting up UI components, buttons, and listeners");
@@ -165,7 +329,11 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
     peds = new LinkedList<Pedestrian>();
     
     for (int i = 0; i < ConfigValues.totalPedestrians; i++) {
-      Point randomOpenTile = tileMap.getRandomOpenTile();
+      Point randomOpenTile = tileMap.getRandomReachableTile();
+      if (randomOpenTile == null) {
+        Log.warn("Every tile on the map is blocked, so there's nowhere to put any Pedestrians");
+        break;
+      }
       peds.add(new Pedestrian((randomOpenTile.x*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2),
                               (randomOpenTile.y*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2),
                                container));
@@ -177,7 +345,6 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
     if (source == quitButton) {
       ConfigValues.simPaused = true;
       ConfigValues.renderSavingPedsNotice = true;
-      savePedestriansState();
       quitGame();
     } else if (source == playButton) {
       ConfigValues.simPaused = false;
@@ -188,70 +355,264 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
       playButton.setAcceptingInput(!playButton.isAcceptingInput());
       pauseButton.setAcceptingInput(!playButton.isAcceptingInput());
     } else if (source == addPedButton)  {
-      Point randomOpenTile = tileMap.getRandomOpenTile();
-      peds.add(new Pedestrian((randomOpenTile.x*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2),
-                              (randomOpenTile.y*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2),
-                               gc));
-    } else if (source == removePedButton) {
+      Point randomOpenTile = tileMap.getRandomReachableTile();
+      if (randomOpenTile != null) {
+        peds.add(new Pedestrian((randomOpenTile.x*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2),
+                                (randomOpenTile.y*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2),
+                                 gc));
+      }
+    } else if ((source == removePedButton) && !peds.isEmpty()) {
       peds.removeLast();
     }
   }
   
   @Override
   public void update(GameContainer gc, int delta) throws SlickException {
+    if (quitting) {
+      if (snapshotWriter.isIdle()) {
+        System.exit(0);
+      }
+      return;
+    }
+    
     if (!ConfigValues.simPaused) {
       // if logic updates drop below 33 FPS, this will effectively slow down movement so collision detection is still kept intact
       if (delta > 33)
         delta = 33;
       
       processInput(gc);
-      movePedestrians(delta);
+      tileMap.updatePedestrians(peds);
+      tileMap.updateCongestion(System.currentTimeMillis());
+      if (pathSearches != null) {
+        pathSearches.run(ConfigValues.pathFindingBudgetMicros*1000);
+      }
+      collectCompletedPaths();
+      replanBrokenPaths(gc);
+      movePedestrians(gc, delta);
       saveTileMapIfNecessary();
+      autosavePedestriansIfNecessary();
     }
   }
   
-  /** Checks to see if the tileMap has been marked as changes, and if so, saves an updated copy to disk. */
+  /** Checks to see if the tileMap has been marked as changed, and if so, appends the edits to its journal (which is folded into the tile
+   * map file once it grows long enough). Only the copying happens here; the writing is done by the snapshot writer.
+   */
   private void saveTileMapIfNecessary() {
     if (System.currentTimeMillis() > nextTileMapSaveTime) {
       if (tileMap.isDirty()) {
-        tileMap.save("default.tilemap");
-        tileMap.setDirty(false);
+        try {
+          tileMapJournal.flush();
+          tileMap.setDirty(false);
+        } catch (IOException ioEx) {
+          Log.error(ioEx);
+        }
       }
       
       nextTileMapSaveTime = System.currentTimeMillis() + ConfigValues.millisBetweenTilemapSaves;
     }
   }
   
+  /** Hands the paths found by the background path finders, or by searches spread across ticks, over to the Pedestrians that asked for
+   * them. This happens once per tick, before anyone moves, so a Pedestrian's path never changes part way through a tick.
+   */
+  private void collectCompletedPaths() {
+    PathRequest request;
+    
+    if (pathRequests != null) {
+      while ((request = pathRequests.pollCompleted()) != null) {
+        handOver(request);
+      }
+    }
+    
+    if (pathSearches != null) {
+      while ((request = pathSearches.pollCompleted()) != null) {
+        handOver(request);
+      }
+    }
+  }
+  
+  /** Sends the Pedestrian who asked for a path along it (or leaves them where they are, if no path was found). */
+  private void handOver(PathRequest request) {
+    Pedestrian ped = (Pedestrian) request.getMover();
+    ped.setWaitingForPath(false);
+    ped.headAlongPath(request.getCompactPath(), Pedestrian.WALKING_SPEED);
+  }
+  
+  /** Finds a new path for every Pedestrian whose remaining path runs through (or diagonally past) a tile that has been blocked since the
+   * last time this was called. The replanner keeps its search trees between calls, so a Pedestrian whose path is broken again and again
+   * (e.g. while a wall is being drawn across it) only pays for repairing the part of the tree that changed.
+   * 
+   * @param container the game container, used to tell which Pedestrians are on screen
+   */
+  private void replanBrokenPaths(GameContainer container) {
+    if ((replanner == null) || tilesBlockedSinceLastReplan.isEmpty()) {
+      return;
+    }
+    
+    for (Pedestrian ped : peds) {
+      if (ped.isOnAPathSomewhere() && remainingPathIsBroken(ped)) {
+        CompactPath path = ped.getTargetPath();
+        Point tile = ped.getCoordinatesOfCurrentBlock();
+        CompactPath newPath = replanner.findCompactPath(ped, tile.x, tile.y, path.getTileX(path.getLength()-1), path.getTileY(path.getLength()-1));
+        
+        if (newPath != null) {
+          ped.headAlongPath(newPath, Pedestrian.WALKING_SPEED);
+        } else if (!replanner.ranOutOfExpansions()) {
+          ped.stop();
+        } else if (pathRequests != null) {
+          // there is a way round, the replanner just gave up looking - the Pedestrian carries on along the old path until a new one is
+          // handed over by collectCompletedPaths()
+          ped.setWaitingForPath(true);
+          pathRequests.submit(ped, tile.x, tile.y, path.getTileX(path.getLength()-1), path.getTileY(path.getLength()-1));
+        } else if (pathSearches != null) {
+          ped.setWaitingForPath(true);
+          pathSearches.submit(ped, tile.x, tile.y, path.getTileX(path.getLength()-1), path.getTileY(path.getLength()-1),
+                              isOnScreen(ped, container) ? 1 : 0);
+        }
+        // otherwise the Pedestrian keeps the old path, and the replanner's tree carries on from where it stopped the next time it breaks
+      }
+    }
+    
+    tilesBlockedSinceLastReplan.clear();
+  }
+  
+  /** Checks whether the part of a Pedestrian's path that they haven't walked yet runs through a tile that has just been blocked, or takes a
+   * diagonal step that is no longer allowed.
+   * 
+   * @param ped the Pedestrian, who must be on a path
+   * @return true if the Pedestrian's path needs to be replanned, false otherwise
+   */
+  private boolean remainingPathIsBroken(Pedestrian ped) {
+    CompactPath path = ped.getTargetPath();
+    int width = tileMap.getWidthInTiles();
+    int lastX = -1;
+    int lastY = -1;
+    
+    for (int i = ped.getTargetPathIndex(); i < path.getLength(); i++) {
+      int x = path.getTileX(i);
+      int y = path.getTileY(i);
+      
+      if (tilesBlockedSinceLastReplan.contains((y*width) + x)) {
+        return true;
+      }
+      if ((lastX >= 0) && (x != lastX) && (y != lastY) && tileMap.diagonallyBlocked(null, lastX, lastY, x, y)) {
+        return true;
+      }
+      // any-angle paths have waypoints that aren't next to each other, so check everything in between
+      if ((lastX >= 0) && (Math.max(Math.abs(x - lastX), Math.abs(y - lastY)) > 1) && !tileMap.hasLineOfSight(null, lastX, lastY, x, y)) {
+        return true;
+      }
+      
+      lastX = x;
+      lastY = y;
+    }
+    
+    return false;
+  }
+  
+  @Override
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+    // a map from an earlier game state still has this registered as a listener
+    if (blocked && (map == tileMap) && (tilesBlockedSinceLastReplan != null)) {
+      tilesBlockedSinceLastReplan.add((y*map.getWidthInTiles()) + x);
+    }
+  }
+  
+  @Override
+  public void tileMapReset(PedestrianTileBasedMap map) {
+    if ((map == tileMap) && (tilesBlockedSinceLastReplan != null)) {
+      tilesBlockedSinceLastReplan.clear();
+    }
+  }
+  
   /** Tells the Pedestrians to do their movement.
    * 
+   * @param container the game container, used to tell which Pedestrians are on screen
    * @param delta the amount of time that has elapsed, in milliseconds
    */
-  private void movePedestrians(int delta) {
+  private void movePedestrians(GameContainer container, int delta) {
     for (Pedestrian ped : peds) {
-      if (!ped.isOnAPathSomewhere()) {
-        int randX;
-        int randY;
-        double distancetoWanderTarget;
+      if ((flowFields != null) && !ped.isFollowingFlowField()) {
+        // on a map with every tile blocked there's nowhere to go, and the Pedestrian stays put until a tile is opened
+        Point destination = chooseFlowFieldDestination();
+        if (destination != null) {
+          ped.followFlowField(flowFields.getFlowField(destination.x, destination.y), Pedestrian.WALKING_SPEED);
+        }
+      } else if ((flowFields == null) && !ped.isOnAPathSomewhere() && !ped.isWaitingForPath()) {
+        int pedX = (int) ped.getCenterX()/ConfigValues.TILE_SIZE;
+        int pedY = (int) ped.getCenterY()/ConfigValues.TILE_SIZE;
         
-        do {
-          randX = (int) (Math.random() * tileMap.getWidthInTiles());
-          randY = (int) (Math.random() * tileMap.getHeightInTiles());
-          distancetoWanderTarget = Math.hypot((ped.getCenterX()/ConfigValues.TILE_SIZE)-randX, (ped.getCenterY()/ConfigValues.TILE_SIZE)-randY);
-        } while (distancetoWanderTarget > 40);
+        // only targets the Pedestrian can actually get to are worth searching for. A Pedestrian shut into a small pocket may not find
+        // one, and just stays put until the next tick.
+        Point wanderTarget = tileMap.getRandomReachableTileNear(pedX, pedY, WANDER_RADIUS);
         
-        ped.headAlongPath(pathFinder.findPath(ped, 
-                                              (int) ped.getCenterX()/ConfigValues.TILE_SIZE,
-                                              (int) ped.getCenterY()/ConfigValues.TILE_SIZE, 
-                                              randX, 
-                                              randY), 
-                                              Pedestrian.WALKING_SPEED, 
-                                              true);
+        if (wanderTarget != null) {
+          int randX = wanderTarget.x;
+          int randY = wanderTarget.y;
+          
+          if (pathRequests != null) {
+            // the Pedestrian carries on as they are until the path is handed over by collectCompletedPaths()
+            ped.setWaitingForPath(true);
+            pathRequests.submit(ped, pedX, pedY, randX, randY);
+          } else if (pathSearches != null) {
+            // Pedestrians on screen are searched for first, since they're the ones anyone would notice standing around
+            ped.setWaitingForPath(true);
+            pathSearches.submit(ped, pedX, pedY, randX, randY, isOnScreen(ped, container) ? 1 : 0);
+          } else {
+            ped.headAlongPath(pathFinder.findPath(ped, 
+                                                  (int) ped.getCenterX()/ConfigValues.TILE_SIZE,
+                                                  (int) ped.getCenterY()/ConfigValues.TILE_SIZE, 
+                                                  randX, 
+                                                  randY), 
+                                                  Pedestrian.WALKING_SPEED, 
+                                                  true);
+          }
+        }
+      }
+    }
+    
+    if (ConfigValues.batchSensorEvaluation) {
+      // everyone's sensors are worked out against where everyone is now, which is also what each would sense moving one at a time, since
+      // the PedestrianGrid isn't rebuilt until the next tick
+      sensorKernel.evaluate(peds, tileMap);
+      int i = 0;
+      for (Pedestrian ped : peds) {
+        ped.move(delta, sensorKernel.getTriggeredSensor(i++));
+      }
+    } else {
+      for (Pedestrian ped : peds) {
+        ped.move(delta);
       }
-      
-      ped.move(delta);
     }
   }
   
+  /** Checks whether a Pedestrian is within the part of the map currently shown on screen.
+   * 
+   * @param ped the Pedestrian to check
+   * @param container the game container, which gives the size of the screen
+   * @return true if the Pedestrian is on screen, false otherwise
+   */
+  private boolean isOnScreen(Pedestrian ped, GameContainer container) {
+    return ((ped.getCenterX() >= ConfigValues.viewportX) && 
+            (ped.getCenterY() >= ConfigValues.viewportY) &&
+            (ped.getCenterX() <= ConfigValues.viewportX+container.getWidth()) &&
+            (ped.getCenterY() <= ConfigValues.viewportY+container.getHeight()));
+  }
+  
+  /** Picks one of the shared flow field destinations at random. A destination that has been blocked since it was chosen is replaced with a
+   * new, randomly chosen tile that can be reached from most of the map.
+   * 
+   * @return the (x, y) coordinates of the chosen destination tile, or null if every tile on the map is blocked
+   */
+  private Point chooseFlowFieldDestination() {
+    int i = (int) (Math.random()*flowFieldDestinations.length);
+    if ((flowFieldDestinations[i] == null) || tileMap.blocked(null, flowFieldDestinations[i].x, flowFieldDestinations[i].y)) {
+      flowFieldDestinations[i] = tileMap.getRandomReachableTile();
+    }
+    
+    return flowFieldDestinations[i];
+  }
+  
   /** Processes input from the keyboard and mouse.
    * 
    * @param gc the game container, from which you can get the Input object
@@ -293,11 +654,6 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
     if (input.isKeyDown(Input.KEY_1)) {
       if (input.isKeyDown(Input.KEY_LSHIFT) || input.isKeyDown(Input.KEY_RSHIFT)) {
         regenerateAllPedestrians(gc);
-        for (int x = 0; x < tileMap.getWidthInTiles(); x++) {
-          for (int y = 0; y < tileMap.getHeightInTiles(); y++) {
-            tileMap.getTileStateAt(x, y).clearRegisteredPedestrians();
-          }
-        }
       } 
     }
     
@@ -378,7 +734,7 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
     
     for (int x = startX; x < stopX; x++) {
       for (int y = startY; y < stopY; y++) {
-        if (tileMap.blocked(pathFinder, x, y)) {
+        if (tileMap.blocked(null, x, y)) {
           g.drawImage(images[2], (x*ConfigValues.TILE_SIZE)-ConfigValues.viewportX, (y*ConfigValues.TILE_SIZE)-ConfigValues.viewportY);
         } 
       }
@@ -397,8 +753,8 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
     if (ConfigValues.renderCongestion) {
       for (int x = startX; x < stopX; x++) {
         for (int y = startY; y < stopY; y++) {
-           if (!tileMap.blocked(pathFinder, x, y)) {
-            float congestion = tileMap.getTileStateAt(x, y).getCongestion();
+           if (!tileMap.blocked(null, x, y)) {
+            float congestion = tileMap.getCongestion(x, y);
             
             if (congestion > 1) {
               g.setColor(new Color(0, (int) (20*congestion), 0, 200));
@@ -411,10 +767,28 @@ public class PedestrianSim extends BasicGame implements ComponentListener {
     
     if (ConfigValues.renderSystemInfo) {
       g.setColor(new Color(50, 50, 50, 180));
-      g.fillRect(0, 0, 300, 70);
+      g.fillRect(0, 0, 300, 100);
       g.setColor(Color.white);
       g.drawString("MEM total(used):   " + (Runtime.getRuntime().totalMemory()/1000000) + "(" + ((Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory())/1000000) + ") MB", 10, 25);
-      g.drawString("Ped. history size: " + (peds.size()*peds.get(0).getMovementHistory().size()) + " nodes", 10, 40);
+      g.drawString("Ped. history size: " + (peds.isEmpty() ? 0 : peds.size()*peds.get(0).getMovementHistorySize()) + " nodes", 10, 40);
+      if (!pathCaches.isEmpty()) {
+        long hits = 0, misses = 0, evictions = 0;
+        for (CachingPathFinder pathCache : pathCaches) {
+          hits += pathCache.getHits();
+          misses += pathCache.getMisses();
+          evictions += pathCache.getEvictions();
+        }
+        g.drawString("Path cache h/m/e:  " + hits + "/" + misses + "/" + evictions, 10, 55);
+      }
+      if (flowFields != null) {
+        g.drawString("Flow fields h/m/e:  " + flowFields.getHits() + "/" + flowFields.getMisses() + "/" + flowFields.getEvictions(), 10, 55);
+      }
+      if (pathSearches != null) {
+        g.drawString("Path search p/us:   " + pathSearches.getPendingSearches() + "/" + pathSearches.getMicrosLastRun(), 10, 70);
+      }
+      if (pathRequests != null) {
+        g.drawString("Path queue/avg/max: " + pathRequests.getQueueDepth() + "/" + ((int) pathRequests.getAverageLatencyMillis()) + "/" + ((int) pathRequests.getMaxLatencyMillis()) + " ms", 10, 70);
+      }
     }
     
     if (ConfigValues.renderSavingPedsNotice) {
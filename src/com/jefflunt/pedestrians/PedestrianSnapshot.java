@@ -0,0 +1,112 @@
+package com.jefflunt.pedestrians;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+
+import org.newdawn.slick.Color;
+
+/** A copy of the saved state of a group of Pedestrians, taken at one moment, that can be written to disk later (e.g. on another thread)
+ * while the Pedestrians themselves carry on moving.
+ *
+ * The file written is the same as the one PedestrianSim has always written: the number of Pedestrians, followed by what Pedestrian.save()
+ * writes for each of them, so it's read back with the Pedestrian(ObjectInputStream, GameContainer) constructor.
+ */
+public class PedestrianSnapshot {
+
+  /** The number of Pedestrians in the snapshot. */
+  private int size;
+  /** For each Pedestrian: x, y, targetX, targetY, direction and speed, one after the other. */
+  private float[] floats;
+  /** For each Pedestrian: unique ID, and the red, green and blue of the render color, one after the other. */
+  private int[] ints;
+  /** The name of each Pedestrian. */
+  private String[] names;
+
+  /** Takes a snapshot of some Pedestrians. This is a copy of a few values from each of them, so it's cheap enough to do on the game thread.
+   *
+   * @param peds the Pedestrians
+   */
+  public PedestrianSnapshot(Collection<Pedestrian> peds) {
+    floats = new float[peds.size()*6];
+    ints = new int[peds.size()*4];
+    names = new String[peds.size()];
+
+    for (Pedestrian ped : peds) {
+      int f = size*6;
+      floats[f]     = ped.getX();
+      floats[f + 1] = ped.getY();
+      floats[f + 2] = ped.getTargetX();
+      floats[f + 3] = ped.getTargetY();
+      floats[f + 4] = ped.getDirection();
+      floats[f + 5] = ped.getSpeed();
+
+      int i = size*4;
+      Color color = ped.getRenderColor();
+      ints[i]     = ped.getUniqueID();
+      ints[i + 1] = color.getRed();
+      ints[i + 2] = color.getGreen();
+      ints[i + 3] = color.getBlue();
+
+      names[size] = ped.getName();
+      size++;
+    }
+  }
+
+  /** Gets the number of Pedestrians in the snapshot. */
+  public int size() {
+    return size;
+  }
+
+  /** Writes the snapshot in the format Pedestrian.save() uses.
+   *
+   * @param oos the stream to write to
+   * @throws IOException if the stream can't be written to
+   */
+  public void save(ObjectOutputStream oos) throws IOException {
+    oos.writeInt(size);
+    for (int ped = 0; ped < size; ped++) {
+      int f = ped*6;
+      int i = ped*4;
+
+      oos.writeFloat(floats[f]);
+      oos.writeFloat(floats[f + 1]);
+      oos.writeFloat(floats[f + 2]);
+      oos.writeFloat(floats[f + 3]);
+
+      oos.writeInt(ints[i]);
+      oos.writeObject(names[ped]);
+
+      oos.writeInt(ints[i + 1]);
+      oos.writeInt(ints[i + 2]);
+      oos.writeInt(ints[i + 3]);
+
+      oos.writeFloat(floats[f + 4]);
+      oos.writeFloat(floats[f + 5]);
+    }
+  }
+
+  /** Writes the snapshot to a file. The file is written under another name, synced to disk, and then renamed over the old one, so a crash
+   * part way through leaves the old file as it was.
+   *
+   * @param filename the file to write
+   * @throws IOException if the file can't be written
+   */
+  public void save(String filename) throws IOException {
+    File temporary = new File(filename + ".tmp");
+    FileOutputStream fileOut = new FileOutputStream(temporary);
+    try {
+      ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fileOut));
+      save(oos);
+      oos.flush();
+      fileOut.getFD().sync();
+    } finally {
+      fileOut.close();
+    }
+    SnapshotWriter.replaceFile(temporary, new File(filename));
+  }
+
+}
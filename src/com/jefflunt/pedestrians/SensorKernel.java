@@ -0,0 +1,164 @@
+package com.jefflunt.pedestrians;
+
+import java.util.List;
+
+import com.jefflunt.pedestrians.pathfinding.ObstacleDistanceField;
+import com.jefflunt.pedestrians.pathfinding.PedestrianGrid;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+import com.jefflunt.pedestrians.pathfinding.TileStorage;
+
+/** Works out what every Pedestrian's turning sensors sense, for all of the Pedestrians at once, so that each stage is a tight loop over
+ * primitive arrays rather than a virtual call per Pedestrian per sensor.
+ *
+ * evaluate() runs in three passes:
+ *
+ * <ol>
+ *   <li>gather - the center, and the cosine and sine of the direction of travel, of every Pedestrian, into flat arrays</li>
+ *   <li>transform - the position of every sensor of every Pedestrian, one sensor at a time across all the Pedestrians, so each inner loop
+ *       is the same multiply-and-add over consecutive floats (which the JIT can turn into vector instructions)</li>
+ *   <li>probe - for each Pedestrian that is going somewhere, the first sensor over a blocked tile or another Pedestrian</li>
+ * </ol>
+ *
+ * The positions are worked out with the same arithmetic, in the same order, as Pedestrian.move() uses, so the sensor each Pedestrian
+ * steers by is the same either way; the result for each Pedestrian is handed to Pedestrian.move(long, int). The arrays are only ever grown,
+ * so once the number of Pedestrians has settled down, evaluate() allocates nothing.
+ */
+public class SensorKernel {
+
+  /** The number of Pedestrians evaluated. */
+  private int size;
+  /** The number of Pedestrians the arrays have room for. */
+  private int capacity;
+
+  /** The x-coordinate of each Pedestrian's center. */
+  private float[] centerX;
+  /** The y-coordinate of each Pedestrian's center. */
+  private float[] centerY;
+  /** The cosine of each Pedestrian's direction of travel. */
+  private float[] cos;
+  /** The sine of each Pedestrian's direction of travel. */
+  private float[] sin;
+  /** Whether each Pedestrian is going anywhere - those that aren't don't steer, so their sensors aren't probed. */
+  private boolean[] moving;
+
+  /** The x-coordinate of every sensor, sensor by sensor: sensor s of Pedestrian i is at s*capacity + i. */
+  private float[] sensorX;
+  /** The y-coordinate of every sensor, laid out as sensorX is. */
+  private float[] sensorY;
+  /** The first sensor of each Pedestrian that senses something, or -1 if none do. */
+  private int[] triggered;
+
+  /** Creates a kernel with no Pedestrians evaluated. */
+  public SensorKernel() {
+    ensureCapacity(0);
+  }
+
+  /** Grows the arrays to hold at least the given number of Pedestrians. */
+  private void ensureCapacity(int needed) {
+    if ((centerX != null) && (needed <= capacity)) {
+      return;
+    }
+
+    capacity = Math.max(needed, capacity + (capacity >> 1));
+    centerX = new float[capacity];
+    centerY = new float[capacity];
+    cos = new float[capacity];
+    sin = new float[capacity];
+    moving = new boolean[capacity];
+    sensorX = new float[capacity*Pedestrian.NUMBER_OF_SENSORS];
+    sensorY = new float[capacity*Pedestrian.NUMBER_OF_SENSORS];
+    triggered = new int[capacity];
+  }
+
+  /** Works out what every Pedestrian's sensors sense, where they are now. The map's PedestrianGrid should be up to date for this tick.
+   *
+   * @param peds the Pedestrians, whose results are then found by their position in this list
+   * @param map the map they're on
+   */
+  public void evaluate(List<Pedestrian> peds, PedestrianTileBasedMap map) {
+    size = peds.size();
+    ensureCapacity(size);
+
+    gather(peds);
+    transform();
+    probe(map.getTileStorage(), map.getObstacleDistanceField(), map.getPedestrianGrid(), peds);
+  }
+
+  /** Copies what the later passes need out of each Pedestrian. */
+  private void gather(List<Pedestrian> peds) {
+    int i = 0;
+    for (Pedestrian ped : peds) {
+      float direction = ped.getDirection();
+      centerX[i] = ped.getCenterX();
+      centerY[i] = ped.getCenterY();
+      cos[i] = (float) Math.cos(direction);
+      sin[i] = (float) Math.sin(direction);
+      moving[i] = !ped.hasReachedDestination();
+      i++;
+    }
+  }
+
+  /** Works out the position of every sensor. */
+  private void transform() {
+    for (int s = 0; s < Pedestrian.NUMBER_OF_SENSORS; s++) {
+      float rx = Pedestrian.SENSOR_X[s];
+      float ry = Pedestrian.SENSOR_Y[s];
+      int offset = s*capacity;
+
+      for (int i = 0; i < size; i++) {
+        sensorX[offset + i] = centerX[i] + (rx*cos[i]) - (ry*sin[i]);
+        sensorY[offset + i] = centerY[i] + (rx*sin[i]) + (ry*cos[i]);
+      }
+    }
+  }
+
+  /** Finds the first sensor of each moving Pedestrian that's over a blocked tile or another Pedestrian. Pedestrians out in the open,
+   * whose sensors can't reach a blocked tile, only look for other Pedestrians. Without a distance field (on a map too big to keep one for),
+   * every sensor checks its tile.
+   */
+  private void probe(TileStorage tiles, ObstacleDistanceField field, PedestrianGrid grid, List<Pedestrian> peds) {
+    int i = 0;
+    for (Pedestrian ped : peds) {
+      triggered[i] = -1;
+      if (moving[i]) {
+        boolean clear = (field != null) && field.hasClearance((int) (centerX[i]/ConfigValues.TILE_SIZE),
+                                                              (int) (centerY[i]/ConfigValues.TILE_SIZE), Pedestrian.SENSOR_REACH);
+        for (int s = 0, sensor = i; s < Pedestrian.NUMBER_OF_SENSORS; s++, sensor += capacity) {
+          float x = sensorX[sensor];
+          float y = sensorY[sensor];
+          if ((!clear && tiles.isBlocked((int) (x/ConfigValues.TILE_SIZE), (int) (y/ConfigValues.TILE_SIZE)))
+              || (grid.findPedestrianNear(x, y, ConfigValues.PEDESTRIAN_RADIUS, ped) != null)) {
+            triggered[i] = s;
+            break;
+          }
+        }
+      }
+      i++;
+    }
+  }
+
+  /** Gets the number of Pedestrians evaluated by the last call to evaluate(). */
+  public int size() {
+    return size;
+  }
+
+  /** Gets the first sensor that senses something, of a Pedestrian evaluated by the last call to evaluate().
+   *
+   * @param index the Pedestrian's position in the list handed to evaluate()
+   * @return the sensor, or -1 if none of them sense anything (or the Pedestrian isn't going anywhere)
+   */
+  public int getTriggeredSensor(int index) {
+    return triggered[index];
+  }
+
+  /** Gets the x-coordinate of one of the sensors of a Pedestrian evaluated by the last call to evaluate(). */
+  public float getSensorX(int index, int sensor) {
+    return sensorX[(sensor*capacity) + index];
+  }
+
+  /** Gets the y-coordinate of one of the sensors of a Pedestrian evaluated by the last call to evaluate(). */
+  public float getSensorY(int index, int sensor) {
+    return sensorY[(sensor*capacity) + index];
+  }
+
+}
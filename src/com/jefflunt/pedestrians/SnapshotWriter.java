@@ -0,0 +1,121 @@
+package com.jefflunt.pedestrians;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.newdawn.slick.util.Log;
+
+/** Writes snapshots of the simulation to disk on a background thread, so the game loop only pays for taking them.
+ *
+ * A snapshot is taken on the game thread, at the end of a tick, as a copy (or a copy-on-write view) of whatever is to be saved; the job that
+ * serializes it is then handed to execute(), and runs on this writer's thread. Jobs run one at a time, in the order they were handed over,
+ * so a job that depends on an earlier one (e.g. appending to a journal after the file it belongs to has been rewritten) can rely on it
+ * having finished. A job that throws is logged, and doesn't stop the ones after it.
+ */
+public class SnapshotWriter implements Executor {
+
+  /** Jobs that haven't been run yet. */
+  private LinkedBlockingQueue<Runnable> queue;
+  /** The number of jobs that have been handed over, but haven't finished. */
+  private AtomicInteger outstanding;
+  /** The thread the jobs run on. */
+  private Thread thread;
+  /** Whether or not shutdown() has been called. */
+  private volatile boolean shutDown;
+
+  /** Creates a new SnapshotWriter, and starts its thread. */
+  public SnapshotWriter() {
+    queue = new LinkedBlockingQueue<Runnable>();
+    outstanding = new AtomicInteger();
+
+    thread = new Thread(new Worker(), "snapshot-writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Hands over a job to be run on the writer's thread. This returns immediately.
+   *
+   * @param job the job, which must only use state that the game thread won't change while it runs
+   */
+  @Override
+  public void execute(Runnable job) {
+    outstanding.incrementAndGet();
+    queue.add(job);
+  }
+
+  /** Gets whether every job that has been handed over has finished. */
+  public boolean isIdle() {
+    return (outstanding.get() == 0);
+  }
+
+  /** Waits for every job that has been handed over to finish.
+   *
+   * @param timeoutMillis the longest to wait, in milliseconds
+   * @return true if they all finished, false if the time ran out (or the waiting thread was interrupted) first
+   */
+  public boolean awaitIdle(long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (!isIdle()) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException intEx) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Stops the writer's thread once the job it's running (if any) has finished. Jobs that haven't started yet are dropped. */
+  public void shutdown() {
+    shutDown = true;
+    thread.interrupt();
+  }
+
+  /** Renames a file over another one. The rename is atomic where the file system allows it (as POSIX file systems do); where it doesn't
+   * allow renaming over an existing file, the old file is deleted first.
+   *
+   * @param from the file to rename
+   * @param to the file to replace
+   * @throws IOException if the file couldn't be renamed
+   */
+  public static void replaceFile(File from, File to) throws IOException {
+    if (!from.renameTo(to)) {
+      to.delete();
+      if (!from.renameTo(to)) {
+        throw new IOException("Couldn't rename " + from + " to " + to);
+      }
+    }
+  }
+
+  /** Runs the jobs, one at a time, until the writer is shut down. */
+  private class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      while (!shutDown) {
+        Runnable job;
+        try {
+          job = queue.take();
+        } catch (InterruptedException intEx) {
+          continue;
+        }
+
+        try {
+          job.run();
+        } catch (RuntimeException rtEx) {
+          Log.error(rtEx);
+        } finally {
+          outstanding.decrementAndGet();
+        }
+      }
+    }
+
+  }
+
+}
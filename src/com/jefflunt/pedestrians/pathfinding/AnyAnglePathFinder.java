@@ -0,0 +1,290 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.Arrays;
+
+import org.newdawn.slick.util.pathfinding.Mover;
+import org.newdawn.slick.util.pathfinding.Path;
+import org.newdawn.slick.util.pathfinding.PathFinder;
+import org.newdawn.slick.util.pathfinding.PathFindingContext;
+
+/** A path finder that finds any-angle paths, using Theta*.
+ *
+ * A path on the grid can only turn in multiples of 45 degrees, so a Pedestrian following one zig-zags towards anything that isn't straight
+ * along a row, column or diagonal, and has a waypoint at every tile along the way. Theta* searches the same grid as A*, but whenever a
+ * tile's neighbour can be seen in a straight line from the tile's own parent, the neighbour is given that parent instead - so the path cuts
+ * straight across open ground, and only has waypoints at the corners of obstacles. Line of sight is checked with
+ * {@link ExtendedTileBasedMap#hasLineOfSight}, which follows the same rule about diagonal corners as a diagonal step does.
+ *
+ * Costs are straight-line distances in tiles, and only obstacles are taken into account - the cost of a long, straight segment can't
+ * fairly be charged by the congestion of the tiles at its ends, so congestion is left to the Pedestrians to steer around as they walk.
+ *
+ * The paths returned are in tiles, but consecutive waypoints are usually not next to each other.
+ *
+ * As in JumpPointPathFinder, the search state of each tile is kept in chunks, numbered by a ChunkedTileIndex, and a chunk is only allocated
+ * the first time a search reaches one of its tiles.
+ */
+public class AnyAnglePathFinder implements PathFinder, PathFindingContext {
+
+  /** The cost multiplier for a diagonal step. */
+  private static final float SQRT2 = (float) Math.sqrt(2);
+  /** The number of bits of a tile index that give its position within its chunk. */
+  private static final int SHIFT = ChunkedTileIndex.CHUNK_AREA_SHIFT;
+  /** Masks the position within a chunk out of a tile index. */
+  private static final int MASK = ChunkedTileIndex.CHUNK_AREA_MASK;
+
+  /** The map being searched. */
+  private ExtendedTileBasedMap map;
+  /** The maximum number of nodes that will be expanded before giving up. */
+  private int maxSearchDistance;
+  /** Numbers the tiles of the map, in the chunks their search state is kept in. */
+  private ChunkedTileIndex tiles;
+
+  /** The best known cost of reaching each tile, in the current search, by chunk. */
+  private float[][] cost;
+  /** The tile each tile was reached from, in the current search, or -1 for the start tile, by chunk. */
+  private int[][] parent;
+  /** The search depth of each tile, in the current search, by chunk. */
+  private int[][] depth;
+  /** Whether each tile has been expanded, in the current search, by chunk. */
+  private boolean[][] closed;
+  /** The search generation in which each tile's state was last reset, by chunk. Null until a search first reaches the chunk. */
+  private int[][] generation;
+  /** The generation of the current search. */
+  private int searchGeneration;
+  /** The open list. */
+  private TileHeap open;
+  /** The line walked to check for line of sight, reset for every check. */
+  private GridLine line = new GridLine(0, 0, 0, 0);
+
+  /** The mover going through the path. */
+  private Mover mover;
+  /** The x coordinate of the tile currently being evaluated from. */
+  private int sourceX;
+  /** The y coordinate of the tile currently being evaluated from. */
+  private int sourceY;
+  /** The search depth of the tile currently being expanded. */
+  private int distance;
+  /** The x coordinate of the target of the current search. */
+  private int targetX;
+  /** The y coordinate of the target of the current search. */
+  private int targetY;
+
+  /** Creates a new AnyAnglePathFinder.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum number of nodes that will be expanded before giving up
+   */
+  public AnyAnglePathFinder(ExtendedTileBasedMap map, int maxSearchDistance) {
+    this.map = map;
+    this.maxSearchDistance = maxSearchDistance;
+
+    tiles = new ChunkedTileIndex(map.getWidthInTiles(), map.getHeightInTiles());
+    int chunks = tiles.getNumberOfChunks();
+
+    cost = new float[chunks][];
+    parent = new int[chunks][];
+    depth = new int[chunks][];
+    closed = new boolean[chunks][];
+    generation = new int[chunks][];
+    open = new TileHeap(tiles.getCapacity());
+  }
+
+  /**
+   * @see PathFinder#findPath(Mover, int, int, int, int)
+   */
+  public Path findPath(Mover mover, int sx, int sy, int tx, int ty) {
+    CompactPath path = findCompactPath(mover, sx, sy, tx, ty);
+    return ((path == null) ? null : path.toPath());
+  }
+
+  /** Finds an any-angle path from one tile to another.
+   *
+   * @param mover the mover going through the path
+   * @param sx the x-coordinate of the start tile
+   * @param sy the y-coordinate of the start tile
+   * @param tx the x-coordinate of the target tile
+   * @param ty the y-coordinate of the target tile
+   * @return the waypoints of the path, in tiles, starting with the start tile and ending with the target tile, or null if no path was found
+   */
+  public CompactPath findCompactPath(Mover mover, int sx, int sy, int tx, int ty) {
+    this.mover = mover;
+    this.sourceX = sx;
+    this.sourceY = sy;
+    this.distance = 0;
+    this.targetX = tx;
+    this.targetY = ty;
+
+    if (!tiles.contains(sx, sy) || map.blocked(this, tx, ty) || !map.reachable(this, sx, sy, tx, ty)) {
+      return null;
+    }
+
+    open.clear();
+    startNewGeneration();
+
+    int start = tiles.indexOf(sx, sy);
+    touch(start);
+    cost[start >>> SHIFT][start & MASK] = 0;
+    open.insertOrUpdate(start, heuristic(sx, sy), 0);
+
+    int expansions = 0;
+    while ((expansions < maxSearchDistance) && !open.isEmpty()) {
+      int current = open.poll();
+      closed[current >>> SHIFT][current & MASK] = true;
+
+      int x = tiles.xOf(current);
+      int y = tiles.yOf(current);
+      if ((x == tx) && (y == ty)) {
+        return buildPath(current);
+      }
+
+      distance = depth[current >>> SHIFT][current & MASK];
+      expand(current, x, y);
+      expansions++;
+    }
+
+    return null;
+  }
+
+  /** Expands a single node, relaxing each of its neighbours either through the node itself, or straight from the node's parent.
+   *
+   * @param node the tile index of the node being expanded
+   * @param x the x-coordinate of the node
+   * @param y the y-coordinate of the node
+   */
+  private void expand(int node, int x, int y) {
+    sourceX = x;
+    sourceY = y;
+    int nodeChunk = node >>> SHIFT;
+    int nodeSlot = node & MASK;
+    int from = parent[nodeChunk][nodeSlot];
+    int fromX = ((from < 0) ? 0 : tiles.xOf(from));
+    int fromY = ((from < 0) ? 0 : tiles.yOf(from));
+
+    for (int dx = -1; dx < 2; dx++) {
+      for (int dy = -1; dy < 2; dy++) {
+        if (((dx == 0) && (dy == 0)) || !canStep(x, y, dx, dy)) {
+          continue;
+        }
+
+        int nx = x + dx;
+        int ny = y + dy;
+        int neighbour = tiles.indexOf(nx, ny);
+        touch(neighbour);
+        int chunk = neighbour >>> SHIFT;
+        int slot = neighbour & MASK;
+        if (closed[chunk][slot]) {
+          continue;
+        }
+
+        int via = node;
+        float nextCost = cost[nodeChunk][nodeSlot] + (((dx != 0) && (dy != 0)) ? SQRT2 : 1);
+        if ((from >= 0) && map.hasLineOfSight(this, fromX, fromY, nx, ny, line)) {
+          via = from;
+          nextCost = cost[from >>> SHIFT][from & MASK] + euclidean(fromX, fromY, nx, ny);
+        }
+
+        if (nextCost < cost[chunk][slot]) {
+          cost[chunk][slot] = nextCost;
+          parent[chunk][slot] = via;
+          depth[chunk][slot] = depth[nodeChunk][nodeSlot] + 1;
+
+          float h = heuristic(nx, ny);
+          open.insertOrUpdate(neighbour, nextCost + h, h);
+        }
+      }
+    }
+  }
+
+  /** Traces the waypoints back from the target, to the start.
+   *
+   * @param target the tile index of the target
+   * @return the waypoints, from the start to the target
+   */
+  private CompactPath buildPath(int target) {
+    CompactPath path = new CompactPath(true);
+    for (int node = target; node >= 0; node = parent[node >>> SHIFT][node & MASK]) {
+      path.appendStep(tiles.xOf(node), tiles.yOf(node));
+    }
+    path.reverse();
+    return path;
+  }
+
+  /** The straight-line distance from (x, y) to the target, in tiles. */
+  private float heuristic(int x, int y) {
+    return euclidean(x, y, targetX, targetY);
+  }
+
+  /** The straight-line distance between two tiles, in tiles. */
+  private static float euclidean(int x0, int y0, int x1, int y1) {
+    return (float) Math.hypot(x1 - x0, y1 - y0);
+  }
+
+  /** Whether or not a single step from (x, y) in the direction (dx, dy) is allowed. */
+  private boolean canStep(int x, int y, int dx, int dy) {
+    return tiles.contains(x+dx, y+dy) && !map.blocked(this, x+dx, y+dy) &&
+        !(((dx != 0) && (dy != 0)) && map.diagonallyBlocked(this, x, y, x+dx, y+dy));
+  }
+
+  /** Moves on to the next search generation, resetting every tile if the counter ever wraps around. */
+  private void startNewGeneration() {
+    searchGeneration++;
+    if (searchGeneration == 0) {
+      for (int chunk = 0; chunk < generation.length; chunk++) {
+        if (generation[chunk] != null) {
+          Arrays.fill(generation[chunk], 0);
+        }
+      }
+      searchGeneration = 1;
+    }
+  }
+
+  /** Resets the search state of a tile, if it was last touched by an earlier search, allocating its chunk if no search has reached it
+   * before. */
+  private void touch(int node) {
+    int chunk = node >>> SHIFT;
+    int slot = node & MASK;
+    if (generation[chunk] == null) {
+      generation[chunk] = new int[ChunkedTileIndex.CHUNK_AREA];
+      cost[chunk] = new float[ChunkedTileIndex.CHUNK_AREA];
+      parent[chunk] = new int[ChunkedTileIndex.CHUNK_AREA];
+      depth[chunk] = new int[ChunkedTileIndex.CHUNK_AREA];
+      closed[chunk] = new boolean[ChunkedTileIndex.CHUNK_AREA];
+    }
+    if (generation[chunk][slot] != searchGeneration) {
+      generation[chunk][slot] = searchGeneration;
+      cost[chunk][slot] = Float.MAX_VALUE;
+      parent[chunk][slot] = -1;
+      depth[chunk][slot] = 0;
+      closed[chunk][slot] = false;
+    }
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getMover()
+   */
+  public Mover getMover() {
+    return mover;
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getSearchDistance()
+   */
+  public int getSearchDistance() {
+    return distance;
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getSourceX()
+   */
+  public int getSourceX() {
+    return sourceX;
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getSourceY()
+   */
+  public int getSourceY() {
+    return sourceY;
+  }
+
+}
@@ -0,0 +1,222 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.newdawn.slick.util.pathfinding.Mover;
+import org.newdawn.slick.util.pathfinding.Path;
+import org.newdawn.slick.util.pathfinding.PathFinder;
+
+/** A PathFinder that remembers the paths found by another PathFinder, keyed by (source tile, target tile), so that Pedestrians travelling
+ * between the same pair of tiles don't each pay for a search.
+ *
+ * The cache holds a bounded number of paths, and evicts the least recently used one when it is full. It listens to the map, and when a tile
+ * is blocked or opened, every cached path that runs through that tile is thrown away. (When the whole map changes, everything is thrown away.)
+ * Failed searches are never cached, since opening any tile could make them succeed. Cached paths are chosen with the congestion as it was
+ * when they were found.
+ *
+ * The Paths returned are shared between everyone who asks for the same route, so they must not be modified.
+ */
+public class CachingPathFinder implements PathFinder, TileMapListener {
+
+  /** The path finder that does the real work, on a cache miss. */
+  private PathFinder pathFinder;
+  /** The width of the map, used to turn tile coordinates into tile indices. */
+  private int width;
+  /** The maximum number of paths held. */
+  private int capacity;
+  /** The cached paths, in least-recently-used order. */
+  private LinkedHashMap<Long, Path> paths;
+  /** For each tile index, the keys of the cached paths that run through that tile. */
+  private HashMap<Integer, HashSet<Long>> keysByTile;
+  /** The line walked between the steps of an any-angle path, to find the tiles it crosses. */
+  private GridLine line = new GridLine(0, 0, 0, 0);
+
+  /** The number of requests answered from the cache. */
+  private long hits;
+  /** The number of requests passed on to the underlying path finder. */
+  private long misses;
+  /** The number of paths thrown away to make room for newer ones. */
+  private long evictions;
+  /** The number of paths thrown away because a tile they run through was blocked or opened. */
+  private long invalidations;
+
+  /** Creates a new CachingPathFinder, and starts listening to the map for changes.
+   *
+   * @param pathFinder the path finder used whenever a path isn't already in the cache
+   * @param map the map that the path finder searches
+   * @param capacity the maximum number of paths to hold
+   */
+  public CachingPathFinder(PathFinder pathFinder, PedestrianTileBasedMap map, int capacity) {
+    this.pathFinder = pathFinder;
+    this.width = map.getWidthInTiles();
+    this.capacity = capacity;
+
+    paths = new LinkedHashMap<Long, Path>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Path> eldest) {
+        if (size() > CachingPathFinder.this.capacity) {
+          unindex(eldest.getKey(), eldest.getValue());
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+    keysByTile = new HashMap<Integer, HashSet<Long>>();
+
+    map.addTileMapListener(this);
+  }
+
+  /**
+   * @see PathFinder#findPath(Mover, int, int, int, int)
+   */
+  public Path findPath(Mover mover, int sx, int sy, int tx, int ty) {
+    Long key = keyFor(sx, sy, tx, ty);
+
+    Path path = paths.get(key);
+    if (path != null) {
+      hits++;
+      return path;
+    }
+
+    misses++;
+    path = pathFinder.findPath(mover, sx, sy, tx, ty);
+    if ((path != null) && (capacity > 0)) {
+      index(key, path);
+      paths.put(key, path);
+    }
+
+    return path;
+  }
+
+  /** Gets the number of requests that were answered from the cache. */
+  public long getHits() {
+    return hits;
+  }
+
+  /** Gets the number of requests that had to be passed on to the underlying path finder. */
+  public long getMisses() {
+    return misses;
+  }
+
+  /** Gets the number of paths that were thrown away to make room for newer ones. */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /** Gets the number of paths that were thrown away because the map changed underneath them. */
+  public long getInvalidations() {
+    return invalidations;
+  }
+
+  /** Gets the number of paths currently held. */
+  public int size() {
+    return paths.size();
+  }
+
+  /** Sets the hit, miss, eviction, and invalidation counters back to zero. */
+  public void resetStatistics() {
+    hits = 0;
+    misses = 0;
+    evictions = 0;
+    invalidations = 0;
+  }
+
+  /** Throws away every cached path. */
+  public void clear() {
+    paths.clear();
+    keysByTile.clear();
+  }
+
+  @Override
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+    HashSet<Long> keys = keysByTile.remove((y*width) + x);
+    if (keys == null) {
+      return;
+    }
+
+    for (Long key : keys) {
+      Path path = paths.remove(key);
+      if (path != null) {
+        unindex(key, path);
+        invalidations++;
+      }
+    }
+  }
+
+  @Override
+  public void tileMapReset(PedestrianTileBasedMap map) {
+    invalidations += paths.size();
+    clear();
+  }
+
+  /** Records that the path with the given key runs through each of its tiles. */
+  private void index(Long key, Path path) {
+    for (Integer tile : tilesUnder(path)) {
+      HashSet<Long> keys = keysByTile.get(tile);
+      if (keys == null) {
+        keys = new HashSet<Long>();
+        keysByTile.put(tile, keys);
+      }
+      keys.add(key);
+    }
+  }
+
+  /** Removes the records made by index(). */
+  private void unindex(Long key, Path path) {
+    for (Integer tile : tilesUnder(path)) {
+      HashSet<Long> keys = keysByTile.get(tile);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty()) {
+          keysByTile.remove(tile);
+        }
+      }
+    }
+  }
+
+  /** Gets the indices of the tiles a path runs through. For a diagonal step, that includes both of the tiles beside it, since blocking
+   * them both makes the step illegal. Where two steps aren't next to each other (as in an any-angle path), it includes every tile along the
+   * straight line between them, and the tiles beside any corner it passes through.
+   */
+  private HashSet<Integer> tilesUnder(Path path) {
+    HashSet<Integer> tiles = new HashSet<Integer>();
+    for (int i = 0; i < path.getLength(); i++) {
+      tiles.add((path.getY(i)*width) + path.getX(i));
+      if (i == 0) {
+        continue;
+      }
+
+      int dx = path.getX(i) - path.getX(i-1);
+      int dy = path.getY(i) - path.getY(i-1);
+      if (Math.max(Math.abs(dx), Math.abs(dy)) <= 1) {
+        if ((dx != 0) && (dy != 0)) {
+          tiles.add((path.getY(i-1)*width) + path.getX(i));
+          tiles.add((path.getY(i)*width) + path.getX(i-1));
+        }
+        continue;
+      }
+
+      line.reset(path.getX(i-1), path.getY(i-1), path.getX(i), path.getY(i));
+      while (line.advance()) {
+        tiles.add((line.getY()*width) + line.getX());
+        if (line.passedThroughCorner()) {
+          tiles.add((line.getSideY()*width) + line.getSideX());
+          tiles.add((line.getY()*width) + line.getX() - line.getStepX());
+        }
+      }
+    }
+    return tiles;
+  }
+
+  /** Builds the cache key for a (source tile, target tile) pair. */
+  private Long keyFor(int sx, int sy, int tx, int ty) {
+    return (((long) ((sy*width) + sx)) << 32) | (((ty*width) + tx) & 0xFFFFFFFFL);
+  }
+
+}
@@ -0,0 +1,89 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+/** Numbers the tiles of a map in square chunks, the same way TileStorage and PedestrianPathFinder do, so that a search can keep its
+ * per-tile state in arrays of one chunk each, and only allocate the chunks it actually reaches.
+ *
+ * A tile's index is the number of its chunk, times the number of tiles in a chunk, plus its position within the chunk (row by row). Unlike
+ * TileStorage there's no border, and the number of chunks across is rounded up to a power of two, so that the coordinates of a tile are
+ * a few shifts and masks away from its index, without a division. Neighbouring tiles don't have neighbouring indices, so a search has to go
+ * through indexOf() to step from one tile to the next.
+ */
+public class ChunkedTileIndex {
+
+  /** The number of bits of a tile index that give its position within its chunk. */
+  public static final int CHUNK_AREA_SHIFT = TileStorage.CHUNK_SHIFT*2;
+  /** The number of tiles in a chunk. */
+  public static final int CHUNK_AREA = 1 << CHUNK_AREA_SHIFT;
+  /** Masks the position within a chunk out of a tile index. */
+  public static final int CHUNK_AREA_MASK = CHUNK_AREA - 1;
+  /** Masks the x-coordinate (or y-coordinate) within a chunk out of a tile's x-coordinate (or y-coordinate). */
+  private static final int CHUNK_MASK = TileStorage.CHUNK_SIZE - 1;
+
+  /** The width of the map, in tiles. */
+  private int width;
+  /** The height of the map, in tiles. */
+  private int height;
+  /** The number of bits in the number of chunks across, rounded up to a power of two. */
+  private int acrossShift;
+  /** The number of chunks, including those that lie off the right-hand edge of the map because of the rounding. */
+  private int numberOfChunks;
+
+  /** Creates a new ChunkedTileIndex for a map of the given size.
+   *
+   * @param width the width of the map, in tiles
+   * @param height the height of the map, in tiles
+   */
+  public ChunkedTileIndex(int width, int height) {
+    this.width = width;
+    this.height = height;
+
+    int chunksAcross = (width + CHUNK_MASK) >> TileStorage.CHUNK_SHIFT;
+    int chunksDown = (height + CHUNK_MASK) >> TileStorage.CHUNK_SHIFT;
+    while ((1 << acrossShift) < chunksAcross) {
+      acrossShift++;
+    }
+    numberOfChunks = chunksDown << acrossShift;
+  }
+
+  /** Gets the width of the map, in tiles. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** Gets the height of the map, in tiles. */
+  public int getHeight() {
+    return height;
+  }
+
+  /** Gets the number of chunks, which is the length that an array of chunks has to be. */
+  public int getNumberOfChunks() {
+    return numberOfChunks;
+  }
+
+  /** Gets one more than the largest tile index, which is the capacity that a TileHeap of these indices has to have. */
+  public int getCapacity() {
+    return numberOfChunks << CHUNK_AREA_SHIFT;
+  }
+
+  /** Gets the index of the tile at (x, y), which must be on the map. */
+  public int indexOf(int x, int y) {
+    int chunk = ((y >> TileStorage.CHUNK_SHIFT) << acrossShift) | (x >> TileStorage.CHUNK_SHIFT);
+    return (chunk << CHUNK_AREA_SHIFT) | ((y & CHUNK_MASK) << TileStorage.CHUNK_SHIFT) | (x & CHUNK_MASK);
+  }
+
+  /** Gets the x-coordinate of the tile with the given index. */
+  public int xOf(int index) {
+    return ((((index >>> CHUNK_AREA_SHIFT) & ((1 << acrossShift) - 1)) << TileStorage.CHUNK_SHIFT) | (index & CHUNK_MASK));
+  }
+
+  /** Gets the y-coordinate of the tile with the given index. */
+  public int yOf(int index) {
+    return (((index >>> (CHUNK_AREA_SHIFT + acrossShift)) << TileStorage.CHUNK_SHIFT) | ((index >>> TileStorage.CHUNK_SHIFT) & CHUNK_MASK));
+  }
+
+  /** Whether (x, y) is on the map. */
+  public boolean contains(int x, int y) {
+    return ((x >= 0) && (y >= 0) && (x < width) && (y < height));
+  }
+
+}
@@ -0,0 +1,188 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.Arrays;
+
+import org.newdawn.slick.util.pathfinding.Path;
+
+import com.jefflunt.pedestrians.ConfigValues;
+
+/** A path stored as plain arrays of coordinates, rather than as a list of Step objects.
+ *
+ * A path can be in tiles (as found by a path finder) or in pixels. The pixel coordinates of a path in tiles - the center of each tile - are
+ * worked out as they're asked for, so a path found by a search never needs to be copied into pixels before a Pedestrian can follow it. The
+ * length of the path up to each step is kept as steps are added, so the distance left to walk from any step is a single subtraction.
+ *
+ * Searches that trace their path back from the target can append the steps in that order, and reverse() the path once they're done. The
+ * Slick Path class is still used by the PathFinder interface; toPath() and fromPath() convert between the two.
+ */
+public class CompactPath {
+
+  /** The x-coordinate of each step. */
+  private int[] xs;
+  /** The y-coordinate of each step. */
+  private int[] ys;
+  /** The distance along the path from the first step to each step, in pixels. */
+  private float[] lengths;
+  /** The number of steps in the path. */
+  private int length;
+  /** Whether the coordinates are in tiles (true), or in pixels (false). */
+  private boolean inTiles;
+
+  /** Creates a new, empty path.
+   *
+   * @param inTiles true if the coordinates of the path will be in tiles, false if they'll be in pixels
+   */
+  public CompactPath(boolean inTiles) {
+    this(16, inTiles);
+  }
+
+  /** Creates a new, empty path, with room for a number of steps before it needs to grow.
+   *
+   * @param capacity the number of steps there's room for
+   * @param inTiles true if the coordinates of the path will be in tiles, false if they'll be in pixels
+   */
+  public CompactPath(int capacity, boolean inTiles) {
+    capacity = Math.max(1, capacity);
+    xs = new int[capacity];
+    ys = new int[capacity];
+    lengths = new float[capacity];
+    this.inTiles = inTiles;
+  }
+
+  /** Copies a Slick Path.
+   *
+   * @param path the path to copy, which may be null
+   * @param inTiles true if the coordinates of the path are in tiles, false if they're in pixels
+   * @return the copy, or null if the path was null
+   */
+  public static CompactPath fromPath(Path path, boolean inTiles) {
+    if (path == null) {
+      return null;
+    }
+
+    CompactPath compactPath = new CompactPath(path.getLength(), inTiles);
+    for (int i = 0; i < path.getLength(); i++) {
+      compactPath.appendStep(path.getX(i), path.getY(i));
+    }
+    return compactPath;
+  }
+
+  /** Copies this path into a Slick Path, in the same coordinates.
+   *
+   * @return the copy
+   */
+  public Path toPath() {
+    Path path = new Path();
+    for (int i = 0; i < length; i++) {
+      path.appendStep(xs[i], ys[i]);
+    }
+    return path;
+  }
+
+  /** Copies this path into pixel coordinates. A path that's already in pixels is returned as it is.
+   *
+   * @return a path in pixels, with the same steps
+   */
+  public CompactPath toPixels() {
+    if (!inTiles) {
+      return this;
+    }
+
+    CompactPath pixels = new CompactPath(length, false);
+    for (int i = 0; i < length; i++) {
+      pixels.appendStep(getPixelX(i), getPixelY(i));
+    }
+    return pixels;
+  }
+
+  /** Adds a step to the end of the path.
+   *
+   * @param x the x-coordinate of the step
+   * @param y the y-coordinate of the step
+   */
+  public void appendStep(int x, int y) {
+    if (length == xs.length) {
+      xs = Arrays.copyOf(xs, length*2);
+      ys = Arrays.copyOf(ys, length*2);
+      lengths = Arrays.copyOf(lengths, length*2);
+    }
+
+    xs[length] = x;
+    ys[length] = y;
+    lengths[length] = ((length == 0) ? 0 : (lengths[length-1] + segmentLength(length-1, length)));
+    length++;
+  }
+
+  /** Reverses the order of the steps, so a path traced back from its end can be followed from its start. */
+  public void reverse() {
+    for (int i = 0, j = length-1; i < j; i++, j--) {
+      int x = xs[i];
+      xs[i] = xs[j];
+      xs[j] = x;
+
+      int y = ys[i];
+      ys[i] = ys[j];
+      ys[j] = y;
+    }
+
+    for (int i = 1; i < length; i++) {
+      lengths[i] = lengths[i-1] + segmentLength(i-1, i);
+    }
+  }
+
+  /** Gets the number of steps in the path. */
+  public int getLength() {
+    return length;
+  }
+
+  /** Gets whether the coordinates of the path are in tiles (true), or in pixels (false). */
+  public boolean isInTiles() {
+    return inTiles;
+  }
+
+  /** Gets the x-coordinate of a step, in the path's own coordinates. */
+  public int getX(int step) {
+    return xs[step];
+  }
+
+  /** Gets the y-coordinate of a step, in the path's own coordinates. */
+  public int getY(int step) {
+    return ys[step];
+  }
+
+  /** Gets the x-coordinate of a step in pixels - the center of the tile, for a path in tiles. */
+  public int getPixelX(int step) {
+    return (inTiles ? ((xs[step]*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2)) : xs[step]);
+  }
+
+  /** Gets the y-coordinate of a step in pixels - the center of the tile, for a path in tiles. */
+  public int getPixelY(int step) {
+    return (inTiles ? ((ys[step]*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2)) : ys[step]);
+  }
+
+  /** Gets the x-coordinate of the tile a step is in. */
+  public int getTileX(int step) {
+    return (inTiles ? xs[step] : (xs[step]/ConfigValues.TILE_SIZE));
+  }
+
+  /** Gets the y-coordinate of the tile a step is in. */
+  public int getTileY(int step) {
+    return (inTiles ? ys[step] : (ys[step]/ConfigValues.TILE_SIZE));
+  }
+
+  /** Gets the distance along the path from the first step to the given step, in pixels. */
+  public float getLengthTo(int step) {
+    return lengths[step];
+  }
+
+  /** Gets the distance along the path from the given step to the last step, in pixels. */
+  public float getLengthFrom(int step) {
+    return ((length == 0) ? 0 : (lengths[length-1] - lengths[step]));
+  }
+
+  /** The straight-line distance between two steps, in pixels. */
+  private float segmentLength(int from, int to) {
+    return (float) Math.hypot(getPixelX(to) - getPixelX(from), getPixelY(to) - getPixelY(from));
+  }
+
+}
@@ -7,4 +7,25 @@ public interface ExtendedTileBasedMap extends TileBasedMap {
 
   public boolean diagonallyBlocked(PathFindingContext context, int currentX, int currentY, int evalX, int evalY);
   
+  /** Checks whether there is any path at all from one tile to another, without searching for it. A mover standing on a blocked start
+   * tile may still step off it.
+   */
+  public boolean reachable(PathFindingContext context, int sx, int sy, int tx, int ty);
+  
+  /** Checks whether a straight line from the center of one tile to the center of another crosses only open tiles. A line passing exactly
+   * through a corner is only blocked there if both tiles beside the corner are, the same as a diagonal step.
+   */
+  public boolean hasLineOfSight(PathFindingContext context, int x0, int y0, int x1, int y1);
+  
+  /** The same as hasLineOfSight(context, x0, y0, x1, y1), but walks the line with a GridLine the caller already has, which is reset(), so
+   * that a search checking many lines doesn't allocate one for each.
+   */
+  public boolean hasLineOfSight(PathFindingContext context, int x0, int y0, int x1, int y1, GridLine line);
+  
+  /** Gets a cost at least as high as the cost of entering any tile in the rectangle from (x0, y0) to (x1, y1), inclusive, without looking
+   * at each of them. It may be higher than the cost of every one of them, but when it's no higher than the lowest cost a tile can have, a
+   * search can take it that every tile in the rectangle costs the same. Any part of the rectangle that's off the map is ignored.
+   */
+  public float getHighestCost(PathFindingContext context, int x0, int y0, int x1, int y1);
+  
 }
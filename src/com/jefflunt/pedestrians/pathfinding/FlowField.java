@@ -0,0 +1,357 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.Arrays;
+
+import com.jefflunt.pedestrians.ConfigValues;
+
+/** A flow field toward a single goal tile. One reverse Dijkstra search from the goal gives every tile on the map its distance to the goal
+ * (the integration field), and the direction of the first step along the shortest route from there (the direction field). Any number of
+ * Pedestrians headed for the same goal can then steer by looking up the tile they're standing on, rather than each carrying their own Path.
+ *
+ * Distances are measured over the obstacles only - straight steps cost 1 and diagonal steps cost sqrt(2) - since a flow field is meant to
+ * be shared for a long time, and congestion changes far too quickly for that. A diagonal step is allowed unless both of the tiles beside it
+ * are blocked, the same as for the path finders.
+ *
+ * Flow fields are built and kept up to date by a FlowFieldCache. When a tile is blocked, only the tiles whose route ran through it are
+ * searched again; when a tile is opened, only the tiles it gives a shorter route to are updated.
+ *
+ * @see FlowFieldCache
+ */
+public class FlowField {
+
+  /** The distance of a tile from which the goal can't be reached. */
+  public static final float UNREACHABLE = Float.MAX_VALUE;
+  /** The direction of a tile that has no next step - the goal itself, blocked tiles, and tiles that can't reach the goal. */
+  public static final int NO_DIRECTION = -1;
+
+  /** The change in x for a step in each direction, indexed by the direction constants in ConfigValues. */
+  private static final int[] DX = new int[8];
+  /** The change in y for a step in each direction, indexed by the direction constants in ConfigValues. */
+  private static final int[] DY = new int[8];
+  /** The direction opposite to each direction. */
+  private static final int[] OPPOSITE = new int[8];
+  /** The cost of a step in each direction. */
+  private static final float[] STEP_COST = new float[8];
+
+  static {
+    setDirection(ConfigValues.UP,         0, -1, ConfigValues.DOWN);
+    setDirection(ConfigValues.DOWN,       0,  1, ConfigValues.UP);
+    setDirection(ConfigValues.LEFT,      -1,  0, ConfigValues.RIGHT);
+    setDirection(ConfigValues.RIGHT,      1,  0, ConfigValues.LEFT);
+    setDirection(ConfigValues.UP_LEFT,   -1, -1, ConfigValues.DOWN_RIGHT);
+    setDirection(ConfigValues.UP_RIGHT,   1, -1, ConfigValues.DOWN_LEFT);
+    setDirection(ConfigValues.DOWN_LEFT, -1,  1, ConfigValues.UP_RIGHT);
+    setDirection(ConfigValues.DOWN_RIGHT, 1,  1, ConfigValues.UP_LEFT);
+  }
+
+  /** Fills in the step tables for one direction. */
+  private static void setDirection(int direction, int dx, int dy, int opposite) {
+    DX[direction] = dx;
+    DY[direction] = dy;
+    OPPOSITE[direction] = opposite;
+    STEP_COST[direction] = (((dx != 0) && (dy != 0)) ? (float) Math.sqrt(2) : 1);
+  }
+
+  /** The map this field covers. */
+  private PedestrianTileBasedMap map;
+  /** The width of the map, in tiles. */
+  private int width;
+  /** The height of the map, in tiles. */
+  private int height;
+  /** The x-coordinate of the goal tile. */
+  private int goalX;
+  /** The y-coordinate of the goal tile. */
+  private int goalY;
+  /** The distance from each tile to the goal, indexed by tile index. */
+  private float[] distance;
+  /** The direction of the first step from each tile toward the goal, indexed by tile index. */
+  private byte[] direction;
+  /** Whether or not this field is still being kept up to date by its cache. */
+  private boolean valid;
+
+  /** Creates a new flow field, with every tile unreachable. build() must be called before it is used.
+   *
+   * @param map the map this field covers
+   * @param goalX the x-coordinate of the goal tile
+   * @param goalY the y-coordinate of the goal tile
+   */
+  FlowField(PedestrianTileBasedMap map, int goalX, int goalY) {
+    this.map = map;
+    this.goalX = goalX;
+    this.goalY = goalY;
+
+    width = map.getWidthInTiles();
+    height = map.getHeightInTiles();
+    distance = new float[width*height];
+    direction = new byte[width*height];
+    valid = true;
+  }
+
+  /** Gets the number of bytes of field data held by a flow field for a map of the given size. */
+  static long getBytesPerField(PedestrianTileBasedMap map) {
+    return ((long) map.getWidthInTiles()) * map.getHeightInTiles() * 5;
+  }
+
+  /** Gets the x-coordinate of the goal tile. */
+  public int getGoalX() {
+    return goalX;
+  }
+
+  /** Gets the y-coordinate of the goal tile. */
+  public int getGoalY() {
+    return goalY;
+  }
+
+  /** Gets whether or not this field is still being kept up to date. A field stops being kept up to date once it is evicted from its cache,
+   * or the whole map changes, and anyone still steering by it should ask the cache for a new one.
+   */
+  public boolean isValid() {
+    return valid;
+  }
+
+  /** Gets the distance from a tile to the goal.
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @return the length of the shortest route to the goal, or UNREACHABLE if there is none (or the tile is off the map)
+   */
+  public float getDistance(int x, int y) {
+    if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+      return UNREACHABLE;
+    }
+    return distance[(y*width) + x];
+  }
+
+  /** Gets the direction of the first step from a tile toward the goal.
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @return one of the direction constants in ConfigValues (UP, DOWN_LEFT, etc.), or NO_DIRECTION at the goal, on blocked tiles, on tiles
+   * that can't reach the goal, and off the map
+   */
+  public int getDirection(int x, int y) {
+    if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+      return NO_DIRECTION;
+    }
+    return direction[(y*width) + x];
+  }
+
+  /** Gets the tile that the first step from a tile toward the goal leads to.
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @return the index ((y*width)+x) of the next tile, or -1 if there is no next step
+   */
+  public int getNextTile(int x, int y) {
+    int d = getDirection(x, y);
+    if (d == NO_DIRECTION) {
+      return -1;
+    }
+    return ((y + DY[d])*width) + (x + DX[d]);
+  }
+
+  /** Stops this field from being used, since it is no longer being kept up to date. */
+  void invalidate() {
+    valid = false;
+  }
+
+  /** Searches the whole map from the goal.
+   *
+   * @param open an empty heap, with room for every tile on the map, to use as the open list
+   */
+  void build(TileHeap open) {
+    Arrays.fill(distance, UNREACHABLE);
+    Arrays.fill(direction, (byte) NO_DIRECTION);
+
+    if (!map.blocked(null, goalX, goalY)) {
+      int goal = (goalY*width) + goalX;
+      distance[goal] = 0;
+      open.insertOrUpdate(goal, 0, 0);
+      propagate(open);
+    }
+  }
+
+  /** Brings this field up to date after a single tile has been blocked or opened.
+   *
+   * @param x the x-coordinate of the tile that changed
+   * @param y the y-coordinate of the tile that changed
+   * @param blocked whether the tile is now blocked (true) or open (false)
+   * @param open an empty heap, with room for every tile on the map, to use as the open list
+   * @return the number of tiles whose route to the goal was searched again, or updated
+   */
+  int repair(int x, int y, boolean blocked, TileHeap open) {
+    if (blocked) {
+      return repairBlocked(x, y, open);
+    } else {
+      return repairOpened(x, y, open);
+    }
+  }
+
+  /** Repairs the field after the tile at (x, y) was blocked. Every tile whose route ran through that tile (or took a diagonal step past it
+   * that is no longer allowed) is made unreachable, and then searched again from the edge of the area that is still known to be correct.
+   */
+  private int repairBlocked(int x, int y, TileHeap open) {
+    int changed = (y*width) + x;
+    if (distance[changed] == UNREACHABLE) {
+      // a tile that couldn't reach the goal can't have been on anyone else's route, or beside any of their diagonal steps
+      return 0;
+    }
+
+    int[] stack = new int[16];
+    int stackSize = 0;
+    stack[stackSize++] = changed;
+
+    // a diagonal step that runs past the blocked tile is only ever taken between two of its straight neighbours
+    for (int d = 0; d < 4; d++) {
+      int nx = x + DX[d];
+      int ny = y + DY[d];
+      if (inBounds(nx, ny)) {
+        int n = (ny*width) + nx;
+        int nd = direction[n];
+        if ((nd != NO_DIRECTION) && (DX[nd] != 0) && (DY[nd] != 0) && map.diagonallyBlocked(null, nx, ny, nx + DX[nd], ny + DY[nd])) {
+          stack[stackSize++] = n;
+        }
+      }
+    }
+
+    int[] invalidated = new int[16];
+    int invalidatedCount = 0;
+    while (stackSize > 0) {
+      int t = stack[--stackSize];
+      if (distance[t] == UNREACHABLE) {
+        continue;
+      }
+
+      distance[t] = UNREACHABLE;
+      direction[t] = NO_DIRECTION;
+      if (invalidatedCount == invalidated.length) {
+        invalidated = Arrays.copyOf(invalidated, invalidatedCount*2);
+      }
+      invalidated[invalidatedCount++] = t;
+
+      int tx = t % width;
+      int ty = t / width;
+      for (int d = 0; d < 8; d++) {
+        int nx = tx + DX[d];
+        int ny = ty + DY[d];
+        if (inBounds(nx, ny)) {
+          int n = (ny*width) + nx;
+          if (direction[n] == OPPOSITE[d]) {
+            if (stackSize == stack.length) {
+              stack = Arrays.copyOf(stack, stackSize*2);
+            }
+            stack[stackSize++] = n;
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < invalidatedCount; i++) {
+      int t = invalidated[i];
+      int tx = t % width;
+      int ty = t / width;
+      if (map.blocked(null, tx, ty)) {
+        continue;
+      }
+
+      for (int d = 0; d < 8; d++) {
+        int nx = tx + DX[d];
+        int ny = ty + DY[d];
+        if (inBounds(nx, ny) && (distance[(ny*width) + nx] != UNREACHABLE) && canStep(tx, ty, d)) {
+          float candidate = distance[(ny*width) + nx] + STEP_COST[d];
+          if (candidate < distance[t]) {
+            distance[t] = candidate;
+            direction[t] = (byte) d;
+          }
+        }
+      }
+
+      if (distance[t] != UNREACHABLE) {
+        open.insertOrUpdate(t, distance[t], 0);
+      }
+    }
+
+    propagate(open);
+    return invalidatedCount;
+  }
+
+  /** Repairs the field after the tile at (x, y) was opened. Opening a tile can only make routes shorter, so the tile and its neighbours
+   * (between which diagonal steps may now be allowed) are searched from again, and the improvement spreads as far as it needs to.
+   */
+  private int repairOpened(int x, int y, TileHeap open) {
+    int changed = (y*width) + x;
+    if ((x == goalX) && (y == goalY)) {
+      distance[changed] = 0;
+      direction[changed] = NO_DIRECTION;
+      open.insertOrUpdate(changed, 0, 0);
+    }
+
+    for (int d = 0; d < 8; d++) {
+      int nx = x + DX[d];
+      int ny = y + DY[d];
+      if (inBounds(nx, ny)) {
+        int n = (ny*width) + nx;
+        if (distance[n] != UNREACHABLE) {
+          open.insertOrUpdate(n, distance[n], 0);
+        }
+      }
+    }
+
+    return propagate(open);
+  }
+
+  /** Runs Dijkstra's algorithm outward from the tiles in the open list, lowering the distance of every tile that can be reached more cheaply
+   * through them. Steps are taken backwards - a tile is improved if it can step onto the tile being expanded.
+   *
+   * @return the number of tiles whose distance was lowered
+   */
+  private int propagate(TileHeap open) {
+    int improved = 0;
+
+    while (!open.isEmpty()) {
+      int t = open.poll();
+      int tx = t % width;
+      int ty = t / width;
+      float tDistance = distance[t];
+
+      for (int d = 0; d < 8; d++) {
+        int nx = tx + DX[d];
+        int ny = ty + DY[d];
+        if (!inBounds(nx, ny) || map.blocked(null, nx, ny)) {
+          continue;
+        }
+
+        int n = (ny*width) + nx;
+        int stepBack = OPPOSITE[d];
+        float candidate = tDistance + STEP_COST[stepBack];
+        if ((candidate < distance[n]) && canStep(nx, ny, stepBack)) {
+          distance[n] = candidate;
+          direction[n] = (byte) stepBack;
+          open.insertOrUpdate(n, candidate, 0);
+          improved++;
+        }
+      }
+    }
+
+    return improved;
+  }
+
+  /** Whether a step from the open tile at (x, y) in the given direction is allowed. */
+  private boolean canStep(int x, int y, int d) {
+    int nx = x + DX[d];
+    int ny = y + DY[d];
+    if (map.blocked(null, nx, ny)) {
+      return false;
+    }
+    if ((DX[d] != 0) && (DY[d] != 0)) {
+      return !map.diagonallyBlocked(null, x, y, nx, ny);
+    }
+    return true;
+  }
+
+  /** Whether (x, y) is on the map. */
+  private boolean inBounds(int x, int y) {
+    return ((x >= 0) && (y >= 0) && (x < width) && (y < height));
+  }
+
+}
@@ -0,0 +1,136 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Builds FlowFields on demand, and keeps the most recently used of them, keyed by goal tile, within a fixed memory budget. When the budget
+ * is used up, the least recently used field is evicted.
+ *
+ * The cache listens to the map, and repairs every field it holds whenever a tile is blocked or opened, so a field handed out by the cache
+ * stays correct for as long as it stays in the cache. Fields that are evicted, or that are thrown away because the whole map changed, are
+ * marked as no longer valid.
+ */
+public class FlowFieldCache implements TileMapListener {
+
+  /** The map the fields cover. */
+  private PedestrianTileBasedMap map;
+  /** The width of the map, used to turn goal coordinates into keys. */
+  private int width;
+  /** The maximum number of fields held, worked out from the memory budget. */
+  private int maxFields;
+  /** The cached fields, keyed by goal tile index, in least-recently-used order. */
+  private LinkedHashMap<Integer, FlowField> fields;
+  /** The open list shared by every build and repair. */
+  private TileHeap open;
+
+  /** The number of requests answered with a field that was already built. */
+  private long hits;
+  /** The number of requests that needed a new field to be built. */
+  private long misses;
+  /** The number of fields evicted to stay within the memory budget. */
+  private long evictions;
+  /** The number of tiles that have had their route searched again, or updated, by a repair. */
+  private long repairedTiles;
+
+  /** Creates a new, empty FlowFieldCache, and starts listening to the map for changes.
+   *
+   * @param map the map the fields will cover
+   * @param maxBytes the most memory the cached fields may use. At least one field is always kept, however small this is.
+   */
+  public FlowFieldCache(PedestrianTileBasedMap map, long maxBytes) {
+    this.map = map;
+    width = map.getWidthInTiles();
+    maxFields = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / FlowField.getBytesPerField(map)));
+    open = new TileHeap(map.getWidthInTiles()*map.getHeightInTiles());
+
+    fields = new LinkedHashMap<Integer, FlowField>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, FlowField> eldest) {
+        if (size() > maxFields) {
+          eldest.getValue().invalidate();
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+
+    map.addTileMapListener(this);
+  }
+
+  /** Gets the flow field toward a goal tile, building it if it isn't already cached.
+   *
+   * @param goalX the x-coordinate of the goal tile
+   * @param goalY the y-coordinate of the goal tile
+   * @return the flow field toward that goal
+   */
+  public FlowField getFlowField(int goalX, int goalY) {
+    Integer key = (goalY*width) + goalX;
+
+    FlowField field = fields.get(key);
+    if (field != null) {
+      hits++;
+      return field;
+    }
+
+    misses++;
+    field = new FlowField(map, goalX, goalY);
+    field.build(open);
+    fields.put(key, field);
+
+    return field;
+  }
+
+  /** Gets the number of requests answered with a field that was already built. */
+  public long getHits() {
+    return hits;
+  }
+
+  /** Gets the number of requests that needed a new field to be built. */
+  public long getMisses() {
+    return misses;
+  }
+
+  /** Gets the number of fields evicted to stay within the memory budget. */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /** Gets the total number of tiles that repairs have had to search again, or update. */
+  public long getRepairedTiles() {
+    return repairedTiles;
+  }
+
+  /** Gets the number of fields currently held. */
+  public int size() {
+    return fields.size();
+  }
+
+  /** Gets the most fields this cache will hold at once. */
+  public int getMaxFields() {
+    return maxFields;
+  }
+
+  /** Throws away every cached field. */
+  public void clear() {
+    for (FlowField field : fields.values()) {
+      field.invalidate();
+    }
+    fields.clear();
+  }
+
+  @Override
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+    for (FlowField field : fields.values()) {
+      repairedTiles += field.repair(x, y, blocked, open);
+    }
+  }
+
+  @Override
+  public void tileMapReset(PedestrianTileBasedMap map) {
+    clear();
+  }
+
+}
@@ -0,0 +1,155 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+/** Walks the tiles that a straight line passes through, in order, from the tile it starts in to the tile it ends in.
+ *
+ * Coordinates are in tiles, and may fall anywhere within a tile - (x + 0.5, y + 0.5) is the center of tile (x, y). A line that passes
+ * exactly through the corner where four tiles meet goes straight from one tile to the diagonally opposite one, without entering either of
+ * the two tiles beside the corner; those are reported by getSideX/Y(), so that the same rule as a diagonal step can be applied - the line is
+ * only blocked at the corner if both of them are.
+ *
+ * A GridLine holds no reference to a map, and can be reset() and walked again as often as needed, without allocating anything.
+ */
+public class GridLine {
+
+  /** How close the distances to the next vertical and horizontal tile edges have to be, for the line to be passing through a corner. */
+  private static final double CORNER_TOLERANCE = 1e-9;
+
+  /** The x-coordinate of the current tile. */
+  private int x;
+  /** The y-coordinate of the current tile. */
+  private int y;
+  /** The direction of travel along x: -1, 0 or 1. */
+  private int stepX;
+  /** The direction of travel along y: -1, 0 or 1. */
+  private int stepY;
+  /** The distance along the line (as a fraction of its length) at which it next crosses a vertical tile edge. */
+  private double nextEdgeX;
+  /** The distance along the line (as a fraction of its length) at which it next crosses a horizontal tile edge. */
+  private double nextEdgeY;
+  /** The distance along the line (as a fraction of its length) between vertical tile edges. */
+  private double edgeSpacingX;
+  /** The distance along the line (as a fraction of its length) between horizontal tile edges. */
+  private double edgeSpacingY;
+  /** The number of tile edges still to be crossed, along x. */
+  private int remainingX;
+  /** The number of tile edges still to be crossed, along y. */
+  private int remainingY;
+  /** Whether the last call to advance() went through a corner. */
+  private boolean corner;
+
+  /** Creates a new GridLine, from the center of one tile to the center of another.
+   *
+   * @param x0 the x-coordinate of the tile the line starts in
+   * @param y0 the y-coordinate of the tile the line starts in
+   * @param x1 the x-coordinate of the tile the line ends in
+   * @param y1 the y-coordinate of the tile the line ends in
+   */
+  public GridLine(int x0, int y0, int x1, int y1) {
+    reset(x0, y0, x1, y1);
+  }
+
+  /** Starts walking a new line, from the center of one tile to the center of another.
+   *
+   * @param x0 the x-coordinate of the tile the line starts in
+   * @param y0 the y-coordinate of the tile the line starts in
+   * @param x1 the x-coordinate of the tile the line ends in
+   * @param y1 the y-coordinate of the tile the line ends in
+   */
+  public void reset(int x0, int y0, int x1, int y1) {
+    reset(x0 + 0.5f, y0 + 0.5f, x1 + 0.5f, y1 + 0.5f);
+  }
+
+  /** Starts walking a new line. The current tile is the one the line starts in.
+   *
+   * @param x0 the x-coordinate of the start of the line, in tiles
+   * @param y0 the y-coordinate of the start of the line, in tiles
+   * @param x1 the x-coordinate of the end of the line, in tiles
+   * @param y1 the y-coordinate of the end of the line, in tiles
+   */
+  public void reset(float x0, float y0, float x1, float y1) {
+    x = (int) Math.floor(x0);
+    y = (int) Math.floor(y0);
+    int endX = (int) Math.floor(x1);
+    int endY = (int) Math.floor(y1);
+    double dx = x1 - x0;
+    double dy = y1 - y0;
+
+    stepX = Integer.signum(endX - x);
+    stepY = Integer.signum(endY - y);
+    remainingX = Math.abs(endX - x);
+    remainingY = Math.abs(endY - y);
+
+    edgeSpacingX = ((stepX == 0) ? Double.POSITIVE_INFINITY : Math.abs(1 / dx));
+    edgeSpacingY = ((stepY == 0) ? Double.POSITIVE_INFINITY : Math.abs(1 / dy));
+    nextEdgeX = ((stepX > 0) ? ((x + 1 - x0) / dx) : ((stepX < 0) ? ((x0 - x) / -dx) : Double.POSITIVE_INFINITY));
+    nextEdgeY = ((stepY > 0) ? ((y + 1 - y0) / dy) : ((stepY < 0) ? ((y0 - y) / -dy) : Double.POSITIVE_INFINITY));
+    corner = false;
+  }
+
+  /** Moves on to the next tile along the line.
+   *
+   * @return true if there was another tile, false if the current tile is the one the line ends in
+   */
+  public boolean advance() {
+    if ((remainingX == 0) && (remainingY == 0)) {
+      return false;
+    }
+
+    corner = (remainingX > 0) && (remainingY > 0) && (Math.abs(nextEdgeX - nextEdgeY) < CORNER_TOLERANCE);
+    if (corner) {
+      x += stepX;
+      y += stepY;
+      nextEdgeX += edgeSpacingX;
+      nextEdgeY += edgeSpacingY;
+      remainingX--;
+      remainingY--;
+    } else if ((remainingY == 0) || ((remainingX > 0) && (nextEdgeX < nextEdgeY))) {
+      x += stepX;
+      nextEdgeX += edgeSpacingX;
+      remainingX--;
+    } else {
+      y += stepY;
+      nextEdgeY += edgeSpacingY;
+      remainingY--;
+    }
+    return true;
+  }
+
+  /** Gets the x-coordinate of the current tile. */
+  public int getX() {
+    return x;
+  }
+
+  /** Gets the y-coordinate of the current tile. */
+  public int getY() {
+    return y;
+  }
+
+  /** Gets whether the last step along the line went diagonally through a corner, rather than across an edge. */
+  public boolean passedThroughCorner() {
+    return corner;
+  }
+
+  /** Gets the x-coordinate of the tile beside the corner that was just passed through, that lies along x from the previous tile. The
+   * other tile beside the corner is at (getX() - getStepX(), getY()).
+   */
+  public int getSideX() {
+    return x;
+  }
+
+  /** Gets the y-coordinate of the tile beside the corner that was just passed through, that lies along x from the previous tile. */
+  public int getSideY() {
+    return y - stepY;
+  }
+
+  /** Gets the direction of travel along x: -1, 0 or 1. */
+  public int getStepX() {
+    return stepX;
+  }
+
+  /** Gets the direction of travel along y: -1, 0 or 1. */
+  public int getStepY() {
+    return stepY;
+  }
+
+}
@@ -0,0 +1,672 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.Arrays;
+
+import org.newdawn.slick.util.pathfinding.Mover;
+import org.newdawn.slick.util.pathfinding.Path;
+import org.newdawn.slick.util.pathfinding.PathFinder;
+import org.newdawn.slick.util.pathfinding.PathFindingContext;
+
+/** A hierarchical path finder (HPA*), for maps that are too large to search tile by tile.
+ *
+ * The map is divided into square clusters. Wherever the tiles on both sides of the border between two neighbouring clusters are open, an
+ * entrance is placed (one in the middle of each short stretch of open border, or one at each end of a long stretch). Within each cluster,
+ * the distances between all of its entrances are precomputed. A search then only has to look at the entrances - an abstract graph with
+ * a few nodes per cluster - and the chosen abstract path is refined back into individual tiles, one cluster at a time, once it is known.
+ *
+ * Memory use is proportional to the number of entrances, not the number of tiles, and a search never allocates state for the whole map.
+ * This path finder listens to the map, so when a tile is blocked or opened only the cluster containing it (and, for tiles on a cluster
+ * border, the neighbouring cluster that shares that border) is rebuilt.
+ *
+ * Distances are measured over the obstacles only - straight steps cost 1 and diagonal steps cost sqrt(2) - since congestion changes far
+ * too quickly to be worth precomputing. Paths are close to, but not always exactly, the shortest available.
+ */
+public class HierarchicalPathFinder implements PathFinder, PathFindingContext, TileMapListener {
+
+  /** The default width and height of a cluster, in tiles. */
+  public static final int DEFAULT_CLUSTER_SIZE = 16;
+  /** The open stretch of border at which two entrances are used, rather than one. */
+  private static final int LONG_ENTRANCE_LENGTH = 6;
+  /** The cost multiplier for a diagonal step. */
+  private static final float SQRT2 = (float) Math.sqrt(2);
+  /** Marks an unreachable distance. */
+  private static final float UNREACHABLE = Float.MAX_VALUE;
+
+  /** The map being searched. */
+  private PedestrianTileBasedMap map;
+  /** The maximum number of abstract nodes that will be expanded before giving up. */
+  private int maxSearchDistance;
+  /** The width and height of a cluster, in tiles. */
+  private int clusterSize;
+  /** The width of the map, in tiles. */
+  private int width;
+  /** The height of the map, in tiles. */
+  private int height;
+  /** The number of clusters across the map. */
+  private int clustersWide;
+  /** The number of clusters down the map. */
+  private int clustersHigh;
+  /** The clusters, in row-major order. */
+  private Cluster[] clusters;
+  /** The most entrances any one cluster can have. Abstract node IDs are (cluster * maxEntrances) + entrance. */
+  private int maxEntrances;
+
+  /** The abstract node ID used for the start of a search. */
+  private int startNode;
+  /** The abstract node ID used for the target of a search. */
+  private int goalNode;
+  /** The best known cost of each abstract node, in the current search. */
+  private float[] cost;
+  /** The abstract node each abstract node was reached from, in the current search. */
+  private int[] parent;
+  /** Whether each abstract node has been expanded, in the current search. */
+  private boolean[] closed;
+  /** The search generation in which each abstract node was last reset. */
+  private int[] generation;
+  /** The generation of the current search. */
+  private int searchGeneration;
+  /** The abstract open list. */
+  private TileHeap open;
+  /** The distances from the start tile to each entrance of its cluster, in the current search. */
+  private float[] startDistances;
+  /** The distances from each entrance of the goal's cluster to the goal tile, in the current search. */
+  private float[] goalDistances;
+
+  /** The cost of each tile in the cluster being searched locally. */
+  private float[] localCost;
+  /** The tile each tile was reached from, in the local search. */
+  private int[] localParent;
+  /** The open list of the local search. */
+  private TileHeap localOpen;
+
+  /** The mover going through the path. */
+  private Mover mover;
+  /** The x coordinate of the tile currently being evaluated from. */
+  private int sourceX;
+  /** The y coordinate of the tile currently being evaluated from. */
+  private int sourceY;
+  /** The number of abstract nodes between the start and the node currently being evaluated. */
+  private int distance;
+
+  /** Creates a new HierarchicalPathFinder, with the default cluster size, and no limit on the size of a search. The abstract graph is small
+   * enough that even a search from one corner of a very large map to the other is affordable.
+   *
+   * @param map the map to be searched
+   */
+  public HierarchicalPathFinder(PedestrianTileBasedMap map) {
+    this(map, Integer.MAX_VALUE, DEFAULT_CLUSTER_SIZE);
+  }
+
+  /** Creates a new HierarchicalPathFinder, with the default cluster size.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum number of abstract nodes that will be expanded before giving up
+   */
+  public HierarchicalPathFinder(PedestrianTileBasedMap map, int maxSearchDistance) {
+    this(map, maxSearchDistance, DEFAULT_CLUSTER_SIZE);
+  }
+
+  /** Creates a new HierarchicalPathFinder, builds the abstract graph for the map, and starts listening for changes to the map.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum number of abstract nodes that will be expanded before giving up
+   * @param clusterSize the width and height of a cluster, in tiles
+   */
+  public HierarchicalPathFinder(PedestrianTileBasedMap map, int maxSearchDistance, int clusterSize) {
+    this.map = map;
+    this.maxSearchDistance = maxSearchDistance;
+    this.clusterSize = clusterSize;
+
+    width = map.getWidthInTiles();
+    height = map.getHeightInTiles();
+    clustersWide = (width + clusterSize - 1) / clusterSize;
+    clustersHigh = (height + clusterSize - 1) / clusterSize;
+    maxEntrances = 4*clusterSize;
+
+    clusters = new Cluster[clustersWide*clustersHigh];
+    for (int cy = 0; cy < clustersHigh; cy++) {
+      for (int cx = 0; cx < clustersWide; cx++) {
+        clusters[(cy*clustersWide) + cx] = new Cluster(cx*clusterSize, cy*clusterSize,
+                                                       Math.min(width, (cx+1)*clusterSize), Math.min(height, (cy+1)*clusterSize));
+      }
+    }
+
+    int abstractNodes = (clusters.length*maxEntrances) + 2;
+    startNode = abstractNodes - 2;
+    goalNode = abstractNodes - 1;
+    cost = new float[abstractNodes];
+    parent = new int[abstractNodes];
+    closed = new boolean[abstractNodes];
+    generation = new int[abstractNodes];
+    open = new TileHeap(abstractNodes);
+    startDistances = new float[maxEntrances];
+    goalDistances = new float[maxEntrances];
+
+    localCost = new float[clusterSize*clusterSize];
+    localParent = new int[clusterSize*clusterSize];
+    localOpen = new TileHeap(clusterSize*clusterSize);
+
+    rebuildAllClusters();
+    map.addTileMapListener(this);
+  }
+
+  /** Gets the total number of entrances across all clusters, i.e. the size of the abstract graph. */
+  public int getNumberOfEntrances() {
+    int total = 0;
+    for (Cluster cluster : clusters) {
+      total += cluster.entranceCount;
+    }
+
+    return total;
+  }
+
+  /**
+   * @see PathFinder#findPath(Mover, int, int, int, int)
+   */
+  public Path findPath(Mover mover, int sx, int sy, int tx, int ty) {
+    this.mover = mover;
+    this.sourceX = sx;
+    this.sourceY = sy;
+    this.distance = 0;
+
+    if (!inBounds(sx, sy) || map.blocked(this, tx, ty) || !map.reachable(this, sx, sy, tx, ty)) {
+      return null;
+    }
+
+    Cluster startCluster = clusterAt(sx, sy);
+    Cluster goalCluster = clusterAt(tx, ty);
+
+    // a target in the same cluster can usually be reached without leaving it, but
+    // it's still worth checking whether a way around, through other clusters, is shorter
+    float localCostToTarget = UNREACHABLE;
+    if (startCluster == goalCluster) {
+      localCostToTarget = localSearch(startCluster, sx, sy, tx, ty);
+    }
+
+    int[] abstractPath = abstractSearch(startCluster, sx, sy, goalCluster, tx, ty);
+    if ((abstractPath == null) || (cost[goalNode] >= localCostToTarget)) {
+      if (localCostToTarget >= UNREACHABLE) {
+        return null;
+      }
+
+      Path path = new Path();
+      localSearch(startCluster, sx, sy, tx, ty);
+      appendLocalPath(path, startCluster, sx, sy, tx, ty, true);
+      return path;
+    }
+
+    return refine(abstractPath, sx, sy, tx, ty);
+  }
+
+  /** Runs A* over the abstract graph, from the start tile to the goal tile.
+   *
+   * @return the abstract node IDs along the path (including the start and goal nodes), or null if there is no path
+   */
+  private int[] abstractSearch(Cluster startCluster, int sx, int sy, Cluster goalCluster, int tx, int ty) {
+    // connect the start and goal tiles to the entrances of their clusters
+    localDistancesToEntrances(startCluster, sx, sy, startDistances);
+    localDistancesToEntrances(goalCluster, tx, ty, goalDistances);
+
+    open.clear();
+    startNewGeneration();
+    touch(startNode);
+    touch(goalNode);
+    cost[startNode] = 0;
+    open.insertOrUpdate(startNode, octile(sx, sy, tx, ty), 0);
+
+    int goalClusterBase = clusterIndex(goalCluster)*maxEntrances;
+    int expansions = 0;
+
+    while ((expansions < maxSearchDistance) && !open.isEmpty()) {
+      int node = open.poll();
+      closed[node] = true;
+      if (node == goalNode) {
+        return buildAbstractPath();
+      }
+      expansions++;
+
+      if (node == startNode) {
+        int base = clusterIndex(startCluster)*maxEntrances;
+        for (int i = 0; i < startCluster.entranceCount; i++) {
+          relax(node, base + i, startDistances[i], tx, ty);
+        }
+        continue;
+      }
+
+      Cluster cluster = clusters[node / maxEntrances];
+      int entrance = node % maxEntrances;
+      int base = (node / maxEntrances)*maxEntrances;
+      int tile = cluster.entrances[entrance];
+      sourceX = tile % width;
+      sourceY = tile / width;
+
+      // edges to the other entrances of the same cluster
+      for (int j = 0; j < cluster.entranceCount; j++) {
+        if (j != entrance) {
+          relax(node, base + j, cluster.distances[(entrance*cluster.entranceCount) + j], tx, ty);
+        }
+      }
+
+      // the edge across the border, into the neighbouring cluster
+      for (int t = 0; t < cluster.transitionCount; t++) {
+        if (cluster.transitionFrom[t] == entrance) {
+          int partnerTile = cluster.transitionTo[t];
+          int partnerClusterIndex = clusterIndex(clusterAt(partnerTile % width, partnerTile / width));
+          int partnerEntrance = clusters[partnerClusterIndex].entranceSlotOf(partnerTile);
+          if (partnerEntrance >= 0) {
+            relax(node, (partnerClusterIndex*maxEntrances) + partnerEntrance, 1, tx, ty);
+          }
+        }
+      }
+
+      // and the edge to the goal, if this is one of the goal cluster's entrances
+      if (base == goalClusterBase) {
+        relax(node, goalNode, goalDistances[entrance], tx, ty);
+      }
+    }
+
+    return null;
+  }
+
+  /** Offers a cheaper way of reaching an abstract node to the open list. */
+  private void relax(int from, int to, float edgeCost, int tx, int ty) {
+    if (edgeCost >= UNREACHABLE) {
+      return;
+    }
+
+    touch(to);
+    float nextCost = cost[from] + edgeCost;
+    if (closed[to] || (nextCost >= cost[to])) {
+      return;
+    }
+
+    cost[to] = nextCost;
+    parent[to] = from;
+
+    float h = 0;
+    if (to != goalNode) {
+      int tile = clusters[to / maxEntrances].entrances[to % maxEntrances];
+      h = octile(tile % width, tile / width, tx, ty);
+    }
+    open.insertOrUpdate(to, nextCost + h, h);
+  }
+
+  /** Follows the parent links back from the goal node, to recover the abstract path. */
+  private int[] buildAbstractPath() {
+    int length = 0;
+    for (int node = goalNode; node >= 0; node = parent[node]) {
+      length++;
+    }
+
+    int[] path = new int[length];
+    for (int node = goalNode; node >= 0; node = parent[node]) {
+      path[--length] = node;
+    }
+    distance = path.length;
+
+    return path;
+  }
+
+  /** Turns an abstract path into a complete, tile-by-tile path. Each leg between two abstract nodes is either a single step across a cluster
+   * border, or a local search within one cluster.
+   */
+  private Path refine(int[] abstractPath, int sx, int sy, int tx, int ty) {
+    Path path = new Path();
+    path.appendStep(sx, sy);
+
+    int x = sx;
+    int y = sy;
+    for (int i = 1; i < abstractPath.length; i++) {
+      int nx = tx;
+      int ny = ty;
+      if (abstractPath[i] != goalNode) {
+        int tile = clusters[abstractPath[i] / maxEntrances].entrances[abstractPath[i] % maxEntrances];
+        nx = tile % width;
+        ny = tile / width;
+      }
+
+      if ((nx == x) && (ny == y)) {
+        continue;
+      }
+
+      Cluster cluster = clusterAt(x, y);
+      if (cluster != clusterAt(nx, ny)) {
+        path.appendStep(nx, ny);
+      } else {
+        localSearch(cluster, x, y, nx, ny);
+        appendLocalPath(path, cluster, x, y, nx, ny, false);
+      }
+
+      x = nx;
+      y = ny;
+    }
+
+    return path;
+  }
+
+  /** Appends the result of the most recent local search (from (sx, sy) to (tx, ty)) to a path.
+   *
+   * @param includeStart whether or not the start tile should be appended too
+   */
+  private void appendLocalPath(Path path, Cluster cluster, int sx, int sy, int tx, int ty, boolean includeStart) {
+    int steps = 0;
+    for (int local = cluster.localIndex(tx, ty); local >= 0; local = localParent[local]) {
+      steps++;
+    }
+
+    int[] tiles = new int[steps];
+    for (int local = cluster.localIndex(tx, ty); local >= 0; local = localParent[local]) {
+      tiles[--steps] = local;
+    }
+
+    for (int i = (includeStart ? 0 : 1); i < tiles.length; i++) {
+      path.appendStep(cluster.minX + (tiles[i] % clusterSize), cluster.minY + (tiles[i] / clusterSize));
+    }
+  }
+
+  /** Runs a Dijkstra search from (sx, sy), confined to one cluster, and records the distance to each of the cluster's entrances.
+   *
+   * @param distances the array in which the distance to each entrance is stored (UNREACHABLE for those that can't be reached)
+   */
+  private void localDistancesToEntrances(Cluster cluster, int sx, int sy, float[] distances) {
+    localSearch(cluster, sx, sy, -1, -1);
+    for (int i = 0; i < cluster.entranceCount; i++) {
+      int tile = cluster.entrances[i];
+      distances[i] = localCost[cluster.localIndex(tile % width, tile / width)];
+    }
+  }
+
+  /** Searches from (sx, sy) without leaving the given cluster. If a target is given, the search is an A* search that stops when the target
+   * is reached, otherwise it is a Dijkstra search of the whole cluster. Either way, the results are left in localCost and localParent.
+   *
+   * @param tx the x-coordinate of the target, or -1 to search the whole cluster
+   * @param ty the y-coordinate of the target, or -1 to search the whole cluster
+   * @return the cost of reaching the target, or UNREACHABLE
+   */
+  private float localSearch(Cluster cluster, int sx, int sy, int tx, int ty) {
+    Arrays.fill(localCost, UNREACHABLE);
+    Arrays.fill(localParent, -1);
+    localOpen.clear();
+
+    int start = cluster.localIndex(sx, sy);
+    localCost[start] = 0;
+    localOpen.insertOrUpdate(start, (tx < 0) ? 0 : octile(sx, sy, tx, ty), 0);
+
+    while (!localOpen.isEmpty()) {
+      int local = localOpen.poll();
+      int x = cluster.minX + (local % clusterSize);
+      int y = cluster.minY + (local / clusterSize);
+      if ((x == tx) && (y == ty)) {
+        return localCost[local];
+      }
+
+      sourceX = x;
+      sourceY = y;
+      for (int dx = -1; dx < 2; dx++) {
+        for (int dy = -1; dy < 2; dy++) {
+          int nx = x + dx;
+          int ny = y + dy;
+          if (((dx == 0) && (dy == 0)) || !cluster.contains(nx, ny) || map.blocked(this, nx, ny)) {
+            continue;
+          }
+          if ((dx != 0) && (dy != 0) && map.diagonallyBlocked(this, x, y, nx, ny)) {
+            continue;
+          }
+
+          int next = cluster.localIndex(nx, ny);
+          float nextCost = localCost[local] + (((dx != 0) && (dy != 0)) ? SQRT2 : 1);
+          if (nextCost < localCost[next]) {
+            localCost[next] = nextCost;
+            localParent[next] = local;
+            float h = (tx < 0) ? 0 : octile(nx, ny, tx, ty);
+            localOpen.insertOrUpdate(next, nextCost + h, h);
+          }
+        }
+      }
+    }
+
+    return UNREACHABLE;
+  }
+
+  /** Rebuilds the entrances, and the distances between them, for every cluster. */
+  private void rebuildAllClusters() {
+    for (Cluster cluster : clusters) {
+      rebuildCluster(cluster);
+    }
+  }
+
+  /** Recomputes a cluster's entrances (from the current state of its four borders), and the distances between them. */
+  private void rebuildCluster(Cluster cluster) {
+    cluster.entranceCount = 0;
+    cluster.transitionCount = 0;
+
+    // top and bottom borders
+    if (cluster.minY > 0) {
+      addBorderTransitions(cluster, cluster.minX, cluster.minY, 1, 0, cluster.maxX - cluster.minX, 0, -1);
+    }
+    if (cluster.maxY < height) {
+      addBorderTransitions(cluster, cluster.minX, cluster.maxY-1, 1, 0, cluster.maxX - cluster.minX, 0, 1);
+    }
+    // left and right borders
+    if (cluster.minX > 0) {
+      addBorderTransitions(cluster, cluster.minX, cluster.minY, 0, 1, cluster.maxY - cluster.minY, -1, 0);
+    }
+    if (cluster.maxX < width) {
+      addBorderTransitions(cluster, cluster.maxX-1, cluster.minY, 0, 1, cluster.maxY - cluster.minY, 1, 0);
+    }
+
+    int n = cluster.entranceCount;
+    cluster.distances = new float[n*n];
+    for (int i = 0; i < n; i++) {
+      int tile = cluster.entrances[i];
+      localSearch(cluster, tile % width, tile / width, -1, -1);
+      for (int j = 0; j < n; j++) {
+        int other = cluster.entrances[j];
+        cluster.distances[(i*n) + j] = localCost[cluster.localIndex(other % width, other / width)];
+      }
+    }
+  }
+
+  /** Walks along one border of a cluster, and adds a transition for each stretch of tiles that are open on both sides of the border.
+   *
+   * @param cluster the cluster whose border is being examined
+   * @param x the x-coordinate of the first border tile inside the cluster
+   * @param y the y-coordinate of the first border tile inside the cluster
+   * @param stepX the x direction along the border
+   * @param stepY the y direction along the border
+   * @param length the length of the border
+   * @param acrossX the x offset from a border tile to its partner in the neighbouring cluster
+   * @param acrossY the y offset from a border tile to its partner in the neighbouring cluster
+   */
+  private void addBorderTransitions(Cluster cluster, int x, int y, int stepX, int stepY, int length, int acrossX, int acrossY) {
+    int runStart = -1;
+    for (int i = 0; i <= length; i++) {
+      boolean open = (i < length) &&
+                     !map.blocked(this, x + (i*stepX), y + (i*stepY)) &&
+                     !map.blocked(this, x + (i*stepX) + acrossX, y + (i*stepY) + acrossY);
+
+      if (open && (runStart < 0)) {
+        runStart = i;
+      } else if (!open && (runStart >= 0)) {
+        int runEnd = i-1;
+        if ((runEnd - runStart + 1) < LONG_ENTRANCE_LENGTH) {
+          addTransition(cluster, x, y, stepX, stepY, (runStart + runEnd) / 2, acrossX, acrossY);
+        } else {
+          addTransition(cluster, x, y, stepX, stepY, runStart, acrossX, acrossY);
+          addTransition(cluster, x, y, stepX, stepY, runEnd, acrossX, acrossY);
+        }
+        runStart = -1;
+      }
+    }
+  }
+
+  /** Adds a single transition, at position i along a border. */
+  private void addTransition(Cluster cluster, int x, int y, int stepX, int stepY, int i, int acrossX, int acrossY) {
+    int tx = x + (i*stepX);
+    int ty = y + (i*stepY);
+    int tile = (ty*width) + tx;
+
+    int slot = cluster.entranceSlotOf(tile);
+    if (slot < 0) {
+      slot = cluster.entranceCount++;
+      cluster.entrances[slot] = tile;
+    }
+
+    cluster.transitionFrom[cluster.transitionCount] = slot;
+    cluster.transitionTo[cluster.transitionCount] = ((ty + acrossY)*width) + tx + acrossX;
+    cluster.transitionCount++;
+  }
+
+  @Override
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+    int cx = x / clusterSize;
+    int cy = y / clusterSize;
+    Cluster cluster = clusters[(cy*clustersWide) + cx];
+    rebuildCluster(cluster);
+
+    // a tile on a border also changes the entrances of the cluster on the other side
+    if ((x == cluster.minX) && (cx > 0))
+      rebuildCluster(clusters[(cy*clustersWide) + cx-1]);
+    if ((x == cluster.maxX-1) && (cx < clustersWide-1))
+      rebuildCluster(clusters[(cy*clustersWide) + cx+1]);
+    if ((y == cluster.minY) && (cy > 0))
+      rebuildCluster(clusters[((cy-1)*clustersWide) + cx]);
+    if ((y == cluster.maxY-1) && (cy < clustersHigh-1))
+      rebuildCluster(clusters[((cy+1)*clustersWide) + cx]);
+  }
+
+  @Override
+  public void tileMapReset(PedestrianTileBasedMap map) {
+    rebuildAllClusters();
+  }
+
+  /** The octile distance between two tiles. */
+  private float octile(int x1, int y1, int x2, int y2) {
+    int dx = Math.abs(x2 - x1);
+    int dy = Math.abs(y2 - y1);
+
+    return Math.max(dx, dy) + ((SQRT2-1)*Math.min(dx, dy));
+  }
+
+  /** Gets the cluster that contains the tile at (x, y). */
+  private Cluster clusterAt(int x, int y) {
+    return clusters[((y / clusterSize)*clustersWide) + (x / clusterSize)];
+  }
+
+  /** Gets the index of a cluster in the clusters array. */
+  private int clusterIndex(Cluster cluster) {
+    return ((cluster.minY / clusterSize)*clustersWide) + (cluster.minX / clusterSize);
+  }
+
+  /** Whether or not (x, y) is on the map. */
+  private boolean inBounds(int x, int y) {
+    return (x >= 0) && (y >= 0) && (x < width) && (y < height);
+  }
+
+  /** Moves on to the next search generation, resetting every abstract node if the counter ever wraps around. */
+  private void startNewGeneration() {
+    searchGeneration++;
+    if (searchGeneration == 0) {
+      Arrays.fill(generation, 0);
+      searchGeneration = 1;
+    }
+  }
+
+  /** Resets the search state of an abstract node, if it was last touched by an earlier search. */
+  private void touch(int node) {
+    if (generation[node] != searchGeneration) {
+      generation[node] = searchGeneration;
+      cost[node] = UNREACHABLE;
+      parent[node] = -1;
+      closed[node] = false;
+    }
+  }
+
+  /** A rectangular block of tiles, and the entrances along its borders. */
+  private class Cluster {
+    /** The x-coordinate of the left-most column of the cluster. */
+    private int minX;
+    /** The y-coordinate of the top-most row of the cluster. */
+    private int minY;
+    /** One past the x-coordinate of the right-most column of the cluster. */
+    private int maxX;
+    /** One past the y-coordinate of the bottom-most row of the cluster. */
+    private int maxY;
+
+    /** The tile indices of this cluster's entrances. */
+    private int[] entrances;
+    /** The number of entrances. */
+    private int entranceCount;
+    /** The distance from each entrance to each other entrance, without leaving the cluster, as an entranceCount x entranceCount matrix. */
+    private float[] distances;
+    /** For each transition, the entrance it leaves from. */
+    private int[] transitionFrom;
+    /** For each transition, the tile index it leads to, in the neighbouring cluster. */
+    private int[] transitionTo;
+    /** The number of transitions. */
+    private int transitionCount;
+
+    /** Creates a new, empty cluster covering the tiles from (minX, minY) up to, but not including, (maxX, maxY). */
+    public Cluster(int minX, int minY, int maxX, int maxY) {
+      this.minX = minX;
+      this.minY = minY;
+      this.maxX = maxX;
+      this.maxY = maxY;
+
+      entrances = new int[maxEntrances];
+      transitionFrom = new int[maxEntrances];
+      transitionTo = new int[maxEntrances];
+      distances = new float[0];
+    }
+
+    /** Whether or not the tile at (x, y) is inside this cluster. */
+    public boolean contains(int x, int y) {
+      return (x >= minX) && (y >= minY) && (x < maxX) && (y < maxY);
+    }
+
+    /** Gets the index of the tile at (x, y) within this cluster. */
+    public int localIndex(int x, int y) {
+      return ((y - minY)*clusterSize) + (x - minX);
+    }
+
+    /** Gets the entrance slot of the given tile index, or -1 if it is not one of this cluster's entrances. */
+    public int entranceSlotOf(int tile) {
+      for (int i = 0; i < entranceCount; i++) {
+        if (entrances[i] == tile) {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getMover()
+   */
+  public Mover getMover() {
+    return mover;
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getSearchDistance()
+   */
+  public int getSearchDistance() {
+    return distance;
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getSourceX()
+   */
+  public int getSourceX() {
+    return sourceX;
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getSourceY()
+   */
+  public int getSourceY() {
+    return sourceY;
+  }
+
+}
@@ -0,0 +1,541 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.newdawn.slick.util.pathfinding.Mover;
+import org.newdawn.slick.util.pathfinding.Path;
+import org.newdawn.slick.util.pathfinding.PathFinder;
+import org.newdawn.slick.util.pathfinding.PathFindingContext;
+
+/** An incremental path finder (D* Lite), for replanning after the map has been edited.
+ *
+ * A search tree is kept for each goal that has been asked for recently. The tree is grown backwards, from the goal toward the start, so
+ * Pedestrians at different places headed for the same goal share it - and when a tile is blocked or opened, only the part of each tree that
+ * depended on that tile is searched again. Asking for a path to a goal whose tree is already built, after a few edits, costs a small
+ * fraction of a fresh search.
+ *
+ * Distances are measured over the obstacles only - straight steps cost 1 and diagonal steps cost sqrt(2) - since every change in cost has
+ * to be repaired, and congestion changes far too often for that. A diagonal step is allowed unless both of the tiles beside it are blocked.
+ * The start tile may itself be blocked (e.g. a Pedestrian who has had an obstacle painted on top of them), so that they can walk out.
+ *
+ * The number of trees kept is bounded, and the least recently used tree is thrown away when a new goal needs room. A tree only holds state
+ * for the chunks of the map it has searched, and the chunks (and open list) of a tree that's thrown away are handed on to the next new one,
+ * so a steady stream of new goals doesn't keep allocating whole-map arrays.
+ *
+ * Given a fallback PathFinder, the first request for a goal is passed on to it instead, and a tree is only built if the same goal is asked
+ * for again while it's still remembered - a tree is only worth building for a goal whose paths keep needing to be repaired.
+ */
+public class IncrementalPathFinder implements PathFinder, PathFindingContext, TileMapListener {
+
+  /** The default number of goals for which search trees are kept. */
+  public static final int DEFAULT_MAX_GOALS = 64;
+  /** The cost of a path that doesn't exist. */
+  private static final float UNREACHABLE = Float.POSITIVE_INFINITY;
+  /** How close two keys have to be to be treated as a tie. */
+  private static final float KEY_TOLERANCE = 0.001f;
+  /** The cost multiplier for a diagonal step. */
+  private static final float SQRT2 = (float) Math.sqrt(2);
+  /** The change in x for each of the eight steps. The first four are straight. */
+  private static final int[] DX = {0, 0, -1, 1, -1, 1, -1, 1};
+  /** The change in y for each of the eight steps. The first four are straight. */
+  private static final int[] DY = {-1, 1, 0, 0, -1, -1, 1, 1};
+
+  /** The map being searched. */
+  private PedestrianTileBasedMap map;
+  /** The maximum number of tiles that will be expanded by one call to findPath(). */
+  private int maxSearchDistance;
+  /** The most goals for which search trees are kept. */
+  private int maxGoals;
+  /** Numbers the tiles of the map in the chunks that the trees keep their state in. */
+  private ChunkedTileIndex tiles;
+  /** The search trees, keyed by goal tile index, in least-recently-used order. */
+  private LinkedHashMap<Integer, Plan> plans;
+  /** The path finder used for the first request for a goal, or null to build a tree straight away. */
+  private PathFinder fallback;
+  /** The goals that have been passed on to the fallback once, and will get a tree if they're asked for again, in least-recently-used order. */
+  private LinkedHashMap<Integer, Boolean> fallbackGoals;
+  /** Chunks of tree state given up by trees that have been thrown away, ready for new ones. */
+  private ArrayList<float[]> spareChunks;
+  /** Open lists given up by trees that have been thrown away, ready for new ones. */
+  private ArrayList<TileHeap> spareOpenLists;
+
+  /** The number of tiles expanded by every search so far. */
+  private long expansions;
+  /** Whether the last search gave up because it ran out of expansions, rather than because there is no path. */
+  private boolean ranOutOfExpansions;
+
+  /** The mover going through the path. */
+  private Mover mover;
+  /** The x coordinate of the start of the current search. */
+  private int sourceX;
+  /** The y coordinate of the start of the current search. */
+  private int sourceY;
+
+  /** Creates a new IncrementalPathFinder, which keeps trees for the default number of goals.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum number of tiles that will be expanded by one call to findPath()
+   */
+  public IncrementalPathFinder(PedestrianTileBasedMap map, int maxSearchDistance) {
+    this(map, maxSearchDistance, DEFAULT_MAX_GOALS);
+  }
+
+  /** Creates a new IncrementalPathFinder, and starts listening for changes to the map.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum number of tiles that will be expanded by one call to findPath(). A search that runs out is not
+   * wasted - the tree is left in a state that the next search toward the same goal carries on from.
+   * @param maxGoals the most goals for which search trees are kept. Each tree takes 8 bytes per tile of the chunks of the map it has
+   * searched, plus its open list.
+   */
+  public IncrementalPathFinder(PedestrianTileBasedMap map, int maxSearchDistance, int maxGoals) {
+    this(map, maxSearchDistance, maxGoals, null);
+  }
+
+  /** Creates a new IncrementalPathFinder, and starts listening for changes to the map.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum number of tiles that will be expanded by one call to findPath(). A search that runs out is not
+   * wasted - the tree is left in a state that the next search toward the same goal carries on from.
+   * @param maxGoals the most goals for which search trees are kept. Each tree takes 8 bytes per tile of the chunks of the map it has
+   * searched, plus its open list.
+   * @param fallback the path finder used for the first request for each goal, or null to build a search tree for every goal
+   */
+  public IncrementalPathFinder(PedestrianTileBasedMap map, int maxSearchDistance, int maxGoals, PathFinder fallback) {
+    this.map = map;
+    this.maxSearchDistance = maxSearchDistance;
+    this.maxGoals = maxGoals;
+    this.fallback = fallback;
+
+    tiles = new ChunkedTileIndex(map.getWidthInTiles(), map.getHeightInTiles());
+    spareChunks = new ArrayList<float[]>();
+    spareOpenLists = new ArrayList<TileHeap>();
+    plans = new LinkedHashMap<Integer, Plan>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Plan> eldest) {
+        if (size() > IncrementalPathFinder.this.maxGoals) {
+          eldest.getValue().recycle();
+          return true;
+        }
+        return false;
+      }
+    };
+    fallbackGoals = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+        return (size() > IncrementalPathFinder.this.maxGoals);
+      }
+    };
+
+    map.addTileMapListener(this);
+  }
+
+  /**
+   * @see PathFinder#findPath(Mover, int, int, int, int)
+   */
+  public Path findPath(Mover mover, int sx, int sy, int tx, int ty) {
+    CompactPath path = findCompactPath(mover, sx, sy, tx, ty);
+    return ((path == null) ? null : path.toPath());
+  }
+
+  /** Finds a path, just as findPath() does, but without creating a Step object for every step of it.
+   *
+   * @see PathFinder#findPath(Mover, int, int, int, int)
+   */
+  public CompactPath findCompactPath(Mover mover, int sx, int sy, int tx, int ty) {
+    this.mover = mover;
+    this.sourceX = sx;
+    this.sourceY = sy;
+    this.ranOutOfExpansions = false;
+
+    if (!tiles.contains(sx, sy) || map.blocked(this, tx, ty) || !map.reachable(this, sx, sy, tx, ty)) {
+      return null;
+    }
+
+    Integer goal = tiles.indexOf(tx, ty);
+    Plan plan = plans.get(goal);
+    if (plan == null) {
+      if ((fallback != null) && (fallbackGoals.remove(goal) == null)) {
+        fallbackGoals.put(goal, Boolean.TRUE);
+        // the goal is known to be reachable (or, on a map too big to be indexed, can't be ruled out), so the fallback finding nothing means
+        // it gave up
+        CompactPath path = CompactPath.fromPath(fallback.findPath(mover, sx, sy, tx, ty), true);
+        ranOutOfExpansions = (path == null);
+        return path;
+      }
+
+      plan = new Plan(goal);
+      plans.put(goal, plan);
+    }
+
+    int start = tiles.indexOf(sx, sy);
+    plan.moveStartTo(start);
+    if (!plan.computeShortestPath()) {
+      return null;
+    }
+
+    return plan.buildPath();
+  }
+
+  /** Whether the last call to findPath() or findCompactPath() returned null because the search ran out of expansions, rather than because
+   * the goal can't be reached. A search that ran out can simply be asked again - its tree carries on from where it stopped.
+   */
+  public boolean ranOutOfExpansions() {
+    return ranOutOfExpansions;
+  }
+
+  /** Gets the total number of tiles expanded by every search so far, including the repairs made after edits. */
+  public long getExpansions() {
+    return expansions;
+  }
+
+  /** Gets the number of goals for which search trees are currently kept. */
+  public int getNumberOfGoals() {
+    return plans.size();
+  }
+
+  /** Throws away every search tree, and forgets which goals have been passed on to the fallback. */
+  public void clear() {
+    for (Plan plan : plans.values()) {
+      plan.recycle();
+    }
+    plans.clear();
+    fallbackGoals.clear();
+  }
+
+  @Override
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+    // a tile's own state only changes the steps onto it, and the diagonal steps past it - all of which are taken from its neighbours
+    for (Plan plan : plans.values()) {
+      for (int d = 0; d < 8; d++) {
+        int nx = x + DX[d];
+        int ny = y + DY[d];
+        if (tiles.contains(nx, ny)) {
+          plan.updateRhs(tiles.indexOf(nx, ny));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void tileMapReset(PedestrianTileBasedMap map) {
+    clear();
+  }
+
+  @Override
+  public Mover getMover() {
+    return mover;
+  }
+
+  @Override
+  public int getSearchDistance() {
+    return 0;
+  }
+
+  @Override
+  public int getSourceX() {
+    return sourceX;
+  }
+
+  @Override
+  public int getSourceY() {
+    return sourceY;
+  }
+
+  /** The cost of a single step from tile 'from' in direction d, or UNREACHABLE if the step isn't allowed. */
+  private float stepCost(int from, int d) {
+    int x = tiles.xOf(from);
+    int y = tiles.yOf(from);
+    int nx = x + DX[d];
+    int ny = y + DY[d];
+
+    if (!tiles.contains(nx, ny) || map.blocked(this, nx, ny)) {
+      return UNREACHABLE;
+    }
+    if (d >= 4) {
+      return (map.diagonallyBlocked(this, x, y, nx, ny) ? UNREACHABLE : SQRT2);
+    }
+    return 1;
+  }
+
+  /** The octile distance between two tiles - the length of the shortest path between them, if there were no obstacles. */
+  private float octile(int a, int b) {
+    int dx = Math.abs(tiles.xOf(a) - tiles.xOf(b));
+    int dy = Math.abs(tiles.yOf(a) - tiles.yOf(b));
+    return Math.max(dx, dy) + ((SQRT2 - 1)*Math.min(dx, dy));
+  }
+
+  /** The tile one step from 'tile' in direction d, or -1 if that's off the map. */
+  private int neighbour(int tile, int d) {
+    int nx = tiles.xOf(tile) + DX[d];
+    int ny = tiles.yOf(tile) + DY[d];
+    return (tiles.contains(nx, ny) ? tiles.indexOf(nx, ny) : -1);
+  }
+
+  /** The tile one step back from 'tile' against direction d - the tile that reaches 'tile' by a step in direction d - or -1 if that's off
+   * the map. */
+  private int predecessor(int tile, int d) {
+    int px = tiles.xOf(tile) - DX[d];
+    int py = tiles.yOf(tile) - DY[d];
+    return (tiles.contains(px, py) ? tiles.indexOf(px, py) : -1);
+  }
+
+  /** Gets a chunk of tree state with every tile unreachable, reusing one given up by a thrown-away tree if there is one. */
+  private float[] newChunk() {
+    float[] chunk;
+    if (spareChunks.isEmpty()) {
+      chunk = new float[ChunkedTileIndex.CHUNK_AREA];
+    } else {
+      chunk = spareChunks.remove(spareChunks.size() - 1);
+    }
+    Arrays.fill(chunk, UNREACHABLE);
+    return chunk;
+  }
+
+  /** The search tree toward a single goal. g is the settled cost from each tile to the goal, and rhs is the cost implied by its neighbours'
+   * g values; a tile whose two values differ is inconsistent, and sits in the open list until it is expanded. Both are kept in chunks, which
+   * are only allocated when a tile in them is given a cost - a tile in a missing chunk is unreachable.
+   */
+  private class Plan {
+
+    /** The goal tile. */
+    private int goal;
+    /** The start tile of the most recent search. */
+    private int lastStart;
+    /** The key modifier, which grows each time the start moves, so that keys already in the open list stay valid. */
+    private float km;
+    /** The settled cost from each tile to the goal, by chunk. */
+    private float[][] g;
+    /** The one-step lookahead cost from each tile to the goal, by chunk. */
+    private float[][] rhs;
+    /** The inconsistent tiles, keyed by (min(g, rhs) + heuristic + km, min(g, rhs)). */
+    private TileHeap open;
+
+    public Plan(int goal) {
+      this.goal = goal;
+      lastStart = -1;
+
+      g = new float[tiles.getNumberOfChunks()][];
+      rhs = new float[tiles.getNumberOfChunks()][];
+      if (spareOpenLists.isEmpty()) {
+        open = new TileHeap(tiles.getCapacity());
+      } else {
+        open = spareOpenLists.remove(spareOpenLists.size() - 1);
+      }
+
+      setRhs(goal, 0);
+      open.insertOrUpdate(goal, octile(goal, goal), 0);
+    }
+
+    /** Hands this tree's chunks and open list on to the next new tree. The tree can't be used afterwards. */
+    public void recycle() {
+      for (float[][] chunks : new float[][][] {g, rhs}) {
+        for (float[] chunk : chunks) {
+          if (chunk != null) {
+            spareChunks.add(chunk);
+          }
+        }
+      }
+      g = null;
+      rhs = null;
+
+      open.clear();
+      spareOpenLists.add(open);
+      open = null;
+    }
+
+    /** Gets the settled cost from a tile to the goal. */
+    private float g(int tile) {
+      float[] chunk = g[tile >>> ChunkedTileIndex.CHUNK_AREA_SHIFT];
+      return ((chunk == null) ? UNREACHABLE : chunk[tile & ChunkedTileIndex.CHUNK_AREA_MASK]);
+    }
+
+    /** Gets the one-step lookahead cost from a tile to the goal. */
+    private float rhs(int tile) {
+      float[] chunk = rhs[tile >>> ChunkedTileIndex.CHUNK_AREA_SHIFT];
+      return ((chunk == null) ? UNREACHABLE : chunk[tile & ChunkedTileIndex.CHUNK_AREA_MASK]);
+    }
+
+    /** Sets the settled cost from a tile to the goal. */
+    private void setG(int tile, float cost) {
+      float[] chunk = g[tile >>> ChunkedTileIndex.CHUNK_AREA_SHIFT];
+      if (chunk == null) {
+        if (cost == UNREACHABLE) {
+          return;
+        }
+        chunk = newChunk();
+        g[tile >>> ChunkedTileIndex.CHUNK_AREA_SHIFT] = chunk;
+      }
+      chunk[tile & ChunkedTileIndex.CHUNK_AREA_MASK] = cost;
+    }
+
+    /** Sets the one-step lookahead cost from a tile to the goal. */
+    private void setRhs(int tile, float cost) {
+      float[] chunk = rhs[tile >>> ChunkedTileIndex.CHUNK_AREA_SHIFT];
+      if (chunk == null) {
+        if (cost == UNREACHABLE) {
+          return;
+        }
+        chunk = newChunk();
+        rhs[tile >>> ChunkedTileIndex.CHUNK_AREA_SHIFT] = chunk;
+      }
+      chunk[tile & ChunkedTileIndex.CHUNK_AREA_MASK] = cost;
+    }
+
+    /** Moves the start of the search, raising the key modifier by however far the start moved. */
+    public void moveStartTo(int start) {
+      if (lastStart < 0) {
+        // the goal was keyed with no start at all, so re-key it now
+        lastStart = start;
+        open.insertOrUpdate(goal, octile(start, goal), 0);
+      } else if (start != lastStart) {
+        km += octile(lastStart, start);
+        lastStart = start;
+      }
+    }
+
+    /** Recalculates the one-step lookahead cost of a tile from its neighbours, and puts it in (or takes it out of) the open list. */
+    public void updateRhs(int tile) {
+      if (tile != goal) {
+        float best = UNREACHABLE;
+        for (int d = 0; d < 8; d++) {
+          float step = stepCost(tile, d);
+          if (step != UNREACHABLE) {
+            float candidate = step + g(neighbour(tile, d));
+            if (candidate < best) {
+              best = candidate;
+            }
+          }
+        }
+        setRhs(tile, best);
+      }
+
+      updateVertex(tile);
+    }
+
+    /** Puts a tile in the open list with its current key if it is inconsistent, or takes it out if it isn't. */
+    private void updateVertex(int tile) {
+      float settled = g(tile);
+      float lookahead = rhs(tile);
+      if (settled != lookahead) {
+        float m = Math.min(settled, lookahead);
+        open.insertOrUpdate(tile, m + octile(lastStart, tile) + km, m);
+      } else {
+        open.remove(tile);
+      }
+    }
+
+    /** Expands inconsistent tiles until the start is consistent, and no tile in the open list could offer it a cheaper path.
+     *
+     * @return true if a path from the start to the goal exists, false if there is none, or the search ran out of expansions
+     */
+    public boolean computeShortestPath() {
+      int start = lastStart;
+      int expanded = 0;
+
+      while (!open.isEmpty()) {
+        float startKey = Math.min(g(start), rhs(start)) + km;
+        float topKey = open.peekKey();
+        // the heuristic is exact along straight and diagonal lines, so keys often tie with the start's exactly, and rounding can tip them
+        // either way - anything that ties (give or take rounding) is expanded, to be sure the start's neighbours are all settled
+        if ((topKey > startKey + KEY_TOLERANCE) && (g(start) == rhs(start))) {
+          break;
+        }
+        if (expanded >= maxSearchDistance) {
+          ranOutOfExpansions = true;
+          return false;
+        }
+
+        int u = open.peek();
+        float gu = g(u);
+        float rhsu = rhs(u);
+        float m = Math.min(gu, rhsu);
+        float newKey = m + octile(start, u) + km;
+        expanded++;
+        expansions++;
+
+        if (topKey < newKey) {
+          // the start has moved since this tile was keyed
+          open.insertOrUpdate(u, newKey, m);
+        } else if (gu > rhsu) {
+          setG(u, rhsu);
+          open.remove(u);
+          relaxPredecessors(u);
+        } else {
+          setG(u, UNREACHABLE);
+          updateRhs(u);
+          for (int d = 0; d < 8; d++) {
+            int p = predecessor(u, d);
+            if (p >= 0) {
+              updateRhs(p);
+            }
+          }
+        }
+      }
+
+      return (g(start) != UNREACHABLE);
+    }
+
+    /** Lowers the lookahead cost of every tile that can step onto u, now that u's cost has been settled. */
+    private void relaxPredecessors(int u) {
+      float gu = g(u);
+
+      for (int d = 0; d < 8; d++) {
+        int p = predecessor(u, d);
+        if ((p >= 0) && (p != goal)) {
+          float step = stepCost(p, d);
+          if ((step != UNREACHABLE) && (step + gu < rhs(p))) {
+            setRhs(p, step + gu);
+            updateVertex(p);
+          }
+        }
+      }
+    }
+
+    /** Walks from the start to the goal, always stepping to the neighbour with the cheapest cost to the goal.
+     *
+     * @return the path, or null if the tree doesn't lead to the goal
+     */
+    public CompactPath buildPath() {
+      CompactPath path = new CompactPath(true);
+      int tile = lastStart;
+      path.appendStep(tiles.xOf(tile), tiles.yOf(tile));
+
+      for (int steps = 0; tile != goal; steps++) {
+        if (steps > tiles.getWidth()*tiles.getHeight()) {
+          return null;
+        }
+
+        int next = -1;
+        float best = UNREACHABLE;
+        for (int d = 0; d < 8; d++) {
+          float step = stepCost(tile, d);
+          if (step != UNREACHABLE) {
+            int n = neighbour(tile, d);
+            if (step + g(n) < best) {
+              best = step + g(n);
+              next = n;
+            }
+          }
+        }
+
+        if (next < 0) {
+          return null;
+        }
+        tile = next;
+        path.appendStep(tiles.xOf(tile), tiles.yOf(tile));
+      }
+
+      return path;
+    }
+
+  }
+
+}
@@ -0,0 +1,554 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.Arrays;
+
+import org.newdawn.slick.util.pathfinding.Mover;
+import org.newdawn.slick.util.pathfinding.Path;
+import org.newdawn.slick.util.pathfinding.PathFinder;
+import org.newdawn.slick.util.pathfinding.PathFindingContext;
+
+/** A path finder that uses Jump Point Search (JPS) across the uncongested parts of a map, and falls back to ordinary A* steps where
+ * congestion makes the cost of the map non-uniform.
+ *
+ * On an open grid, plain A* expands every one of the many symmetric, equal-cost paths to a target. JPS instead "jumps" in straight lines,
+ * only stopping to expand a tile when an obstacle forces a change of direction, which removes almost all of those expansions. That trick
+ * is only valid while every tile costs the same, so any tile whose cost rises above the uniform cost (i.e. a congested tile) is treated as
+ * a jump point, and is expanded one neighbour at a time, the same way PedestrianPathFinder would.
+ *
+ * Checking the tiles around every step of a jump for congestion would cost more than the expansions it saves, so the map is first asked
+ * for the highest cost in each chunk of tiles (see {@link ExtendedTileBasedMap#getHighestCost}), and only chunks where that's above the
+ * uniform cost have their tiles checked one by one. When most of the chunks between the start and the target are congested, hardly any of
+ * the search could jump, so the whole search is handed to a PedestrianPathFinder instead.
+ *
+ * Diagonal moves follow the same rule as the rest of the path finding package - a diagonal step is allowed unless
+ * {@link ExtendedTileBasedMap#diagonallyBlocked} says that both of the tiles beside it are blocked. Unlike PedestrianPathFinder, diagonal
+ * steps cost sqrt(2) times as much as straight ones, which is what keeps the jumps symmetric.
+ *
+ * The paths returned contain every tile along the way (not just the jump points), so they can be used anywhere a PedestrianPathFinder path can.
+ *
+ * The search state of each tile is kept in chunks, numbered by a ChunkedTileIndex, and a chunk is only allocated the first time a search
+ * reaches one of its tiles - so a path finder for a huge map only costs memory in proportion to the area its searches have covered.
+ */
+public class JumpPointPathFinder implements PathFinder, PathFindingContext {
+
+  /** The default weight given to the heuristic in congested areas, which keeps paths optimal. */
+  public static final float DEFAULT_HEURISTIC_WEIGHT = 1.0f;
+  /** The default cost of an uncongested tile. */
+  public static final float DEFAULT_UNIFORM_COST = 1.0f;
+  /** How far above the uniform cost a tile may be, before it is considered congested. */
+  private static final float COST_TOLERANCE = 0.01f;
+  /** The fraction of the chunks between the start and the target that may be congested, before a search is handed to plain A*. */
+  private static final float CROWDED_FRACTION = 0.5f;
+  /** The cost multiplier for a diagonal step. */
+  private static final float SQRT2 = (float) Math.sqrt(2);
+  /** The number of bits of a tile index that give its position within its chunk. */
+  private static final int SHIFT = ChunkedTileIndex.CHUNK_AREA_SHIFT;
+  /** Masks the position within a chunk out of a tile index. */
+  private static final int MASK = ChunkedTileIndex.CHUNK_AREA_MASK;
+
+  /** The map being searched. */
+  private ExtendedTileBasedMap map;
+  /** The maximum number of nodes that will be expanded before giving up. */
+  private int maxSearchDistance;
+  /** The cost of a single step across an uncongested tile. */
+  private float uniformCost;
+  /** The weight applied to the heuristic of tiles reached by expanding a node in or next to congestion. */
+  private float heuristicWeight;
+  /** Numbers the tiles of the map, in the chunks their search state is kept in. */
+  private ChunkedTileIndex tiles;
+
+  /** The best known cost of reaching each tile, in the current search, by chunk. */
+  private float[][] cost;
+  /** The tile each tile was reached from, in the current search, or -1 for the start tile, by chunk. */
+  private int[][] parent;
+  /** The search depth (number of jump points) of each tile, in the current search, by chunk. */
+  private int[][] depth;
+  /** Whether each tile has been expanded, in the current search, by chunk. */
+  private boolean[][] closed;
+  /** The search generation in which each tile's state was last reset, by chunk. Null until a search first reaches the chunk. */
+  private int[][] generation;
+  /** The generation of the current search. */
+  private int searchGeneration;
+  /** The cost of each tile as read from the map (in the low 32 bits), and the search generation in which it was read (in the high 32), by
+   * chunk. Null until a search first reads the chunk. They're kept together since jumps read them more than anything else. */
+  private long[][] tileCosts;
+  /** The search generation in which each chunk was checked for congestion. */
+  private int[] chunkCheckedIn;
+  /** Whether each chunk, and the tiles just around it, was found to have no congestion. Only meaningful in the generation it was checked. */
+  private boolean[] chunkIsUniform;
+  /** The open list. */
+  private TileHeap open;
+  /** The path finder that searches through crowded parts of the map, created the first time one is searched. */
+  private PedestrianPathFinder crowdedPathFinder;
+
+  /** The mover going through the path. */
+  private Mover mover;
+  /** The x coordinate of the tile currently being evaluated from. */
+  private int sourceX;
+  /** The y coordinate of the tile currently being evaluated from. */
+  private int sourceY;
+  /** The search depth of the tile currently being expanded. */
+  private int distance;
+  /** The x coordinate of the target of the current search. */
+  private int targetX;
+  /** The y coordinate of the target of the current search. */
+  private int targetY;
+
+  /** Creates a new JumpPointPathFinder, with the default uniform cost and heuristic weight.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum number of nodes that will be expanded before giving up
+   */
+  public JumpPointPathFinder(ExtendedTileBasedMap map, int maxSearchDistance) {
+    this(map, maxSearchDistance, DEFAULT_UNIFORM_COST, DEFAULT_HEURISTIC_WEIGHT);
+  }
+
+  /** Creates a new JumpPointPathFinder.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum number of nodes that will be expanded before giving up
+   * @param uniformCost the cost of an uncongested tile. Any tile whose cost is at or below this value is treated as costing exactly this much.
+   * @param heuristicWeight the weight applied to the heuristic of tiles reached through congestion. 1 gives optimal paths; larger values
+   * expand fewer nodes through congestion, at the expense of the paths through it. Jumps across uncongested tiles are never weighted.
+   */
+  public JumpPointPathFinder(ExtendedTileBasedMap map, int maxSearchDistance, float uniformCost, float heuristicWeight) {
+    this.map = map;
+    this.maxSearchDistance = maxSearchDistance;
+    this.uniformCost = uniformCost;
+    this.heuristicWeight = heuristicWeight;
+
+    tiles = new ChunkedTileIndex(map.getWidthInTiles(), map.getHeightInTiles());
+    int chunks = tiles.getNumberOfChunks();
+
+    cost = new float[chunks][];
+    parent = new int[chunks][];
+    depth = new int[chunks][];
+    closed = new boolean[chunks][];
+    generation = new int[chunks][];
+    tileCosts = new long[chunks][];
+    chunkCheckedIn = new int[chunks];
+    chunkIsUniform = new boolean[chunks];
+    open = new TileHeap(tiles.getCapacity());
+  }
+
+  /**
+   * @see PathFinder#findPath(Mover, int, int, int, int)
+   */
+  public Path findPath(Mover mover, int sx, int sy, int tx, int ty) {
+    this.mover = mover;
+    this.sourceX = sx;
+    this.sourceY = sy;
+    this.distance = 0;
+    this.targetX = tx;
+    this.targetY = ty;
+
+    if (!tiles.contains(sx, sy) || map.blocked(this, tx, ty) || !map.reachable(this, sx, sy, tx, ty)) {
+      return null;
+    }
+
+    startNewGeneration();
+    if (isCrowded(sx, sy, tx, ty)) {
+      if (crowdedPathFinder == null) {
+        crowdedPathFinder = new PedestrianPathFinder(map, maxSearchDistance, true);
+      }
+      return crowdedPathFinder.findPath(mover, sx, sy, tx, ty);
+    }
+    open.clear();
+
+    int start = tiles.indexOf(sx, sy);
+    touch(start);
+    cost[start >>> SHIFT][start & MASK] = 0;
+    open.insertOrUpdate(start, heuristic(sx, sy), 0);
+
+    int expansions = 0;
+    while ((expansions < maxSearchDistance) && !open.isEmpty()) {
+      int current = open.poll();
+      closed[current >>> SHIFT][current & MASK] = true;
+
+      int x = tiles.xOf(current);
+      int y = tiles.yOf(current);
+      if ((x == tx) && (y == ty)) {
+        return buildPath(current);
+      }
+
+      distance = depth[current >>> SHIFT][current & MASK];
+      expand(current, x, y);
+      expansions++;
+    }
+
+    return null;
+  }
+
+  /** Expands a single node, adding each of its successors to the open list.
+   *
+   * @param node the tile index of the node being expanded
+   * @param x the x-coordinate of the node
+   * @param y the y-coordinate of the node
+   */
+  private void expand(int node, int x, int y) {
+    sourceX = x;
+    sourceY = y;
+
+    boolean nodeIsCongested = isCongested(x, y);
+    int from = parent[node >>> SHIFT][node & MASK];
+    boolean nearCongestion = nodeIsCongested || isNextToCongestion(x, y) || ((from >= 0) && isCongested(tiles.xOf(from), tiles.yOf(from)));
+
+    if ((from < 0) || nearCongestion) {
+      // either there's no direction of travel, or the costs around here aren't uniform, and
+      // the pruning rules no longer hold - so consider every neighbour
+      for (int dx = -1; dx < 2; dx++) {
+        for (int dy = -1; dy < 2; dy++) {
+          if ((dx != 0) || (dy != 0)) {
+            tryDirection(node, x, y, dx, dy, nodeIsCongested, nearCongestion);
+          }
+        }
+      }
+      return;
+    }
+
+    int dx = Integer.signum(x - tiles.xOf(from));
+    int dy = Integer.signum(y - tiles.yOf(from));
+
+    if ((dx != 0) && (dy != 0)) {
+      boolean verticalOpen = walkable(x, y+dy);
+      boolean horizontalOpen = walkable(x+dx, y);
+
+      if (verticalOpen)
+        tryDirection(node, x, y, 0, dy, false, false);
+      if (horizontalOpen)
+        tryDirection(node, x, y, dx, 0, false, false);
+      if (verticalOpen || horizontalOpen)
+        tryDirection(node, x, y, dx, dy, false, false);
+      if (!walkable(x-dx, y) && verticalOpen)
+        tryDirection(node, x, y, -dx, dy, false, false);
+      if (!walkable(x, y-dy) && horizontalOpen)
+        tryDirection(node, x, y, dx, -dy, false, false);
+    } else if (dx == 0) {
+      if (walkable(x, y+dy)) {
+        tryDirection(node, x, y, 0, dy, false, false);
+        if (!walkable(x+1, y))
+          tryDirection(node, x, y, 1, dy, false, false);
+        if (!walkable(x-1, y))
+          tryDirection(node, x, y, -1, dy, false, false);
+      }
+    } else {
+      if (walkable(x+dx, y)) {
+        tryDirection(node, x, y, dx, 0, false, false);
+        if (!walkable(x, y+1))
+          tryDirection(node, x, y, dx, 1, false, false);
+        if (!walkable(x, y-1))
+          tryDirection(node, x, y, dx, -1, false, false);
+      }
+    }
+  }
+
+  /** Looks for a successor of a node in the given direction, and adds it to the open list if it improves on what is already known.
+   *
+   * @param node the tile index of the node being expanded
+   * @param x the x-coordinate of the node
+   * @param y the y-coordinate of the node
+   * @param dx the x component of the direction (-1, 0, or 1)
+   * @param dy the y component of the direction (-1, 0, or 1)
+   * @param singleStep if true, only the immediate neighbour is considered (i.e. a plain A* step), otherwise the search jumps
+   * @param weighted whether the heuristic weight applies to the successor, because the node is in or next to congestion
+   */
+  private void tryDirection(int node, int x, int y, int dx, int dy, boolean singleStep, boolean weighted) {
+    if (!canStep(x, y, dx, dy)) {
+      return;
+    }
+
+    int successor = singleStep ? tiles.indexOf(x+dx, y+dy) : jump(x+dx, y+dy, dx, dy);
+    if (successor < 0) {
+      return;
+    }
+
+    int jx = tiles.xOf(successor);
+    int jy = tiles.yOf(successor);
+    int steps = Math.max(Math.abs(jx-x), Math.abs(jy-y));
+    float stepLength = ((dx != 0) && (dy != 0)) ? SQRT2 : 1;
+
+    // every step of a jump crosses uncongested tiles, except (possibly) the last one
+    int nodeChunk = node >>> SHIFT;
+    int nodeSlot = node & MASK;
+    float nextCost = cost[nodeChunk][nodeSlot] + (stepLength*uniformCost*(steps-1)) + (stepLength*tileCost(jx, jy));
+
+    touch(successor);
+    int chunk = successor >>> SHIFT;
+    int slot = successor & MASK;
+    if (closed[chunk][slot] || (open.contains(successor) && (nextCost >= cost[chunk][slot]))) {
+      return;
+    }
+
+    map.pathFinderVisited(jx, jy);
+    cost[chunk][slot] = nextCost;
+    parent[chunk][slot] = node;
+    depth[chunk][slot] = depth[nodeChunk][nodeSlot]+1;
+
+    float h = heuristic(jx, jy);
+    if (weighted) {
+      h *= heuristicWeight;
+    }
+    open.insertOrUpdate(successor, nextCost + h, h);
+  }
+
+  /** Travels from (x, y) in the direction (dx, dy) until a jump point is found, or the way is blocked.
+   *
+   * @param x the x-coordinate of the first tile to examine
+   * @param y the y-coordinate of the first tile to examine
+   * @param dx the x component of the direction of travel
+   * @param dy the y component of the direction of travel
+   * @return the tile index of the jump point that was found, or -1 if there isn't one in this direction
+   */
+  private int jump(int x, int y, int dx, int dy) {
+    while (true) {
+      if (!walkable(x, y)) {
+        return -1;
+      }
+      if (((x == targetX) && (y == targetY)) || isCongested(x, y) || isNextToCongestion(x, y)) {
+        return tiles.indexOf(x, y);
+      }
+
+      if ((dx != 0) && (dy != 0)) {
+        if ((walkable(x-dx, y+dy) && !walkable(x-dx, y)) || (walkable(x+dx, y-dy) && !walkable(x, y-dy))) {
+          return tiles.indexOf(x, y);
+        }
+        if ((jump(x+dx, y, dx, 0) >= 0) || (jump(x, y+dy, 0, dy) >= 0)) {
+          return tiles.indexOf(x, y);
+        }
+      } else if (dx != 0) {
+        if ((walkable(x+dx, y+1) && !walkable(x, y+1)) || (walkable(x+dx, y-1) && !walkable(x, y-1))) {
+          return tiles.indexOf(x, y);
+        }
+      } else {
+        if ((walkable(x+1, y+dy) && !walkable(x+1, y)) || (walkable(x-1, y+dy) && !walkable(x-1, y))) {
+          return tiles.indexOf(x, y);
+        }
+      }
+
+      if (!canStep(x, y, dx, dy)) {
+        return -1;
+      }
+      x += dx;
+      y += dy;
+    }
+  }
+
+  /** Builds the path to the given target node, filling in every tile between consecutive jump points.
+   *
+   * @param target the tile index of the target node
+   * @return the complete path, from the start tile to the target tile
+   */
+  private Path buildPath(int target) {
+    int jumpPoints = 0;
+    for (int node = target; node >= 0; node = parent[node >>> SHIFT][node & MASK]) {
+      jumpPoints++;
+    }
+
+    int[] chain = new int[jumpPoints];
+    int i = jumpPoints;
+    for (int node = target; node >= 0; node = parent[node >>> SHIFT][node & MASK]) {
+      chain[--i] = node;
+    }
+
+    Path path = new Path();
+    int x = tiles.xOf(chain[0]);
+    int y = tiles.yOf(chain[0]);
+    path.appendStep(x, y);
+
+    for (i = 1; i < chain.length; i++) {
+      int nx = tiles.xOf(chain[i]);
+      int ny = tiles.yOf(chain[i]);
+      int dx = Integer.signum(nx - x);
+      int dy = Integer.signum(ny - y);
+
+      while ((x != nx) || (y != ny)) {
+        x += dx;
+        y += dy;
+        path.appendStep(x, y);
+      }
+    }
+
+    return path;
+  }
+
+  /** The octile distance from (x, y) to the target, scaled by the uniform cost. */
+  private float heuristic(int x, int y) {
+    int dx = Math.abs(targetX - x);
+    int dy = Math.abs(targetY - y);
+
+    return uniformCost*(Math.max(dx, dy) + ((SQRT2-1)*Math.min(dx, dy)));
+  }
+
+  /** Gets the cost of entering the tile at (x, y), which is never less than the uniform cost. */
+  private float tileCost(int x, int y) {
+    return Math.max(uniformCost, mapCost(x, y));
+  }
+
+  /** Whether or not the tile at (x, y) is congested, i.e. costs more than the uniform cost. */
+  private boolean isCongested(int x, int y) {
+    int tile = tiles.indexOf(x, y);
+    return !isInUniformChunk(tile) && (mapCost(tile, x, y) > uniformCost + COST_TOLERANCE);
+  }
+
+  /** Whether or not the chunk of a tile, and the tiles just around the chunk, have no congestion, according to the map's highest cost for
+   * them. The answer is kept for the rest of the search.
+   */
+  private boolean isInUniformChunk(int tile) {
+    int chunk = tile >>> SHIFT;
+    if (chunkCheckedIn[chunk] != searchGeneration) {
+      int x = tiles.xOf(chunk << SHIFT);
+      int y = tiles.yOf(chunk << SHIFT);
+      chunkCheckedIn[chunk] = searchGeneration;
+      chunkIsUniform[chunk] = (map.getHighestCost(this, x-1, y-1, x + TileStorage.CHUNK_SIZE, y + TileStorage.CHUNK_SIZE) <=
+                               uniformCost + COST_TOLERANCE);
+    }
+    return chunkIsUniform[chunk];
+  }
+
+  /** Whether or not most of the chunks in the rectangle with the start and the target at its corners are congested, in which case the
+   * jumps would hardly ever get going.
+   */
+  private boolean isCrowded(int sx, int sy, int tx, int ty) {
+    int congested = 0;
+    int total = 0;
+    for (int y = Math.min(sy, ty) & ~(TileStorage.CHUNK_SIZE-1); y <= Math.max(sy, ty); y += TileStorage.CHUNK_SIZE) {
+      for (int x = Math.min(sx, tx) & ~(TileStorage.CHUNK_SIZE-1); x <= Math.max(sx, tx); x += TileStorage.CHUNK_SIZE) {
+        total++;
+        if (!isInUniformChunk(tiles.indexOf(x, y))) {
+          congested++;
+        }
+      }
+    }
+    return (congested > total*CROWDED_FRACTION);
+  }
+
+  /** Gets the cost of the tile at (x, y) from the map. Jumps look at the same tiles many times over, so each tile's cost is only read once
+   * per search, which also keeps the cost of a tile consistent for the whole search.
+   */
+  private float mapCost(int x, int y) {
+    return mapCost(tiles.indexOf(x, y), x, y);
+  }
+
+  /** Gets the cost of the tile at (x, y), whose index is already known, from the map, in the same way. */
+  private float mapCost(int tile, int x, int y) {
+    long[] chunk = tileCosts[tile >>> SHIFT];
+    if (chunk == null) {
+      chunk = new long[ChunkedTileIndex.CHUNK_AREA];
+      tileCosts[tile >>> SHIFT] = chunk;
+    }
+
+    long read = chunk[tile & MASK];
+    if ((int) (read >>> 32) != searchGeneration) {
+      float tileCost = map.getCost(this, x, y);
+      chunk[tile & MASK] = (((long) searchGeneration) << 32) | (Float.floatToRawIntBits(tileCost) & 0xFFFFFFFFL);
+      return tileCost;
+    }
+
+    return Float.intBitsToFloat((int) read);
+  }
+
+  /** Whether or not any of the tiles around (x, y) is congested. Every step of every jump asks this, so it's answered for the whole chunk
+   * at once where possible, and otherwise, when all of the tiles around (x, y) are in the same chunk, their indices are found from its own,
+   * rather than one at a time.
+   */
+  private boolean isNextToCongestion(int x, int y) {
+    int center = tiles.indexOf(x, y);
+    if (isInUniformChunk(center)) {
+      return false;
+    }
+
+    int inChunkX = x & (TileStorage.CHUNK_SIZE-1);
+    int inChunkY = y & (TileStorage.CHUNK_SIZE-1);
+    boolean sameChunk = ((inChunkX > 0) && (inChunkY > 0) && (inChunkX < TileStorage.CHUNK_SIZE-1) && (inChunkY < TileStorage.CHUNK_SIZE-1));
+
+    for (int dx = -1; dx < 2; dx++) {
+      for (int dy = -1; dy < 2; dy++) {
+        if (((dx != 0) || (dy != 0)) && tiles.contains(x+dx, y+dy)) {
+          int tile = (sameChunk ? (center + (dy << TileStorage.CHUNK_SHIFT) + dx) : tiles.indexOf(x+dx, y+dy));
+          if (mapCost(tile, x+dx, y+dy) > uniformCost + COST_TOLERANCE) {
+            return true;
+          }
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /** Whether or not a single step from (x, y) in the direction (dx, dy) is allowed. */
+  private boolean canStep(int x, int y, int dx, int dy) {
+    return walkable(x+dx, y+dy) && !(((dx != 0) && (dy != 0)) && map.diagonallyBlocked(this, x, y, x+dx, y+dy));
+  }
+
+  /** Whether or not the tile at (x, y) is on the map, and not blocked. */
+  private boolean walkable(int x, int y) {
+    return tiles.contains(x, y) && !map.blocked(this, x, y);
+  }
+
+  /** Moves on to the next search generation, resetting every tile if the counter ever wraps around. */
+  private void startNewGeneration() {
+    searchGeneration++;
+    if (searchGeneration == 0) {
+      for (int chunk = 0; chunk < generation.length; chunk++) {
+        if (generation[chunk] != null) {
+          Arrays.fill(generation[chunk], 0);
+        }
+        if (tileCosts[chunk] != null) {
+          Arrays.fill(tileCosts[chunk], 0);
+        }
+      }
+      Arrays.fill(chunkCheckedIn, 0);
+      searchGeneration = 1;
+    }
+  }
+
+  /** Resets the search state of a tile, if it was last touched by an earlier search, allocating its chunk if no search has reached it
+   * before. */
+  private void touch(int node) {
+    int chunk = node >>> SHIFT;
+    int slot = node & MASK;
+    if (generation[chunk] == null) {
+      generation[chunk] = new int[ChunkedTileIndex.CHUNK_AREA];
+      cost[chunk] = new float[ChunkedTileIndex.CHUNK_AREA];
+      parent[chunk] = new int[ChunkedTileIndex.CHUNK_AREA];
+      depth[chunk] = new int[ChunkedTileIndex.CHUNK_AREA];
+      closed[chunk] = new boolean[ChunkedTileIndex.CHUNK_AREA];
+    }
+    if (generation[chunk][slot] != searchGeneration) {
+      generation[chunk][slot] = searchGeneration;
+      cost[chunk][slot] = Float.MAX_VALUE;
+      parent[chunk][slot] = -1;
+      depth[chunk][slot] = 0;
+      closed[chunk][slot] = false;
+    }
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getMover()
+   */
+  public Mover getMover() {
+    return mover;
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getSearchDistance()
+   */
+  public int getSearchDistance() {
+    return distance;
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getSourceX()
+   */
+  public int getSourceX() {
+    return sourceX;
+  }
+
+  /**
+   * @see org.newdawn.slick.util.pathfinding.PathFindingContext#getSourceY()
+   */
+  public int getSourceY() {
+    return sourceY;
+  }
+
+}
@@ -0,0 +1,290 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.Arrays;
+
+import com.jefflunt.pedestrians.ConfigValues;
+
+/** Keeps, for every tile of a map, the nearest blocked tile and the distance to it, so that how much room there is around a point - and
+ * which way is away from the nearest obstacle - is one lookup, rather than a probe of each tile that might be in the way.
+ *
+ * Everything off the map counts as blocked, as it does for TileStorage.isBlocked(x, y). The field is kept on a grid one tile larger than
+ * the map on every side, whose outer ring is always blocked, so tiles near the edge of the map find the edge as their nearest obstacle.
+ *
+ * The field is built, and kept up to date as the map is edited, by propagating each obstacle outward from tile to tile in order of
+ * distance (a dynamic brushfire). Blocking a tile propagates it outward only as far as it is the nearest obstacle. Opening a tile first
+ * raises every tile that had it as their nearest obstacle back to "unknown", and then lets the obstacles around the edge of that region
+ * propagate back into it. Either way, the work done is on the order of the number of tiles whose nearest obstacle changed. Since each tile
+ * inherits its nearest obstacle from one of its neighbours, the distance can be a little more than the true distance for tiles far from
+ * any obstacle; close to an obstacle it is exact.
+ */
+public class ObstacleDistanceField implements TileMapListener {
+
+  /** The distance squared given to tiles with no known nearest obstacle. */
+  private static final int UNKNOWN = Integer.MAX_VALUE;
+  /** The change in x for each of the eight neighbours of a tile. */
+  private static final int[] DX = {0, 0, -1, 1, -1, 1, -1, 1};
+  /** The change in y for each of the eight neighbours of a tile. */
+  private static final int[] DY = {-1, 1, 0, 0, -1, -1, 1, 1};
+
+  /** The map the field is kept for. */
+  private PedestrianTileBasedMap map;
+  /** The width of the field, which is the width of the map plus a tile on either side. */
+  private int width;
+  /** The height of the field, which is the height of the map plus a tile on either side. */
+  private int height;
+  /** The field index of the nearest obstacle of each tile, by field index, or -1 if it isn't known. */
+  private int[] nearest;
+  /** The distance squared, in tiles, from each tile to its nearest obstacle, by field index. */
+  private int[] distanceSquared;
+  /** Whether each tile has lost its nearest obstacle, and is waiting to pass that on to its neighbours. */
+  private boolean[] raising;
+  /** The tiles waiting to be propagated, by distance. */
+  private TileHeap open;
+
+  /** The number of tiles whose distance has been changed since the field was last rebuilt. */
+  private long updatedTiles;
+
+  /** Creates a new ObstacleDistanceField, builds it for the map as it is now, and starts listening for changes to it.
+   *
+   * @param map the map to keep the field for
+   */
+  public ObstacleDistanceField(PedestrianTileBasedMap map) {
+    this.map = map;
+    width = map.getWidthInTiles() + 2;
+    height = map.getHeightInTiles() + 2;
+
+    nearest = new int[width*height];
+    distanceSquared = new int[width*height];
+    raising = new boolean[width*height];
+    open = new TileHeap(width*height);
+
+    rebuild();
+    map.addTileMapListener(this);
+  }
+
+  @Override
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+    int tile = ((y + 1)*width) + (x + 1);
+    if (blocked) {
+      setObstacle(tile);
+    } else {
+      clearTile(tile);
+    }
+    propagate();
+  }
+
+  @Override
+  public void tileMapReset(PedestrianTileBasedMap map) {
+    rebuild();
+  }
+
+  /** Throws away the whole field, and builds it again from every blocked tile. */
+  private void rebuild() {
+    Arrays.fill(nearest, -1);
+    Arrays.fill(distanceSquared, UNKNOWN);
+    Arrays.fill(raising, false);
+    open.clear();
+
+    for (int tile = 0; tile < nearest.length; tile++) {
+      if (isObstacle(tile)) {
+        setObstacle(tile);
+      }
+    }
+    propagate();
+    updatedTiles = 0;
+  }
+
+  /** Gets whether the tile at a field index is blocked. The outer ring of the field is off the map, and so always blocked. */
+  private boolean isObstacle(int tile) {
+    return map.getTileStorage().isBlocked((tile % width) - 1, (tile/width) - 1);
+  }
+
+  /** Makes a tile its own nearest obstacle, and queues it to be propagated to its neighbours. */
+  private void setObstacle(int tile) {
+    nearest[tile] = tile;
+    distanceSquared[tile] = 0;
+    raising[tile] = false;
+    open.insertOrUpdate(tile, 0, 0);
+  }
+
+  /** Forgets a tile's nearest obstacle, and queues it to tell its neighbours that theirs may be gone too. */
+  private void clearTile(int tile) {
+    float key = (float) distanceSquared[tile];
+    nearest[tile] = -1;
+    distanceSquared[tile] = UNKNOWN;
+    raising[tile] = true;
+    open.insertOrUpdate(tile, key, 0);
+  }
+
+  /** Works through the queued tiles, closest first, until every tile has the nearest obstacle its neighbours can offer it. */
+  private void propagate() {
+    while (!open.isEmpty()) {
+      int tile = open.poll();
+      if (raising[tile]) {
+        raise(tile);
+      } else if ((nearest[tile] >= 0) && isObstacle(nearest[tile])) {
+        lower(tile);
+      }
+    }
+  }
+
+  /** Passes on the loss of a tile's nearest obstacle: neighbours that had the same, now open, obstacle lose theirs too, and neighbours with
+   * an obstacle that's still there are queued to offer it back.
+   */
+  private void raise(int tile) {
+    int x = tile % width;
+    int y = tile/width;
+
+    for (int d = 0; d < DX.length; d++) {
+      int nx = x + DX[d];
+      int ny = y + DY[d];
+      if ((nx < 0) || (ny < 0) || (nx >= width) || (ny >= height)) {
+        continue;
+      }
+
+      int neighbour = (ny*width) + nx;
+      if ((nearest[neighbour] >= 0) && !raising[neighbour]) {
+        if (isObstacle(nearest[neighbour])) {
+          open.insertOrUpdate(neighbour, distanceSquared[neighbour], 0);
+        } else {
+          clearTile(neighbour);
+          updatedTiles++;
+        }
+      }
+    }
+    raising[tile] = false;
+  }
+
+  /** Offers a tile's nearest obstacle to each of its neighbours, who take it if it's nearer than the one they have. */
+  private void lower(int tile) {
+    int obstacle = nearest[tile];
+    int ox = obstacle % width;
+    int oy = obstacle/width;
+    int x = tile % width;
+    int y = tile/width;
+
+    for (int d = 0; d < DX.length; d++) {
+      int nx = x + DX[d];
+      int ny = y + DY[d];
+      if ((nx < 0) || (ny < 0) || (nx >= width) || (ny >= height)) {
+        continue;
+      }
+
+      int neighbour = (ny*width) + nx;
+      if (raising[neighbour]) {
+        continue;
+      }
+
+      int distance = ((nx - ox)*(nx - ox)) + ((ny - oy)*(ny - oy));
+      if (distance < distanceSquared[neighbour]) {
+        distanceSquared[neighbour] = distance;
+        nearest[neighbour] = obstacle;
+        open.insertOrUpdate(neighbour, distance, 0);
+        updatedTiles++;
+      }
+    }
+  }
+
+  /** Gets the field index of a tile on the map, or -1 if it's off the map. */
+  private int indexOf(int x, int y) {
+    if ((x < 0) || (y < 0) || (x >= width - 2) || (y >= height - 2)) {
+      return -1;
+    }
+    return ((y + 1)*width) + (x + 1);
+  }
+
+  /** Gets the distance, in tiles, from the center of a tile to the center of the nearest blocked tile.
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @return the distance, which is 0 if the tile is blocked or off the map
+   */
+  public float getDistance(int x, int y) {
+    int tile = indexOf(x, y);
+    return ((tile < 0) ? 0 : (float) Math.sqrt(distanceSquared[tile]));
+  }
+
+  /** Gets the x-coordinate of the nearest blocked tile to a tile on the map, which is -1 or the width of the map if it's the edge.
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @return the x-coordinate of the nearest blocked tile, or x itself if the tile is off the map
+   */
+  public int getNearestObstacleX(int x, int y) {
+    int tile = indexOf(x, y);
+    return ((tile < 0) ? x : (nearest[tile] % width) - 1);
+  }
+
+  /** Gets the y-coordinate of the nearest blocked tile to a tile on the map, which is -1 or the height of the map if it's the edge.
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @return the y-coordinate of the nearest blocked tile, or y itself if the tile is off the map
+   */
+  public int getNearestObstacleY(int x, int y) {
+    int tile = indexOf(x, y);
+    return ((tile < 0) ? y : (nearest[tile]/width) - 1);
+  }
+
+  /** Checks whether every tile within some distance of anywhere in a tile is open. This errs on the side of saying no: it allows for
+   * the point being anywhere in the tile, for the tiles within reach of it being reached by a corner, and for the field's distances being a
+   * little long.
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @param pixels the distance, in pixels
+   * @return true if no blocked tile (nor the edge of the map) is within the distance of any point in the tile
+   */
+  public boolean hasClearance(int x, int y, float pixels) {
+    int tile = indexOf(x, y);
+    if (tile < 0) {
+      return false;
+    }
+
+    float tiles = (pixels/ConfigValues.TILE_SIZE) + (float) Math.sqrt(2) + 1;
+    return (distanceSquared[tile] > tiles*tiles);
+  }
+
+  /** Gets how much room there is around a point, and which way is away from the nearest obstacle, from a single lookup of the tile the
+   * point is in.
+   *
+   * @param pixelX the x-coordinate of the point, in pixels
+   * @param pixelY the y-coordinate of the point, in pixels
+   * @param direction filled with the unit vector (x, y) pointing from the nearest obstacle toward the point, or (0, 0) if the point is at
+   *                  the center of the obstacle; may be null, if only the clearance is wanted
+   * @return the distance, in pixels, from the point to the nearest edge of the nearest blocked tile, or 0 if the point is in a blocked tile
+   *         or off the map
+   */
+  public float getClearance(float pixelX, float pixelY, float[] direction) {
+    int tileX = (int) Math.floor(pixelX/ConfigValues.TILE_SIZE);
+    int tileY = (int) Math.floor(pixelY/ConfigValues.TILE_SIZE);
+    int tile = indexOf(tileX, tileY);
+    int obstacle = ((tile < 0) ? -1 : nearest[tile]);
+
+    // the point closest to (pixelX, pixelY) on the square of the obstacle, or the obstacle's center if the point is inside it
+    float left = ((obstacle < 0) ? tileX : (obstacle % width) - 1)*ConfigValues.TILE_SIZE;
+    float top = ((obstacle < 0) ? tileY : (obstacle/width) - 1)*ConfigValues.TILE_SIZE;
+    float closestX = Math.max(left, Math.min(pixelX, left + ConfigValues.TILE_SIZE));
+    float closestY = Math.max(top, Math.min(pixelY, top + ConfigValues.TILE_SIZE));
+    float dx = pixelX - closestX;
+    float dy = pixelY - closestY;
+    float clearance = (float) Math.sqrt((dx*dx) + (dy*dy));
+
+    if (direction != null) {
+      if (clearance == 0) {
+        dx = pixelX - (left + (ConfigValues.TILE_SIZE/2f));
+        dy = pixelY - (top + (ConfigValues.TILE_SIZE/2f));
+      }
+      float length = (float) Math.sqrt((dx*dx) + (dy*dy));
+      direction[0] = ((length == 0) ? 0 : dx/length);
+      direction[1] = ((length == 0) ? 0 : dy/length);
+    }
+    return clearance;
+  }
+
+  /** Gets the number of tiles whose distance has been changed by edits, since the field was last rebuilt. */
+  public long getNumberOfUpdatedTiles() {
+    return updatedTiles;
+  }
+
+}
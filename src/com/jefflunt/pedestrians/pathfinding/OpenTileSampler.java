@@ -0,0 +1,301 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Draws open tiles at random - from the whole map, or from a disc or ring around a point - without trying random tiles until an open one
+ * turns up.
+ *
+ * Each row of the map has a Fenwick tree (a binary indexed tree) of prefix sums over which of its tiles are open, and there is one more
+ * over the number of open tiles in each row. Blocking or opening a tile updates two of them, in O(log width + log height). Drawing from a
+ * ring counts the open tiles in the (at most two) stretches of each row that lie inside it, picks one of those tiles uniformly, and finds
+ * it by walking down the row's tree - O(radius * log width) in all, however few of the tiles are open.
+ *
+ * Distances are measured between tile coordinates: a tile (x, y) is inside a ring around (cx, cy) if
+ * innerRadius^2 <= (x - cx)^2 + (y - cy)^2 <= outerRadius^2.
+ *
+ * A sampler is only meant to be used from the thread that edits the map.
+ */
+public class OpenTileSampler implements TileMapListener {
+
+  /** The number of tiles drawn from a ring, looking for one that can be reached, before giving up. */
+  public static final int MAX_REACHABLE_ATTEMPTS = 32;
+
+  /** The map being sampled. */
+  private PedestrianTileBasedMap map;
+  /** The width of the map, in tiles. */
+  private int width;
+  /** The height of the map, in tiles. */
+  private int height;
+  /** The source of randomness. */
+  private Random random;
+  /** A Fenwick tree over the open tiles of each row, indexed from 1. */
+  private int[][] rowTrees;
+  /** A Fenwick tree over the number of open tiles in each row, indexed from 1. */
+  private int[] columnTree;
+  /** The number of open tiles on the map. */
+  private int openTiles;
+
+  /** The row of each stretch of tiles found by the last call to countRing(). */
+  private int[] stretchRows;
+  /** The first x-coordinate of each stretch of tiles found by the last call to countRing(). */
+  private int[] stretchStarts;
+  /** The number of open tiles in each stretch of tiles found by the last call to countRing(). */
+  private int[] stretchCounts;
+  /** The number of stretches found by the last call to countRing(). */
+  private int numberOfStretches;
+
+  /** Creates a new OpenTileSampler, counts the open tiles of the map as it is now, and starts listening for changes to it.
+   *
+   * @param map the map to sample
+   */
+  public OpenTileSampler(PedestrianTileBasedMap map) {
+    this(map, new Random());
+  }
+
+  /** Creates a new OpenTileSampler, counts the open tiles of the map as it is now, and starts listening for changes to it.
+   *
+   * @param map the map to sample
+   * @param random the source of randomness to draw tiles with
+   */
+  public OpenTileSampler(PedestrianTileBasedMap map, Random random) {
+    this.map = map;
+    this.random = random;
+    width = map.getWidthInTiles();
+    height = map.getHeightInTiles();
+
+    stretchRows = new int[16];
+    stretchStarts = new int[16];
+    stretchCounts = new int[16];
+
+    rebuild();
+    map.addTileMapListener(this);
+  }
+
+  /** Counts the open tiles of the whole map from scratch. */
+  private void rebuild() {
+    rowTrees = new int[height][width+1];
+    columnTree = new int[height+1];
+    openTiles = 0;
+
+    for (int y = 0; y < height; y++) {
+      int[] tree = rowTrees[y];
+      for (int x = 0; x < width; x++) {
+        if (!map.blocked(null, x, y)) {
+          tree[x+1]++;
+          openTiles++;
+        }
+      }
+      // turn the counts into a Fenwick tree in place, in linear time
+      for (int i = 1; i <= width; i++) {
+        int parent = i + (i & -i);
+        if (parent <= width) {
+          tree[parent] += tree[i];
+        }
+      }
+      add(columnTree, y, prefix(tree, width));
+    }
+  }
+
+  @Override
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+    int change = (blocked ? -1 : 1);
+    add(rowTrees[y], x, change);
+    add(columnTree, y, change);
+    openTiles += change;
+  }
+
+  @Override
+  public void tileMapReset(PedestrianTileBasedMap map) {
+    rebuild();
+  }
+
+  /** Gets the number of open tiles on the map. */
+  public int getNumberOfOpenTiles() {
+    return openTiles;
+  }
+
+  /** Draws an open tile from anywhere on the map, every open tile being equally likely.
+   *
+   * @return the (x, y) coordinates of the tile, or null if every tile is blocked
+   */
+  public Point sample() {
+    if (openTiles == 0) {
+      return null;
+    }
+
+    int k = random.nextInt(openTiles);
+    int y = find(columnTree, height, k);
+    k -= prefix(columnTree, y);
+    return new Point(find(rowTrees[y], width, k), y);
+  }
+
+  /** Counts the open tiles in a ring around a point.
+   *
+   * @param cx the x-coordinate of the center of the ring
+   * @param cy the y-coordinate of the center of the ring
+   * @param innerRadius the distance from the center that tiles must be at least, in tiles. Zero gives a disc.
+   * @param outerRadius the distance from the center that tiles may be at most, in tiles
+   * @return the number of open tiles in the ring
+   */
+  public int countOpenTiles(int cx, int cy, int innerRadius, int outerRadius) {
+    return countRing(cx, cy, innerRadius, outerRadius);
+  }
+
+  /** Draws an open tile from a ring around a point, every open tile in the ring being equally likely.
+   *
+   * @param cx the x-coordinate of the center of the ring
+   * @param cy the y-coordinate of the center of the ring
+   * @param innerRadius the distance from the center that the tile must be at least, in tiles. Zero gives a disc.
+   * @param outerRadius the distance from the center that the tile may be at most, in tiles
+   * @return the (x, y) coordinates of the tile, or null if there are no open tiles in the ring
+   */
+  public Point sampleInRing(int cx, int cy, int innerRadius, int outerRadius) {
+    int total = countRing(cx, cy, innerRadius, outerRadius);
+    return ((total == 0) ? null : draw(total));
+  }
+
+  /** Draws an open tile that can be reached from a point, from a ring around it. Tiles are drawn from the ring until one can be reached,
+   * up to MAX_REACHABLE_ATTEMPTS times, so this always returns quickly - but when only a small part of the ring can be reached, it may
+   * give up even though there is such a tile.
+   *
+   * @param cx the x-coordinate of the center of the ring, and the tile the target must be reachable from
+   * @param cy the y-coordinate of the center of the ring, and the tile the target must be reachable from
+   * @param innerRadius the distance from the center that the tile must be at least, in tiles. Zero gives a disc.
+   * @param outerRadius the distance from the center that the tile may be at most, in tiles
+   * @return the (x, y) coordinates of the tile, or null if none was found
+   */
+  public Point sampleReachableInRing(int cx, int cy, int innerRadius, int outerRadius) {
+    int total = countRing(cx, cy, innerRadius, outerRadius);
+    if (total == 0) {
+      return null;
+    }
+
+    for (int attempt = 0; attempt < MAX_REACHABLE_ATTEMPTS; attempt++) {
+      Point tile = draw(total);
+      if (map.reachable(null, cx, cy, tile.x, tile.y)) {
+        return tile;
+      }
+    }
+    return null;
+  }
+
+  /** Finds the stretches of each row that lie inside a ring, and counts the open tiles in each of them.
+   *
+   * @return the total number of open tiles in the ring
+   */
+  private int countRing(int cx, int cy, int innerRadius, int outerRadius) {
+    numberOfStretches = 0;
+    if ((outerRadius < 0) || (innerRadius > outerRadius)) {
+      return 0;
+    }
+
+    int total = 0;
+    int top = Math.max(0, cy - outerRadius);
+    int bottom = Math.min(height - 1, cy + outerRadius);
+    for (int y = top; y <= bottom; y++) {
+      int dy = y - cy;
+      int outerSpan = largestSquareAtMost((outerRadius*outerRadius) - (dy*dy));
+      int innerSquared = (innerRadius*innerRadius) - (dy*dy);
+      int innerSpan = ((innerSquared > 0) ? largestSquareAtMost(innerSquared - 1) : -1);
+
+      if (innerSpan < 0) {
+        total += addStretch(y, cx - outerSpan, cx + outerSpan);
+      } else {
+        total += addStretch(y, cx - outerSpan, cx - innerSpan - 1);
+        total += addStretch(y, cx + innerSpan + 1, cx + outerSpan);
+      }
+    }
+    return total;
+  }
+
+  /** Records a stretch of a row, from x0 to x1 inclusive (clipped to the map), and returns the number of open tiles in it. */
+  private int addStretch(int y, int x0, int x1) {
+    x0 = Math.max(0, x0);
+    x1 = Math.min(width - 1, x1);
+    if (x0 > x1) {
+      return 0;
+    }
+
+    int count = prefix(rowTrees[y], x1 + 1) - prefix(rowTrees[y], x0);
+    if (count == 0) {
+      return 0;
+    }
+
+    if (numberOfStretches == stretchRows.length) {
+      stretchRows = Arrays.copyOf(stretchRows, numberOfStretches*2);
+      stretchStarts = Arrays.copyOf(stretchStarts, numberOfStretches*2);
+      stretchCounts = Arrays.copyOf(stretchCounts, numberOfStretches*2);
+    }
+    stretchRows[numberOfStretches] = y;
+    stretchStarts[numberOfStretches] = x0;
+    stretchCounts[numberOfStretches] = count;
+    numberOfStretches++;
+    return count;
+  }
+
+  /** Draws one of the open tiles in the stretches found by the last call to countRing(). */
+  private Point draw(int total) {
+    int k = random.nextInt(total);
+    int stretch = 0;
+    while (k >= stretchCounts[stretch]) {
+      k -= stretchCounts[stretch];
+      stretch++;
+    }
+
+    int y = stretchRows[stretch];
+    int[] tree = rowTrees[y];
+    return new Point(find(tree, width, prefix(tree, stretchStarts[stretch]) + k), y);
+  }
+
+  /** The largest whole number whose square is at most n, or -1 if n is negative. */
+  private static int largestSquareAtMost(int n) {
+    if (n < 0) {
+      return -1;
+    }
+
+    int root = (int) Math.sqrt(n);
+    while ((root*root) > n) {
+      root--;
+    }
+    while (((root+1)*(root+1)) <= n) {
+      root++;
+    }
+    return root;
+  }
+
+  /** Adds to the count at a (zero-based) position in a Fenwick tree. */
+  private static void add(int[] tree, int position, int change) {
+    for (int i = position + 1; i < tree.length; i += (i & -i)) {
+      tree[i] += change;
+    }
+  }
+
+  /** Sums the counts at the first n positions of a Fenwick tree. */
+  private static int prefix(int[] tree, int n) {
+    int sum = 0;
+    for (int i = n; i > 0; i -= (i & -i)) {
+      sum += tree[i];
+    }
+    return sum;
+  }
+
+  /** Finds the (zero-based) position at which the counts of a Fenwick tree first add up to more than k.
+   *
+   * @param tree the tree to search
+   * @param size the number of positions in the tree
+   * @param k the number of counts to pass over, which must be less than the total
+   */
+  private static int find(int[] tree, int size, int k) {
+    int position = 0;
+    for (int step = Integer.highestOneBit(size); step > 0; step >>= 1) {
+      if ((position + step <= size) && (tree[position + step] <= k)) {
+        position += step;
+        k -= tree[position];
+      }
+    }
+    return position;
+  }
+
+}
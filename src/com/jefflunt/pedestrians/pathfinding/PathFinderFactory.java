@@ -0,0 +1,18 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import org.newdawn.slick.util.pathfinding.PathFinder;
+
+/** An interface for anything that can build new PathFinders. Path finders keep per-search state, so anything that searches from more
+ * than one thread at a time needs a separate path finder for each thread.
+ *
+ * @see PathRequestService
+ */
+public interface PathFinderFactory {
+
+  /** Creates a new PathFinder, which shares no search state with any path finder created before it.
+   *
+   * @return the new path finder
+   */
+  public PathFinder createPathFinder();
+
+}
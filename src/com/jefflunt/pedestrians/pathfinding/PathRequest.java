@@ -0,0 +1,124 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import org.newdawn.slick.util.pathfinding.Mover;
+import org.newdawn.slick.util.pathfinding.Path;
+
+/** A request for a path, submitted to a PathRequestService, and the path that was found for it once the request is complete.
+ *
+ * @see PathRequestService#submit(Mover, int, int, int, int)
+ */
+public class PathRequest {
+
+  /** The mover that asked for the path. */
+  private Mover mover;
+  /** The x-coordinate of the start tile. */
+  private int sx;
+  /** The y-coordinate of the start tile. */
+  private int sy;
+  /** The x-coordinate of the target tile. */
+  private int tx;
+  /** The y-coordinate of the target tile. */
+  private int ty;
+  /** When the request was submitted, from System.nanoTime(). */
+  private long submittedAt;
+  /** When the request was completed, from System.nanoTime(). */
+  private volatile long completedAt;
+  /** The path that was found, or null if there is none (or the request isn't complete yet, or it was found as a CompactPath). */
+  private volatile Path path;
+  /** The path that was found, if the path finder wrote it as a CompactPath. */
+  private volatile CompactPath compactPath;
+  /** Whether or not a worker has finished with this request. */
+  private volatile boolean complete;
+
+  /** Creates a new request, stamped with the current time.
+   *
+   * @param mover the mover that wants the path
+   * @param sx the x-coordinate of the start tile
+   * @param sy the y-coordinate of the start tile
+   * @param tx the x-coordinate of the target tile
+   * @param ty the y-coordinate of the target tile
+   */
+  public PathRequest(Mover mover, int sx, int sy, int tx, int ty) {
+    this.mover = mover;
+    this.sx = sx;
+    this.sy = sy;
+    this.tx = tx;
+    this.ty = ty;
+    submittedAt = System.nanoTime();
+  }
+
+  /** Gets the mover that asked for the path. */
+  public Mover getMover() {
+    return mover;
+  }
+
+  /** Gets the x-coordinate of the start tile. */
+  public int getStartX() {
+    return sx;
+  }
+
+  /** Gets the y-coordinate of the start tile. */
+  public int getStartY() {
+    return sy;
+  }
+
+  /** Gets the x-coordinate of the target tile. */
+  public int getTargetX() {
+    return tx;
+  }
+
+  /** Gets the y-coordinate of the target tile. */
+  public int getTargetY() {
+    return ty;
+  }
+
+  /** Gets whether or not a path finder has finished with this request. */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /** Gets the path that was found.
+   *
+   * @return the path, or null if no path exists or the request has not been completed yet.
+   */
+  public Path getPath() {
+    if ((path == null) && (compactPath != null)) {
+      return compactPath.toPath();
+    }
+    return path;
+  }
+
+  /** Gets the path that was found, in tiles, without copying it into Step objects if the path finder didn't.
+   *
+   * @return the path, or null if no path exists or the request has not been completed yet.
+   */
+  public CompactPath getCompactPath() {
+    if ((compactPath == null) && (path != null)) {
+      return CompactPath.fromPath(path, true);
+    }
+    return compactPath;
+  }
+
+  /** Gets the time between this request being submitted and it being completed.
+   *
+   * @return the latency, in nanoseconds, or -1 if the request has not been completed yet.
+   */
+  public long getLatencyNanos() {
+    return (complete ? (completedAt - submittedAt) : -1);
+  }
+
+  /** Records the result of this request. Called by the worker that searched for it. */
+  void complete(Path path) {
+    this.path = path;
+    completedAt = System.nanoTime();
+    complete = true;
+  }
+
+  /** Records the result of this request, found as a CompactPath. Called by the scheduler that searched for it. */
+  void complete(CompactPath path) {
+    this.compactPath = path;
+    completedAt = System.nanoTime();
+    complete = true;
+  }
+
+}
@@ -0,0 +1,204 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.newdawn.slick.util.pathfinding.Mover;
+import org.newdawn.slick.util.pathfinding.Path;
+import org.newdawn.slick.util.pathfinding.PathFinder;
+
+/** Finds paths on a pool of background threads, so that a burst of path requests doesn't stall the game loop.
+ *
+ * Each worker thread has its own PathFinder, built by a PathFinderFactory, since path finders keep per-search state. Workers hold the map's
+ * read lock while they search, and every edit to the map (and so every TileMapListener) runs under the matching write lock, so a search
+ * never sees the obstacles change part way through. Congestion comes from the snapshot published by the map's updateCongestion(), which is
+ * only swapped under the write lock and never written while it's published, so a search sees the same congestion from beginning to end.
+ *
+ * Requests are submitted from the game thread with submit(), and completed requests are collected with pollCompleted(), which the game
+ * thread should call once at the start of each tick. Results are only ever handed back at that point, so nothing the workers do is seen
+ * part way through a tick.
+ */
+public class PathRequestService {
+
+  /** The map being searched. */
+  private PedestrianTileBasedMap map;
+  /** Requests that haven't been picked up by a worker yet. */
+  private LinkedBlockingQueue<PathRequest> queue;
+  /** Requests that have been completed, but not yet collected. */
+  private ConcurrentLinkedQueue<PathRequest> completed;
+  /** The worker threads. */
+  private Thread[] workers;
+  /** Whether or not shutdown() has been called. */
+  private volatile boolean shutDown;
+
+  /** The number of requests that have been submitted, but not yet collected. */
+  private AtomicInteger outstanding;
+  /** The number of requests that have been completed. */
+  private AtomicLong completedRequests;
+  /** The total latency of all completed requests, in nanoseconds. */
+  private AtomicLong totalLatencyNanos;
+  /** The highest latency of any completed request, in nanoseconds. */
+  private AtomicLong maxLatencyNanos;
+
+  /** Creates a new PathRequestService, and starts its worker threads. The path finders are all built before this constructor returns,
+   * on the calling thread, so a factory that registers listeners with the map doesn't race with edits to it.
+   *
+   * @param map the map that the path finders search
+   * @param factory builds one path finder for each worker
+   * @param threads the number of worker threads, at least 1
+   */
+  public PathRequestService(PedestrianTileBasedMap map, PathFinderFactory factory, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("A PathRequestService needs at least one thread, not " + threads);
+    }
+
+    this.map = map;
+    queue = new LinkedBlockingQueue<PathRequest>();
+    completed = new ConcurrentLinkedQueue<PathRequest>();
+    outstanding = new AtomicInteger();
+    completedRequests = new AtomicLong();
+    totalLatencyNanos = new AtomicLong();
+    maxLatencyNanos = new AtomicLong();
+
+    workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread(new Worker(factory.createPathFinder()), "path-finder-" + i);
+      workers[i].setDaemon(true);
+    }
+    for (Thread worker : workers) {
+      worker.start();
+    }
+  }
+
+  /** Asks for a path to be found. This returns immediately; the path is found on one of the worker threads.
+   *
+   * @param mover the mover that wants the path
+   * @param sx the x-coordinate of the start tile
+   * @param sy the y-coordinate of the start tile
+   * @param tx the x-coordinate of the target tile
+   * @param ty the y-coordinate of the target tile
+   * @return the request, which can be checked for completion, and which will eventually be returned by pollCompleted()
+   */
+  public PathRequest submit(Mover mover, int sx, int sy, int tx, int ty) {
+    if (shutDown) {
+      throw new IllegalStateException("This PathRequestService has been shut down");
+    }
+
+    PathRequest request = new PathRequest(mover, sx, sy, tx, ty);
+    outstanding.incrementAndGet();
+    queue.add(request);
+    return request;
+  }
+
+  /** Gets the next completed request, if there is one. Requests are returned in the order they were completed, which may differ from the
+   * order in which they were submitted.
+   *
+   * @return a completed request, or null if none are waiting to be collected
+   */
+  public PathRequest pollCompleted() {
+    PathRequest request = completed.poll();
+    if (request != null) {
+      outstanding.decrementAndGet();
+    }
+    return request;
+  }
+
+  /** Gets the number of requests waiting for a worker to pick them up. */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /** Gets the number of requests that have been submitted, but not yet collected with pollCompleted(). */
+  public int getOutstandingRequests() {
+    return outstanding.get();
+  }
+
+  /** Gets the number of worker threads. */
+  public int getNumberOfThreads() {
+    return workers.length;
+  }
+
+  /** Gets the number of requests that have been completed. */
+  public long getCompletedRequests() {
+    return completedRequests.get();
+  }
+
+  /** Gets the mean time between a request being submitted and being completed, in milliseconds. */
+  public double getAverageLatencyMillis() {
+    long count = completedRequests.get();
+    return ((count == 0) ? 0 : (totalLatencyNanos.get() / (double) count) / 1000000.0);
+  }
+
+  /** Gets the longest time between a request being submitted and being completed, in milliseconds. */
+  public double getMaxLatencyMillis() {
+    return (maxLatencyNanos.get() / 1000000.0);
+  }
+
+  /** Sets the completion and latency statistics back to zero. */
+  public void resetStatistics() {
+    completedRequests.set(0);
+    totalLatencyNanos.set(0);
+    maxLatencyNanos.set(0);
+  }
+
+  /** Stops the worker threads. Requests that haven't been picked up yet are abandoned, and no more requests may be submitted. */
+  public void shutdown() {
+    shutDown = true;
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+  }
+
+  /** Records the latency of a request that has just been completed. */
+  private void recordLatency(long latency) {
+    completedRequests.incrementAndGet();
+    totalLatencyNanos.addAndGet(latency);
+
+    long max = maxLatencyNanos.get();
+    while ((latency > max) && !maxLatencyNanos.compareAndSet(max, latency)) {
+      max = maxLatencyNanos.get();
+    }
+  }
+
+  /** Takes requests off the queue, and searches for them with its own path finder, until the service is shut down. */
+  private class Worker implements Runnable {
+
+    /** The path finder used by this worker, and no other. */
+    private PathFinder pathFinder;
+
+    public Worker(PathFinder pathFinder) {
+      this.pathFinder = pathFinder;
+    }
+
+    @Override
+    public void run() {
+      while (!shutDown) {
+        PathRequest request;
+        try {
+          request = queue.take();
+        } catch (InterruptedException intEx) {
+          break;
+        }
+
+        Path path = null;
+        map.getReadLock().lock();
+        try {
+          path = pathFinder.findPath(request.getMover(), request.getStartX(), request.getStartY(), request.getTargetX(), request.getTargetY());
+        } catch (RuntimeException rtEx) {
+          // the mover is told there's no path, and asks again later, rather than waiting forever
+          rtEx.printStackTrace();
+        } finally {
+          map.getReadLock().unlock();
+        }
+
+        request.complete(path);
+        recordLatency(request.getLatencyNanos());
+        completed.add(request);
+      }
+    }
+
+  }
+
+}
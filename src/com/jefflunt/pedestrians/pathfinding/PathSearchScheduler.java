@@ -0,0 +1,252 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+
+import org.newdawn.slick.util.pathfinding.AStarHeuristic;
+import org.newdawn.slick.util.pathfinding.Mover;
+import org.newdawn.slick.util.pathfinding.heuristics.ClosestHeuristic;
+
+/** Spreads A* searches across ticks, so that however many Pedestrians need a new path at once, path finding never takes more than a fixed
+ * slice of each tick.
+ *
+ * Requests are queued with a priority. Each call to run() is given a time budget, and spends it stepping the highest-priority searches a
+ * slice of nodes at a time, picking each one up exactly where it left off the tick before. A small number of searches are kept in progress
+ * at once (each one needs its own PedestrianPathFinder, with a node for every tile), and the rest wait in the queue. Among requests of equal
+ * priority, the oldest goes first.
+ *
+ * Since a search can span several ticks, the map may be edited part way through one. Every path is checked against the map when its search
+ * finishes, and a search whose path has been cut by an edit is started again.
+ */
+public class PathSearchScheduler {
+
+  /** The number of nodes a search is stepped by, between checks of the time budget. */
+  public static final int EXPANSIONS_PER_SLICE = 64;
+
+  /** The map being searched. */
+  private PedestrianTileBasedMap map;
+  /** Requests that haven't been started yet, highest priority first. */
+  private PriorityQueue<ScheduledSearch> pending;
+  /** The searches that have been started, but not finished. */
+  private ScheduledSearch[] active;
+  /** A path finder for each slot in the active array. */
+  private PedestrianPathFinder[] pathFinders;
+  /** Requests that have been completed, but not yet collected. */
+  private LinkedList<PathRequest> completed;
+  /** The counter used to stamp requests in the order they were submitted. */
+  private long submissionCounter;
+
+  /** The number of nodes expanded during the most recent call to run(). */
+  private int expansionsLastRun;
+  /** The time taken by the most recent call to run(), in nanoseconds. */
+  private long nanosLastRun;
+  /** The number of searches that had to be started again because the map changed underneath them. */
+  private long restarts;
+
+  /** Creates a new PathSearchScheduler, whose searches use the default heuristic - closest to target.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum depth of any one search, as for PedestrianPathFinder
+   * @param maxActiveSearches the number of searches that may be in progress at once, at least 1
+   */
+  public PathSearchScheduler(PedestrianTileBasedMap map, int maxSearchDistance, int maxActiveSearches) {
+    this(map, maxSearchDistance, maxActiveSearches, new ClosestHeuristic());
+  }
+
+  /** Creates a new PathSearchScheduler.
+   *
+   * @param map the map to be searched
+   * @param maxSearchDistance the maximum depth of any one search, as for PedestrianPathFinder
+   * @param maxActiveSearches the number of searches that may be in progress at once, at least 1
+   * @param heuristic the heuristic every search is guided by
+   */
+  public PathSearchScheduler(PedestrianTileBasedMap map, int maxSearchDistance, int maxActiveSearches, AStarHeuristic heuristic) {
+    if (maxActiveSearches < 1) {
+      throw new IllegalArgumentException("A PathSearchScheduler needs room for at least one search, not " + maxActiveSearches);
+    }
+
+    this.map = map;
+    pending = new PriorityQueue<ScheduledSearch>();
+    active = new ScheduledSearch[maxActiveSearches];
+    pathFinders = new PedestrianPathFinder[maxActiveSearches];
+    for (int i = 0; i < maxActiveSearches; i++) {
+      pathFinders[i] = new PedestrianPathFinder(map, maxSearchDistance, true, heuristic);
+    }
+    completed = new LinkedList<PathRequest>();
+  }
+
+  /** Queues a request for a path. Nothing is searched until run() is called.
+   *
+   * @param mover the mover that wants the path
+   * @param sx the x-coordinate of the start tile
+   * @param sy the y-coordinate of the start tile
+   * @param tx the x-coordinate of the target tile
+   * @param ty the y-coordinate of the target tile
+   * @param priority how urgent the request is - higher priorities are searched first
+   * @return the request, which will eventually be returned by pollCompleted()
+   */
+  public PathRequest submit(Mover mover, int sx, int sy, int tx, int ty, int priority) {
+    PathRequest request = new PathRequest(mover, sx, sy, tx, ty);
+    pending.add(new ScheduledSearch(request, priority, submissionCounter++));
+    return request;
+  }
+
+  /** Steps the queued searches, highest priority first, until they are all finished or the time budget is spent. At least one slice of
+   * one search is always run, so the queue makes progress even with a budget of zero.
+   *
+   * @param budgetNanos the time that may be spent, in nanoseconds
+   * @return the number of nodes expanded
+   */
+  public int run(long budgetNanos) {
+    long startedAt = System.nanoTime();
+    long deadline = startedAt + budgetNanos;
+    expansionsLastRun = 0;
+
+    do {
+      startPendingSearches();
+
+      int slot = highestPriorityActiveSlot();
+      if (slot < 0) {
+        break;
+      }
+
+      int state = pathFinders[slot].step(EXPANSIONS_PER_SLICE);
+      expansionsLastRun += EXPANSIONS_PER_SLICE;
+      if (state != PedestrianPathFinder.SEARCH_IN_PROGRESS) {
+        finish(slot);
+      }
+    } while (System.nanoTime() < deadline);
+
+    nanosLastRun = System.nanoTime() - startedAt;
+    return expansionsLastRun;
+  }
+
+  /** Gets the next completed request, if there is one.
+   *
+   * @return a completed request, or null if none are waiting to be collected
+   */
+  public PathRequest pollCompleted() {
+    return completed.poll();
+  }
+
+  /** Gets the number of requests waiting to be started. */
+  public int getPendingSearches() {
+    return pending.size();
+  }
+
+  /** Gets the number of searches that have been started, but not finished. */
+  public int getActiveSearches() {
+    int count = 0;
+    for (ScheduledSearch search : active) {
+      if (search != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** Gets the number of nodes expanded during the most recent call to run(), rounded up to a whole number of slices. */
+  public int getExpansionsLastRun() {
+    return expansionsLastRun;
+  }
+
+  /** Gets the time taken by the most recent call to run(), in microseconds. */
+  public long getMicrosLastRun() {
+    return nanosLastRun / 1000;
+  }
+
+  /** Gets the number of searches that had to be started again because the map changed while they were in progress. */
+  public long getRestarts() {
+    return restarts;
+  }
+
+  /** Moves the most urgent queued requests into any free slots. A search in progress is never pushed out of its slot, so an urgent request
+   * may have to wait for a slot - but every slot is then spent on the most urgent searches available.
+   */
+  private void startPendingSearches() {
+    for (int slot = 0; (slot < active.length) && !pending.isEmpty(); slot++) {
+      if (active[slot] == null) {
+        ScheduledSearch search = pending.poll();
+        PathRequest request = search.request;
+        active[slot] = search;
+        pathFinders[slot].startSearch(request.getMover(), request.getStartX(), request.getStartY(), request.getTargetX(), request.getTargetY());
+      }
+    }
+  }
+
+  /** Gets the slot of the most urgent search in progress, or -1 if there are none. */
+  private int highestPriorityActiveSlot() {
+    int best = -1;
+    for (int slot = 0; slot < active.length; slot++) {
+      if ((active[slot] != null) && ((best < 0) || (active[slot].compareTo(active[best]) < 0))) {
+        best = slot;
+      }
+    }
+    return best;
+  }
+
+  /** Completes the request in a slot whose search has finished, unless the map has since cut the path, in which case the search is started
+   * again.
+   */
+  private void finish(int slot) {
+    PathRequest request = active[slot].request;
+    CompactPath path = pathFinders[slot].getCompactPath();
+
+    if ((path != null) && !isStillOpen(path)) {
+      restarts++;
+      pathFinders[slot].startSearch(request.getMover(), request.getStartX(), request.getStartY(), request.getTargetX(), request.getTargetY());
+      return;
+    }
+
+    active[slot] = null;
+    request.complete(path);
+    completed.add(request);
+  }
+
+  /** Checks that no step of a path (other than the start, which the mover is already standing on) has been blocked, and that no diagonal
+   * step has been closed off.
+   */
+  private boolean isStillOpen(CompactPath path) {
+    for (int i = 1; i < path.getLength(); i++) {
+      int x = path.getX(i);
+      int y = path.getY(i);
+      if (map.blocked(null, x, y)) {
+        return false;
+      }
+
+      int lastX = path.getX(i-1);
+      int lastY = path.getY(i-1);
+      if ((x != lastX) && (y != lastY) && map.diagonallyBlocked(null, lastX, lastY, x, y)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** A request, with the priority and submission order it is scheduled by. */
+  private static class ScheduledSearch implements Comparable<ScheduledSearch> {
+
+    /** The request being searched for. */
+    private PathRequest request;
+    /** How urgent the request is - higher is more urgent. */
+    private int priority;
+    /** The order in which the request was submitted. */
+    private long order;
+
+    public ScheduledSearch(PathRequest request, int priority, long order) {
+      this.request = request;
+      this.priority = priority;
+      this.order = order;
+    }
+
+    @Override
+    public int compareTo(ScheduledSearch o) {
+      if (priority != o.priority) {
+        return ((priority > o.priority) ? -1 : 1);
+      }
+      return ((order < o.order) ? -1 : ((order > o.order) ? 1 : 0));
+    }
+
+  }
+
+}
@@ -0,0 +1,407 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.List;
+
+import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.Pedestrian;
+
+/** An index of where every Pedestrian is, by tile, rebuilt from scratch once per tick rather than kept up to date as they move.
+ *
+ * The tiles are hashed into a table of buckets, about twice as many as there are Pedestrians, so the index costs memory in proportion to
+ * the number of Pedestrians, not the size of the map. rebuild() sorts the Pedestrians into the buckets with a counting sort: count the
+ * Pedestrians in each bucket, turn the counts into the offset of each bucket's first entry, and then drop each Pedestrian into the next
+ * free entry of its bucket. What's left is a handful of flat arrays - the offsets of the buckets, and each entry's Pedestrian index, position
+ * and tile - that queries scan without allocating anything. A bucket may hold Pedestrians from more than one tile, so queries check each
+ * entry's tile as they go.
+ *
+ * The arrays are only ever grown, so once the number of Pedestrians has settled down a rebuild allocates nothing either. A query sees the
+ * Pedestrians where they were at the last rebuild, however far they've moved since.
+ */
+public class PedestrianGrid {
+
+  /** The smallest number of buckets there will be. */
+  private static final int MIN_BUCKETS = 16;
+
+  /** The Pedestrians, in the order they were handed to rebuild(). */
+  private Pedestrian[] pedestrians;
+  /** The number of Pedestrians indexed. */
+  private int size;
+
+  /** The number of buckets, minus one - the number of buckets is always a power of two. */
+  private int bucketMask;
+  /** The offset of the first entry of each bucket, with one more offset on the end for where the last bucket stops. */
+  private int[] bucketStart;
+  /** The bucket of each Pedestrian, by Pedestrian index. Only used during a rebuild. */
+  private int[] bucketOf;
+
+  /** The index (into pedestrians) of the Pedestrian in each entry, sorted by bucket. */
+  private int[] entryPedestrian;
+  /** The x-coordinate of the center of the Pedestrian in each entry. */
+  private float[] entryX;
+  /** The y-coordinate of the center of the Pedestrian in each entry. */
+  private float[] entryY;
+  /** The x-coordinate of the tile of the Pedestrian in each entry. */
+  private int[] entryTileX;
+  /** The y-coordinate of the tile of the Pedestrian in each entry. */
+  private int[] entryTileY;
+  /** The smallest x-coordinate of any tile with a Pedestrian in it. */
+  private int minTileX;
+  /** The largest x-coordinate of any tile with a Pedestrian in it. */
+  private int maxTileX;
+  /** The smallest y-coordinate of any tile with a Pedestrian in it. */
+  private int minTileY;
+  /** The largest y-coordinate of any tile with a Pedestrian in it. */
+  private int maxTileY;
+
+  /** Creates an empty index. */
+  public PedestrianGrid() {
+    pedestrians = new Pedestrian[0];
+    bucketOf = new int[0];
+    entryPedestrian = new int[0];
+    entryX = new float[0];
+    entryY = new float[0];
+    entryTileX = new int[0];
+    entryTileY = new int[0];
+    bucketMask = MIN_BUCKETS - 1;
+    bucketStart = new int[MIN_BUCKETS + 1];
+  }
+
+  /** Indexes a group of Pedestrians where they are right now, replacing whatever was indexed before.
+   *
+   * @param peds the Pedestrians
+   */
+  public void rebuild(List<Pedestrian> peds) {
+    size = peds.size();
+    ensureCapacity(size);
+
+    int i = 0;
+    for (Pedestrian ped : peds) {
+      pedestrians[i++] = ped;
+    }
+    for (i = size; (i < pedestrians.length) && (pedestrians[i] != null); i++) {
+      pedestrians[i] = null;
+    }
+
+    // count the Pedestrians in each bucket, in the offset of the bucket after it...
+    int[] start = bucketStart;
+    int buckets = bucketMask + 1;
+    for (int b = 0; b <= buckets; b++) {
+      start[b] = 0;
+    }
+    for (i = 0; i < size; i++) {
+      Pedestrian ped = pedestrians[i];
+      int bucket = bucketFor(tileOf(ped.getCenterX()), tileOf(ped.getCenterY()));
+      bucketOf[i] = bucket;
+      start[bucket + 1]++;
+    }
+    // ...so that adding up the counts leaves each bucket's offset in its own place...
+    for (int b = 0; b < buckets; b++) {
+      start[b + 1] += start[b];
+    }
+    // ...which is then moved along by one for each entry placed in the bucket, and moved back afterwards.
+    minTileX = Integer.MAX_VALUE;
+    maxTileX = Integer.MIN_VALUE;
+    minTileY = Integer.MAX_VALUE;
+    maxTileY = Integer.MIN_VALUE;
+    for (i = 0; i < size; i++) {
+      Pedestrian ped = pedestrians[i];
+      int entry = start[bucketOf[i]]++;
+      entryPedestrian[entry] = i;
+      entryX[entry] = ped.getCenterX();
+      entryY[entry] = ped.getCenterY();
+      entryTileX[entry] = tileOf(entryX[entry]);
+      entryTileY[entry] = tileOf(entryY[entry]);
+      minTileX = Math.min(minTileX, entryTileX[entry]);
+      maxTileX = Math.max(maxTileX, entryTileX[entry]);
+      minTileY = Math.min(minTileY, entryTileY[entry]);
+      maxTileY = Math.max(maxTileY, entryTileY[entry]);
+    }
+    for (int b = buckets; b > 0; b--) {
+      start[b] = start[b - 1];
+    }
+    start[0] = 0;
+  }
+
+  /** Grows the arrays (and the table of buckets) to hold at least the given number of Pedestrians. */
+  private void ensureCapacity(int capacity) {
+    int buckets = MIN_BUCKETS;
+    while (buckets < capacity*2) {
+      buckets <<= 1;
+    }
+    if (buckets > bucketMask + 1) {
+      bucketMask = buckets - 1;
+      bucketStart = new int[buckets + 1];
+    }
+
+    if (capacity > pedestrians.length) {
+      int length = Math.max(capacity, pedestrians.length + (pedestrians.length >> 1));
+      pedestrians = new Pedestrian[length];
+      bucketOf = new int[length];
+      entryPedestrian = new int[length];
+      entryX = new float[length];
+      entryY = new float[length];
+      entryTileX = new int[length];
+      entryTileY = new int[length];
+    }
+  }
+
+  /** Gets the tile a pixel coordinate falls in. */
+  private static int tileOf(float pixel) {
+    return (int) Math.floor(pixel/ConfigValues.TILE_SIZE);
+  }
+
+  /** Gets the bucket a tile is hashed to. */
+  private int bucketFor(int tileX, int tileY) {
+    int hash = (tileX*0x9E3779B1) ^ (tileY*0x85EBCA77);
+    return (hash ^ (hash >>> 15)) & bucketMask;
+  }
+
+  /** Gets the number of Pedestrians indexed. */
+  public int size() {
+    return size;
+  }
+
+  /** Gets a Pedestrian by their index, which is their position in the list last handed to rebuild(). */
+  public Pedestrian getPedestrian(int index) {
+    return pedestrians[index];
+  }
+
+  /** Gets the number of Pedestrians in the tile at (x, y). */
+  public int countInTile(int x, int y) {
+    int bucket = bucketFor(x, y);
+    int count = 0;
+    for (int entry = bucketStart[bucket]; entry < bucketStart[bucket + 1]; entry++) {
+      if ((entryTileX[entry] == x) && (entryTileY[entry] == y)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** Gets the Pedestrians in the tile at (x, y).
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @param buffer filled with the Pedestrians in the tile, as many as will fit
+   * @return the number of Pedestrians in the tile, which may be more than were put in the buffer
+   */
+  public int getPedestriansInTile(int x, int y, Pedestrian[] buffer) {
+    int bucket = bucketFor(x, y);
+    int count = 0;
+    for (int entry = bucketStart[bucket]; entry < bucketStart[bucket + 1]; entry++) {
+      if ((entryTileX[entry] == x) && (entryTileY[entry] == y)) {
+        if (count < buffer.length) {
+          buffer[count] = pedestrians[entryPedestrian[entry]];
+        }
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** Finds a Pedestrian whose center is within some distance of a point. Every tile the circle around the point overlaps is looked in.
+   *
+   * @param x the x-coordinate of the point, in pixels
+   * @param y the y-coordinate of the point, in pixels
+   * @param radius the distance, in pixels
+   * @param ignored a Pedestrian not to find (e.g. the one asking), or null
+   * @return a Pedestrian within the distance, or null if there is none
+   */
+  public Pedestrian findPedestrianNear(float x, float y, float radius, Pedestrian ignored) {
+    int left = tileOf(x - radius);
+    int right = tileOf(x + radius);
+    int top = tileOf(y - radius);
+    int bottom = tileOf(y + radius);
+    float radiusSquared = radius*radius;
+
+    for (int tileY = top; tileY <= bottom; tileY++) {
+      for (int tileX = left; tileX <= right; tileX++) {
+        int bucket = bucketFor(tileX, tileY);
+        for (int entry = bucketStart[bucket]; entry < bucketStart[bucket + 1]; entry++) {
+          if ((entryTileX[entry] != tileX) || (entryTileY[entry] != tileY)) {
+            continue;
+          }
+
+          float dx = entryX[entry] - x;
+          float dy = entryY[entry] - y;
+          Pedestrian ped = pedestrians[entryPedestrian[entry]];
+          if (((dx*dx) + (dy*dy) <= radiusSquared) && (ped != ignored)) {
+            return ped;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Finds every Pedestrian whose center is within some distance of a point. Every tile the circle around the point overlaps is looked in.
+   *
+   * @param x the x-coordinate of the point, in pixels
+   * @param y the y-coordinate of the point, in pixels
+   * @param radius the distance, in pixels
+   * @param ignored a Pedestrian not to find (e.g. the one asking), or null
+   * @param buffer filled with the Pedestrians within the distance, in no particular order, as many as will fit
+   * @return the number of Pedestrians within the distance, which may be more than were put in the buffer
+   */
+  public int findPedestriansWithin(float x, float y, float radius, Pedestrian ignored, Pedestrian[] buffer) {
+    int left = Math.max(tileOf(x - radius), minTileX);
+    int right = Math.min(tileOf(x + radius), maxTileX);
+    int top = Math.max(tileOf(y - radius), minTileY);
+    int bottom = Math.min(tileOf(y + radius), maxTileY);
+    float radiusSquared = radius*radius;
+    int count = 0;
+
+    for (int tileY = top; tileY <= bottom; tileY++) {
+      for (int tileX = left; tileX <= right; tileX++) {
+        int bucket = bucketFor(tileX, tileY);
+        for (int entry = bucketStart[bucket]; entry < bucketStart[bucket + 1]; entry++) {
+          if ((entryTileX[entry] != tileX) || (entryTileY[entry] != tileY)) {
+            continue;
+          }
+
+          float dx = entryX[entry] - x;
+          float dy = entryY[entry] - y;
+          Pedestrian ped = pedestrians[entryPedestrian[entry]];
+          if (((dx*dx) + (dy*dy) <= radiusSquared) && (ped != ignored)) {
+            if (count < buffer.length) {
+              buffer[count] = ped;
+            }
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /** Finds the Pedestrians whose centers are nearest a point, as many as the buffer holds.
+   *
+   * The tiles are searched in rings around the point's tile, nearest first, until the ring being searched is farther away than the
+   * farthest Pedestrian found so far (or than maxDistance). The nearest Pedestrians found so far are kept in the buffers themselves, as a
+   * max-heap on distance - so the farthest of them is the one pushed out when a nearer one is found - and sorted nearest first at the end.
+   *
+   * @param x the x-coordinate of the point, in pixels
+   * @param y the y-coordinate of the point, in pixels
+   * @param maxDistance the farthest a Pedestrian may be from the point, in pixels
+   * @param ignored a Pedestrian not to find (e.g. the one asking), or null
+   * @param buffer filled with the nearest Pedestrians, nearest first; its length is the number wanted
+   * @param distances filled with the distance to each Pedestrian in the buffer, in pixels; at least as long as the buffer
+   * @return the number of Pedestrians put in the buffer, which is less than its length if there weren't enough within maxDistance
+   */
+  public int findNearestPedestrians(float x, float y, float maxDistance, Pedestrian ignored, Pedestrian[] buffer, float[] distances) {
+    int wanted = buffer.length;
+    if ((wanted == 0) || (size == 0)) {
+      return 0;
+    }
+
+    int centerX = tileOf(x);
+    int centerY = tileOf(y);
+    float maxDistanceSquared = maxDistance*maxDistance;
+    // the farthest ring that holds any Pedestrians at all
+    int lastRing = Math.max(Math.max(centerX - minTileX, maxTileX - centerX), Math.max(centerY - minTileY, maxTileY - centerY));
+    int found = 0;
+
+    for (int ring = 0; ring <= lastRing; ring++) {
+      // nothing in this ring can be nearer than the width of the rings inside it, not counting the point's own tile
+      float nearestInRing = Math.max(0, ring - 1)*ConfigValues.TILE_SIZE;
+      float nearestInRingSquared = nearestInRing*nearestInRing;
+      if ((nearestInRingSquared > maxDistanceSquared) || ((found == wanted) && (nearestInRingSquared >= distances[0]))) {
+        break;
+      }
+
+      int top = Math.max(centerY - ring, minTileY);
+      int bottom = Math.min(centerY + ring, maxTileY);
+      for (int tileY = top; tileY <= bottom; tileY++) {
+        // the top and bottom rows of the ring are whole; the rows between only have a tile at either end
+        boolean wholeRow = ((tileY == centerY - ring) || (tileY == centerY + ring));
+        int step = (wholeRow || (ring == 0)) ? 1 : 2*ring;
+        for (int tileX = centerX - ring; tileX <= centerX + ring; tileX += step) {
+          if ((tileX >= minTileX) && (tileX <= maxTileX)) {
+            found = offerNearest(tileX, tileY, x, y, maxDistanceSquared, ignored, buffer, distances, found);
+          }
+        }
+      }
+    }
+
+    // sort the heap nearest first, by repeatedly moving the farthest to the end
+    for (int end = found - 1; end > 0; end--) {
+      swap(buffer, distances, 0, end);
+      siftDownNearest(buffer, distances, 0, end);
+    }
+    for (int i = 0; i < found; i++) {
+      distances[i] = (float) Math.sqrt(distances[i]);
+    }
+    return found;
+  }
+
+  /** Offers every Pedestrian in a tile to the heap of nearest Pedestrians (whose distances are squared, until it's sorted).
+   *
+   * @return the number of Pedestrians in the heap afterwards
+   */
+  private int offerNearest(int tileX, int tileY, float x, float y, float maxDistanceSquared, Pedestrian ignored,
+                           Pedestrian[] heap, float[] distances, int found) {
+    int bucket = bucketFor(tileX, tileY);
+    for (int entry = bucketStart[bucket]; entry < bucketStart[bucket + 1]; entry++) {
+      if ((entryTileX[entry] != tileX) || (entryTileY[entry] != tileY)) {
+        continue;
+      }
+
+      float dx = entryX[entry] - x;
+      float dy = entryY[entry] - y;
+      float distanceSquared = (dx*dx) + (dy*dy);
+      Pedestrian ped = pedestrians[entryPedestrian[entry]];
+      if ((distanceSquared > maxDistanceSquared) || (ped == ignored)) {
+        continue;
+      }
+
+      if (found < heap.length) {
+        // add them at the bottom of the heap, and move them up past anyone nearer
+        int slot = found++;
+        heap[slot] = ped;
+        distances[slot] = distanceSquared;
+        while (slot > 0) {
+          int parent = (slot - 1) >>> 1;
+          if (distances[parent] >= distances[slot]) {
+            break;
+          }
+          swap(heap, distances, slot, parent);
+          slot = parent;
+        }
+      } else if (distanceSquared < distances[0]) {
+        // they push out the farthest of those found so far
+        heap[0] = ped;
+        distances[0] = distanceSquared;
+        siftDownNearest(heap, distances, 0, found);
+      }
+    }
+    return found;
+  }
+
+  /** Moves an entry of the heap of nearest Pedestrians down past anyone farther away, within the first 'size' entries. */
+  private static void siftDownNearest(Pedestrian[] heap, float[] distances, int slot, int size) {
+    while (true) {
+      int child = (2*slot) + 1;
+      if (child >= size) {
+        break;
+      }
+      if ((child + 1 < size) && (distances[child + 1] > distances[child])) {
+        child++;
+      }
+      if (distances[child] <= distances[slot]) {
+        break;
+      }
+      swap(heap, distances, slot, child);
+      slot = child;
+    }
+  }
+
+  private static void swap(Pedestrian[] heap, float[] distances, int a, int b) {
+    Pedestrian ped = heap[a];
+    heap[a] = heap[b];
+    heap[b] = ped;
+    float distance = distances[a];
+    distances[a] = distances[b];
+    distances[b] = distance;
+  }
+
+}
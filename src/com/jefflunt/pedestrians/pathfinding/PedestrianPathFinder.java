@@ -1,9 +1,5 @@
 package com.jefflunt.pedestrians.pathfinding;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-
 import org.newdawn.slick.util.pathfinding.AStarHeuristic;
 import org.newdawn.slick.util.pathfinding.Mover;
 import org.newdawn.slick.util.pathfinding.Path;
@@ -15,27 +11,42 @@ import org.newdawn.slick.util.pathfinding.heuristics.ClosestHeuristic;
  * A path finder implementation that uses the AStar heuristic based algorithm
  * to determine a path. 
  * 
+ * As well as finding a whole path at once, a search can be started with 
+ * startSearch() and then run a few nodes at a time with step(), so that a 
+ * long search can be spread across several ticks.
+ * 
  * @author Kevin Glass. Customized for Pedestrians by Jeff Lunt.
  */
 public class PedestrianPathFinder implements PathFinder, PathFindingContext {
-  /** The set of nodes that have been searched through */
-  private ArrayList<Node> closed = new ArrayList<Node>();
-  /** The set of nodes that we do not yet consider fully searched */
-  private PriorityList open = new PriorityList();
+  /** The state of a search that has been started, but not yet finished */
+  public static final int SEARCH_IN_PROGRESS = 0;
+  /** The state of a search that has found a path */
+  public static final int SEARCH_FOUND = 1;
+  /** The state of a search that has finished without finding a path */
+  public static final int SEARCH_FAILED = 2;
+  
+  /** The set of nodes that we do not yet consider fully searched, by tile index, ordered by cost plus heuristic, then by heuristic (so on a
+   * tie, the node closer to the target comes first), then by the order in which they were opened */
+  private TileHeap open;
   
   /** The map being searched */
   private ExtendedTileBasedMap map;
   /** The maximum depth of search we're willing to accept before giving up */
   private int maxSearchDistance;
   
-  /** The complete set of nodes across the map */
-  private Node[][] nodes;
+  /** The nodes of the map, in chunks of TileStorage.CHUNK_SIZE x TileStorage.CHUNK_SIZE tiles. A chunk is only allocated once a search
+   * reaches it, and each node within it once a search touches that tile. */
+  private Node[][] nodeChunks;
+  /** The number of chunks across the map */
+  private int chunksAcross;
   /** True if we allow diagonal movement */
   private boolean allowDiagMovement;
   /** The heuristic we're applying to determine which nodes to search first */
   private AStarHeuristic heuristic;
   /** The node we're currently searching from */
   private Node current;
+  /** The generation of the current search. A node's search state only counts if its own stamp matches this value. */
+  private int searchGeneration;
   
   /** The mover going through the path */
   private Mover mover;
@@ -46,6 +57,23 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
   /** The distance searched so far */
   private int distance;
   
+  /** The state of the current search - one of SEARCH_IN_PROGRESS, SEARCH_FOUND or SEARCH_FAILED */
+  private int searchState = SEARCH_FAILED;
+  /** The mover the current search is for */
+  private Mover searchMover;
+  /** The node the current search started from */
+  private Node startNode;
+  /** The x coordinate of the start of the current search */
+  private int startX;
+  /** The y coordinate of the start of the current search */
+  private int startY;
+  /** The x coordinate of the target of the current search */
+  private int targetX;
+  /** The y coordinate of the target of the current search */
+  private int targetY;
+  /** The deepest node found so far in the current search */
+  private int maxDepth;
+  
   /**
    * Create a path finder with the default heuristic - closest to target.
    * 
@@ -72,48 +100,106 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
     this.maxSearchDistance = maxSearchDistance;
     this.allowDiagMovement = allowDiagMovement;
     
-    nodes = new Node[map.getWidthInTiles()][map.getHeightInTiles()];
-    for (int x=0;x<map.getWidthInTiles();x++) {
-      for (int y=0;y<map.getHeightInTiles();y++) {
-        nodes[x][y] = new Node(x,y);
-      }
-    }
+    chunksAcross = (map.getWidthInTiles() + TileStorage.CHUNK_SIZE - 1) >> TileStorage.CHUNK_SHIFT;
+    int chunksDown = (map.getHeightInTiles() + TileStorage.CHUNK_SIZE - 1) >> TileStorage.CHUNK_SHIFT;
+    nodeChunks = new Node[chunksAcross*chunksDown][];
+    open = new TileHeap(nodeChunks.length*TileStorage.CHUNK_SIZE*TileStorage.CHUNK_SIZE);
   }
   
   /**
    * @see PathFinder#findPath(Mover, int, int, int, int)
    */
   public Path findPath(Mover mover, int sx, int sy, int tx, int ty) {
+    startSearch(mover, sx, sy, tx, ty);
+    step(Integer.MAX_VALUE);
+    
+    return getPath();
+  }
+  
+  /**
+   * Find a path, just as findPath() does, but without creating a Step 
+   * object for every step of it.
+   * 
+   * @see PathFinder#findPath(Mover, int, int, int, int)
+   */
+  public CompactPath findCompactPath(Mover mover, int sx, int sy, int tx, int ty) {
+    startSearch(mover, sx, sy, tx, ty);
+    step(Integer.MAX_VALUE);
+    
+    return getCompactPath();
+  }
+  
+  /**
+   * Begin a new search, abandoning any search that was already in progress. 
+   * No nodes are expanded until step() is called, so this is cheap.
+   * 
+   * @param mover The entity that will be moving along the path
+   * @param sx The x coordinate of the start location
+   * @param sy The y coordinate of the start location
+   * @param tx The x coordinate of the target location
+   * @param ty The y coordinate of the target location
+   */
+  public void startSearch(Mover mover, int sx, int sy, int tx, int ty) {
     current = null;
     // easy first check, if the destination is blocked, we can't get there
     this.mover = mover;
     this.sourceX = tx;
     this.sourceY = ty;
     this.distance = 0;
+    this.searchMover = mover;
+    this.startX = sx;
+    this.startY = sy;
+    this.targetX = tx;
+    this.targetY = ty;
+    this.maxDepth = 0;
     
-    if (map.blocked(this, tx, ty)) {
-      return null;
+    // likewise if it's walled off from the start - there's no point searching
+    // every tile we can reach before giving up
+    if (map.blocked(this, tx, ty) || !map.reachable(this, sx, sy, tx, ty)) {
+      searchState = SEARCH_FAILED;
+      return;
     }
 
-    for (int x=0;x<map.getWidthInTiles();x++) {
-      for (int y=0;y<map.getHeightInTiles();y++) {
-        nodes[x][y].reset();
-      }
-    }
+    // rather than resetting every node on the map, start a new generation - any
+    // node stamped with an older generation is treated as untouched
+    open.clear();
+    startNewGeneration();
     
     // initial state for A*. The closed group is empty. Only the starting
     // tile is in the open list and it's cost is zero, i.e. we're already there
-    nodes[sx][sy].cost = 0;
-    nodes[sx][sy].depth = 0;
-    closed.clear();
-    open.clear();
-    addToOpen(nodes[sx][sy]);
+    startNode = getNode(sx, sy);
+    startNode.cost = 0;
+    startNode.depth = 0;
+    addToOpen(startNode);
     
-    nodes[tx][ty].parent = null;
+    getNode(tx, ty).parent = null;
+    searchState = SEARCH_IN_PROGRESS;
+  }
+  
+  /**
+   * Carry on with the search begun by startSearch(), for at most the given 
+   * number of node expansions. A search can be stepped any number of times, 
+   * and picks up exactly where it left off.
+   * 
+   * @param maxExpansions The most nodes to expand before returning
+   * @return SEARCH_IN_PROGRESS if the search isn't finished yet, or 
+   * SEARCH_FOUND or SEARCH_FAILED if it is
+   */
+  public int step(int maxExpansions) {
+    Mover mover = searchMover;
+    int sx = startX;
+    int sy = startY;
+    int tx = targetX;
+    int ty = targetY;
+    int expansions = 0;
     
     // while we haven't found the goal and haven't exceeded our max search depth
-    int maxDepth = 0;
-    while ((maxDepth < maxSearchDistance) && (open.size() != 0)) {
+    while ((searchState == SEARCH_IN_PROGRESS) && (expansions < maxExpansions)) {
+      if ((maxDepth >= maxSearchDistance) || (open.size() == 0)) {
+        finishSearch();
+        break;
+      }
+      
       // pull out the first node in our open list, this is determined to 
       // be the most likely to be the next step based on our heuristic
       int lx = sx;
@@ -126,14 +212,16 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
       current = getFirstInOpen();
       distance = current.depth;
       
-      if (current == nodes[tx][ty]) {
+      if ((current.x == tx) && (current.y == ty)) {
         if (isValidLocation(mover,lx,ly,tx,ty)) {
+          finishSearch();
           break;
         }
       }
       
       removeFromOpen(current);
       addToClosed(current);
+      expansions++;
       
       // search through all the neighbors of the current node evaluating
       // them as next steps
@@ -165,7 +253,7 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
             // cost to reach this node. Note that the heuristic value is only used
             // in the sorted open list
             float nextStepCost = current.cost + getMovementCost(mover, current.x, current.y, xp, yp);
-            Node neighbour = nodes[xp][yp];
+            Node neighbour = getNode(xp, yp);
             map.pathFinderVisited(xp, yp);
             
             // if the new cost we've determined for this node is lower than 
@@ -174,7 +262,11 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
             // this node so it needs to be re-evaluated
             if (nextStepCost < neighbour.cost) {
               if (inOpenList(neighbour)) {
-                removeFromOpen(neighbour);
+                // already waiting in the open list, so just lower its key in place
+                neighbour.cost = nextStepCost;
+                maxDepth = Math.max(maxDepth, neighbour.setParent(current));
+                open.decreaseKey(neighbour.id, neighbour.cost + neighbour.heuristic, neighbour.heuristic);
+                continue;
               }
               if (inClosedList(neighbour)) {
                 removeFromClosed(neighbour);
@@ -194,28 +286,122 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
         }
       }
     }
-
-    // since we've got an empty open list or we've run out of search 
-    // there was no path. Just return null
-    if (nodes[tx][ty].parent == null) {
+    
+    return searchState;
+  }
+  
+  /**
+   * Get the state of the most recent search.
+   * 
+   * @return SEARCH_IN_PROGRESS, SEARCH_FOUND or SEARCH_FAILED
+   */
+  public int getSearchState() {
+    return searchState;
+  }
+  
+  /**
+   * Get the path found by the most recent search.
+   * 
+   * @return The path, or null if the search failed or isn't finished yet
+   */
+  public Path getPath() {
+    CompactPath path = getCompactPath();
+    return ((path == null) ? null : path.toPath());
+  }
+  
+  /**
+   * Get the path found by the last search, as a CompactPath, without 
+   * creating a Step object for every step.
+   * 
+   * @return The path found, or null if the search is still in progress 
+   * or no path was found
+   */
+  public CompactPath getCompactPath() {
+    if (searchState != SEARCH_FOUND) {
       return null;
     }
     
     // At this point we've definitely found a path so we can uses the parent
     // references of the nodes to find out way from the target location back
-    // to the start recording the nodes on the way.
-    Path path = new Path();
-    Node target = nodes[tx][ty];
-    while (target != nodes[sx][sy]) {
-      path.prependStep(target.x, target.y);
+    // to the start recording the nodes on the way - then turn it around.
+    Node target = getNode(targetX, targetY);
+    CompactPath path = new CompactPath(target.depth+1, true);
+    while (target != startNode) {
+      path.appendStep(target.x, target.y);
       target = target.parent;
     }
-    path.prependStep(sx,sy);
+    path.appendStep(startX,startY);
+    path.reverse();
     
     // thats it, we have our path 
     return path;
   }
+  
+  /**
+   * Record how the search ended, once the goal has been reached, the open
+   * list has run dry, or the search has gone as deep as it's allowed to.
+   */
+  private void finishSearch() {
+    // if we've got an empty open list or we've run out of search 
+    // there was no path
+    if (getNode(targetX, targetY).parent == null) {
+      searchState = SEARCH_FAILED;
+    } else {
+      searchState = SEARCH_FOUND;
+    }
+  }
 
+  /**
+   * Move on to the next search generation. On the rare occasion that the
+   * generation counter wraps around, every node is reset so that no stale
+   * stamp can ever match.
+   */
+  private void startNewGeneration() {
+    searchGeneration++;
+    if (searchGeneration == 0) {
+      for (Node[] chunk : nodeChunks) {
+        if (chunk != null) {
+          for (Node node : chunk) {
+            if (node != null) {
+              node.generation = 0;
+            }
+          }
+        }
+      }
+      searchGeneration = 1;
+    }
+  }
+  
+  /**
+   * Get the node at the given location, lazily resetting its search state
+   * if it was last touched by an earlier search.
+   * 
+   * @param x The x coordinate of the node
+   * @param y The y coordinate of the node
+   * @return The node, with search state that is valid for the current search
+   */
+  private Node getNode(int x, int y) {
+    int chunkIndex = ((y >> TileStorage.CHUNK_SHIFT)*chunksAcross) + (x >> TileStorage.CHUNK_SHIFT);
+    Node[] chunk = nodeChunks[chunkIndex];
+    if (chunk == null) {
+      chunk = new Node[TileStorage.CHUNK_SIZE*TileStorage.CHUNK_SIZE];
+      nodeChunks[chunkIndex] = chunk;
+    }
+    
+    int position = ((y & (TileStorage.CHUNK_SIZE-1)) << TileStorage.CHUNK_SHIFT) | (x & (TileStorage.CHUNK_SIZE-1));
+    Node node = chunk[position];
+    if (node == null) {
+      node = new Node(x, y, (chunkIndex << (2*TileStorage.CHUNK_SHIFT)) | position);
+      chunk[position] = node;
+    }
+    if (node.generation != searchGeneration) {
+      node.reset();
+      node.generation = searchGeneration;
+    }
+    
+    return node;
+  }
+  
   /**
    * Get the X coordinate of the node currently being evaluated
    * 
@@ -249,7 +435,8 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
    * @return The first element in the open list
    */
   protected Node getFirstInOpen() {
-    return (Node) open.first();
+    int id = open.peek();
+    return nodeChunks[id >>> (2*TileStorage.CHUNK_SHIFT)][id & ((TileStorage.CHUNK_SIZE*TileStorage.CHUNK_SIZE)-1)];
   }
   
   /**
@@ -259,7 +446,7 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
    */
   protected void addToOpen(Node node) {
     node.setOpen(true);
-    open.add(node);
+    open.insertOrUpdate(node.id, node.cost + node.heuristic, node.heuristic);
   }
   
   /**
@@ -279,7 +466,7 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
    */
   protected void removeFromOpen(Node node) {
     node.setOpen(false);
-    open.remove(node);
+    open.remove(node.id);
   }
   
   /**
@@ -289,7 +476,6 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
    */
   protected void addToClosed(Node node) {
     node.setClosed(true);
-    closed.add(node);
   }
   
   /**
@@ -309,7 +495,6 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
    */
   protected void removeFromClosed(Node node) {
     node.setClosed(false);
-    closed.remove(node);
   }
   
   /**
@@ -368,101 +553,16 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
     return heuristic.getCost(map, mover, x, y, tx, ty);
   }
   
-  /**
-   * A list that sorts any element provided into the list
-   *
-   * @author kevin
-   */
-  @SuppressWarnings("rawtypes")
-  private class PriorityList {
-    /** The list of elements */
-    private List list = new LinkedList();
-    
-    /**
-     * Retrieve the first element from the list
-     *  
-     * @return The first element from the list
-     */
-    public Object first() {
-      return list.get(0);
-    }
-    
-    /**
-     * Empty the list
-     */
-    public void clear() {
-      list.clear();
-    }
-    
-    /**
-     * Add an element to the list - causes sorting
-     * 
-     * @param o The element to add
-     */
-    @SuppressWarnings("unchecked")
-    public void add(Object o) {
-      // float the new entry 
-      for (int i=0;i<list.size();i++) {
-        if (((Comparable<Node>) list.get(i)).compareTo((Node)o) > 0) {
-          list.add(i, o);
-          break;
-        }
-      }
-      if (!list.contains(o)) {
-        list.add(o);
-      }
-      //Collections.sort(list);
-    }
-    
-    /**
-     * Remove an element from the list
-     * 
-     * @param o The element to remove
-     */
-    public void remove(Object o) {
-      list.remove(o);
-    }
-  
-    /**
-     * Get the number of elements in the list
-     * 
-     * @return The number of element in the list
-     */
-    public int size() {
-      return list.size();
-    }
-    
-    /**
-     * Check if an element is in the list
-     * 
-     * @param o The element to search for
-     * @return True if the element is in the list
-     */
-    @SuppressWarnings("unused")
-    public boolean contains(Object o) {
-      return list.contains(o);
-    }
-    
-    public String toString() {
-      String temp = "{";
-      for (int i=0;i<size();i++) {
-        temp += list.get(i).toString()+",";
-      }
-      temp += "}";
-      
-      return temp;
-    }
-  }
-  
   /**
    * A single node in the search graph
    */
-  @SuppressWarnings("rawtypes")
-  private class Node implements Comparable {
+  private class Node {
     /** The x coordinate of the node */
     private int x;
     /** The y coordinate of the node */
     private int y;
+    /** The index of the node's tile, numbered as the chunks of nodes are - which is what the open list holds */
+    private int id;
     /** The path cost for this node */
     private float cost;
     /** The parent of this node, how we reached it in the search */
@@ -475,16 +575,20 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
     private boolean open;
     /** In the closed list */
     private boolean closed;
+    /** The search generation in which this node's state was last reset */
+    private int generation;
     
     /**
      * Create a new node
      * 
      * @param x The x coordinate of the node
      * @param y The y coordinate of the node
+     * @param id The index of the node's tile
      */
-    public Node(int x, int y) {
+    public Node(int x, int y, int id) {
       this.x = x;
       this.y = y;
+      this.id = id;
     }
     
     /**
@@ -500,24 +604,6 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
       return depth;
     }
     
-    /**
-     * @see Comparable#compareTo(Object)
-     */
-    public int compareTo(Object other) {
-      Node o = (Node) other;
-      
-      float f = heuristic + cost;
-      float of = o.heuristic + o.cost;
-      
-      if (f < of) {
-        return -1;
-      } else if (f > of) {
-        return 1;
-      } else {
-        return 0;
-      }
-    }
-    
     /**
      * Indicate whether the node is in the open list
      * 
@@ -562,6 +648,7 @@ public class PedestrianPathFinder implements PathFinder, PathFindingContext {
       open = false;
       cost = 0;
       depth = 0;
+      parent = null;
     }
     
     /**
@@ -1,24 +1,63 @@
 package com.jefflunt.pedestrians.pathfinding;
 
 import java.awt.Point;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.newdawn.slick.GameContainer;
 import org.newdawn.slick.util.pathfinding.PathFindingContext;
 
 import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.Pedestrian;
 
 public class PedestrianTileBasedMap implements ExtendedTileBasedMap {
   
-  /** The array of integers that store the current blocking state of this tile map. */
-  private TileState blockingMap[][];
+  /** The number of calls to updateCongestion() in a row that may find the read lock held, and put off publishing a snapshot, before one
+   * waits for the lock instead. */
+  public static final int MAX_DEFERRED_PUBLICATIONS = 10;
+  /** The most tiles a map can have for the indexes kept over every one of its tiles - the reachability index, the open tile sampler, the
+   * obstacle distance field and the landmark tables - to be built. Unlike TileStorage, which only allocates the chunks that hold
+   * something, each of them takes 4 bytes or more for every tile of the map, so a bigger map does without them: random tiles are drawn
+   * by trying tiles until an open one turns up, and searches find out for themselves whether a target can be reached. */
+  public static final int MAX_INDEXED_TILES = 2048*2048;
+  /** The number of random tiles tried, on a map too big to be indexed, before giving up on finding an open one. */
+  public static final int MAX_RANDOM_TILE_ATTEMPTS = 64;
+  
+  /** The state of every tile of this tile map. */
+  private TileStorage tiles;
   /** Whether or not this tilemap's blocking map has changed - i.e. if it needs to be saved. */
   private boolean dirty;
+  /** The listeners that are told whenever a tile is blocked or opened. */
+  private LinkedList<TileMapListener> listeners;
+  /** Guards the blocking state of the tiles. Edits take the write lock; searches running off the game thread take the read lock. */
+  private ReentrantReadWriteLock lock;
+  /** The connected components of the open tiles, built the first time they're needed. */
+  private ReachabilityIndex reachabilityIndex;
+  /** The counts of open tiles used to draw random open tiles, built the first time they're needed. */
+  private OpenTileSampler openTileSampler;
+  /** The distance from every tile to the nearest blocked tile, built the first time it's needed. */
+  private ObstacleDistanceField obstacleDistanceField;
+  /** The congestion of every tile as of the last call to updateCongestion() that published it. Searches only ever read this snapshot, so
+   * every cost they see in one search comes from the same moment. */
+  private volatile TileStorage.CongestionSnapshot congestion;
+  /** The snapshot the congestion is copied into next, before it is swapped with the published one. */
+  private TileStorage.CongestionSnapshot nextCongestion;
+  /** Whether nextCongestion holds a snapshot that hasn't been published yet. */
+  private boolean nextCongestionReady;
+  /** The number of calls to updateCongestion() in a row that have put off publishing nextCongestion. */
+  private int deferredPublications;
+  /** The time after which the congestion will next be calculated. */
+  private long nextCongestionCalculationTime;
+  /** Where every Pedestrian was, as of the last call to updatePedestrians(). */
+  private PedestrianGrid pedestrianGrid;
+  /** The storage index of the tile each Pedestrian was counted in, by the last call to updatePedestrians(). */
+  private int[] occupiedTiles;
+  /** The number of entries in occupiedTiles. */
+  private int numberOfOccupiedTiles;
 
   /** Constructs a new PedestrianTileBasedMap with no obstacles, and no Pedestrians.
    * 
@@ -34,14 +73,59 @@ public class PedestrianTileBasedMap implements ExtendedTileBasedMap {
    * @param heightInTiles the height of the tile map
    */
   public PedestrianTileBasedMap(int widthInTiles, int heightInTiles) {
-    blockingMap = new TileState[widthInTiles][heightInTiles];
-    for (int x = 0; x < blockingMap.length; x++) {
-      for (int y = 0; y < blockingMap[0].length; y++) {
-        blockingMap[x][y] = new TileState();
-      }
-    }
+    tiles = new TileStorage(widthInTiles, heightInTiles);
+    pedestrianGrid = new PedestrianGrid();
+    occupiedTiles = new int[0];
     
+    listeners = new LinkedList<TileMapListener>();
+    lock = new ReentrantReadWriteLock();
     dirty = true;
+    
+    congestion = tiles.createCongestionSnapshot();
+    nextCongestion = tiles.createCongestionSnapshot();
+  }
+  
+  /** Adds a listener that will be told whenever tiles on this map are blocked or opened. Listeners may be added from a path finding thread
+   * (when it's the first to ask for the reachability index, say), which holds the read lock, so this never runs while the listeners are
+   * being told of an edit - but it may run alongside another thread adding one.
+   * 
+   * @param listener the listener to add
+   */
+  public synchronized void addTileMapListener(TileMapListener listener) {
+    if (!listeners.contains(listener))
+      listeners.add(listener);
+  }
+  
+  /** Removes a listener that was previously added with addTileMapListener. If the listener was never added, there is no effect.
+   * 
+   * @param listener the listener to remove
+   */
+  public synchronized void removeTileMapListener(TileMapListener listener) {
+    listeners.remove(listener);
+  }
+  
+  /** Gets the lock that must be held while searching this map from any thread other than the one that edits it. permanentlyBlock(),
+   * permanentlyOpen() and randomizeObstacles() (and so every TileMapListener) run while holding the matching write lock, so a search that
+   * holds this lock never sees the map, or anything derived from it by a listener, change underneath it.
+   * 
+   * @return the read half of this map's read/write lock
+   */
+  public Lock getReadLock() {
+    return lock.readLock();
+  }
+  
+  /** Tells every listener that a single tile has changed. */
+  private void fireTileChanged(int x, int y, boolean blocked) {
+    for (TileMapListener listener : listeners) {
+      listener.tileChanged(this, x, y, blocked);
+    }
+  }
+  
+  /** Tells every listener that the whole map has changed. */
+  private void fireTileMapReset() {
+    for (TileMapListener listener : listeners) {
+      listener.tileMapReset(this);
+    }
   }
   
   /** Gets whether or not this tile map is dirty.
@@ -60,7 +144,7 @@ public class PedestrianTileBasedMap implements ExtendedTileBasedMap {
     this.dirty = dirty;
   }
   
-  /** Saves this tile map to disk, and returns whether or not that operation was successful.
+  /** Saves this tile map to disk, in the format written by TileMapFile, and returns whether or not that operation was successful.
    * 
    * @return true if the save completed without error, false otherwise.
    */
@@ -68,19 +152,7 @@ public class PedestrianTileBasedMap implements ExtendedTileBasedMap {
     boolean savedSuccessfully = true;
     
     try {
-      ObjectOutputStream fileOut = new ObjectOutputStream(new FileOutputStream(filename, false));
-      
-      fileOut.writeInt(blockingMap.length);
-      fileOut.writeInt(blockingMap[0].length);
-      
-      for (int x = 0; x < blockingMap.length; x++) {
-        for (int y = 0; y < blockingMap[0].length; y++) {
-          fileOut.writeBoolean(blockingMap[x][y].isBlocked());
-        }
-      }
-      
-      fileOut.flush();
-      fileOut.close();
+      TileMapFile.save(this, filename);
     } catch (IOException ioEx) {
       ioEx.printStackTrace();
       savedSuccessfully = false;
@@ -89,47 +161,89 @@ public class PedestrianTileBasedMap implements ExtendedTileBasedMap {
     return savedSuccessfully;
   }
   
+  /** Loads a tile map from disk, in either the format written by TileMapFile, or the older one with a boolean for every tile, and
+   * replays the TileMapJournal that goes with it, if there is one.
+   * 
+   * @param filename the file to load
+   * @return the tile map, or null if there was no such file, or it couldn't be read
+   */
   public static PedestrianTileBasedMap loadTileMap(String filename) {
-    boolean successfullyLoaded = false;
     PedestrianTileBasedMap tileMap = null;
     
     try {
-      ObjectInputStream fileIn = new ObjectInputStream(new FileInputStream(filename));
-      
-      int width = fileIn.readInt();
-      int height = fileIn.readInt();
-      
-      tileMap = new PedestrianTileBasedMap(width, height);
-      
-      for (int x = 0; x < width; x++) {
-        for (int y = 0; y < height; y++) {
-          tileMap.blockingMap[x][y] = new TileState();
-          tileMap.blockingMap[x][y].setIsBlocked(fileIn.readBoolean());
-        }
-      }
-      
-      fileIn.close();
-      successfullyLoaded = true;
+      tileMap = TileMapJournal.load(filename);
     } catch (FileNotFoundException fnfEx) {
       System.out.println("Creating new tilemap...");
     } catch (IOException ioEx) {
       ioEx.printStackTrace();
     }
     
-    if (successfullyLoaded) {
-      return tileMap;
-    } else {
-      return null;
-    }
+    return tileMap;
   }
   
   /** Resets all congestion values on this PedestrianTileMap to zero. */
   public void resetAllCongestionValues() {
-    for (int x = 0; x < blockingMap.length; x++) {
-      for (int y = 0; y < blockingMap[0].length; y++) {
-        blockingMap[x][y].resetCongestion();
+    tiles.resetCongestion();
+    
+    congestion = tiles.createCongestionSnapshot();
+    nextCongestionReady = false;
+    deferredPublications = 0;
+  }
+  
+  /** Recalculates the congestion of every tile, if it's time to, and publishes the results as the snapshot that getCost() and getCongestion()
+   * read. This should be called once per tick, from the thread that moves the Pedestrians, so that congestion is only ever calculated in one
+   * pass over the map, rather than a tile at a time as searches happen to look at it.
+   * 
+   * A new snapshot is only swapped in while no search on another thread holds the read lock, so a background search sees the same
+   * congestion from beginning to end. If one does, the snapshot is kept, and published by a later call instead - but background searches
+   * can hold the read lock almost all the time, so after MAX_DEFERRED_PUBLICATIONS calls in a row have put it off, the next one waits for
+   * the write lock. Every search gives up after a bounded number of expansions, so that wait is bounded too.
+   * 
+   * @param now the current time, in milliseconds
+   * @return true if a new snapshot was published, false otherwise
+   */
+  public boolean updateCongestion(long now) {
+    if (!nextCongestionReady) {
+      if (now < nextCongestionCalculationTime)
+        return false;
+      
+      tiles.recalculateCongestion();
+      tiles.copyCongestionInto(nextCongestion);
+      nextCongestionReady = true;
+      nextCongestionCalculationTime = now + ConfigValues.millisBetweenCongestionCalculations;
+    }
+    
+    if (deferredPublications < MAX_DEFERRED_PUBLICATIONS) {
+      if (!lock.writeLock().tryLock()) {
+        deferredPublications++;
+        return false;
       }
+    } else {
+      lock.writeLock().lock();
     }
+    try {
+      TileStorage.CongestionSnapshot published = congestion;
+      congestion = nextCongestion;
+      nextCongestion = published;
+      nextCongestionReady = false;
+      deferredPublications = 0;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return true;
+  }
+  
+  /** Gets the congestion of a tile, as of the last snapshot published by updateCongestion().
+   * 
+   * @param x the x-coordinate of the tile in question
+   * @param y the y-coordinate of the tile in question
+   * @return the congestion of the tile, or zero if the tile is off the map
+   */
+  public float getCongestion(int x, int y) {
+    if ((x < 0) || (y < 0) || (x >= getWidthInTiles()) || (y >= getHeightInTiles()))
+      return 0;
+    else
+      return congestion.getCongestion(tiles.indexOf(x, y));
   }
   
   /** Gets the coordinates of the center of the tile at (x, y).
@@ -142,42 +256,217 @@ public class PedestrianTileBasedMap implements ExtendedTileBasedMap {
     return (new Point((x*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2), (y*ConfigValues.TILE_SIZE) + (ConfigValues.TILE_SIZE/2)));
   }
   
-  /** Gets the TileState object of the tile at (x, y).
+  /** Gets a view of the state of the tile at (x, y). The view reads and changes this map directly; it is kept for code written against
+   * the one-object-per-tile map, and new code should use the methods on the map itself, or the TileStorage.
    * 
    * @param x the x-coordinate of the tile in question
    * @param y the y-coordinate of the tile in question
-   * @return the TileState object of the tile at (x, y)
+   * @return the TileState object of the tile at (x, y), or a TileState that isn't part of this map if (x, y) is off the map
    */
   public TileState getTileStateAt(int x, int y) {
     if ((x < 0) || (y < 0) || (x >= getWidthInTiles()) || (y >= getHeightInTiles())) {
       return (new TileState());
     } else {
-      return blockingMap[x][y];
+      return (new TileState(tiles, pedestrianGrid, x, y));
+    }
+  }
+  
+  /** Gets the flat arrays the state of every tile is kept in, for code that reads a lot of tiles at once.
+   * 
+   * @return the storage of this map
+   */
+  public TileStorage getTileStorage() {
+    return tiles;
+  }
+  
+  /** Indexes every Pedestrian where they are now, in this map's PedestrianGrid, and counts the number of Pedestrians in each tile (which
+   * the congestion is calculated from). This is meant to be called once per tick, before anyone moves; every query of the Pedestrians
+   * until the next call sees them where they were at this one.
+   * 
+   * @param peds every Pedestrian on the map
+   */
+  public void updatePedestrians(List<Pedestrian> peds) {
+    for (int i = 0; i < numberOfOccupiedTiles; i++) {
+      tiles.removeOccupant(occupiedTiles[i]);
     }
+    
+    pedestrianGrid.rebuild(peds);
+    if (occupiedTiles.length < pedestrianGrid.size()) {
+      occupiedTiles = new int[pedestrianGrid.size()];
+    }
+    
+    numberOfOccupiedTiles = 0;
+    for (int i = 0; i < pedestrianGrid.size(); i++) {
+      Pedestrian ped = pedestrianGrid.getPedestrian(i);
+      int x = (int) Math.floor(ped.getCenterX()/ConfigValues.TILE_SIZE);
+      int y = (int) Math.floor(ped.getCenterY()/ConfigValues.TILE_SIZE);
+      if (tiles.contains(x, y)) {
+        int index = tiles.indexOf(x, y);
+        tiles.addOccupant(index);
+        occupiedTiles[numberOfOccupiedTiles++] = index;
+      }
+    }
+  }
+  
+  /** Gets the index of where every Pedestrian was, as of the last call to updatePedestrians().
+   * 
+   * @return the index, which belongs to the map and is rebuilt in place
+   */
+  public PedestrianGrid getPedestrianGrid() {
+    return pedestrianGrid;
+  }
+  
+  /** Gets the Pedestrians in the tile at (x, y), as of the last call to updatePedestrians(). This allocates a new list each time; code
+   * that asks often should query getPedestrianGrid() instead.
+   * 
+   * @param x the x-coordinate of the tile in question
+   * @param y the y-coordinate of the tile in question
+   * @return the Pedestrians in the tile, or null if there are none (or the tile is off the map)
+   */
+  public LinkedList<Pedestrian> getRegisteredPedestrians(int x, int y) {
+    if (!tiles.contains(x, y) || (pedestrianGrid.countInTile(x, y) == 0)) {
+      return null;
+    }
+    return getTileStateAt(x, y).getRegisteredPedestrians();
   }
   
-  /** Gets a randomly chosen open tile.
-   * NOTE: If the tile map is almost completely closed, this method can take a long time to return.
+  /** Gets a randomly chosen open tile, every open tile being equally likely.
    * 
-   * @return the (x, y) coordinates of a an open (non-blocked) tile.
+   * @return the (x, y) coordinates of a an open (non-blocked) tile, or null if every tile is blocked - or, on a map too big to be
+   * indexed, if none of the tiles tried was open
    */
   public Point getRandomOpenTile() {
-    int randomBlockX;
-    int randomBlockY;
-    do {
-      randomBlockX = (int)(Math.random()*getWidthInTiles());
-      randomBlockY = (int)(Math.random()*getHeightInTiles());
-    } while (blockingMap[randomBlockX][randomBlockY].isBlocked());
+    if (!isIndexed())
+      return tryRandomOpenTile(0, 0, getWidthInTiles() - 1, getHeightInTiles() - 1, 0, 0, Long.MAX_VALUE);
     
-    return (new Point(randomBlockX, randomBlockY));
+    return getOpenTileSampler().sample();
+  }
+  
+  /** Gets a randomly chosen open tile near a tile, that a Pedestrian standing on that tile could walk to. Every such tile is equally
+   * likely, but the search for one is bounded (see OpenTileSampler.sampleReachableInRing()), so it may give up. On a map too big to be
+   * indexed, whether a tile can be reached isn't known, and any open tile within the distance may be returned.
+   * 
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @param radius the farthest the open tile may be from (x, y), in tiles
+   * @return the (x, y) coordinates of the open tile, or null if none was found
+   */
+  public Point getRandomReachableTileNear(int x, int y, int radius) {
+    if (!isIndexed()) {
+      int left = Math.max(0, x - radius);
+      int top = Math.max(0, y - radius);
+      int right = Math.min(getWidthInTiles() - 1, x + radius);
+      int bottom = Math.min(getHeightInTiles() - 1, y + radius);
+      return tryRandomOpenTile(left, top, right, bottom, x, y, ((long) radius)*radius);
+    }
+    
+    return getOpenTileSampler().sampleReachableInRing(x, y, 0, radius);
+  }
+  
+  /** Tries random tiles of a rectangle, up to MAX_RANDOM_TILE_ATTEMPTS of them, until one is open and close enough to a point. This is
+   * how random tiles are drawn on a map too big to keep an open tile sampler for.
+   * 
+   * @return the (x, y) coordinates of the open tile, or null if none of the tiles tried was
+   */
+  private Point tryRandomOpenTile(int left, int top, int right, int bottom, int cx, int cy, long maxDistanceSquared) {
+    if ((left > right) || (top > bottom))
+      return null;
+    
+    for (int attempt = 0; attempt < MAX_RANDOM_TILE_ATTEMPTS; attempt++) {
+      int x = left + (int) (Math.random()*(right - left + 1));
+      int y = top + (int) (Math.random()*(bottom - top + 1));
+      long dx = x - cx;
+      long dy = y - cy;
+      if ((((dx*dx) + (dy*dy)) <= maxDistanceSquared) && !tiles.isBlocked(x, y))
+        return new Point(x, y);
+    }
+    
+    return null;
+  }
+  
+  /** Gets a randomly chosen open tile in the largest connected part of the map, so that a Pedestrian placed there isn't shut into a
+   * small enclosed pocket, with nowhere to go. Every tile of that part is equally likely.
+   * 
+   * Open tiles are drawn at random, up to OpenTileSampler.MAX_REACHABLE_ATTEMPTS times, which almost always turns up one of the largest
+   * part's. When it doesn't (because the largest part is only a small fraction of the open tiles), one of its tiles is picked straight
+   * from the ReachabilityIndex instead, so this always returns in bounded time. On a map too big to be indexed, the parts of the map
+   * aren't known, and this is the same as getRandomOpenTile().
+   * 
+   * @return the (x, y) coordinates of an open tile in the largest connected part of the map, or null if every tile is blocked
+   */
+  public Point getRandomReachableTile() {
+    if (!isIndexed())
+      return getRandomOpenTile();
+    
+    ReachabilityIndex index = getReachabilityIndex();
+    int largest = index.getLargestComponent();
+    if (largest == ReachabilityIndex.NO_COMPONENT)
+      return null;
+    
+    OpenTileSampler sampler = getOpenTileSampler();
+    for (int attempt = 0; attempt < OpenTileSampler.MAX_REACHABLE_ATTEMPTS; attempt++) {
+      Point randomTile = sampler.sample();
+      if (index.getComponent(randomTile.x, randomTile.y) == largest)
+        return randomTile;
+    }
+    
+    return index.getTileOfComponent(largest, (int) (Math.random()*index.getSizeOfComponent(largest)));
+  }
+  
+  /** Whether this map is small enough for the indexes kept over every one of its tiles to be built. See MAX_INDEXED_TILES.
+   * 
+   * @return true if the map has no more than MAX_INDEXED_TILES tiles, false otherwise
+   */
+  public boolean isIndexed() {
+    return ((((long) getWidthInTiles())*getHeightInTiles()) <= MAX_INDEXED_TILES);
+  }
+  
+  /** Gets the sampler that draws random open tiles from this map, building it (and keeping it up to date from then on) the first time it's
+   * asked for.
+   * 
+   * @return the open tile sampler of this map, or null if the map is too big to be indexed
+   */
+  public synchronized OpenTileSampler getOpenTileSampler() {
+    if (!isIndexed())
+      return null;
+    if (openTileSampler == null)
+      openTileSampler = new OpenTileSampler(this);
+    
+    return openTileSampler;
+  }
+  
+  /** Gets the index of which tiles can be reached from which, building it (and keeping it up to date from then on) the first time it's
+   * asked for. The index is only changed by edits, so it may be read (or, by whichever thread asks first, built) by any thread holding the
+   * read lock.
+   * 
+   * @return the reachability index of this map, or null if the map is too big to be indexed
+   */
+  public synchronized ReachabilityIndex getReachabilityIndex() {
+    if (!isIndexed())
+      return null;
+    if (reachabilityIndex == null)
+      reachabilityIndex = new ReachabilityIndex(this);
+    
+    return reachabilityIndex;
+  }
+
+  /** Gets the distance from every tile to the nearest blocked tile, building it (and keeping it up to date from then on) the first time it's
+   * asked for. Like the reachability index, it's only changed by edits.
+   * 
+   * @return the obstacle distance field of this map, or null if the map is too big to be indexed
+   */
+  public synchronized ObstacleDistanceField getObstacleDistanceField() {
+    if (!isIndexed())
+      return null;
+    if (obstacleDistanceField == null)
+      obstacleDistanceField = new ObstacleDistanceField(this);
+    
+    return obstacleDistanceField;
   }
 
   @Override
   public boolean blocked(PathFindingContext context, int x, int y) {
-    if ((x < 0) || (y < 0) || (x >= getWidthInTiles()) || (y >= getHeightInTiles()))
-      return true;
-    else
-      return (blockingMap[x][y].isBlocked());
+    return tiles.isBlocked(x, y);
   }
   
   @Override
@@ -185,6 +474,68 @@ public class PedestrianTileBasedMap implements ExtendedTileBasedMap {
     return (blocked(context, currentX, evalY) && blocked(context, evalX, currentY));
   }
   
+  @Override
+  public boolean reachable(PathFindingContext context, int sx, int sy, int tx, int ty) {
+    // without an index, a search for an unreachable target runs out of tiles (or of search distance) before it gives up
+    if (!isIndexed())
+      return true;
+    
+    return getReachabilityIndex().isReachable(sx, sy, tx, ty);
+  }
+  
+  @Override
+  public boolean hasLineOfSight(PathFindingContext context, int x0, int y0, int x1, int y1) {
+    return lineIsClear(context, new GridLine(x0, y0, x1, y1));
+  }
+  
+  @Override
+  public boolean hasLineOfSight(PathFindingContext context, int x0, int y0, int x1, int y1, GridLine line) {
+    line.reset(x0, y0, x1, y1);
+    return lineIsClear(context, line);
+  }
+  
+  /** Checks whether a straight line between two points, in pixels, crosses only open tiles - for instance, whether a Pedestrian can walk
+   * straight to a point without running into an obstacle.
+   * 
+   * @param fromX the x-coordinate of the start of the line, in pixels
+   * @param fromY the y-coordinate of the start of the line, in pixels
+   * @param toX the x-coordinate of the end of the line, in pixels
+   * @param toY the y-coordinate of the end of the line, in pixels
+   * @return true if every tile the line passes through is open, false otherwise
+   */
+  public boolean hasLineOfSight(float fromX, float fromY, float toX, float toY) {
+    GridLine line = new GridLine(0, 0, 0, 0);
+    line.reset(fromX/ConfigValues.TILE_SIZE, fromY/ConfigValues.TILE_SIZE, toX/ConfigValues.TILE_SIZE, toY/ConfigValues.TILE_SIZE);
+    return lineIsClear(null, line);
+  }
+  
+  /** Walks a line to its end, checking that every tile it passes through is open. */
+  private boolean lineIsClear(PathFindingContext context, GridLine line) {
+    if (blocked(context, line.getX(), line.getY()))
+      return false;
+    
+    while (line.advance()) {
+      if (blocked(context, line.getX(), line.getY()))
+        return false;
+      if (line.passedThroughCorner() && blocked(context, line.getSideX(), line.getSideY()) &&
+          blocked(context, line.getX() - line.getStepX(), line.getY()))
+        return false;
+    }
+    
+    return true;
+  }
+  
+  /** Gets the index of a tile in the TileStorage, making sure it's on the map, rather than the border around it.
+   * 
+   * @throws IndexOutOfBoundsException if (x, y) isn't on the map
+   */
+  private int indexOnMap(int x, int y) {
+    if (!tiles.contains(x, y))
+      throw new IndexOutOfBoundsException("(" + x + ", " + y + ") is not on the map");
+    
+    return tiles.indexOf(x, y);
+  }
+  
   /** Allows you to permanently block a given tile (i.e. add an obstacle).
    * 
    * @param blockX the x-coordinate of the block you want to claim
@@ -192,13 +543,20 @@ public class PedestrianTileBasedMap implements ExtendedTileBasedMap {
    * @return true if this block was already permanently blocked, false otherwise
    */
   public boolean permanentlyBlock(int x, int y) {
-    boolean alreadyBlocked = blockingMap[x][y].isBlocked();
-    
-    if (!alreadyBlocked) {
-      blockingMap[x][y].setIsBlocked(true);
+    lock.writeLock().lock();
+    try {
+      int index = indexOnMap(x, y);
+      boolean alreadyBlocked = tiles.isBlocked(index);
+      
+      if (!alreadyBlocked) {
+        tiles.setBlocked(index, true);
+        fireTileChanged(x, y, true);
+      }
+      
+      return alreadyBlocked;
+    } finally {
+      lock.writeLock().unlock();
     }
-    
-    return alreadyBlocked;
   }
   
   /** Allows you to permanently open a given tile (i.e. to clear any obstacle).
@@ -208,67 +566,86 @@ public class PedestrianTileBasedMap implements ExtendedTileBasedMap {
    * @return true if the specified block was already open, false otherwise
    */
   public boolean permanentlyOpen(int x, int y) {
-    boolean alreadyOpen = !blockingMap[x][y].isBlocked();
-    
-    if (!alreadyOpen) {
-      blockingMap[x][y].setIsBlocked(false);
+    lock.writeLock().lock();
+    try {
+      int index = indexOnMap(x, y);
+      boolean alreadyOpen = !tiles.isBlocked(index);
+      
+      if (!alreadyOpen) {
+        tiles.setBlocked(index, false);
+        fireTileChanged(x, y, false);
+      }
+      
+      return alreadyOpen;
+    } finally {
+      lock.writeLock().unlock();
     }
-    
-    return alreadyOpen;
   }
   
   public void randomizeObstacles() {
-    for (int x = 0; x < blockingMap.length; x++) {
-      for (int y = 0; y < blockingMap[0].length; y++) {
-        blockingMap[x][y].setIsBlocked(false);
-      }
+    lock.writeLock().lock();
+    try {
+      randomizeObstaclesLocked();
+    } finally {
+      lock.writeLock().unlock();
     }
+  }
+  
+  /** Does the work of randomizeObstacles(), while the write lock is held. */
+  private void randomizeObstaclesLocked() {
+    tiles.clearBlocked();
     
-    for (int x = 4; x < blockingMap.length-4; x++) {
-      for (int y = 4; y < blockingMap[0].length-4; y++) {
+    for (int x = 4; x < getWidthInTiles()-4; x++) {
+      for (int y = 4; y < getHeightInTiles()-4; y++) {
         int blockSize = ((int) (Math.random() * 200));
         switch (blockSize) {
           case 1:
-            blockingMap[x][y].setIsBlocked(true);
+            tiles.setBlocked(tiles.indexOf(x, y), true);
             break;
           case 2:
-            blockingMap[x][y].setIsBlocked(true);
-            blockingMap[x+1][y].setIsBlocked(true);
-            blockingMap[x][y+1].setIsBlocked(true);
-            blockingMap[x+1][y+1].setIsBlocked(true);
+            tiles.setBlocked(tiles.indexOf(x, y), true);
+            tiles.setBlocked(tiles.indexOf(x+1, y), true);
+            tiles.setBlocked(tiles.indexOf(x, y+1), true);
+            tiles.setBlocked(tiles.indexOf(x+1, y+1), true);
             break;
           case 3:
-            blockingMap[x][y].setIsBlocked(true);
-            blockingMap[x+1][y].setIsBlocked(true);
-            blockingMap[x][y+1].setIsBlocked(true);
-            blockingMap[x+1][y+1].setIsBlocked(true);
-            blockingMap[x+2][y].setIsBlocked(true);
-            blockingMap[x+2][y+1].setIsBlocked(true);
-            blockingMap[x+2][y+2].setIsBlocked(true);
-            blockingMap[x+1][y+2].setIsBlocked(true);
-            blockingMap[x][y+2].setIsBlocked(true);
+            tiles.setBlocked(tiles.indexOf(x, y), true);
+            tiles.setBlocked(tiles.indexOf(x+1, y), true);
+            tiles.setBlocked(tiles.indexOf(x, y+1), true);
+            tiles.setBlocked(tiles.indexOf(x+1, y+1), true);
+            tiles.setBlocked(tiles.indexOf(x+2, y), true);
+            tiles.setBlocked(tiles.indexOf(x+2, y+1), true);
+            tiles.setBlocked(tiles.indexOf(x+2, y+2), true);
+            tiles.setBlocked(tiles.indexOf(x+1, y+2), true);
+            tiles.setBlocked(tiles.indexOf(x, y+2), true);
             break;
         }
       }
     }
     
     setDirty(true);
+    fireTileMapReset();
   }
 
   @Override
   public int getHeightInTiles() {
-    return blockingMap[0].length;
+    return tiles.getHeight();
   }
 
   @Override
   public int getWidthInTiles() {
-    return blockingMap.length;
+    return tiles.getWidth();
   }
 
   @Override
   public float getCost(PathFindingContext context, int x, int y) {
-    //return 1;
-    return getTileStateAt(x, y).getCongestion();
+    return getCongestion(x, y);
+  }
+  
+  @Override
+  public float getHighestCost(PathFindingContext context, int x0, int y0, int x1, int y1) {
+    return congestion.getHighestCongestion(Math.max(x0, 0), Math.max(y0, 0), Math.min(x1, getWidthInTiles() - 1),
+                                           Math.min(y1, getHeightInTiles() - 1));
   }
   
   @Override
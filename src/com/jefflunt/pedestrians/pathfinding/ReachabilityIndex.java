@@ -0,0 +1,468 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.awt.Point;
+import java.util.Arrays;
+
+/** Labels every open tile of a map with the connected component it belongs to, so that whether one tile can be reached from another is a
+ * single comparison, rather than a search that has to run out of tiles before it gives up.
+ *
+ * A diagonal step is only ever allowed when at least one of the tiles beside it is open, and that tile is a straight step from both ends of
+ * the diagonal one - so diagonal steps never join tiles that straight steps don't, and the components are simply the groups of open tiles
+ * joined by straight steps.
+ *
+ * The labels are kept up to date as the map is edited. Opening a tile can only join components together, and the smaller ones are
+ * relabelled to match the largest. Blocking a tile can split its component in two or more, which is found by searching outward from each of
+ * the open tiles around it, in step with one another. As soon as the searches meet, that part of the component is known to still be joined
+ * up; if one of them runs out of tiles first, it has found a part that has been cut off, and only that part is relabelled. Either way, the
+ * work done is on the order of the size of the smaller part, not the whole map.
+ *
+ * The labels themselves take 4 bytes for every tile of the map. The working space of the searches is only allocated when it's needed, and
+ * grows with the largest component that has been flooded, rather than being sized for the whole map up front.
+ */
+public class ReachabilityIndex implements TileMapListener {
+
+  /** The component label given to blocked tiles. */
+  public static final int NO_COMPONENT = -1;
+  /** The change in x for each of the eight steps. The first four are straight. */
+  private static final int[] DX = {0, 0, -1, 1, -1, 1, -1, 1};
+  /** The change in y for each of the eight steps. The first four are straight. */
+  private static final int[] DY = {-1, 1, 0, 0, -1, -1, 1, 1};
+
+  /** The map being indexed. */
+  private PedestrianTileBasedMap map;
+  /** The width of the map, in tiles. */
+  private int width;
+  /** The height of the map, in tiles. */
+  private int height;
+  /** The component label of each tile, by tile index, or NO_COMPONENT for a blocked tile. */
+  private int[] component;
+  /** The number of tiles in each component, by label. */
+  private int[] componentSize;
+  /** Labels that have been given up, and can be handed out again. */
+  private int[] freeLabels;
+  /** The number of entries in freeLabels that are in use. */
+  private int numberOfFreeLabels;
+  /** The lowest label that has never been handed out. */
+  private int nextLabel;
+  /** The number of components on the map. */
+  private int numberOfComponents;
+
+  /** The queue used to flood fill a component with a new label, grown as needed. */
+  private int[] floodQueue;
+  /** The search that most recently visited each tile, while looking for a split. Null until the first split search. */
+  private int[] visitedBy;
+  /** The search that stamped each tile in visitedBy. Tiles stamped by any other search haven't been visited by the current one. Null
+   * until the first split search. */
+  private int[] visitStamp;
+  /** The stamp of the current split search. */
+  private int currentStamp;
+  /** The tiles visited by each of the searches outward from a blocked tile, in the order they were visited. */
+  private int[][] splitQueues;
+
+  /** The total number of tiles that have been given a new label since the index was last rebuilt. */
+  private long relabelledTiles;
+
+  /** Creates a new ReachabilityIndex, labels the map as it is now, and starts listening for changes to it.
+   *
+   * @param map the map to be indexed
+   */
+  public ReachabilityIndex(PedestrianTileBasedMap map) {
+    this.map = map;
+    width = map.getWidthInTiles();
+    height = map.getHeightInTiles();
+
+    component = new int[width*height];
+    componentSize = new int[16];
+    freeLabels = new int[16];
+    floodQueue = new int[64];
+    splitQueues = new int[4][];
+    for (int i = 0; i < splitQueues.length; i++) {
+      splitQueues[i] = new int[64];
+    }
+
+    rebuild();
+    map.addTileMapListener(this);
+  }
+
+  /** Checks whether a Pedestrian standing on one tile could walk to another.
+   *
+   * @param sx the x-coordinate of the start tile
+   * @param sy the y-coordinate of the start tile
+   * @param tx the x-coordinate of the target tile
+   * @param ty the y-coordinate of the target tile
+   * @return true if there is a path from the start to the target, false otherwise
+   */
+  public boolean isReachable(int sx, int sy, int tx, int ty) {
+    if (!inBounds(sx, sy) || !inBounds(tx, ty)) {
+      return false;
+    }
+
+    int target = component[(ty*width) + tx];
+    if (target == NO_COMPONENT) {
+      return false;
+    }
+
+    int start = component[(sy*width) + sx];
+    if (start != NO_COMPONENT) {
+      return (start == target);
+    }
+
+    // a Pedestrian standing on a blocked tile can still step off it, onto any of the open tiles around them
+    for (int d = 0; d < DX.length; d++) {
+      int x = sx + DX[d];
+      int y = sy + DY[d];
+      if (inBounds(x, y) && (component[(y*width) + x] == target) &&
+          ((d < 4) || !map.diagonallyBlocked(null, sx, sy, x, y))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Gets the label of the component that a tile belongs to. Labels are only meaningful until the next edit of the map, since components
+   * that are joined or split may be relabelled.
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @return the label of the tile's component, or NO_COMPONENT if the tile is blocked or off the map
+   */
+  public int getComponent(int x, int y) {
+    if (!inBounds(x, y)) {
+      return NO_COMPONENT;
+    }
+    return component[(y*width) + x];
+  }
+
+  /** Gets the number of tiles in the component that a tile belongs to.
+   *
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   * @return the number of tiles that can be reached from the tile (including itself), or 0 if it is blocked or off the map
+   */
+  public int getComponentSize(int x, int y) {
+    int label = getComponent(x, y);
+    return ((label == NO_COMPONENT) ? 0 : componentSize[label]);
+  }
+
+  /** Gets the label of the component with the most tiles, which is the one Pedestrians have the most room to wander around in.
+   *
+   * @return the label of the largest component, or NO_COMPONENT if every tile is blocked
+   */
+  public int getLargestComponent() {
+    int largest = NO_COMPONENT;
+    for (int label = 0; label < nextLabel; label++) {
+      if ((componentSize[label] > 0) && ((largest == NO_COMPONENT) || (componentSize[label] > componentSize[largest]))) {
+        largest = label;
+      }
+    }
+    return largest;
+  }
+
+  /** Gets the number of tiles in a component.
+   *
+   * @param label the label of the component
+   * @return the number of tiles with that label, or 0 for NO_COMPONENT
+   */
+  public int getSizeOfComponent(int label) {
+    return ((label == NO_COMPONENT) ? 0 : componentSize[label]);
+  }
+
+  /** Finds one of the tiles of a component, counting along the rows of the map from the top left. This looks at every tile up to the one
+   * found, so it's meant for when drawing open tiles at random has failed to turn up one of the component's.
+   *
+   * @param label the label of the component
+   * @param n which of the component's tiles to find, from 0 up to (but not including) the size of the component
+   * @return the (x, y) coordinates of the tile, or null if the component has no more than n tiles
+   */
+  public Point getTileOfComponent(int label, int n) {
+    if ((label == NO_COMPONENT) || (n < 0)) {
+      return null;
+    }
+
+    for (int tile = 0; tile < component.length; tile++) {
+      if ((component[tile] == label) && (n-- == 0)) {
+        return new Point(tile % width, tile / width);
+      }
+    }
+    return null;
+  }
+
+  /** Gets the number of separate components on the map. */
+  public int getNumberOfComponents() {
+    return numberOfComponents;
+  }
+
+  /** Gets the total number of tiles that edits have caused to be relabelled, since the index was last rebuilt. */
+  public long getRelabelledTiles() {
+    return relabelledTiles;
+  }
+
+  @Override
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+    if (blocked) {
+      tileBlocked((y*width) + x);
+    } else {
+      tileOpened((y*width) + x);
+    }
+  }
+
+  @Override
+  public void tileMapReset(PedestrianTileBasedMap map) {
+    rebuild();
+  }
+
+  /** Throws away every label, and labels the whole map from scratch. */
+  private void rebuild() {
+    Arrays.fill(component, NO_COMPONENT);
+    Arrays.fill(componentSize, 0);
+    numberOfFreeLabels = 0;
+    nextLabel = 0;
+    numberOfComponents = 0;
+    relabelledTiles = 0;
+
+    for (int tile = 0; tile < component.length; tile++) {
+      if ((component[tile] == NO_COMPONENT) && !map.blocked(null, tile % width, tile / width)) {
+        int label = newLabel();
+        component[tile] = label;
+        componentSize[label] = 1 + flood(tile, NO_COMPONENT, label);
+      }
+    }
+  }
+
+  /** Joins together the components around a tile that has just been opened. */
+  private void tileOpened(int tile) {
+    int x = tile % width;
+    int y = tile / width;
+
+    // the largest of the neighbouring components keeps its label
+    int keep = NO_COMPONENT;
+    for (int d = 0; d < 4; d++) {
+      int label = getComponent(x + DX[d], y + DY[d]);
+      if ((label != NO_COMPONENT) && ((keep == NO_COMPONENT) || (componentSize[label] > componentSize[keep]))) {
+        keep = label;
+      }
+    }
+
+    if (keep == NO_COMPONENT) {
+      keep = newLabel();
+    }
+
+    for (int d = 0; d < 4; d++) {
+      int label = getComponent(x + DX[d], y + DY[d]);
+      if ((label != NO_COMPONENT) && (label != keep)) {
+        int neighbour = ((y + DY[d])*width) + x + DX[d];
+        component[neighbour] = keep;
+        int moved = 1 + flood(neighbour, label, keep);
+        componentSize[keep] += moved;
+        relabelledTiles += moved;
+        freeLabel(label);
+      }
+    }
+
+    component[tile] = keep;
+    componentSize[keep]++;
+  }
+
+  /** Splits the component of a tile that has just been blocked, if blocking it has cut the component in two or more. */
+  private void tileBlocked(int tile) {
+    int label = component[tile];
+    if (label == NO_COMPONENT) {
+      return;
+    }
+
+    component[tile] = NO_COMPONENT;
+    if (--componentSize[label] == 0) {
+      freeLabel(label);
+      return;
+    }
+
+    int x = tile % width;
+    int y = tile / width;
+    int[] starts = new int[4];
+    int numberOfStarts = 0;
+    for (int d = 0; d < 4; d++) {
+      if (getComponent(x + DX[d], y + DY[d]) != NO_COMPONENT) {
+        starts[numberOfStarts++] = ((y + DY[d])*width) + x + DX[d];
+      }
+    }
+
+    if (numberOfStarts > 1) {
+      split(label, starts, numberOfStarts);
+    }
+  }
+
+  /** Searches outward from each of the open tiles around a tile that has just been blocked, one tile from each search at a time. Searches
+   * that meet are merged into a group. A group whose searches all run out of tiles has found a part of the component that has been cut off
+   * from the rest, and that part is given a new label. The searching stops as soon as only one group is left, which keeps the old label.
+   */
+  private void split(int label, int[] starts, int numberOfStarts) {
+    if (visitStamp == null) {
+      visitedBy = new int[width*height];
+      visitStamp = new int[width*height];
+    }
+    if (currentStamp == Integer.MAX_VALUE) {
+      Arrays.fill(visitStamp, 0);
+      currentStamp = 0;
+    }
+    currentStamp++;
+
+    int[] head = new int[numberOfStarts];
+    int[] tail = new int[numberOfStarts];
+    // the group each search belongs to, as a tiny union-find
+    int[] group = new int[numberOfStarts];
+    boolean[] finished = new boolean[numberOfStarts];
+    int numberOfGroups = numberOfStarts;
+
+    for (int s = 0; s < numberOfStarts; s++) {
+      visitStamp[starts[s]] = currentStamp;
+      visitedBy[starts[s]] = s;
+      splitQueues[s][0] = starts[s];
+      tail[s] = 1;
+      group[s] = s;
+    }
+
+    while (numberOfGroups > 1) {
+      for (int s = 0; s < numberOfStarts; s++) {
+        if ((head[s] == tail[s]) || finished[root(group, s)]) {
+          continue;
+        }
+
+        int current = splitQueues[s][head[s]++];
+        int cx = current % width;
+        int cy = current / width;
+        for (int d = 0; d < 4; d++) {
+          int nx = cx + DX[d];
+          int ny = cy + DY[d];
+          if (!inBounds(nx, ny)) {
+            continue;
+          }
+
+          int next = (ny*width) + nx;
+          if (component[next] != label) {
+            continue;
+          }
+
+          if (visitStamp[next] != currentStamp) {
+            visitStamp[next] = currentStamp;
+            visitedBy[next] = s;
+            if (tail[s] == splitQueues[s].length) {
+              splitQueues[s] = Arrays.copyOf(splitQueues[s], tail[s]*2);
+            }
+            splitQueues[s][tail[s]++] = next;
+          } else {
+            int a = root(group, s);
+            int b = root(group, visitedBy[next]);
+            if (a != b) {
+              group[b] = a;
+              numberOfGroups--;
+            }
+          }
+        }
+      }
+
+      // any group whose searches have all run out of tiles has been cut off
+      for (int g = 0; (g < numberOfStarts) && (numberOfGroups > 1); g++) {
+        if ((root(group, g) != g) || finished[g] || !hasRunOut(group, g, head, tail)) {
+          continue;
+        }
+
+        int newLabel = newLabel();
+        for (int s = 0; s < numberOfStarts; s++) {
+          if (root(group, s) == g) {
+            for (int i = 0; i < tail[s]; i++) {
+              component[splitQueues[s][i]] = newLabel;
+            }
+            componentSize[newLabel] += tail[s];
+            componentSize[label] -= tail[s];
+            relabelledTiles += tail[s];
+          }
+        }
+        finished[g] = true;
+        numberOfGroups--;
+      }
+    }
+  }
+
+  /** Checks whether every search in a group has run out of tiles. */
+  private boolean hasRunOut(int[] group, int g, int[] head, int[] tail) {
+    for (int s = 0; s < group.length; s++) {
+      if ((root(group, s) == g) && (head[s] < tail[s])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Gets the group that a search belongs to. */
+  private static int root(int[] group, int s) {
+    while (group[s] != s) {
+      s = group[s];
+    }
+    return s;
+  }
+
+  /** Gives every tile joined to 'start' by straight steps, and labelled 'from', the label 'to'. The start tile must already be labelled.
+   *
+   * @return the number of tiles relabelled, not counting the start tile
+   */
+  private int flood(int start, int from, int to) {
+    int head = 0;
+    int tail = 0;
+    floodQueue[tail++] = start;
+
+    while (head < tail) {
+      int current = floodQueue[head++];
+      int cx = current % width;
+      int cy = current / width;
+      for (int d = 0; d < 4; d++) {
+        int nx = cx + DX[d];
+        int ny = cy + DY[d];
+        if (!inBounds(nx, ny)) {
+          continue;
+        }
+
+        int next = (ny*width) + nx;
+        // when labelling from scratch, every unlabelled tile still needs to be checked for an obstacle
+        if ((component[next] == from) && ((from != NO_COMPONENT) || !map.blocked(null, nx, ny))) {
+          component[next] = to;
+          if (tail == floodQueue.length) {
+            floodQueue = Arrays.copyOf(floodQueue, tail*2);
+          }
+          floodQueue[tail++] = next;
+        }
+      }
+    }
+
+    return tail - 1;
+  }
+
+  /** Hands out an unused label, with a size of zero. */
+  private int newLabel() {
+    numberOfComponents++;
+    if (numberOfFreeLabels > 0) {
+      return freeLabels[--numberOfFreeLabels];
+    }
+
+    if (nextLabel == componentSize.length) {
+      componentSize = Arrays.copyOf(componentSize, nextLabel*2);
+    }
+    componentSize[nextLabel] = 0;
+    return nextLabel++;
+  }
+
+  /** Gives up a label that no tile uses any more. */
+  private void freeLabel(int label) {
+    numberOfComponents--;
+    componentSize[label] = 0;
+    if (numberOfFreeLabels == freeLabels.length) {
+      freeLabels = Arrays.copyOf(freeLabels, numberOfFreeLabels*2);
+    }
+    freeLabels[numberOfFreeLabels++] = label;
+  }
+
+  /** Checks whether a tile lies on the map. */
+  private boolean inBounds(int x, int y) {
+    return ((x >= 0) && (y >= 0) && (x < width) && (y < height));
+  }
+
+}
@@ -0,0 +1,257 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.Arrays;
+
+/** An indexed binary min-heap of tile indices, keyed by a float priority. Each tile's position in the heap is tracked, so membership tests
+ * are O(1), and inserts, removals, and key changes are O(log n). Ties on the key are broken by a secondary value (lowest first), and then by
+ * the order in which entries were inserted, so that searches using this heap are deterministic. This is the open list of every search in
+ * the path finding package.
+ *
+ * Any numbering of the tiles will do, as long as every index is below the capacity. The positions are kept in chunks of consecutive
+ * indices, each allocated the first time one of its tiles is inserted, so with a numbering that keeps nearby tiles together (such as
+ * TileStorage's, whose chunks are squares of the map) a heap over a huge map only costs memory in proportion to the area searched.
+ *
+ * This heap stores no objects, so a search can reuse one instance indefinitely without producing garbage.
+ */
+public class TileHeap {
+
+  /** The number of bits of a tile index that give its place within a chunk of positions. */
+  private static final int CHUNK_SHIFT = TileStorage.CHUNK_SHIFT*2;
+  /** Masks the place within a chunk of positions out of a tile index. */
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+  /** The tile index held in each heap slot. */
+  private int[] ids;
+  /** The keys of each heap slot, side by side: the primary key of slot i at 2*i, and the secondary (tie-breaking) key at 2*i + 1. */
+  private float[] keys;
+  /** The insertion order of each heap slot, the final tie-breaker. */
+  private long[] orders;
+  /** The heap slot of each tile index, or -1 if that tile is not in the heap, in chunks that are null until one of their tiles is added. */
+  private int[][] positions;
+  /** The number of entries in the heap. */
+  private int size;
+  /** The counter used to stamp the insertion order of new entries. */
+  private long insertionCounter;
+
+  /** Creates a new, empty heap.
+   *
+   * @param capacity the number of distinct tile indices that may be stored (i.e. one more than the largest tile index).
+   */
+  public TileHeap(int capacity) {
+    int initialSlots = Math.max(16, Math.min(capacity, 1024));
+    ids = new int[initialSlots];
+    keys = new float[initialSlots*2];
+    orders = new long[initialSlots];
+    positions = new int[(int) (((long) capacity + CHUNK_MASK) >>> CHUNK_SHIFT)][];
+  }
+
+  /** Gets the heap slot of a tile index, or -1 if it is not in the heap. */
+  private int positionOf(int id) {
+    int[] chunk = positions[id >>> CHUNK_SHIFT];
+    return ((chunk == null) ? -1 : chunk[id & CHUNK_MASK]);
+  }
+
+  /** Sets the heap slot of a tile index, allocating its chunk of positions if need be. */
+  private void setPosition(int id, int slot) {
+    int[] chunk = positions[id >>> CHUNK_SHIFT];
+    if (chunk == null) {
+      chunk = new int[CHUNK_MASK + 1];
+      Arrays.fill(chunk, -1);
+      positions[id >>> CHUNK_SHIFT] = chunk;
+    }
+    chunk[id & CHUNK_MASK] = slot;
+  }
+
+  /** Removes every entry from the heap. This is proportional to the number of entries, not the capacity. */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      setPosition(ids[i], -1);
+    }
+    size = 0;
+    insertionCounter = 0;
+  }
+
+  /** Gets the number of entries in the heap. */
+  public int size() {
+    return size;
+  }
+
+  /** Gets whether or not the heap is empty. */
+  public boolean isEmpty() {
+    return (size == 0);
+  }
+
+  /** Gets whether or not the specified tile index is in the heap. */
+  public boolean contains(int id) {
+    return (positionOf(id) >= 0);
+  }
+
+  /** Gets the tile index with the lowest key, without removing it. */
+  public int peek() {
+    return ids[0];
+  }
+
+  /** Gets the lowest key in the heap. */
+  public float peekKey() {
+    return keys[0];
+  }
+
+  /** Gets the current key of a tile index that is in the heap. */
+  public float getKey(int id) {
+    return keys[positionOf(id)*2];
+  }
+
+  /** Adds a tile index to the heap, or changes its keys if it is already there.
+   *
+   * @param id the tile index
+   * @param key the primary key
+   * @param tie the secondary key, used when two primary keys are equal
+   */
+  public void insertOrUpdate(int id, float key, float tie) {
+    int slot = positionOf(id);
+    if (slot < 0) {
+      if (size == ids.length) {
+        grow();
+      }
+      slot = size++;
+      setPosition(id, slot);
+      ids[slot] = id;
+      orders[slot] = insertionCounter++;
+      keys[slot*2] = key;
+      keys[(slot*2) + 1] = tie;
+      siftUp(slot);
+    } else {
+      keys[slot*2] = key;
+      keys[(slot*2) + 1] = tie;
+      siftDown(siftUp(slot));
+    }
+  }
+
+  /** Lowers the keys of a tile index that is already in the heap. This is cheaper than insertOrUpdate(), as the entry can only move up.
+   *
+   * @param id the tile index
+   * @param key the new primary key, no higher than the old one
+   * @param tie the new secondary key, no higher than the old one if the primary key is unchanged
+   */
+  public void decreaseKey(int id, float key, float tie) {
+    int slot = positionOf(id);
+    keys[slot*2] = key;
+    keys[(slot*2) + 1] = tie;
+    siftUp(slot);
+  }
+
+  /** Removes and returns the tile index with the lowest key. */
+  public int poll() {
+    int id = ids[0];
+    removeSlot(0);
+    return id;
+  }
+
+  /** Removes the specified tile index from the heap, if it is present. */
+  public void remove(int id) {
+    int slot = positionOf(id);
+    if (slot >= 0) {
+      removeSlot(slot);
+    }
+  }
+
+  /** Removes the entry in the given heap slot, and restores heap order. */
+  private void removeSlot(int slot) {
+    setPosition(ids[slot], -1);
+    size--;
+    if (slot != size) {
+      moveSlot(size, slot);
+      siftDown(siftUp(slot));
+    }
+  }
+
+  /** Whether an entry with the given keys should come out of the heap before the entry in the given slot. */
+  private boolean before(float key, float tie, long order, int slot) {
+    float slotKey = keys[slot*2];
+    if (key != slotKey) {
+      return (key < slotKey);
+    }
+    float slotTie = keys[(slot*2) + 1];
+    if (tie != slotTie) {
+      return (tie < slotTie);
+    }
+    return (order < orders[slot]);
+  }
+
+  /** Moves the entry at slot 'from' into slot 'to'. Every entry in the heap already has its chunk of positions, as do the two below. */
+  private void moveSlot(int from, int to) {
+    ids[to] = ids[from];
+    keys[to*2] = keys[from*2];
+    keys[(to*2) + 1] = keys[(from*2) + 1];
+    orders[to] = orders[from];
+    int id = ids[to];
+    positions[id >>> CHUNK_SHIFT][id & CHUNK_MASK] = to;
+  }
+
+  /** Puts an entry into a slot. */
+  private void fillSlot(int slot, int id, float key, float tie, long order) {
+    ids[slot] = id;
+    keys[slot*2] = key;
+    keys[(slot*2) + 1] = tie;
+    orders[slot] = order;
+    positions[id >>> CHUNK_SHIFT][id & CHUNK_MASK] = slot;
+  }
+
+  /** Moves the entry in the given slot up toward the root, as far as it needs to go, and returns its new slot. The entries it passes are
+   * moved down into the hole it leaves, and it's only written once, where it ends up.
+   */
+  private int siftUp(int slot) {
+    int id = ids[slot];
+    float key = keys[slot*2];
+    float tie = keys[(slot*2) + 1];
+    long order = orders[slot];
+
+    while (slot > 0) {
+      int parent = (slot-1) >>> 1;
+      if (!before(key, tie, order, parent)) {
+        break;
+      }
+      moveSlot(parent, slot);
+      slot = parent;
+    }
+
+    fillSlot(slot, id, key, tie, order);
+    return slot;
+  }
+
+  /** Moves the entry in the given slot down toward the leaves, as far as it needs to go, and returns its new slot, in the same way. */
+  private int siftDown(int slot) {
+    int id = ids[slot];
+    float key = keys[slot*2];
+    float tie = keys[(slot*2) + 1];
+    long order = orders[slot];
+
+    while (true) {
+      int child = (2*slot)+1;
+      if (child >= size) {
+        break;
+      }
+      if ((child+1 < size) && before(keys[(child+1)*2], keys[((child+1)*2) + 1], orders[child+1], child)) {
+        child++;
+      }
+      // every entry has its own insertion order, so one of any two entries always comes out first
+      if (before(key, tie, order, child)) {
+        break;
+      }
+      moveSlot(child, slot);
+      slot = child;
+    }
+
+    fillSlot(slot, id, key, tie, order);
+    return slot;
+  }
+
+  /** Doubles the number of heap slots. */
+  private void grow() {
+    int newLength = ids.length*2;
+    ids = Arrays.copyOf(ids, newLength);
+    keys = Arrays.copyOf(keys, newLength*2);
+    orders = Arrays.copyOf(orders, newLength);
+  }
+
+}
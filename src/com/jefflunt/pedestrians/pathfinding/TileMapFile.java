@@ -0,0 +1,309 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.jefflunt.pedestrians.SnapshotWriter;
+
+/** Reads and writes tile maps in a compact binary format, with one bit per tile.
+ *
+ * The map is divided into chunks of CHUNK_SIZE x CHUNK_SIZE tiles, and only the chunks with at least one blocked tile are written, so a
+ * mostly open map is mostly header. All values are little-endian:
+ *
+ * <pre>
+ *   int     MAGIC
+ *   int     VERSION
+ *   int     width, in tiles
+ *   int     height, in tiles
+ *   int     the number of bits in the width of a chunk (CHUNK_SHIFT)
+ *   int     the number of chunks written
+ *   long[]  one bit for each chunk (chunk number = chunkY*chunksAcross + chunkX), set if the chunk was written
+ *   long[]  for each chunk written, in order, one bit for each of its tiles (bit number = localY*CHUNK_SIZE + localX), set if blocked
+ * </pre>
+ *
+ * Files are written with a single FileChannel write, to a temporary file that's then renamed over the old one, and read through a
+ * MappedByteBuffer, so only the words with blocked tiles in them cost more than a read from memory. Files in the older format - an
+ * ObjectOutputStream with a boolean for every tile - are still read by load(), and can be rewritten in this format with convertLegacy(), or
+ * from the command line with:
+ *
+ *   java com.jefflunt.pedestrians.pathfinding.TileMapFile legacy.tilemap converted.tilemap
+ */
+public class TileMapFile {
+
+  /** The first four bytes of every file in this format - "PTMF". */
+  public static final int MAGIC = 0x464D5450;
+  /** The version of the format that's written. */
+  public static final int VERSION = 1;
+  /** The number of bits in the width (and height) of a chunk. */
+  public static final int CHUNK_SHIFT = 6;
+  /** The width (and height) of a chunk, in tiles. */
+  public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+  /** The number of bytes in the header, before the table of chunks. */
+  private static final int HEADER_BYTES = 6*4;
+  /** The number of longs holding the tiles of one chunk. */
+  private static final int LONGS_PER_CHUNK = (CHUNK_SIZE*CHUNK_SIZE) >>> 6;
+  /** The first two bytes of an ObjectOutputStream, which is what a file in the older format starts with. */
+  private static final int LEGACY_MAGIC = 0xACED;
+
+  /** Only static methods. */
+  private TileMapFile() {
+  }
+
+  /** Writes a map to a file.
+   *
+   * @param map the map to write
+   * @param filename the file to write it to, which is replaced if it already exists
+   * @throws IOException if the file can't be written
+   */
+  public static void save(PedestrianTileBasedMap map, String filename) throws IOException {
+    save(map.getTileStorage().snapshotObstacles(), filename);
+  }
+
+  /** Writes a snapshot of a map's obstacles to a file. The file is written under another name, synced to disk, and then renamed over the
+   * old one, so a crash part way through leaves the old file as it was. Nothing but the snapshot is read, so this is safe to call from any
+   * thread.
+   *
+   * @param obstacles the snapshot to write
+   * @param filename the file to write it to, which is replaced if it already exists
+   * @throws IOException if the file can't be written
+   */
+  public static void save(TileStorage.ObstacleSnapshot obstacles, String filename) throws IOException {
+    int width = obstacles.getWidth();
+    int height = obstacles.getHeight();
+    int chunksAcross = (width + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+    int chunksDown = (height + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+    int chunks = chunksAcross*chunksDown;
+
+    long[] chunkTable = new long[(chunks + 63) >>> 6];
+    long[][] chunkBits = new long[chunks][];
+    int written = 0;
+    for (int chunkY = 0; chunkY < chunksDown; chunkY++) {
+      for (int chunkX = 0; chunkX < chunksAcross; chunkX++) {
+        long[] bits = readChunk(obstacles, chunkX << CHUNK_SHIFT, chunkY << CHUNK_SHIFT);
+        if (bits != null) {
+          int chunk = (chunkY*chunksAcross) + chunkX;
+          chunkTable[chunk >>> 6] |= (1L << chunk);
+          chunkBits[chunk] = bits;
+          written++;
+        }
+      }
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + (chunkTable.length*8) + (written*LONGS_PER_CHUNK*8));
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(CHUNK_SHIFT).putInt(written);
+    buffer.asLongBuffer().put(chunkTable);
+    buffer.position(buffer.position() + (chunkTable.length*8));
+    for (long[] bits : chunkBits) {
+      if (bits != null) {
+        buffer.asLongBuffer().put(bits);
+        buffer.position(buffer.position() + (LONGS_PER_CHUNK*8));
+      }
+    }
+    buffer.flip();
+
+    File target = new File(filename);
+    File temporary = new File(filename + ".tmp");
+    RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+    try {
+      FileChannel channel = file.getChannel();
+      channel.truncate(0);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    } finally {
+      file.close();
+    }
+    SnapshotWriter.replaceFile(temporary, target);
+  }
+
+  /** Reads the tiles of one chunk of a map.
+   *
+   * @return one bit for each tile of the chunk, or null if none of them are blocked
+   */
+  private static long[] readChunk(TileStorage.ObstacleSnapshot obstacles, int left, int top) {
+    int right = Math.min(left + CHUNK_SIZE, obstacles.getWidth());
+    int bottom = Math.min(top + CHUNK_SIZE, obstacles.getHeight());
+    long[] bits = null;
+
+    for (int y = top; y < bottom; y++) {
+      for (int x = left; x < right; x++) {
+        if (obstacles.isBlocked(x, y)) {
+          if (bits == null) {
+            bits = new long[LONGS_PER_CHUNK];
+          }
+          int bit = ((y - top) << CHUNK_SHIFT) | (x - left);
+          bits[bit >>> 6] |= (1L << bit);
+        }
+      }
+    }
+    return bits;
+  }
+
+  /** Reads a map from a file, in either this format or the older one.
+   *
+   * @param filename the file to read
+   * @return the map
+   * @throws IOException if the file can't be read, or isn't a tile map
+   */
+  public static PedestrianTileBasedMap load(String filename) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      if (channel.size() < HEADER_BYTES) {
+        return loadLegacy(filename);
+      }
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (((buffer.get(0) & 0xFF) << 8 | (buffer.get(1) & 0xFF)) == LEGACY_MAGIC) {
+        return loadLegacy(filename);
+      }
+
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException(filename + " is not a tile map");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException(filename + " is version " + version + " of the tile map format, which isn't supported");
+      }
+      int width = buffer.getInt();
+      int height = buffer.getInt();
+      int chunkShift = buffer.getInt();
+      int written = buffer.getInt();
+      if ((width < 0) || (height < 0) || (chunkShift != CHUNK_SHIFT) || (written < 0)) {
+        throw new IOException(filename + " has a corrupt header");
+      }
+
+      int chunksAcross = (width + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+      long chunks = (long) chunksAcross*((height + CHUNK_SIZE - 1) >> CHUNK_SHIFT);
+      long tableLongs = (chunks + 63) >>> 6;
+      if (channel.size() != HEADER_BYTES + (tableLongs*8) + (written*(long) LONGS_PER_CHUNK*8)) {
+        throw new IOException(filename + " is the wrong size for a " + width + " x " + height + " tile map");
+      }
+      long[] chunkTable = new long[(int) tableLongs];
+      buffer.asLongBuffer().get(chunkTable);
+      buffer.position(buffer.position() + (chunkTable.length*8));
+
+      // the size above was worked out from the header's count of chunks, so the table has to agree with it before any are read
+      int listed = 0;
+      for (long word : chunkTable) {
+        listed += Long.bitCount(word);
+      }
+      boolean pastTheLastChunk = ((chunks & 63) != 0) && ((chunkTable[chunkTable.length - 1] >>> (chunks & 63)) != 0);
+      if ((listed != written) || pastTheLastChunk) {
+        throw new IOException(filename + " has a corrupt table of chunks");
+      }
+
+      PedestrianTileBasedMap map = new PedestrianTileBasedMap(width, height);
+      TileStorage tiles = map.getTileStorage();
+      for (int chunk = 0; chunk < (int) chunks; chunk++) {
+        if ((chunkTable[chunk >>> 6] & (1L << chunk)) == 0) {
+          continue;
+        }
+
+        int left = (chunk % chunksAcross) << CHUNK_SHIFT;
+        int top = (chunk / chunksAcross) << CHUNK_SHIFT;
+        for (int word = 0; word < LONGS_PER_CHUNK; word++) {
+          long bits = buffer.getLong();
+          while (bits != 0) {
+            int bit = (word << 6) | Long.numberOfTrailingZeros(bits);
+            bits &= (bits - 1);
+
+            int x = left + (bit & (CHUNK_SIZE - 1));
+            int y = top + (bit >>> CHUNK_SHIFT);
+            if (tiles.contains(x, y)) {
+              tiles.setBlocked(tiles.indexOf(x, y), true);
+            }
+          }
+        }
+      }
+      return map;
+    } finally {
+      file.close();
+    }
+  }
+
+  /** Reads a map from a file in the older format: an ObjectOutputStream holding the width, the height, and then a boolean for every
+   * tile, column by column.
+   *
+   * @param filename the file to read
+   * @return the map
+   * @throws IOException if the file can't be read
+   */
+  public static PedestrianTileBasedMap loadLegacy(String filename) throws IOException {
+    ObjectInputStream fileIn = new ObjectInputStream(new FileInputStream(filename));
+    try {
+      int width = fileIn.readInt();
+      int height = fileIn.readInt();
+
+      PedestrianTileBasedMap map = new PedestrianTileBasedMap(width, height);
+      TileStorage tiles = map.getTileStorage();
+      for (int x = 0; x < width; x++) {
+        for (int y = 0; y < height; y++) {
+          tiles.setBlocked(tiles.indexOf(x, y), fileIn.readBoolean());
+        }
+      }
+      return map;
+    } finally {
+      fileIn.close();
+    }
+  }
+
+  /** Writes a map in the older format. Only kept so that the converter can be tested against files like the ones it's meant for.
+   *
+   * @param map the map to write
+   * @param filename the file to write it to
+   * @throws IOException if the file can't be written
+   */
+  public static void saveLegacy(PedestrianTileBasedMap map, String filename) throws IOException {
+    ObjectOutputStream fileOut = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(filename, false)));
+    try {
+      fileOut.writeInt(map.getWidthInTiles());
+      fileOut.writeInt(map.getHeightInTiles());
+      for (int x = 0; x < map.getWidthInTiles(); x++) {
+        for (int y = 0; y < map.getHeightInTiles(); y++) {
+          fileOut.writeBoolean(map.blocked(null, x, y));
+        }
+      }
+    } finally {
+      fileOut.close();
+    }
+  }
+
+  /** Rewrites a file in the older format in this one.
+   *
+   * @param legacyFilename the file in the older format
+   * @param filename the file to write, which may be the same as the older one
+   * @throws IOException if either file can't be read or written
+   */
+  public static void convertLegacy(String legacyFilename, String filename) throws IOException {
+    save(loadLegacy(legacyFilename), filename);
+  }
+
+  /** Converts a tile map file from the older format.
+   *
+   * @param args the file in the older format, and the file to write (which defaults to the same file)
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("Usage: java com.jefflunt.pedestrians.pathfinding.TileMapFile legacy.tilemap [converted.tilemap]");
+      return;
+    }
+
+    convertLegacy(args[0], (args.length > 1) ? args[1] : args[0]);
+  }
+
+}
@@ -0,0 +1,349 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/** Keeps a tile map on disk as a base file (written by TileMapFile) plus a journal of the tiles that have changed since the base file was
+ * last written, so that saving a few edits costs a few records rather than a rewrite of the whole map.
+ *
+ * The journal is kept in the file named by the base file with ".journal" on the end. All values are little-endian:
+ *
+ * <pre>
+ *   int     MAGIC
+ *   int     VERSION
+ *   int     width, in tiles, of the map the journal belongs to
+ *   int     height, in tiles
+ *   then, for each edit, in the order they were made:
+ *   long    sequence number, which increases from one record to the next
+ *   int     x
+ *   int     y
+ *   byte    1 if the tile is now blocked, 0 if it is now open
+ * </pre>
+ *
+ * Each record holds the new state of its tile, rather than a toggle, so replaying a record that's already in the base file does no harm,
+ * and a crash between rewriting the base file and emptying the journal loses nothing. Replay stops at the first record that's cut short
+ * or out of sequence, which is what a write that was interrupted part way through leaves behind.
+ *
+ * Edits are collected as the map reports them (under its write lock), and written out by flush(), which takes the read lock - so the
+ * journal must only be flushed or compacted from one thread at a time, but the map may be edited from any thread. flush() and compact()
+ * only take a copy of what's to be written (the pending records, or a TileStorage.ObstacleSnapshot of the whole map) while they hold the
+ * lock; if the journal was given an Executor, the writing itself is handed to it, so it can be done on another thread.
+ */
+public class TileMapJournal implements TileMapListener {
+
+  /** The first four bytes of every journal - "PTMJ". */
+  public static final int MAGIC = 0x4A4D5450;
+  /** The version of the format that's written. */
+  public static final int VERSION = 1;
+  /** The number of bytes in the header, before the first record. */
+  public static final int HEADER_BYTES = 4*4;
+  /** The number of bytes in each record. */
+  public static final int RECORD_BYTES = 8 + 4 + 4 + 1;
+
+  /** The map being journaled. */
+  private PedestrianTileBasedMap map;
+  /** The file the whole map is written to when the journal is compacted. */
+  private String baseFilename;
+  /** The file edits are appended to. */
+  private String journalFilename;
+  /** The number of records after which the journal is folded into the base file, rather than appended to. */
+  private int compactionThreshold;
+
+  /** The records that haven't been written yet, in the byte order of the file. */
+  private ByteBuffer pending;
+  /** The sequence number of the next record. */
+  private long nextSequence;
+  /** The number of records in the journal file. */
+  private int recordsInJournal;
+  /** Whether the whole map has to be written before any more records are appended (e.g. because it was randomized). */
+  private boolean needsCompaction;
+  /** Runs the writes, or null if they're done by the thread that asks for them. */
+  private Executor writer;
+  /** Set if a write failed, so the next flush writes the whole map again. */
+  private volatile boolean writeFailed;
+
+  /** Starts journaling the edits to a map. Nothing is written until the first flush(), which writes the whole map to the base file, so a
+   * journal left over from before the map was loaded is never appended to.
+   *
+   * @param map the map to journal
+   * @param baseFilename the file the whole map is written to
+   * @param compactionThreshold the number of records after which the journal is folded into the base file
+   */
+  public TileMapJournal(PedestrianTileBasedMap map, String baseFilename, int compactionThreshold) {
+    this(map, baseFilename, compactionThreshold, null);
+  }
+
+  /** Starts journaling the edits to a map, and writes them with an Executor (e.g. on a background thread). The executor must run what it's
+   * given one thing at a time, in order.
+   *
+   * @param map the map to journal
+   * @param baseFilename the file the whole map is written to
+   * @param compactionThreshold the number of records after which the journal is folded into the base file
+   * @param writer runs the writes, or null to write on the thread that asks for them
+   */
+  public TileMapJournal(PedestrianTileBasedMap map, String baseFilename, int compactionThreshold, Executor writer) {
+    this.map = map;
+    this.writer = writer;
+    this.baseFilename = baseFilename;
+    this.journalFilename = journalFilenameFor(baseFilename);
+    this.compactionThreshold = compactionThreshold;
+
+    pending = newBuffer(64);
+    needsCompaction = true;
+    map.addTileMapListener(this);
+  }
+
+  /** Gets the name of the journal that goes with a base file. */
+  public static String journalFilenameFor(String baseFilename) {
+    return baseFilename + ".journal";
+  }
+
+  private static ByteBuffer newBuffer(int records) {
+    return ByteBuffer.allocate(records*RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Stops journaling the map's edits. Any that haven't been flushed are dropped. */
+  public void detach() {
+    map.removeTileMapListener(this);
+  }
+
+  @Override
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+    if (needsCompaction) {
+      return;
+    }
+
+    if (pending.remaining() < RECORD_BYTES) {
+      ByteBuffer larger = newBuffer((pending.capacity()/RECORD_BYTES)*2);
+      pending.flip();
+      larger.put(pending);
+      pending = larger;
+    }
+    pending.putLong(nextSequence++).putInt(x).putInt(y).put((byte) (blocked ? 1 : 0));
+  }
+
+  @Override
+  public void tileMapReset(PedestrianTileBasedMap map) {
+    needsCompaction = true;
+    pending.clear();
+  }
+
+  /** Gets the number of records in the journal file. */
+  public int getNumberOfRecordsInJournal() {
+    return recordsInJournal;
+  }
+
+  /** Gets the number of edits that haven't been written yet. */
+  public int getNumberOfPendingRecords() {
+    return pending.position()/RECORD_BYTES;
+  }
+
+  /** Writes the edits made since the last flush. They're appended to the journal, unless the journal has grown past the compaction
+   * threshold (or the map has changed too much to journal), in which case the whole map is written to the base file instead.
+   *
+   * @throws IOException if either file can't be written (only when there's no executor to write them)
+   */
+  public void flush() throws IOException {
+    Write write = null;
+
+    map.getReadLock().lock();
+    try {
+      if (needsCompaction || writeFailed || (recordsInJournal + getNumberOfPendingRecords() > compactionThreshold)) {
+        write = takeCompaction();
+      } else if (pending.position() > 0) {
+        write = takeAppend();
+      }
+    } finally {
+      map.getReadLock().unlock();
+    }
+
+    if (write != null) {
+      perform(write);
+    }
+  }
+
+  /** Writes the whole map to the base file, and empties the journal.
+   *
+   * @throws IOException if either file can't be written (only when there's no executor to write them)
+   */
+  public void compact() throws IOException {
+    Write write;
+
+    map.getReadLock().lock();
+    try {
+      write = takeCompaction();
+    } finally {
+      map.getReadLock().unlock();
+    }
+
+    perform(write);
+  }
+
+  /** Takes what a compaction needs to write, while the read lock is held. */
+  private Write takeCompaction() {
+    Write write = new Write(map.getTileStorage().snapshotObstacles(), null, 0);
+
+    writeFailed = false;
+    pending.clear();
+    recordsInJournal = 0;
+    needsCompaction = false;
+    return write;
+  }
+
+  /** Takes the pending records, while the read lock is held. */
+  private Write takeAppend() {
+    ByteBuffer records = newBuffer(getNumberOfPendingRecords());
+    pending.flip();
+    records.put(pending);
+    records.flip();
+    Write write = new Write(null, records, recordsInJournal);
+
+    pending.clear();
+    recordsInJournal += write.getNumberOfRecords();
+    return write;
+  }
+
+  /** Does a write, or hands it to the executor. */
+  private void perform(final Write write) throws IOException {
+    if (writer == null) {
+      try {
+        write.write();
+      } catch (IOException ioEx) {
+        writeFailed = true;
+        throw ioEx;
+      }
+      return;
+    }
+
+    writer.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          write.write();
+        } catch (IOException ioEx) {
+          writeFailed = true;
+          ioEx.printStackTrace();
+        }
+      }
+    });
+  }
+
+  /** One write to the base file and the journal: either the whole map, or some records appended to the journal. */
+  private class Write {
+
+    /** The map to write to the base file, or null if this is an append. */
+    private TileStorage.ObstacleSnapshot obstacles;
+    /** The records to append, or null if this is a compaction. */
+    private ByteBuffer records;
+    /** The number of records already in the journal, before these are appended. */
+    private int firstRecord;
+
+    private Write(TileStorage.ObstacleSnapshot obstacles, ByteBuffer records, int firstRecord) {
+      this.obstacles = obstacles;
+      this.records = records;
+      this.firstRecord = firstRecord;
+    }
+
+    /** Gets the number of records appended by this write. */
+    private int getNumberOfRecords() {
+      return ((records == null) ? 0 : records.remaining()/RECORD_BYTES);
+    }
+
+    private void write() throws IOException {
+      if (obstacles != null) {
+        TileMapFile.save(obstacles, baseFilename);
+        records = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        records.putInt(MAGIC).putInt(VERSION).putInt(obstacles.getWidth()).putInt(obstacles.getHeight());
+        records.flip();
+      }
+
+      RandomAccessFile file = new RandomAccessFile(journalFilename, "rw");
+      try {
+        FileChannel channel = file.getChannel();
+        if (obstacles != null) {
+          channel.truncate(0);
+        } else {
+          channel.position(HEADER_BYTES + ((long) firstRecord*RECORD_BYTES));
+        }
+        while (records.hasRemaining()) {
+          channel.write(records);
+        }
+      } finally {
+        file.close();
+      }
+    }
+
+  }
+
+  /** Reads a map from its base file, and replays the journal that goes with it, if there is one.
+   *
+   * @param baseFilename the base file
+   * @return the map, with every edit in the journal applied to it
+   * @throws FileNotFoundException if there is no base file
+   * @throws IOException if the base file can't be read
+   */
+  public static PedestrianTileBasedMap load(String baseFilename) throws IOException {
+    PedestrianTileBasedMap map = TileMapFile.load(baseFilename);
+    replay(map, journalFilenameFor(baseFilename));
+    return map;
+  }
+
+  /** Applies the records in a journal to a map. A journal that's missing, or was written for a map of another size, is ignored.
+   *
+   * @param map the map to apply the records to, which mustn't be in use yet
+   * @param journalFilename the journal
+   * @return the number of records applied
+   * @throws IOException if the journal can't be read
+   */
+  public static int replay(PedestrianTileBasedMap map, String journalFilename) throws IOException {
+    if (!(new File(journalFilename)).exists()) {
+      return 0;
+    }
+
+    RandomAccessFile file = new RandomAccessFile(journalFilename, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      if (channel.size() < HEADER_BYTES) {
+        return 0;
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE)).order(ByteOrder.LITTLE_ENDIAN);
+      while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+      }
+      buffer.flip();
+
+      if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)
+          || (buffer.getInt() != map.getWidthInTiles()) || (buffer.getInt() != map.getHeightInTiles())) {
+        System.out.println("Ignoring " + journalFilename + ", which doesn't belong to this tile map");
+        return 0;
+      }
+
+      TileStorage tiles = map.getTileStorage();
+      int applied = 0;
+      long lastSequence = Long.MIN_VALUE;
+      while (buffer.remaining() >= RECORD_BYTES) {
+        long sequence = buffer.getLong();
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        byte blocked = buffer.get();
+        if ((sequence <= lastSequence) || !tiles.contains(x, y) || ((blocked & ~1) != 0)) {
+          break;
+        }
+
+        tiles.setBlocked(tiles.indexOf(x, y), blocked == 1);
+        lastSequence = sequence;
+        applied++;
+      }
+      return applied;
+    } finally {
+      file.close();
+    }
+  }
+
+}
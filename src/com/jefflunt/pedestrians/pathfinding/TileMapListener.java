@@ -0,0 +1,24 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+/** An interface for anything that keeps state derived from the obstacles on a PedestrianTileBasedMap, and needs to know when they change.
+ * 
+ * @see PedestrianTileBasedMap#addTileMapListener(TileMapListener)
+ */
+public interface TileMapListener {
+
+  /** Called after a single tile has changed from open to blocked, or from blocked to open.
+   * 
+   * @param map the map on which the tile changed
+   * @param x the x-coordinate of the tile that changed
+   * @param y the y-coordinate of the tile that changed
+   * @param blocked the new state of the tile - true if it is now blocked, false if it is now open
+   */
+  public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked);
+  
+  /** Called after many tiles have changed at once (e.g. when the obstacles are randomized), and any derived state should be rebuilt.
+   * 
+   * @param map the map that changed
+   */
+  public void tileMapReset(PedestrianTileBasedMap map);
+  
+}
@@ -2,95 +2,83 @@ package com.jefflunt.pedestrians.pathfinding;
 
 import java.util.LinkedList;
 
-import com.jefflunt.pedestrians.ConfigValues;
 import com.jefflunt.pedestrians.Pedestrian;
 
-/** A class that describes the current state of a tile in a PedestrianTileBasedMap. */
+/** A class that describes the current state of a tile in a PedestrianTileBasedMap.
+ *
+ * The state itself is kept in the map's TileStorage (and, for the Pedestrians in the tile, its PedestrianGrid); a TileState is only a view
+ * of one tile of it, so reading or changing a TileState reads or changes the map.
+ */
 public class TileState {
 
-  /** Whether or not this tile is blocked. */
-  private boolean blocked;
-  /** The list of all Pedestrians who claim to be inside this tile. */
-  private LinkedList<Pedestrian> pedestriansInThisTile;
-  
-  /** The previous congestion level. */
-  private float congestion;
-  /** The last time congestion was calculated on this Tile. */
-  private long nextCongestionCalculationTime;
-  
-  /** Creates a new TileState. Default values are 'false' for the blocked state, and no Pedestrians registered. */
+  /** The storage the tile is kept in. */
+  private TileStorage storage;
+  /** The index of the Pedestrians on the map. */
+  private PedestrianGrid grid;
+  /** The x-coordinate of the tile. */
+  private int x;
+  /** The y-coordinate of the tile. */
+  private int y;
+  /** The index of the tile, in the storage. */
+  private int index;
+
+  /** Creates a new TileState, that isn't part of any map. Default values are 'false' for the blocked state, and no Pedestrians in it. */
   public TileState() {
-    blocked = false;
-    pedestriansInThisTile = new LinkedList<Pedestrian>();
-    
-    congestion = 0;
-    nextCongestionCalculationTime = System.currentTimeMillis() + ConfigValues.millisBetweenCongestionCalculations;
+    this(new TileStorage(1, 1), new PedestrianGrid(), 0, 0);
   }
-  
+
+  /** Creates a view of one tile of a map's storage.
+   *
+   * @param storage the storage the tile is kept in
+   * @param grid the index of the Pedestrians on the map
+   * @param x the x-coordinate of the tile
+   * @param y the y-coordinate of the tile
+   */
+  TileState(TileStorage storage, PedestrianGrid grid, int x, int y) {
+    this.storage = storage;
+    this.grid = grid;
+    this.x = x;
+    this.y = y;
+    this.index = storage.indexOf(x, y);
+  }
+
   /** Gets whether or not this tile is blocked. */
   public boolean isBlocked() {
-    return blocked;
+    return storage.isBlocked(index);
   }
-  
+
   /** Sets whether or not this tile is blocked. */
   public void setIsBlocked(boolean blocked) {
-    this.blocked = blocked;
-  }
-  
-  /** Recalculates the congestion level. */
-  private void recalculateCongestion() {
-    float momentaryCongestion = (pedestriansInThisTile.size()*2)+1;
-    
-    congestion = (congestion + momentaryCongestion) / 2;
+    storage.setBlocked(index, blocked);
   }
-  
-  /** The relative congestion of the given tile.
-   * 
+
+  /** The relative congestion of the given tile, as of the last time it was calculated.
+   *
    * @return The more Pedestrians that are in this tile, the more congested it is.
    */
   public float getCongestion() {
-    if (System.currentTimeMillis() > nextCongestionCalculationTime) {
-      recalculateCongestion();
-      nextCongestionCalculationTime = System.currentTimeMillis() + ConfigValues.millisBetweenCongestionCalculations;
-    }
-    
-    return congestion;
+    return storage.getCongestion(index);
   }
-  
+
   /** Sets the congestion on this tile to zero. */
   public void resetCongestion() {
-    congestion = 0;
+    storage.resetCongestion(index);
   }
-  
-  /** Gets a shallow copy of the Pedestrians registered with this tile. The LinkedList returned can be safely modified without breaking this tile's state.
-   * 
-   * @return A LinkedList containing all the currently registered Pedestrians for this tile.
+
+  /** Gets the Pedestrians in this tile, as of the last time the map's PedestrianGrid was rebuilt. The LinkedList returned can be safely
+   * modified without breaking this tile's state.
+   *
+   * @return A LinkedList containing all the Pedestrians in this tile.
    */
-  @SuppressWarnings("unchecked")
   public LinkedList<Pedestrian> getRegisteredPedestrians() {
-    return ((LinkedList<Pedestrian>)pedestriansInThisTile.clone());
-  }
-  
-  /** Registers a Pedestrian, as claiming that they are currently inside this tile.
-   * 
-   * @param ped the Pedestrian claiming to be here.
-   */
-  public void registerPedestrian(Pedestrian ped) {
-    if (!pedestriansInThisTile.contains(ped))
-      pedestriansInThisTile.add(ped);
-  }
-  
-  /** If the specified Pedestrian is registered in this tile, they will be removed. If they are not currently registered in this tile, there is no effect.
-   * 
-   * @param ped the Pedestrian requesting to be unregistered.
-   */
-  public void unregisterPedestrian(Pedestrian ped) {
-    pedestriansInThisTile.remove(ped);
-  }
-  
-  /** Removes all Pedestrians from the list of registered Pedestrians. */
-  public void clearRegisteredPedestrians() {
-    pedestriansInThisTile.clear();
+    Pedestrian[] buffer = new Pedestrian[grid.countInTile(x, y)];
+    grid.getPedestriansInTile(x, y, buffer);
+
+    LinkedList<Pedestrian> peds = new LinkedList<Pedestrian>();
+    for (Pedestrian ped : buffer) {
+      peds.add(ped);
+    }
+    return peds;
   }
-  
+
 }
@@ -0,0 +1,426 @@
+package com.jefflunt.pedestrians.pathfinding;
+
+import java.util.Arrays;
+
+/** The state of every tile of a PedestrianTileBasedMap, kept in primitive arrays rather than an object per tile, and split into square
+ * chunks that are only allocated once something is in them.
+ *
+ * The map has a border one tile wide all the way around it, whose tiles are permanently blocked, so a search that steps off the edge of
+ * the map finds a blocked tile there. The map and its border are divided into chunks of CHUNK_SIZE x CHUNK_SIZE tiles, and a tile's index
+ * is the number of its chunk, times the number of tiles in a chunk, plus its position within the chunk (row by row) - so the chunk and the
+ * position within it are a shift and a mask away.
+ *
+ * Each chunk keeps one bit for whether each of its tiles is blocked, the number of Pedestrians registered in each tile, and the congestion
+ * of each tile - but a chunk with no obstacles shares a single, read-only array of bits with every other such chunk, a chunk with no
+ * Pedestrians shares a single array of zero occupancy, and a chunk that has never had a Pedestrian in it (or whose congestion has settled
+ * back down since) shares one array of congestion with all the others. The shared arrays are replaced with a chunk's own copy the first time
+ * it's changed, so a huge map that's mostly empty costs little more than the tables of chunks. Which Pedestrians are where is kept by the
+ * map's PedestrianGrid; only the number of them in each tile is kept here.
+ *
+ * snapshotObstacles() hands out the chunks of bits themselves, rather than a copy of them, and marks them as shared; a shared chunk is
+ * copied the next time one of its tiles is blocked or opened, so a snapshot costs one reference per chunk, and only the chunks edited
+ * while it's in use are ever copied.
+ *
+ * Tile indices are ints, so a map (with its border, rounded up to whole chunks) can have at most 2^31 tiles - about 46,000 x 46,000.
+ */
+public class TileStorage {
+
+  /** The number of bits in the width (and height) of a chunk. */
+  public static final int CHUNK_SHIFT = 6;
+  /** The width (and height) of a chunk, in tiles. */
+  public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  /** The number of bits in the number of tiles in a chunk. */
+  private static final int CHUNK_AREA_SHIFT = CHUNK_SHIFT*2;
+  /** The number of tiles in a chunk. */
+  private static final int CHUNK_AREA = 1 << CHUNK_AREA_SHIFT;
+  /** Masks the position within a chunk out of a tile index. */
+  private static final int CHUNK_AREA_MASK = CHUNK_AREA - 1;
+  /** How close to the congestion of an empty tile every tile of a chunk must be, before its congestion is given up. */
+  private static final float SETTLED_CONGESTION = 0.001f;
+
+  /** The bits of every chunk with no blocked tiles. Never written to. */
+  private static final long[] EMPTY_BITS = new long[CHUNK_AREA >>> 6];
+  /** The occupancy of every chunk with no Pedestrians in it. Never written to. */
+  private static final short[] EMPTY_OCCUPANCY = new short[CHUNK_AREA];
+
+  /** The width of the map, in tiles, not counting the border. */
+  private int width;
+  /** The height of the map, in tiles, not counting the border. */
+  private int height;
+  /** The number of chunks across the map, including the border. */
+  private int chunksAcross;
+  /** The number of chunks down the map, including the border. */
+  private int chunksDown;
+
+  /** One bit for each tile of each chunk, set if the tile is blocked. */
+  private long[][] blocked;
+  /** Whether each chunk's bits have been handed out by snapshotObstacles(), and must be copied before they're changed. */
+  private boolean[] sharedBlocked;
+  /** The number of Pedestrians registered in each tile of each chunk. */
+  private short[][] occupancy;
+  /** The number of Pedestrians registered in each chunk. */
+  private int[] chunkOccupancy;
+  /** The congestion of each tile of each chunk, as of the last time it was calculated. */
+  private float[][] congestion;
+  /** The congestion of every chunk that hasn't had a Pedestrian in it. Only ever written to by the congestion calculations. */
+  private float[] emptyCongestion;
+
+  /** Creates storage for a map with no obstacles, and no Pedestrians.
+   *
+   * @param width the width of the map, in tiles
+   * @param height the height of the map, in tiles
+   * @throws IllegalArgumentException if the map is too big for its tiles to be numbered with an int
+   */
+  public TileStorage(int width, int height) {
+    this.width = width;
+    this.height = height;
+    chunksAcross = (width + 2 + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+    chunksDown = (height + 2 + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+    if (((long) chunksAcross*chunksDown*CHUNK_AREA) > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("A map of " + width + " x " + height + " tiles is too big");
+
+    int chunks = chunksAcross*chunksDown;
+    blocked = new long[chunks][];
+    sharedBlocked = new boolean[chunks];
+    occupancy = new short[chunks][];
+    chunkOccupancy = new int[chunks];
+    congestion = new float[chunks][];
+    emptyCongestion = new float[CHUNK_AREA];
+    Arrays.fill(blocked, EMPTY_BITS);
+    Arrays.fill(occupancy, EMPTY_OCCUPANCY);
+    Arrays.fill(congestion, emptyCongestion);
+
+    blockBorder();
+  }
+
+  /** Blocks every tile of the border around the map. */
+  private void blockBorder() {
+    for (int x = -1; x <= width; x++) {
+      setBlocked(indexOf(x, -1), true);
+      setBlocked(indexOf(x, height), true);
+    }
+    for (int y = 0; y < height; y++) {
+      setBlocked(indexOf(-1, y), true);
+      setBlocked(indexOf(width, y), true);
+    }
+  }
+
+  /** Gets the width of the map, in tiles. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** Gets the height of the map, in tiles. */
+  public int getHeight() {
+    return height;
+  }
+
+  /** Gets the index of the tile at (x, y). Any (x, y) from (-1, -1) to (width, height) has an index; the ones outside the map are the
+   * border.
+   */
+  public int indexOf(int x, int y) {
+    return indexOf(x, y, chunksAcross);
+  }
+
+  /** Works out the index of the tile at (x, y), on a map that's chunksAcross chunks wide (including the border). */
+  private static int indexOf(int x, int y, int chunksAcross) {
+    int column = x + 1;
+    int row = y + 1;
+    int chunk = ((row >> CHUNK_SHIFT)*chunksAcross) + (column >> CHUNK_SHIFT);
+    return (chunk << CHUNK_AREA_SHIFT) | ((row & (CHUNK_SIZE - 1)) << CHUNK_SHIFT) | (column & (CHUNK_SIZE - 1));
+  }
+
+  /** Gets whether (x, y) is on the map, rather than the border or beyond it. */
+  public boolean contains(int x, int y) {
+    return (x >= 0) && (y >= 0) && (x < width) && (y < height);
+  }
+
+  /** Gets whether the tile at an index is blocked. The index isn't checked. */
+  public boolean isBlocked(int index) {
+    return ((blocked[index >>> CHUNK_AREA_SHIFT][(index & CHUNK_AREA_MASK) >>> 6] & (1L << index)) != 0);
+  }
+
+  /** Gets whether the tile at (x, y) is blocked. Any coordinates may be given - everything off the map is blocked. */
+  public boolean isBlocked(int x, int y) {
+    if (((x + 1) | (y + 1) | (width - x) | (height - y)) < 0) {
+      return true;
+    }
+    return isBlocked(indexOf(x, y));
+  }
+
+  /** Sets whether the tile at an index is blocked. The index isn't checked. */
+  public void setBlocked(int index, boolean isBlocked) {
+    int chunk = index >>> CHUNK_AREA_SHIFT;
+    int word = (index & CHUNK_AREA_MASK) >>> 6;
+    long[] bits = blocked[chunk];
+
+    if (isBlocked) {
+      if (bits == EMPTY_BITS) {
+        bits = new long[EMPTY_BITS.length];
+        blocked[chunk] = bits;
+      } else if (sharedBlocked[chunk]) {
+        bits = unshareBlocked(chunk);
+      }
+      bits[word] |= (1L << index);
+    } else if (bits != EMPTY_BITS) {
+      if (sharedBlocked[chunk]) {
+        bits = unshareBlocked(chunk);
+      }
+      bits[word] &= ~(1L << index);
+      if (isEmpty(bits)) {
+        blocked[chunk] = EMPTY_BITS;
+      }
+    }
+  }
+
+  /** Gives a chunk its own copy of the bits it shares with a snapshot. */
+  private long[] unshareBlocked(int chunk) {
+    blocked[chunk] = blocked[chunk].clone();
+    sharedBlocked[chunk] = false;
+    return blocked[chunk];
+  }
+
+  /** Opens every tile on the map. */
+  public void clearBlocked() {
+    Arrays.fill(blocked, EMPTY_BITS);
+    Arrays.fill(sharedBlocked, false);
+    blockBorder();
+  }
+
+  /** Takes a snapshot of which tiles are blocked, that later changes to this storage don't show up in. Nothing is copied until a tile is
+   * changed, and then only that tile's chunk, so this is cheap enough to do every tick. The snapshot can be read from any thread, as long
+   * as it's handed over safely (e.g. through a queue); nothing ever writes to it.
+   */
+  public ObstacleSnapshot snapshotObstacles() {
+    Arrays.fill(sharedBlocked, true);
+    return new ObstacleSnapshot(width, height, chunksAcross, blocked.clone());
+  }
+
+  /** Gets the number of Pedestrians registered in the tile at an index. */
+  public int getOccupancy(int index) {
+    return occupancy[index >>> CHUNK_AREA_SHIFT][index & CHUNK_AREA_MASK];
+  }
+
+  /** Gets the congestion of the tile at an index, as of the last time it was calculated. */
+  public float getCongestion(int index) {
+    return congestion[index >>> CHUNK_AREA_SHIFT][index & CHUNK_AREA_MASK];
+  }
+
+  /** Recalculates the congestion of every tile, from the Pedestrians registered in it right now. Only the chunks that have congestion of
+   * their own are gone through one tile at a time; every other tile has the same congestion, which is worked out once. A chunk with no
+   * Pedestrians left in it gives its congestion up once it has settled back down to that of the empty tiles.
+   */
+  public void recalculateCongestion() {
+    float empty = (emptyCongestion[0] + 1) / 2;
+    Arrays.fill(emptyCongestion, empty);
+
+    for (int chunk = 0; chunk < congestion.length; chunk++) {
+      float[] values = congestion[chunk];
+      if (values == emptyCongestion) {
+        continue;
+      }
+
+      short[] counts = occupancy[chunk];
+      boolean settled = (chunkOccupancy[chunk] == 0);
+      for (int i = 0; i < CHUNK_AREA; i++) {
+        float momentaryCongestion = (counts[i]*2)+1;
+        values[i] = (values[i] + momentaryCongestion) / 2;
+        settled &= (Math.abs(values[i] - empty) < SETTLED_CONGESTION);
+      }
+
+      if (settled) {
+        congestion[chunk] = emptyCongestion;
+      }
+    }
+  }
+
+  /** Sets the congestion of the tile at an index to zero. */
+  public void resetCongestion(int index) {
+    ownCongestion(index >>> CHUNK_AREA_SHIFT)[index & CHUNK_AREA_MASK] = 0;
+  }
+
+  /** Sets the congestion of every tile to zero. */
+  public void resetCongestion() {
+    Arrays.fill(emptyCongestion, 0);
+    Arrays.fill(congestion, emptyCongestion);
+  }
+
+  /** Gets a chunk's own array of congestion, copying the shared one if it doesn't have one yet. */
+  private float[] ownCongestion(int chunk) {
+    if (congestion[chunk] == emptyCongestion) {
+      congestion[chunk] = emptyCongestion.clone();
+    }
+    return congestion[chunk];
+  }
+
+  /** Creates an empty snapshot of the congestion, for copyCongestionInto() to fill. Every tile of it has no congestion. */
+  public CongestionSnapshot createCongestionSnapshot() {
+    return new CongestionSnapshot(congestion.length, chunksAcross);
+  }
+
+  /** Copies the congestion of every tile into a snapshot, reusing the arrays it already has wherever it can.
+   *
+   * @param snapshot the snapshot to fill, which must have been created by this storage
+   */
+  public void copyCongestionInto(CongestionSnapshot snapshot) {
+    System.arraycopy(emptyCongestion, 0, snapshot.emptyChunk, 0, CHUNK_AREA);
+
+    for (int chunk = 0; chunk < congestion.length; chunk++) {
+      if (congestion[chunk] == emptyCongestion) {
+        snapshot.chunks[chunk] = snapshot.emptyChunk;
+      } else {
+        if (snapshot.chunks[chunk] == snapshot.emptyChunk) {
+          snapshot.chunks[chunk] = new float[CHUNK_AREA];
+        }
+        float[] values = congestion[chunk];
+        float highest = values[0];
+        for (int i = 1; i < CHUNK_AREA; i++) {
+          highest = Math.max(highest, values[i]);
+        }
+        System.arraycopy(values, 0, snapshot.chunks[chunk], 0, CHUNK_AREA);
+        snapshot.highest[chunk] = highest;
+      }
+    }
+  }
+
+  /** Counts one more Pedestrian in the tile at an index. */
+  public void addOccupant(int index) {
+    int chunk = index >>> CHUNK_AREA_SHIFT;
+    if (occupancy[chunk] == EMPTY_OCCUPANCY) {
+      occupancy[chunk] = new short[CHUNK_AREA];
+    }
+    occupancy[chunk][index & CHUNK_AREA_MASK]++;
+    chunkOccupancy[chunk]++;
+    ownCongestion(chunk);
+  }
+
+  /** Counts one less Pedestrian in the tile at an index. If there are none counted there, there is no effect. */
+  public void removeOccupant(int index) {
+    int chunk = index >>> CHUNK_AREA_SHIFT;
+    short[] counts = occupancy[chunk];
+    if (counts[index & CHUNK_AREA_MASK] > 0) {
+      counts[index & CHUNK_AREA_MASK]--;
+      if (--chunkOccupancy[chunk] == 0) {
+        occupancy[chunk] = EMPTY_OCCUPANCY;
+      }
+    }
+  }
+
+  /** Counts no Pedestrians in any tile. */
+  public void clearOccupants() {
+    Arrays.fill(occupancy, EMPTY_OCCUPANCY);
+    Arrays.fill(chunkOccupancy, 0);
+  }
+
+  /** Gets the number of chunks that have any state of their own - obstacles, Pedestrians, or congestion - rather than sharing the arrays
+   * of the empty chunks.
+   */
+  public int getNumberOfAllocatedChunks() {
+    int allocated = 0;
+    for (int chunk = 0; chunk < blocked.length; chunk++) {
+      if ((blocked[chunk] != EMPTY_BITS) || (occupancy[chunk] != EMPTY_OCCUPANCY) || (congestion[chunk] != emptyCongestion)) {
+        allocated++;
+      }
+    }
+    return allocated;
+  }
+
+  /** Whether every bit of a chunk is clear. */
+  private static boolean isEmpty(long[] bits) {
+    for (long word : bits) {
+      if (word != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Which tiles of the map were blocked, when snapshotObstacles() was called. */
+  public static class ObstacleSnapshot {
+
+    /** The width of the map, in tiles, not counting the border. */
+    private int width;
+    /** The height of the map, in tiles, not counting the border. */
+    private int height;
+    /** The number of chunks across the map, including the border. */
+    private int chunksAcross;
+    /** The bits of each chunk, shared with the storage until it changes them. */
+    private long[][] blocked;
+
+    private ObstacleSnapshot(int width, int height, int chunksAcross, long[][] blocked) {
+      this.width = width;
+      this.height = height;
+      this.chunksAcross = chunksAcross;
+      this.blocked = blocked;
+    }
+
+    /** Gets the width of the map, in tiles. */
+    public int getWidth() {
+      return width;
+    }
+
+    /** Gets the height of the map, in tiles. */
+    public int getHeight() {
+      return height;
+    }
+
+    /** Gets whether the tile at (x, y) was blocked. Any coordinates may be given - everything off the map is blocked. */
+    public boolean isBlocked(int x, int y) {
+      if (((x + 1) | (y + 1) | (width - x) | (height - y)) < 0) {
+        return true;
+      }
+      int index = indexOf(x, y, chunksAcross);
+      return ((blocked[index >>> CHUNK_AREA_SHIFT][(index & CHUNK_AREA_MASK) >>> 6] & (1L << index)) != 0);
+    }
+
+  }
+
+  /** A copy of the congestion of every tile, taken by copyCongestionInto(). Chunks with no congestion of their own share one array. */
+  public static class CongestionSnapshot {
+
+    /** The congestion of each tile of each chunk. */
+    private float[][] chunks;
+    /** The congestion of every chunk with no congestion of its own. */
+    private float[] emptyChunk;
+    /** The highest congestion of any tile in each chunk with congestion of its own. */
+    private float[] highest;
+    /** The number of chunks across the map, including the border. */
+    private int chunksAcross;
+
+    /** Creates a snapshot in which every tile has no congestion. */
+    private CongestionSnapshot(int numberOfChunks, int chunksAcross) {
+      this.chunksAcross = chunksAcross;
+      chunks = new float[numberOfChunks][];
+      emptyChunk = new float[CHUNK_AREA];
+      highest = new float[numberOfChunks];
+      Arrays.fill(chunks, emptyChunk);
+    }
+
+    /** Gets the congestion of the tile at an index, as of when the snapshot was taken. */
+    public float getCongestion(int index) {
+      return chunks[index >>> CHUNK_AREA_SHIFT][index & CHUNK_AREA_MASK];
+    }
+
+    /** Gets the highest congestion of any tile in the chunks that the rectangle from (x0, y0) to (x1, y1) overlaps, which is at least as
+     * high as that of any tile in the rectangle itself. This looks at one number per chunk, rather than at every tile.
+     *
+     * @param x0 the x-coordinate of the left-hand column of the rectangle, from -1 (the border) up
+     * @param y0 the y-coordinate of the top row of the rectangle, from -1 up
+     * @param x1 the x-coordinate of the right-hand column of the rectangle, up to the width of the map (the border)
+     * @param y1 the y-coordinate of the bottom row of the rectangle, up to the height of the map
+     * @return the highest congestion in those chunks
+     */
+    public float getHighestCongestion(int x0, int y0, int x1, int y1) {
+      float result = 0;
+      for (int row = (y0 + 1) >> CHUNK_SHIFT; row <= ((y1 + 1) >> CHUNK_SHIFT); row++) {
+        for (int column = (x0 + 1) >> CHUNK_SHIFT; column <= ((x1 + 1) >> CHUNK_SHIFT); column++) {
+          int chunk = (row*chunksAcross) + column;
+          result = Math.max(result, (chunks[chunk] == emptyChunk) ? emptyChunk[0] : highest[chunk]);
+        }
+      }
+      return result;
+    }
+
+  }
+
+}
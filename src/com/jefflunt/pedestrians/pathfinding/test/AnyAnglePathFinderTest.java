@@ -0,0 +1,107 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.Path;
+
+import com.jefflunt.pedestrians.pathfinding.AnyAnglePathFinder;
+import com.jefflunt.pedestrians.pathfinding.CompactPath;
+import com.jefflunt.pedestrians.pathfinding.JumpPointPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class AnyAnglePathFinderTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private AnyAnglePathFinder pathFinder;
+
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(50, 50);
+    pathFinder = new AnyAnglePathFinder(pedMap, 100000);
+  }
+
+  /** The length of a path in tiles, measured along straight lines between its steps. */
+  private static double lengthOf(CompactPath path) {
+    double length = 0;
+    for (int i = 1; i < path.getLength(); i++) {
+      length += Math.hypot(path.getX(i) - path.getX(i-1), path.getY(i) - path.getY(i-1));
+    }
+    return length;
+  }
+
+  @Test
+  public void anOpenMapNeedsNoWaypointsInBetween() {
+    CompactPath path = pathFinder.findCompactPath(null, 3, 4, 40, 21);
+
+    assertEquals(2, path.getLength());
+    assertEquals(40, path.getX(1));
+    assertEquals(21, path.getY(1));
+  }
+
+  @Test
+  public void theWayAroundAWallTurnsOnlyAtItsEnd() {
+    for (int y = 0; y < 40; y++) {
+      pedMap.permanentlyBlock(25, y);
+    }
+
+    CompactPath path = pathFinder.findCompactPath(null, 5, 5, 45, 5);
+    Path gridPath = new JumpPointPathFinder(pedMap, 100000, 1, 1).findPath(null, 5, 5, 45, 5);
+
+    assertTrue(path.getLength() <= 5);
+    assertTrue(path.getLength()*10 < gridPath.getLength());
+    for (int i = 1; i < path.getLength(); i++) {
+      assertTrue(pedMap.hasLineOfSight(null, path.getX(i-1), path.getY(i-1), path.getX(i), path.getY(i)));
+    }
+  }
+
+  @Test
+  public void pathsAreNeverLongerThanGridPathsAcrossRandomObstacles() {
+    Random random = new Random(13);
+    for (int i = 0; i < 400; i++) {
+      pedMap.permanentlyBlock(random.nextInt(50), random.nextInt(50));
+    }
+    JumpPointPathFinder gridFinder = new JumpPointPathFinder(pedMap, 100000, 1, 1);
+
+    for (int i = 0; i < 50; i++) {
+      int sx = random.nextInt(50);
+      int sy = random.nextInt(50);
+      int tx = random.nextInt(50);
+      int ty = random.nextInt(50);
+      if (pedMap.blocked(null, sx, sy)) {
+        continue;
+      }
+
+      CompactPath path = pathFinder.findCompactPath(null, sx, sy, tx, ty);
+      Path gridPath = gridFinder.findPath(null, sx, sy, tx, ty);
+      assertEquals(gridPath == null, path == null);
+      if (path == null) {
+        continue;
+      }
+
+      assertTrue(lengthOf(path) <= lengthOf(CompactPath.fromPath(gridPath, true)) + 0.001);
+      assertTrue(path.getLength() <= gridPath.getLength());
+      for (int j = 1; j < path.getLength(); j++) {
+        assertTrue(pedMap.hasLineOfSight(null, path.getX(j-1), path.getY(j-1), path.getX(j), path.getY(j)));
+      }
+    }
+  }
+
+  @Test
+  public void aTargetInAnEnclosedPocketIsNotFound() {
+    for (int x = 30; x < 35; x++) {
+      pedMap.permanentlyBlock(x, 30);
+      pedMap.permanentlyBlock(x, 34);
+    }
+    for (int y = 31; y < 34; y++) {
+      pedMap.permanentlyBlock(30, y);
+      pedMap.permanentlyBlock(34, y);
+    }
+
+    assertNull(pathFinder.findPath(null, 1, 1, 32, 32));
+  }
+
+}
@@ -0,0 +1,97 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.Path;
+
+import com.jefflunt.pedestrians.pathfinding.AnyAnglePathFinder;
+import com.jefflunt.pedestrians.pathfinding.CachingPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class CachingPathFinderTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private CachingPathFinder pathCache;
+  
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(20, 20);
+    pathCache = new CachingPathFinder(new PedestrianPathFinder(pedMap, 1000, true), pedMap, 2);
+  }
+  
+  @Test
+  public void askingForTheSameRouteTwiceIsAHit() {
+    Path first = pathCache.findPath(null, 1, 1, 10, 10);
+    Path second = pathCache.findPath(null, 1, 1, 10, 10);
+    
+    assertSame(first, second);
+    assertEquals(1, pathCache.getHits());
+    assertEquals(1, pathCache.getMisses());
+  }
+  
+  @Test
+  public void theLeastRecentlyUsedPathIsEvictedWhenTheCacheIsFull() {
+    pathCache.findPath(null, 1, 1, 10, 10);
+    pathCache.findPath(null, 2, 2, 10, 10);
+    pathCache.findPath(null, 1, 1, 10, 10);
+    pathCache.findPath(null, 3, 3, 10, 10);
+    
+    assertEquals(1, pathCache.getEvictions());
+    assertEquals(2, pathCache.size());
+    
+    pathCache.findPath(null, 1, 1, 10, 10);
+    assertEquals(2, pathCache.getHits());
+  }
+  
+  @Test
+  public void blockingATileOnACachedPathInvalidatesIt() {
+    Path path = pathCache.findPath(null, 1, 1, 10, 10);
+    pedMap.permanentlyBlock(path.getX(3), path.getY(3));
+    
+    assertEquals(1, pathCache.getInvalidations());
+    assertEquals(0, pathCache.size());
+    
+    Path newPath = pathCache.findPath(null, 1, 1, 10, 10);
+    assertNotSame(path, newPath);
+    assertEquals(2, pathCache.getMisses());
+  }
+  
+  @Test
+  public void blockingATileBesideADiagonalStepOfACachedPathInvalidatesIt() {
+    Path path = pathCache.findPath(null, 1, 1, 10, 10);
+    int step = 1;
+    while ((path.getX(step) == path.getX(step-1)) || (path.getY(step) == path.getY(step-1))) {
+      step++;
+    }
+    
+    // the tile beside the diagonal step, not on the path itself
+    pedMap.permanentlyBlock(path.getX(step), path.getY(step-1));
+    
+    assertEquals(1, pathCache.getInvalidations());
+    assertEquals(0, pathCache.size());
+  }
+  
+  @Test
+  public void blockingATileElsewhereLeavesCachedPathsAlone() {
+    pathCache.findPath(null, 1, 1, 3, 1);
+    pedMap.permanentlyBlock(15, 15);
+    
+    assertEquals(0, pathCache.getInvalidations());
+    assertEquals(1, pathCache.size());
+  }
+  
+  @Test
+  public void blockingATileBetweenTheWaypointsOfAnAnyAnglePathInvalidatesIt() {
+    pathCache = new CachingPathFinder(new AnyAnglePathFinder(pedMap, 1000), pedMap, 2);
+    Path path = pathCache.findPath(null, 1, 1, 15, 8);
+    assertEquals(2, path.getLength());
+    
+    pedMap.permanentlyBlock(8, 4);
+    assertEquals(1, pathCache.getInvalidations());
+    assertEquals(0, pathCache.size());
+  }
+  
+}
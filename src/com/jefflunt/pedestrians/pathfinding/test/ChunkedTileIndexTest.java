@@ -0,0 +1,43 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.pathfinding.ChunkedTileIndex;
+import com.jefflunt.pedestrians.pathfinding.TileStorage;
+
+public class ChunkedTileIndexTest {
+
+  @Test
+  public void everyTileHasItsOwnIndexWhichLeadsBackToIt() {
+    ChunkedTileIndex tiles = new ChunkedTileIndex(150, 70);
+    HashSet<Integer> seen = new HashSet<Integer>();
+
+    for (int x = 0; x < 150; x++) {
+      for (int y = 0; y < 70; y++) {
+        int index = tiles.indexOf(x, y);
+        assertTrue(seen.add(index));
+        assertTrue((index >= 0) && (index < tiles.getCapacity()));
+        assertEquals(x, tiles.xOf(index));
+        assertEquals(y, tiles.yOf(index));
+      }
+    }
+  }
+
+  @Test
+  public void tilesInTheSameChunkShareAChunkNumber() {
+    ChunkedTileIndex tiles = new ChunkedTileIndex(150, 70);
+    int chunk = tiles.indexOf(64, 0) >>> ChunkedTileIndex.CHUNK_AREA_SHIFT;
+
+    assertEquals(chunk, tiles.indexOf(127, 63) >>> ChunkedTileIndex.CHUNK_AREA_SHIFT);
+    assertFalse(chunk == (tiles.indexOf(128, 0) >>> ChunkedTileIndex.CHUNK_AREA_SHIFT));
+    assertFalse(chunk == (tiles.indexOf(64, 64) >>> ChunkedTileIndex.CHUNK_AREA_SHIFT));
+    // three chunks across, rounded up to four, and two down
+    assertEquals(8, tiles.getNumberOfChunks());
+    assertEquals(8*TileStorage.CHUNK_SIZE*TileStorage.CHUNK_SIZE, tiles.getCapacity());
+  }
+
+}
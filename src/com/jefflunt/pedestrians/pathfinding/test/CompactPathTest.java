@@ -0,0 +1,99 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.Path;
+
+import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.pathfinding.CompactPath;
+import com.jefflunt.pedestrians.pathfinding.PedestrianPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class CompactPathTest {
+
+  @Test
+  public void lengthsAreKeptAsStepsAreAdded() {
+    CompactPath path = new CompactPath(1, false);
+    path.appendStep(0, 0);
+    path.appendStep(30, 0);
+    path.appendStep(30, 40);
+
+    assertEquals(3, path.getLength());
+    assertEquals(0, path.getLengthTo(0), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertEquals(30, path.getLengthTo(1), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertEquals(70, path.getLengthTo(2), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertEquals(40, path.getLengthFrom(1), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+  }
+
+  @Test
+  public void aPathInTilesGoesThroughTheCenterOfEachTile() {
+    CompactPath path = new CompactPath(true);
+    path.appendStep(1, 2);
+    path.appendStep(2, 3);
+
+    assertEquals(1, path.getTileX(0));
+    assertEquals((ConfigValues.TILE_SIZE*1) + (ConfigValues.TILE_SIZE/2), path.getPixelX(0));
+    assertEquals((ConfigValues.TILE_SIZE*3) + (ConfigValues.TILE_SIZE/2), path.getPixelY(1));
+    assertEquals(ConfigValues.TILE_SIZE*Math.sqrt(2), path.getLengthFrom(0), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+
+    CompactPath pixels = path.toPixels();
+    assertFalse(pixels.isInTiles());
+    assertEquals(path.getPixelX(1), pixels.getX(1));
+    assertEquals(2, pixels.getTileX(1));
+    assertEquals(path.getLengthFrom(0), pixels.getLengthFrom(0), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+  }
+
+  @Test
+  public void reversingAPathRecalculatesItsLengths() {
+    CompactPath path = new CompactPath(false);
+    path.appendStep(0, 40);
+    path.appendStep(0, 0);
+    path.appendStep(30, 0);
+    path.reverse();
+
+    assertEquals(30, path.getX(0));
+    assertEquals(40, path.getY(2));
+    assertEquals(30, path.getLengthTo(1), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertEquals(70, path.getLengthTo(2), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+  }
+
+  @Test
+  public void slickPathsConvertBothWays() {
+    Path slickPath = new Path();
+    slickPath.appendStep(4, 5);
+    slickPath.appendStep(5, 5);
+
+    CompactPath path = CompactPath.fromPath(slickPath, true);
+    assertEquals(2, path.getLength());
+    assertEquals(4, path.getX(0));
+
+    Path copy = path.toPath();
+    assertEquals(2, copy.getLength());
+    assertEquals(5, copy.getX(1));
+    assertEquals(5, copy.getY(1));
+
+    assertNull(CompactPath.fromPath(null, true));
+  }
+
+  @Test
+  public void aSearchWritesTheSamePathEitherWay() {
+    PedestrianTileBasedMap pedMap = new PedestrianTileBasedMap(30, 30);
+    for (int y = 0; y < 25; y++) {
+      pedMap.permanentlyBlock(15, y);
+    }
+    PedestrianPathFinder pathFinder = new PedestrianPathFinder(pedMap, 100000, true);
+
+    Path slickPath = pathFinder.findPath(null, 5, 5, 25, 5);
+    CompactPath path = pathFinder.getCompactPath();
+
+    assertEquals(slickPath.getLength(), path.getLength());
+    for (int i = 0; i < path.getLength(); i++) {
+      assertEquals(slickPath.getX(i), path.getX(i));
+      assertEquals(slickPath.getY(i), path.getY(i));
+    }
+    assertEquals(5, path.getX(0));
+    assertEquals(25, path.getX(path.getLength()-1));
+  }
+
+}
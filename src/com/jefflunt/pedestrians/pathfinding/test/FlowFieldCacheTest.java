@@ -0,0 +1,158 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.pathfinding.FlowField;
+import com.jefflunt.pedestrians.pathfinding.FlowFieldCache;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class FlowFieldCacheTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private FlowFieldCache flowFields;
+
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(30, 30);
+    flowFields = new FlowFieldCache(pedMap, 1024*1024);
+  }
+
+  /** Checks that every tile of 'field' has the same distance as the same tile of 'expected', and that every direction leads to the goal. */
+  private void assertSameField(FlowField expected, FlowField field) {
+    for (int x = 0; x < pedMap.getWidthInTiles(); x++) {
+      for (int y = 0; y < pedMap.getHeightInTiles(); y++) {
+        assertEquals("distance at (" + x + ", " + y + ")", expected.getDistance(x, y), field.getDistance(x, y), 0.001f);
+
+        if (field.getDistance(x, y) == FlowField.UNREACHABLE) {
+          assertEquals(FlowField.NO_DIRECTION, field.getDirection(x, y));
+        } else if ((x != field.getGoalX()) || (y != field.getGoalY())) {
+          int next = field.getNextTile(x, y);
+          assertTrue(next >= 0);
+          assertTrue(field.getDistance(next % pedMap.getWidthInTiles(), next / pedMap.getWidthInTiles()) < field.getDistance(x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void followingTheDirectionsLeadsToTheGoal() {
+    for (int y = 0; y < 25; y++) {
+      pedMap.permanentlyBlock(15, y);
+    }
+
+    FlowField field = flowFields.getFlowField(25, 5);
+    assertEquals(0, field.getDistance(25, 5), 0);
+    assertEquals(FlowField.NO_DIRECTION, field.getDirection(25, 5));
+    assertEquals(FlowField.UNREACHABLE, field.getDistance(15, 5), 0);
+
+    int x = 5;
+    int y = 5;
+    int steps = 0;
+    while ((x != 25) || (y != 5)) {
+      int next = field.getNextTile(x, y);
+      assertTrue(next >= 0);
+      x = next % 30;
+      y = next / 30;
+      assertFalse(pedMap.blocked(null, x, y));
+      assertTrue(++steps < 100);
+    }
+
+    // the route has to go around the bottom of the wall
+    assertTrue(field.getDistance(5, 5) > 40);
+  }
+
+  @Test
+  public void askingForTheSameGoalTwiceIsAHit() {
+    FlowField first = flowFields.getFlowField(3, 4);
+    FlowField second = flowFields.getFlowField(3, 4);
+
+    assertSame(first, second);
+    assertEquals(1, flowFields.getHits());
+    assertEquals(1, flowFields.getMisses());
+  }
+
+  @Test
+  public void theCacheStaysWithinItsMemoryBudget() {
+    // each field on a 30x30 map takes 4500 bytes
+    flowFields = new FlowFieldCache(pedMap, 10000);
+    assertEquals(2, flowFields.getMaxFields());
+
+    FlowField first = flowFields.getFlowField(1, 1);
+    flowFields.getFlowField(2, 2);
+    flowFields.getFlowField(3, 3);
+
+    assertEquals(2, flowFields.size());
+    assertEquals(1, flowFields.getEvictions());
+    assertFalse(first.isValid());
+    assertNotSame(first, flowFields.getFlowField(1, 1));
+  }
+
+  @Test
+  public void repairedFieldsMatchFieldsBuiltFromScratch() {
+    Random random = new Random(7);
+    FlowField field = flowFields.getFlowField(10, 12);
+
+    for (int edit = 0; edit < 300; edit++) {
+      int x = random.nextInt(30);
+      int y = random.nextInt(30);
+      if ((x == 10) && (y == 12)) {
+        continue;
+      }
+
+      if (random.nextInt(3) == 0) {
+        pedMap.permanentlyOpen(x, y);
+      } else {
+        pedMap.permanentlyBlock(x, y);
+      }
+
+      if ((edit % 25) == 0) {
+        assertSameField(new FlowFieldCache(copyOf(pedMap), 1024*1024).getFlowField(10, 12), field);
+      }
+    }
+
+    assertSameField(new FlowFieldCache(copyOf(pedMap), 1024*1024).getFlowField(10, 12), field);
+    assertTrue(field.isValid());
+    assertTrue(flowFields.getRepairedTiles() > 0);
+  }
+
+  @Test
+  public void blockingAndReopeningTheGoalRestoresTheField() {
+    FlowField field = flowFields.getFlowField(10, 10);
+    float distance = field.getDistance(0, 0);
+
+    pedMap.permanentlyBlock(10, 10);
+    assertEquals(FlowField.UNREACHABLE, field.getDistance(0, 0), 0);
+
+    pedMap.permanentlyOpen(10, 10);
+    assertEquals(distance, field.getDistance(0, 0), 0.001f);
+  }
+
+  @Test
+  public void resettingTheMapInvalidatesEveryField() {
+    FlowField field = flowFields.getFlowField(5, 5);
+    pedMap.randomizeObstacles();
+
+    assertFalse(field.isValid());
+    assertEquals(0, flowFields.size());
+  }
+
+  /** Copies the obstacles of a map onto a new map, which has no listeners. */
+  private static PedestrianTileBasedMap copyOf(PedestrianTileBasedMap original) {
+    PedestrianTileBasedMap copy = new PedestrianTileBasedMap(original.getWidthInTiles(), original.getHeightInTiles());
+    for (int x = 0; x < original.getWidthInTiles(); x++) {
+      for (int y = 0; y < original.getHeightInTiles(); y++) {
+        if (original.blocked(null, x, y)) {
+          copy.permanentlyBlock(x, y);
+        }
+      }
+    }
+
+    return copy;
+  }
+
+}
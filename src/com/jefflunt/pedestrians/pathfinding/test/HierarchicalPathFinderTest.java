@@ -0,0 +1,80 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.Path;
+
+import com.jefflunt.pedestrians.pathfinding.HierarchicalPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class HierarchicalPathFinderTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private HierarchicalPathFinder pathFinder;
+  
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(64, 64);
+    pathFinder = new HierarchicalPathFinder(pedMap, Integer.MAX_VALUE, 8);
+  }
+  
+  @Test
+  public void aPathAcrossManyClustersIsAConnectedChainOfOpenTiles() {
+    Path path = pathFinder.findPath(null, 1, 2, 60, 61);
+    assertPathIsValid(path, 1, 2, 60, 61);
+  }
+  
+  @Test
+  public void aPathWithinOneClusterDoesNotLeaveIt() {
+    Path path = pathFinder.findPath(null, 1, 1, 5, 6);
+    assertPathIsValid(path, 1, 1, 5, 6);
+    
+    for (int i = 0; i < path.getLength(); i++) {
+      assertTrue(path.getX(i) < 8);
+      assertTrue(path.getY(i) < 8);
+    }
+  }
+  
+  @Test
+  public void blockingATileOnAClusterBorderIsPickedUpByTheNextSearch() {
+    // a wall down the middle, with a single gap on a cluster border
+    for (int y = 0; y < 64; y++) {
+      if (y != 40) {
+        pedMap.permanentlyBlock(32, y);
+      }
+    }
+    Path path = pathFinder.findPath(null, 5, 5, 60, 5);
+    assertPathIsValid(path, 5, 5, 60, 5);
+    
+    pedMap.permanentlyBlock(32, 40);
+    assertNull(pathFinder.findPath(null, 5, 5, 60, 5));
+    
+    pedMap.permanentlyOpen(32, 10);
+    path = pathFinder.findPath(null, 5, 5, 60, 5);
+    assertPathIsValid(path, 5, 5, 60, 5);
+  }
+  
+  @Test
+  public void aBlockedTargetHasNoPath() {
+    pedMap.permanentlyBlock(50, 50);
+    assertNull(pathFinder.findPath(null, 1, 1, 50, 50));
+  }
+  
+  /** Asserts that a path runs from (sx, sy) to (tx, ty), in single steps, over open tiles only. */
+  private void assertPathIsValid(Path path, int sx, int sy, int tx, int ty) {
+    assertNotNull(path);
+    assertEquals(sx, path.getX(0));
+    assertEquals(sy, path.getY(0));
+    assertEquals(tx, path.getX(path.getLength()-1));
+    assertEquals(ty, path.getY(path.getLength()-1));
+    
+    for (int i = 1; i < path.getLength(); i++) {
+      assertTrue(Math.abs(path.getX(i) - path.getX(i-1)) <= 1);
+      assertTrue(Math.abs(path.getY(i) - path.getY(i-1)) <= 1);
+      assertFalse(pedMap.blocked(null, path.getX(i), path.getY(i)));
+    }
+  }
+  
+}
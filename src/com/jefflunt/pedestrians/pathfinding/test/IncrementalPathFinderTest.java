@@ -0,0 +1,210 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.Path;
+
+import com.jefflunt.pedestrians.pathfinding.FlowField;
+import com.jefflunt.pedestrians.pathfinding.FlowFieldCache;
+import com.jefflunt.pedestrians.pathfinding.IncrementalPathFinder;
+import com.jefflunt.pedestrians.pathfinding.JumpPointPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class IncrementalPathFinderTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private IncrementalPathFinder pathFinder;
+  private FlowFieldCache flowFields;
+
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(40, 40);
+    pathFinder = new IncrementalPathFinder(pedMap, 100000, 4);
+    // flow fields measure the same obstacle-only distances, and are repaired in a completely different way
+    flowFields = new FlowFieldCache(pedMap, 1024*1024);
+  }
+
+  /** Gets the length of a path, checking that every step is allowed on the map. */
+  private float lengthOf(Path path) {
+    float length = 0;
+    for (int i = 1; i < path.getLength(); i++) {
+      int dx = Math.abs(path.getX(i) - path.getX(i-1));
+      int dy = Math.abs(path.getY(i) - path.getY(i-1));
+      assertTrue((dx <= 1) && (dy <= 1) && ((dx + dy) > 0));
+      assertFalse(pedMap.blocked(null, path.getX(i), path.getY(i)));
+      if ((dx == 1) && (dy == 1)) {
+        assertFalse(pedMap.diagonallyBlocked(null, path.getX(i-1), path.getY(i-1), path.getX(i), path.getY(i)));
+        length += (float) Math.sqrt(2);
+      } else {
+        length += 1;
+      }
+    }
+    return length;
+  }
+
+  /** Checks that a path from (sx, sy) to (tx, ty) is found if and only if one exists, and that it is as short as possible. */
+  private void assertShortestPath(int sx, int sy, int tx, int ty) {
+    Path path = pathFinder.findPath(null, sx, sy, tx, ty);
+    float shortest = flowFields.getFlowField(tx, ty).getDistance(sx, sy);
+
+    if (pedMap.blocked(null, sx, sy)) {
+      // flow fields give blocked tiles no distance at all, so there's nothing to compare with
+      return;
+    }
+    if (shortest == FlowField.UNREACHABLE) {
+      assertNull(path);
+      return;
+    }
+
+    assertNotNull(path);
+    assertEquals(sx, path.getX(0));
+    assertEquals(sy, path.getY(0));
+    assertEquals(tx, path.getX(path.getLength()-1));
+    assertEquals(ty, path.getY(path.getLength()-1));
+    assertEquals(shortest, lengthOf(path), 0.01f);
+  }
+
+  @Test
+  public void findsTheShortestPathAroundAWall() {
+    for (int y = 0; y < 35; y++) {
+      pedMap.permanentlyBlock(20, y);
+    }
+
+    assertShortestPath(5, 5, 35, 5);
+  }
+
+  @Test
+  public void anUnreachableGoalHasNoPath() {
+    for (int y = 0; y < 40; y++) {
+      pedMap.permanentlyBlock(20, y);
+    }
+
+    assertNull(pathFinder.findPath(null, 5, 5, 35, 5));
+    assertNull(pathFinder.findPath(null, 5, 5, 20, 5));
+  }
+
+  @Test
+  public void pathsStayShortestAsTheMapIsEditedAndTheStartMoves() {
+    Random random = new Random(11);
+
+    for (int round = 0; round < 60; round++) {
+      for (int edit = 0; edit < 10; edit++) {
+        int x = random.nextInt(40);
+        int y = random.nextInt(40);
+        if ((x == 30) && (y == 30)) {
+          continue;
+        }
+        if (random.nextInt(3) == 0) {
+          pedMap.permanentlyOpen(x, y);
+        } else {
+          pedMap.permanentlyBlock(x, y);
+        }
+      }
+
+      assertShortestPath(random.nextInt(40), random.nextInt(40), 30, 30);
+    }
+  }
+
+  @Test
+  public void replanningAfterAnEditIsMuchCheaperThanAFreshSearch() {
+    // a comb of walls, so that the search has to explore most of the map
+    for (int x = 5; x < 40; x += 5) {
+      for (int y = 0; y < 36; y++) {
+        pedMap.permanentlyBlock(x, (((x/5) % 2) == 0) ? y : (39 - y));
+      }
+    }
+
+    Path path = pathFinder.findPath(null, 2, 2, 37, 37);
+    long before = pathFinder.getExpansions();
+    pedMap.permanentlyBlock(path.getX(path.getLength()/2), path.getY(path.getLength()/2));
+    pathFinder.findPath(null, 2, 2, 37, 37);
+    long replan = pathFinder.getExpansions() - before;
+
+    IncrementalPathFinder freshPathFinder = new IncrementalPathFinder(pedMap, 100000, 4);
+    freshPathFinder.findPath(null, 2, 2, 37, 37);
+    long freshSearch = freshPathFinder.getExpansions();
+
+    assertTrue("replan took " + replan + " expansions, a fresh search took " + freshSearch, (replan*4) < freshSearch);
+    assertShortestPath(2, 2, 37, 37);
+  }
+
+  @Test
+  public void aPedestrianStandingOnABlockedTileCanWalkOut() {
+    pedMap.permanentlyBlock(10, 10);
+
+    Path path = pathFinder.findPath(null, 10, 10, 20, 20);
+    assertNotNull(path);
+    assertEquals(20, path.getX(path.getLength()-1));
+  }
+
+  @Test
+  public void onlyTheMostRecentlyUsedGoalsAreKept() {
+    for (int i = 0; i < 6; i++) {
+      pathFinder.findPath(null, 0, 0, 10 + i, 10);
+    }
+
+    assertEquals(4, pathFinder.getNumberOfGoals());
+
+    pedMap.randomizeObstacles();
+    assertEquals(0, pathFinder.getNumberOfGoals());
+  }
+
+  @Test
+  public void treesBuiltFromThrownAwayOnesStayShortest() {
+    Random random = new Random(5);
+    for (int i = 0; i < 300; i++) {
+      pedMap.permanentlyBlock(random.nextInt(40), random.nextInt(40));
+    }
+
+    // more goals than there's room for, so most trees are built from the chunks of ones that were thrown away
+    for (int round = 0; round < 30; round++) {
+      int tx = 5 + (5*(round % 7));
+      pedMap.permanentlyOpen(tx, 35);
+      pedMap.permanentlyBlock(random.nextInt(40), random.nextInt(20));
+      assertShortestPath(random.nextInt(40), random.nextInt(40), tx, 35);
+    }
+  }
+
+  @Test
+  public void theFallbackIsUsedForTheFirstRequestForAGoal() {
+    for (int y = 0; y < 35; y++) {
+      pedMap.permanentlyBlock(20, y);
+    }
+    pathFinder = new IncrementalPathFinder(pedMap, 100000, 4, new JumpPointPathFinder(pedMap, 100000, 1, 1));
+
+    assertShortestPath(5, 5, 35, 5);
+    assertEquals(0, pathFinder.getNumberOfGoals());
+    assertEquals(0, pathFinder.getExpansions());
+
+    assertShortestPath(6, 5, 35, 5);
+    assertEquals(1, pathFinder.getNumberOfGoals());
+    assertTrue(pathFinder.getExpansions() > 0);
+  }
+
+  @Test
+  public void aSearchThatRunsOutOfExpansionsIsToldApartFromAnUnreachableGoal() {
+    for (int y = 0; y < 40; y++) {
+      pedMap.permanentlyBlock(20, y);
+    }
+    pathFinder = new IncrementalPathFinder(pedMap, 50, 4);
+
+    assertNull(pathFinder.findPath(null, 5, 5, 35, 5));
+    assertFalse(pathFinder.ranOutOfExpansions());
+
+    assertNull(pathFinder.findPath(null, 2, 2, 15, 37));
+    assertTrue(pathFinder.ranOutOfExpansions());
+
+    // the tree carries on from where it stopped, so asking again gets there
+    Path path = null;
+    for (int i = 0; (i < 100) && (path == null); i++) {
+      path = pathFinder.findPath(null, 2, 2, 15, 37);
+    }
+    assertNotNull(path);
+    assertFalse(pathFinder.ranOutOfExpansions());
+  }
+
+}
@@ -0,0 +1,103 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.Path;
+
+import com.jefflunt.pedestrians.pathfinding.JumpPointPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+import com.jefflunt.pedestrians.pathfinding.TileStorage;
+
+public class JumpPointPathFinderTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private JumpPointPathFinder pathFinder;
+  
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(30, 30);
+    pathFinder = new JumpPointPathFinder(pedMap, 1000, 1.0f, 1.0f);
+  }
+  
+  @Test
+  public void aStraightLinePathIncludesEveryTileAlongTheWay() {
+    Path path = pathFinder.findPath(null, 2, 5, 12, 5);
+    
+    assertNotNull(path);
+    assertEquals(11, path.getLength());
+    for (int i = 0; i < path.getLength(); i++) {
+      assertEquals(2+i, path.getX(i));
+      assertEquals(5,   path.getY(i));
+    }
+  }
+  
+  @Test
+  public void everyStepOfAPathAroundObstaclesIsASingleOpenTile() {
+    for (int y = 0; y < 25; y++) {
+      pedMap.permanentlyBlock(15, y);
+    }
+    for (int x = 5; x < 15; x++) {
+      pedMap.permanentlyBlock(x, 25);
+    }
+    
+    Path path = pathFinder.findPath(null, 10, 10, 20, 10);
+    assertNotNull(path);
+    assertEquals(10, path.getX(0));
+    assertEquals(10, path.getY(0));
+    assertEquals(20, path.getX(path.getLength()-1));
+    assertEquals(10, path.getY(path.getLength()-1));
+    
+    for (int i = 1; i < path.getLength(); i++) {
+      assertTrue(Math.abs(path.getX(i) - path.getX(i-1)) <= 1);
+      assertTrue(Math.abs(path.getY(i) - path.getY(i-1)) <= 1);
+      assertFalse(pedMap.blocked(null, path.getX(i), path.getY(i)));
+    }
+  }
+  
+  @Test
+  public void diagonalStepsBetweenTwoBlockedTilesAreNotTaken() {
+    pedMap.permanentlyBlock(5, 4);
+    pedMap.permanentlyBlock(4, 5);
+    for (int x = 0; x < 30; x++) {
+      if (x != 4 && x != 5) {
+        pedMap.permanentlyBlock(x, 4);
+        pedMap.permanentlyBlock(x, 5);
+      }
+    }
+    
+    assertNull(pathFinder.findPath(null, 4, 3, 5, 6));
+  }
+  
+  @Test
+  public void aSearchAcrossACrowdedMapIsHandedToPlainAStar() {
+    TileStorage tiles = pedMap.getTileStorage();
+    for (int x = 0; x < 30; x += 3) {
+      for (int y = 0; y < 30; y += 3) {
+        tiles.addOccupant(tiles.indexOf(x, y));
+      }
+    }
+    pedMap.updateCongestion(0);
+    
+    Path expected = new PedestrianPathFinder(pedMap, 1000, true).findPath(null, 2, 2, 25, 20);
+    Path path = pathFinder.findPath(null, 2, 2, 25, 20);
+    
+    assertEquals(expected.getLength(), path.getLength());
+    for (int i = 0; i < path.getLength(); i++) {
+      assertEquals(expected.getX(i), path.getX(i));
+      assertEquals(expected.getY(i), path.getY(i));
+    }
+  }
+  
+  @Test
+  public void anUnreachableTargetHasNoPath() {
+    for (int x = 0; x < 30; x++) {
+      pedMap.permanentlyBlock(x, 15);
+    }
+    
+    assertNull(pathFinder.findPath(null, 3, 3, 20, 20));
+  }
+  
+}
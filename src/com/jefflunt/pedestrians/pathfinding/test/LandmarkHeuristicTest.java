@@ -0,0 +1,176 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.PathFindingContext;
+
+import com.jefflunt.pedestrians.pathfinding.LandmarkHeuristic;
+import com.jefflunt.pedestrians.pathfinding.PedestrianPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class LandmarkHeuristicTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private LandmarkHeuristic landmarks;
+  private File tableFile;
+
+  @Before
+  public void setUp() throws IOException {
+    // every step costs the same, so that the number of tiles expanded doesn't depend on how long ago the map was made
+    pedMap = new PedestrianTileBasedMap(40, 40) {
+      @Override
+      public float getCost(PathFindingContext context, int x, int y) {
+        return 1;
+      }
+    };
+    buildComb();
+    landmarks = new LandmarkHeuristic(pedMap, 6, null);
+    tableFile = File.createTempFile("landmarks", ".tables");
+    tableFile.delete();
+  }
+
+  @After
+  public void tearDown() {
+    landmarks.shutdown();
+    tableFile.delete();
+  }
+
+  /** A comb of walls, so that the way from one side of the map to the other winds back and forth. */
+  private void buildComb() {
+    for (int x = 5; x < 40; x += 5) {
+      for (int y = 0; y < 36; y++) {
+        pedMap.permanentlyBlock(x, (((x/5) % 2) == 0) ? y : (39 - y));
+      }
+    }
+  }
+
+  /** Counts the fewest steps from one tile to another, straight and diagonal steps alike, or -1 if there's no way there. */
+  private int stepsBetween(int sx, int sy, int tx, int ty) {
+    int width = pedMap.getWidthInTiles();
+    int[] steps = new int[width*pedMap.getHeightInTiles()];
+    Arrays.fill(steps, -1);
+    int[] queue = new int[steps.length];
+    int head = 0;
+    int tail = 0;
+    steps[(sy*width) + sx] = 0;
+    queue[tail++] = (sy*width) + sx;
+
+    while (head < tail) {
+      int current = queue[head++];
+      int cx = current % width;
+      int cy = current / width;
+      for (int dx = -1; dx <= 1; dx++) {
+        for (int dy = -1; dy <= 1; dy++) {
+          int nx = cx + dx;
+          int ny = cy + dy;
+          if (pedMap.blocked(null, nx, ny) || (steps[(ny*width) + nx] >= 0) ||
+              ((dx != 0) && (dy != 0) && pedMap.diagonallyBlocked(null, cx, cy, nx, ny))) {
+            continue;
+          }
+          steps[(ny*width) + nx] = steps[current] + 1;
+          queue[tail++] = (ny*width) + nx;
+        }
+      }
+    }
+
+    return steps[(ty*width) + tx];
+  }
+
+  /** Counts the tiles A* expands finding a path. */
+  private int expansionsFor(PedestrianPathFinder pathFinder, int sx, int sy, int tx, int ty) {
+    pathFinder.startSearch(null, sx, sy, tx, ty);
+    int expansions = 0;
+    while (pathFinder.step(1) == PedestrianPathFinder.SEARCH_IN_PROGRESS) {
+      expansions++;
+    }
+    assertNotNull(pathFinder.getPath());
+    return expansions;
+  }
+
+  @Test
+  public void theBoundNeverOverestimatesTheSteps() throws InterruptedException {
+    assertTrue(landmarks.awaitUpToDate(5000));
+    assertEquals(6, landmarks.getNumberOfLandmarks());
+
+    Random random = new Random(5);
+    boolean tighterThanStraightLine = false;
+    for (int i = 0; i < 300; i++) {
+      int sx = random.nextInt(40);
+      int sy = random.nextInt(40);
+      int tx = random.nextInt(40);
+      int ty = random.nextInt(40);
+      int steps = stepsBetween(sx, sy, tx, ty);
+      if (pedMap.blocked(null, sx, sy) || (steps < 0)) {
+        continue;
+      }
+
+      float bound = landmarks.getCost(pedMap, null, sx, sy, tx, ty);
+      assertTrue(bound <= steps);
+      tighterThanStraightLine |= (bound > Math.max(Math.abs(tx - sx), Math.abs(ty - sy)));
+    }
+    assertTrue(tighterThanStraightLine);
+  }
+
+  @Test
+  public void landmarksGuideAStarThroughTheCombWithFarFewerExpansions() throws InterruptedException {
+    assertTrue(landmarks.awaitUpToDate(5000));
+
+    int straightLine = expansionsFor(new PedestrianPathFinder(pedMap, 100000, true), 2, 2, 37, 37);
+    int withLandmarks = expansionsFor(new PedestrianPathFinder(pedMap, 100000, true, landmarks), 2, 2, 37, 37);
+
+    assertTrue("straight line: " + straightLine + ", landmarks: " + withLandmarks, (withLandmarks*2) < straightLine);
+  }
+
+  @Test
+  public void tablesAreRebuiltInTheBackgroundAfterAnEdit() throws InterruptedException {
+    assertTrue(landmarks.awaitUpToDate(5000));
+    long rebuilds = landmarks.getRebuilds();
+
+    pedMap.permanentlyBlock(2, 2);
+    assertFalse(landmarks.isUpToDate());
+
+    assertTrue(landmarks.awaitUpToDate(5000));
+    assertTrue(landmarks.getRebuilds() > rebuilds);
+  }
+
+  @Test
+  public void staleTablesAreIgnoredOnceATileIsOpened() throws InterruptedException {
+    assertTrue(landmarks.awaitUpToDate(5000));
+
+    // a gap in the second wall, right between the two tiles, makes the way from one to the other much shorter - whether the new tables
+    // have been built yet or not, the bound mustn't be any more than that
+    assertTrue(landmarks.getCost(pedMap, null, 9, 2, 11, 2) > 10);
+    pedMap.permanentlyOpen(10, 2);
+    assertEquals(2, landmarks.getCost(pedMap, null, 9, 2, 11, 2), 0);
+  }
+
+  @Test
+  public void savedTablesAreLoadedForTheSameMapOnly() throws InterruptedException {
+    LandmarkHeuristic saving = new LandmarkHeuristic(pedMap, 6, tableFile.getPath());
+    assertTrue(saving.awaitUpToDate(5000));
+    saving.shutdown();
+    assertTrue(tableFile.exists());
+    assertFalse(new File(tableFile.getPath() + ".tmp").exists());
+
+    LandmarkHeuristic loaded = new LandmarkHeuristic(pedMap, 6, tableFile.getPath());
+    loaded.shutdown();
+    assertTrue(loaded.isUpToDate());
+    assertEquals(0, loaded.getRebuilds());
+    assertEquals(saving.getCost(pedMap, null, 2, 2, 37, 37), loaded.getCost(pedMap, null, 2, 2, 37, 37), 0);
+
+    pedMap.permanentlyBlock(2, 2);
+    LandmarkHeuristic mismatched = new LandmarkHeuristic(pedMap, 6, tableFile.getPath());
+    mismatched.shutdown();
+    // the background thread may or may not have rebuilt the tables before it was shut down, but they weren't loaded from the file
+    assertTrue(!mismatched.isUpToDate() || (mismatched.getRebuilds() > 0));
+  }
+
+}
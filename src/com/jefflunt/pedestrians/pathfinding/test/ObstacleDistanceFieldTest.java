@@ -0,0 +1,148 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.pathfinding.ObstacleDistanceField;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class ObstacleDistanceFieldTest {
+
+  private PedestrianTileBasedMap pedMap;
+
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(60, 40);
+  }
+
+  /** Finds the distance from a tile to the nearest blocked tile (or the edge) the slow way, by looking at every one. */
+  private float bruteForceDistance(int x, int y) {
+    if (pedMap.blocked(null, x, y)) {
+      return 0;
+    }
+
+    int best = Integer.MAX_VALUE;
+    for (int ox = -1; ox <= pedMap.getWidthInTiles(); ox++) {
+      for (int oy = -1; oy <= pedMap.getHeightInTiles(); oy++) {
+        if (pedMap.blocked(null, ox, oy)) {
+          best = Math.min(best, ((ox - x)*(ox - x)) + ((oy - y)*(oy - y)));
+        }
+      }
+    }
+    return (float) Math.sqrt(best);
+  }
+
+  private void assertMatchesBruteForce(ObstacleDistanceField field) {
+    for (int x = 0; x < pedMap.getWidthInTiles(); x++) {
+      for (int y = 0; y < pedMap.getHeightInTiles(); y++) {
+        float expected = bruteForceDistance(x, y);
+        float actual = field.getDistance(x, y);
+        assertTrue("(" + x + ", " + y + ") is " + actual + " from an obstacle, not " + expected, actual >= expected - 0.0001f);
+        assertTrue("(" + x + ", " + y + ") is " + actual + " from an obstacle, not " + expected, actual <= expected + 0.5f);
+        if (expected <= 3) {
+          assertEquals(expected, actual, 0.0001f);
+        }
+
+        int ox = field.getNearestObstacleX(x, y);
+        int oy = field.getNearestObstacleY(x, y);
+        assertTrue(pedMap.blocked(null, ox, oy));
+        assertEquals(actual, (float) Math.sqrt(((ox - x)*(ox - x)) + ((oy - y)*(oy - y))), 0.0001f);
+      }
+    }
+  }
+
+  @Test
+  public void anEmptyMapIsMeasuredFromItsEdges() {
+    ObstacleDistanceField field = pedMap.getObstacleDistanceField();
+    assertEquals(1, field.getDistance(0, 0), 0.0001f);
+    assertEquals(5, field.getDistance(4, 20), 0.0001f);
+    assertEquals(3, field.getDistance(20, 37), 0.0001f);
+    assertEquals(0, field.getDistance(-1, 20), 0.0001f);
+    assertEquals(-1, field.getNearestObstacleX(0, 10));
+    assertMatchesBruteForce(field);
+  }
+
+  @Test
+  public void theFieldMatchesARandomizedMap() {
+    pedMap.randomizeObstacles();
+    assertMatchesBruteForce(pedMap.getObstacleDistanceField());
+  }
+
+  @Test
+  public void theFieldIsKeptUpToDateAsTilesAreBlockedAndOpened() {
+    pedMap.randomizeObstacles();
+    ObstacleDistanceField field = pedMap.getObstacleDistanceField();
+
+    Random random = new Random(7);
+    for (int edit = 0; edit < 200; edit++) {
+      int x = random.nextInt(pedMap.getWidthInTiles());
+      int y = random.nextInt(pedMap.getHeightInTiles());
+      if (pedMap.blocked(null, x, y)) {
+        pedMap.permanentlyOpen(x, y);
+      } else {
+        pedMap.permanentlyBlock(x, y);
+      }
+      if (edit % 20 == 0) {
+        assertMatchesBruteForce(field);
+      }
+    }
+    assertMatchesBruteForce(field);
+
+    pedMap.randomizeObstacles();
+    assertMatchesBruteForce(field);
+  }
+
+  @Test
+  public void anEditOnlyUpdatesTheTilesAroundIt() {
+    ObstacleDistanceField field = pedMap.getObstacleDistanceField();
+    pedMap.permanentlyBlock(30, 20);
+    long updated = field.getNumberOfUpdatedTiles();
+    assertTrue(updated > 0);
+    assertTrue(updated < pedMap.getWidthInTiles()*pedMap.getHeightInTiles()/4);
+
+    pedMap.permanentlyOpen(30, 20);
+    assertEquals(20, field.getDistance(30, 20), 0.0001f);
+  }
+
+  @Test
+  public void theClearanceAndRepulsionComeFromTheNearestObstacle() {
+    pedMap.permanentlyBlock(30, 20);
+    ObstacleDistanceField field = pedMap.getObstacleDistanceField();
+    float[] direction = new float[2];
+
+    // two tiles to the right of the obstacle, level with its middle
+    float clearance = field.getClearance(32.5f*ConfigValues.TILE_SIZE, 20.5f*ConfigValues.TILE_SIZE, direction);
+    assertEquals(1.5f*ConfigValues.TILE_SIZE, clearance, 0.001f);
+    assertEquals(1, direction[0], 0.001f);
+    assertEquals(0, direction[1], 0.001f);
+
+    // below and to the left, off the obstacle's corner
+    clearance = field.getClearance(29.5f*ConfigValues.TILE_SIZE, 21.5f*ConfigValues.TILE_SIZE, direction);
+    assertEquals((float) Math.sqrt(2)*ConfigValues.TILE_SIZE/2, clearance, 0.001f);
+    assertEquals(-Math.sqrt(0.5), direction[0], 0.001f);
+    assertEquals(Math.sqrt(0.5), direction[1], 0.001f);
+
+    // inside the obstacle
+    assertEquals(0, field.getClearance(30.75f*ConfigValues.TILE_SIZE, 20.5f*ConfigValues.TILE_SIZE, direction), 0.001f);
+    assertEquals(1, direction[0], 0.001f);
+    assertEquals(0, field.getClearance(-5, 100, null), 0.001f);
+  }
+
+  @Test
+  public void clearanceIsOnlyClaimedWellAwayFromObstacles() {
+    pedMap.permanentlyBlock(30, 20);
+    ObstacleDistanceField field = pedMap.getObstacleDistanceField();
+
+    assertFalse(field.hasClearance(31, 20, ConfigValues.TILE_SIZE/2));
+    assertFalse(field.hasClearance(32, 20, ConfigValues.TILE_SIZE/2));
+    assertTrue(field.hasClearance(36, 20, ConfigValues.TILE_SIZE/2));
+    assertFalse(field.hasClearance(1, 20, ConfigValues.TILE_SIZE/2));
+    assertFalse(field.hasClearance(-3, 20, 0));
+  }
+
+}
@@ -0,0 +1,122 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Point;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.pathfinding.OpenTileSampler;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class OpenTileSamplerTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private OpenTileSampler sampler;
+
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(60, 50);
+    sampler = new OpenTileSampler(pedMap, new Random(3));
+  }
+
+  /** Counts the open tiles in a ring the slow way, tile by tile. */
+  private int countByHand(int cx, int cy, int innerRadius, int outerRadius) {
+    int count = 0;
+    for (int x = 0; x < pedMap.getWidthInTiles(); x++) {
+      for (int y = 0; y < pedMap.getHeightInTiles(); y++) {
+        int distanceSquared = ((x - cx)*(x - cx)) + ((y - cy)*(y - cy));
+        if (!pedMap.blocked(null, x, y) && (distanceSquared >= innerRadius*innerRadius) && (distanceSquared <= outerRadius*outerRadius)) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void countsMatchTheMapAsItIsEdited() {
+    Random random = new Random(9);
+    for (int i = 0; i < 1500; i++) {
+      pedMap.permanentlyBlock(random.nextInt(60), random.nextInt(50));
+    }
+    for (int i = 0; i < 300; i++) {
+      pedMap.permanentlyOpen(random.nextInt(60), random.nextInt(50));
+    }
+
+    assertEquals(countByHand(0, 0, 0, 1000), sampler.getNumberOfOpenTiles());
+    assertEquals(countByHand(30, 25, 0, 12), sampler.countOpenTiles(30, 25, 0, 12));
+    assertEquals(countByHand(30, 25, 5, 12), sampler.countOpenTiles(30, 25, 5, 12));
+    assertEquals(countByHand(2, 47, 3, 20), sampler.countOpenTiles(2, 47, 3, 20));
+    assertEquals(0, sampler.countOpenTiles(30, 25, 13, 12));
+  }
+
+  @Test
+  public void samplesAreOpenAndInsideTheRing() {
+    for (int i = 0; i < 2000; i++) {
+      pedMap.permanentlyBlock((i*7) % 60, (i*13) % 50);
+    }
+
+    for (int i = 0; i < 2000; i++) {
+      Point tile = sampler.sampleInRing(20, 20, 4, 9);
+      int distanceSquared = ((tile.x - 20)*(tile.x - 20)) + ((tile.y - 20)*(tile.y - 20));
+
+      assertFalse(pedMap.blocked(null, tile.x, tile.y));
+      assertTrue((distanceSquared >= 16) && (distanceSquared <= 81));
+    }
+  }
+
+  @Test
+  public void everyOpenTileInTheRingIsEquallyLikely() {
+    // only three tiles of the disc are left open
+    for (int x = 0; x < 10; x++) {
+      for (int y = 0; y < 10; y++) {
+        pedMap.permanentlyBlock(x, y);
+      }
+    }
+    pedMap.permanentlyOpen(1, 1);
+    pedMap.permanentlyOpen(5, 4);
+    pedMap.permanentlyOpen(8, 2);
+
+    int[] hits = new int[3];
+    for (int i = 0; i < 3000; i++) {
+      Point tile = sampler.sampleInRing(4, 4, 0, 5);
+      hits[(tile.x == 1) ? 0 : ((tile.x == 5) ? 1 : 2)]++;
+    }
+
+    for (int count : hits) {
+      assertTrue(count > 850);
+    }
+  }
+
+  @Test
+  public void anEmptyRingOrAFullyBlockedMapGivesNull() {
+    for (int x = 0; x < 60; x++) {
+      pedMap.permanentlyBlock(x, 10);
+    }
+    assertNull(sampler.sampleInRing(30, 10, 0, 0));
+
+    for (int x = 0; x < 60; x++) {
+      for (int y = 0; y < 50; y++) {
+        pedMap.permanentlyBlock(x, y);
+      }
+    }
+    assertNull(sampler.sample());
+    assertNull(pedMap.getRandomOpenTile());
+  }
+
+  @Test
+  public void reachableSamplesStayOnTheSameSideOfAWall() {
+    for (int y = 0; y < 50; y++) {
+      pedMap.permanentlyBlock(30, y);
+    }
+
+    for (int i = 0; i < 200; i++) {
+      Point tile = sampler.sampleReachableInRing(28, 25, 0, 10);
+      assertTrue(tile.x < 30);
+    }
+  }
+
+}
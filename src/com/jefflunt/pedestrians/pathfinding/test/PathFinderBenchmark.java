@@ -0,0 +1,141 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import java.util.Random;
+
+import org.newdawn.slick.util.pathfinding.AStarPathFinder;
+import org.newdawn.slick.util.pathfinding.PathFinder;
+import org.newdawn.slick.util.pathfinding.PathFindingContext;
+
+import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.pathfinding.ExtendedTileBasedMap;
+import com.jefflunt.pedestrians.pathfinding.GridLine;
+import com.jefflunt.pedestrians.pathfinding.JumpPointPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+/** A small, stand-alone benchmark that compares the throughput of the PedestrianPathFinder against the one it replaced
+ * (LinkedListPathFinder, which keeps its open list in a sorted LinkedList) and Slick's stock AStarPathFinder, which does the same. Every finder
+ * searches the same randomized map, for the same random (source, target) pairs, and the number of node expansions per second is reported for
+ * each. The JumpPointPathFinder is run over the same queries, to show how many expansions it avoids, and what that costs.
+ * 
+ * Before anything is timed, the congestion of the map is left to settle, as it does in the sim when nobody's around. Until then every tile
+ * costs nothing to enter, so the cost so far never grows, the searches are greedy, and the open list never gets big enough to matter.
+ * The queries are drawn between tiles that can reach each other, so that every search is a real one.
+ * 
+ * Run it with: java com.jefflunt.pedestrians.pathfinding.test.PathFinderBenchmark [mapSize] [searches]
+ */
+public class PathFinderBenchmark {
+
+  /** The number of congestion calculations run before timing, for the congestion of every tile to settle. */
+  private static final int SETTLING_CALCULATIONS = 30;
+
+  public static void main(String[] args) {
+    int mapSize  = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+    int searches = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+    
+    PedestrianTileBasedMap tileMap = new PedestrianTileBasedMap(mapSize, mapSize);
+    tileMap.randomizeObstacles();
+    // each calculation halves the distance to the congestion of an empty tile, so this is as good as settled
+    for (int i = 0; i < SETTLING_CALCULATIONS; i++) {
+      tileMap.updateCongestion(i*ConfigValues.millisBetweenCongestionCalculations);
+    }
+    CountingMap countingMap = new CountingMap(tileMap);
+    
+    int[][] queries = new int[searches][];
+    Random random = new Random(42);
+    for (int i = 0; i < searches; i++) {
+      int[] q;
+      do {
+        q = new int[] {random.nextInt(mapSize), random.nextInt(mapSize), random.nextInt(mapSize), random.nextInt(mapSize)};
+      } while (tileMap.blocked(null, q[0], q[1]) || !tileMap.reachable(null, q[0], q[1], q[2], q[3]));
+      queries[i] = q;
+    }
+    
+    PathFinder heapFinder = new PedestrianPathFinder(countingMap, ConfigValues.pathFindingMaxSearchDepth, true);
+    PathFinder listFinder = new LinkedListPathFinder(countingMap, ConfigValues.pathFindingMaxSearchDepth, true);
+    PathFinder slickFinder = new AStarPathFinder(countingMap, ConfigValues.pathFindingMaxSearchDepth, true);
+    PathFinder jumpFinder = new JumpPointPathFinder(countingMap, ConfigValues.pathFindingMaxSearchDepth);
+    
+    // one pass each to warm up the JIT, then the timed runs
+    run("binary heap (warm-up)", heapFinder, countingMap, queries);
+    run("linked list (warm-up)", listFinder, countingMap, queries);
+    run("slick A* (warm-up)", slickFinder, countingMap, queries);
+    run("jump point (warm-up)", jumpFinder, countingMap, queries);
+    run("binary heap", heapFinder, countingMap, queries);
+    run("linked list", listFinder, countingMap, queries);
+    run("slick A*", slickFinder, countingMap, queries);
+    run("jump point", jumpFinder, countingMap, queries);
+  }
+  
+  /** Runs every query through the given path finder, and prints the expansion rate. */
+  private static void run(String label, PathFinder finder, CountingMap countingMap, int[][] queries) {
+    countingMap.visits = 0;
+    int pathsFound = 0;
+    
+    long start = System.nanoTime();
+    for (int[] q : queries) {
+      if (finder.findPath(null, q[0], q[1], q[2], q[3]) != null) {
+        pathsFound++;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    
+    double seconds = elapsed / 1000000000.0;
+    System.out.println(String.format("%-22s %8d searches  %6d paths  %10d expansions  %8.1f ms  %12.0f expansions/s  %10.0f searches/s",
+        label, queries.length, pathsFound, countingMap.visits, elapsed / 1000000.0, countingMap.visits / seconds, queries.length / seconds));
+  }
+  
+  /** A pass-through map that counts how many nodes the path finders visit, via the pathFinderVisited callback. */
+  private static class CountingMap implements ExtendedTileBasedMap {
+    private ExtendedTileBasedMap map;
+    private long visits;
+    
+    public CountingMap(ExtendedTileBasedMap map) {
+      this.map = map;
+    }
+
+    public int getWidthInTiles() {
+      return map.getWidthInTiles();
+    }
+
+    public int getHeightInTiles() {
+      return map.getHeightInTiles();
+    }
+
+    public void pathFinderVisited(int x, int y) {
+      visits++;
+    }
+
+    public boolean blocked(PathFindingContext context, int tx, int ty) {
+      return map.blocked(context, tx, ty);
+    }
+
+    public float getCost(PathFindingContext context, int tx, int ty) {
+      return map.getCost(context, tx, ty);
+    }
+
+    public boolean diagonallyBlocked(PathFindingContext context, int currentX, int currentY, int evalX, int evalY) {
+      return map.diagonallyBlocked(context, currentX, currentY, evalX, evalY);
+    }
+
+    public boolean reachable(PathFindingContext context, int sx, int sy, int tx, int ty) {
+      return map.reachable(context, sx, sy, tx, ty);
+    }
+    
+    @Override
+    public boolean hasLineOfSight(PathFindingContext context, int x0, int y0, int x1, int y1) {
+      return map.hasLineOfSight(context, x0, y0, x1, y1);
+    }
+    
+    @Override
+    public boolean hasLineOfSight(PathFindingContext context, int x0, int y0, int x1, int y1, GridLine line) {
+      return map.hasLineOfSight(context, x0, y0, x1, y1, line);
+    }
+    
+    @Override
+    public float getHighestCost(PathFindingContext context, int x0, int y0, int x1, int y1) {
+      return map.getHighestCost(context, x0, y0, x1, y1);
+    }
+  }
+  
+}
@@ -0,0 +1,134 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.Path;
+import org.newdawn.slick.util.pathfinding.PathFinder;
+
+import com.jefflunt.pedestrians.pathfinding.PathFinderFactory;
+import com.jefflunt.pedestrians.pathfinding.PathRequest;
+import com.jefflunt.pedestrians.pathfinding.PathRequestService;
+import com.jefflunt.pedestrians.pathfinding.PedestrianPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class PathRequestServiceTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private PathRequestService service;
+  private int pathFindersCreated;
+
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(40, 40);
+    service = new PathRequestService(pedMap, new PathFinderFactory() {
+      @Override
+      public PathFinder createPathFinder() {
+        pathFindersCreated++;
+        return new PedestrianPathFinder(pedMap, 1000, true);
+      }
+    }, 3);
+  }
+
+  @After
+  public void tearDown() {
+    service.shutdown();
+  }
+
+  /** Collects completed requests until the given number have come back, or fails after a few seconds. */
+  private HashSet<PathRequest> collect(int count) throws InterruptedException {
+    HashSet<PathRequest> collected = new HashSet<PathRequest>();
+    long giveUpAt = System.currentTimeMillis() + 5000;
+
+    while (collected.size() < count) {
+      PathRequest request = service.pollCompleted();
+      if (request != null) {
+        collected.add(request);
+      } else if (System.currentTimeMillis() > giveUpAt) {
+        fail("Only " + collected.size() + " of " + count + " requests completed");
+      } else {
+        Thread.sleep(1);
+      }
+    }
+
+    return collected;
+  }
+
+  @Test
+  public void eachWorkerGetsItsOwnPathFinder() {
+    assertEquals(3, pathFindersCreated);
+    assertEquals(3, service.getNumberOfThreads());
+  }
+
+  @Test
+  public void everySubmittedRequestIsCompletedAndCollectedOnce() throws InterruptedException {
+    HashSet<PathRequest> submitted = new HashSet<PathRequest>();
+    for (int i = 0; i < 50; i++) {
+      submitted.add(service.submit(null, i % 40, 0, 39 - (i % 40), 39));
+    }
+
+    assertEquals(submitted, collect(50));
+    assertNull(service.pollCompleted());
+    assertEquals(0, service.getOutstandingRequests());
+    assertEquals(50, service.getCompletedRequests());
+
+    for (PathRequest request : submitted) {
+      assertTrue(request.isComplete());
+      assertTrue(request.getLatencyNanos() >= 0);
+
+      Path path = request.getPath();
+      assertNotNull(path);
+      assertEquals(request.getStartX(), path.getX(0));
+      assertEquals(request.getStartY(), path.getY(0));
+      assertEquals(request.getTargetX(), path.getX(path.getLength()-1));
+      assertEquals(request.getTargetY(), path.getY(path.getLength()-1));
+    }
+
+    assertTrue(service.getMaxLatencyMillis() >= service.getAverageLatencyMillis());
+  }
+
+  @Test
+  public void anUnreachableTargetCompletesWithNoPath() throws InterruptedException {
+    for (int x = 0; x < 40; x++) {
+      pedMap.permanentlyBlock(x, 20);
+    }
+
+    PathRequest request = service.submit(null, 5, 5, 5, 35);
+    collect(1);
+
+    assertTrue(request.isComplete());
+    assertNull(request.getPath());
+  }
+
+  @Test
+  public void editingTheMapWhileSearchesAreRunningIsSafe() throws InterruptedException {
+    for (int i = 0; i < 200; i++) {
+      service.submit(null, 0, 0, 39, 39);
+      if ((i % 2) == 0) {
+        pedMap.permanentlyBlock(20, i % 40);
+      } else {
+        pedMap.permanentlyOpen(20, (i-1) % 40);
+      }
+    }
+
+    for (PathRequest request : collect(200)) {
+      assertNotNull(request.getPath());
+    }
+  }
+
+  @Test(expected=IllegalStateException.class)
+  public void requestsCannotBeSubmittedAfterShutdown() {
+    service.shutdown();
+    service.submit(null, 0, 0, 1, 1);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void aServiceNeedsAtLeastOneThread() {
+    new PathRequestService(pedMap, null, 0);
+  }
+
+}
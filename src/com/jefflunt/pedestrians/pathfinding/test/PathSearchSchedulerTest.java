@@ -0,0 +1,107 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.Path;
+
+import com.jefflunt.pedestrians.pathfinding.PathRequest;
+import com.jefflunt.pedestrians.pathfinding.PathSearchScheduler;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class PathSearchSchedulerTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private PathSearchScheduler scheduler;
+
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(60, 60);
+    scheduler = new PathSearchScheduler(pedMap, 10000, 2);
+  }
+
+  /** Runs the scheduler a zero-length tick at a time (i.e. one slice per tick) until nothing is left, and returns the number of ticks taken. */
+  private int runToCompletion() {
+    int ticks = 0;
+    while ((scheduler.getPendingSearches() > 0) || (scheduler.getActiveSearches() > 0)) {
+      scheduler.run(0);
+      assertTrue(++ticks < 100000);
+    }
+    return ticks;
+  }
+
+  @Test
+  public void aLongSearchIsSpreadAcrossSeveralTicks() {
+    for (int y = 0; y < 55; y++) {
+      pedMap.permanentlyBlock(30, y);
+    }
+
+    PathRequest request = scheduler.submit(null, 2, 2, 58, 2, 0);
+    scheduler.run(0);
+    assertFalse(request.isComplete());
+    assertNull(scheduler.pollCompleted());
+
+    assertTrue(runToCompletion() > 1);
+    assertSame(request, scheduler.pollCompleted());
+
+    Path path = request.getPath();
+    assertNotNull(path);
+    assertEquals(58, path.getX(path.getLength()-1));
+  }
+
+  @Test
+  public void higherPrioritiesAreFinishedFirst() {
+    PathRequest low1 = scheduler.submit(null, 0, 0, 59, 59, 0);
+    PathRequest low2 = scheduler.submit(null, 0, 59, 59, 0, 0);
+    PathRequest high = scheduler.submit(null, 59, 59, 0, 0, 5);
+    PathRequest low3 = scheduler.submit(null, 59, 0, 0, 59, 0);
+
+    runToCompletion();
+
+    assertSame(high, scheduler.pollCompleted());
+    assertSame(low1, scheduler.pollCompleted());
+    assertSame(low2, scheduler.pollCompleted());
+    assertSame(low3, scheduler.pollCompleted());
+    assertNull(scheduler.pollCompleted());
+  }
+
+  @Test
+  public void aSearchWhosePathIsCutPartWayThroughIsStartedAgain() {
+    for (int y = 5; y < 60; y++) {
+      pedMap.permanentlyBlock(30, y);
+    }
+    PathRequest request = scheduler.submit(null, 0, 30, 59, 30, 0);
+    scheduler.run(0);
+    assertFalse(request.isComplete());
+
+    // wall off the part of the straight line that has already been searched, leaving a gap at the bottom
+    for (int y = 0; y < 59; y++) {
+      pedMap.permanentlyBlock(2, y);
+    }
+    runToCompletion();
+
+    assertTrue(scheduler.getRestarts() >= 1);
+    Path path = request.getPath();
+    assertNotNull(path);
+    for (int i = 0; i < path.getLength(); i++) {
+      assertFalse(pedMap.blocked(null, path.getX(i), path.getY(i)));
+    }
+  }
+
+  @Test
+  public void aGenerousBudgetFinishesEverythingInOneTick() {
+    for (int i = 0; i < 20; i++) {
+      scheduler.submit(null, i, 0, 59 - i, 59, 0);
+    }
+
+    scheduler.run(10000000000L);
+
+    for (int i = 0; i < 20; i++) {
+      assertNotNull(scheduler.pollCompleted());
+    }
+    assertEquals(0, scheduler.getPendingSearches());
+    assertEquals(0, scheduler.getActiveSearches());
+  }
+
+}
@@ -0,0 +1,213 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.Pedestrian;
+import com.jefflunt.pedestrians.pathfinding.PedestrianGrid;
+
+public class PedestrianGridTest {
+
+  private PedestrianGrid grid;
+  private ArrayList<Pedestrian> peds;
+
+  @Before
+  public void setUp() {
+    grid = new PedestrianGrid();
+    peds = new ArrayList<Pedestrian>();
+    Random random = new Random(4);
+    for (int i = 0; i < 500; i++) {
+      peds.add(new Pedestrian(random.nextFloat()*600, random.nextFloat()*400, null));
+    }
+    grid.rebuild(peds);
+  }
+
+  private static int tileOf(float pixel) {
+    return (int) Math.floor(pixel/ConfigValues.TILE_SIZE);
+  }
+
+  @Test
+  public void everyPedestrianIsFoundInTheirTile() {
+    assertEquals(500, grid.size());
+    Pedestrian[] buffer = new Pedestrian[500];
+
+    for (int i = 0; i < peds.size(); i++) {
+      Pedestrian ped = peds.get(i);
+      assertSame(ped, grid.getPedestrian(i));
+
+      int x = tileOf(ped.getCenterX());
+      int y = tileOf(ped.getCenterY());
+      int count = grid.getPedestriansInTile(x, y, buffer);
+      assertEquals(grid.countInTile(x, y), count);
+
+      int expected = 0;
+      boolean found = false;
+      for (Pedestrian other : peds) {
+        if ((tileOf(other.getCenterX()) == x) && (tileOf(other.getCenterY()) == y)) {
+          expected++;
+        }
+      }
+      for (int j = 0; j < count; j++) {
+        found |= (buffer[j] == ped);
+      }
+      assertEquals(expected, count);
+      assertTrue(found);
+    }
+  }
+
+  @Test
+  public void pedestriansAreFoundNearAPointAcrossTileEdges() {
+    ArrayList<Pedestrian> two = new ArrayList<Pedestrian>();
+    two.add(new Pedestrian(ConfigValues.TILE_SIZE - 1, 10, null));
+    two.add(new Pedestrian(100, 100, null));
+    grid.rebuild(two);
+
+    assertSame(two.get(0), grid.findPedestrianNear(ConfigValues.TILE_SIZE + 1, 10, 3, null));
+    assertNull(grid.findPedestrianNear(ConfigValues.TILE_SIZE + 3, 10, 3, null));
+    assertNull(grid.findPedestrianNear(ConfigValues.TILE_SIZE + 1, 10, 3, two.get(0)));
+    assertSame(two.get(1), grid.findPedestrianNear(100, 100, 0, null));
+    assertEquals(2, grid.size());
+    assertEquals(0, grid.countInTile(tileOf(peds.get(0).getCenterX()) + 1000, 0));
+  }
+
+  @Test
+  public void findingPedestriansMatchesCheckingEveryOne() {
+    Random random = new Random(9);
+    for (int i = 0; i < 2000; i++) {
+      float x = random.nextFloat()*600;
+      float y = random.nextFloat()*400;
+      float radius = random.nextFloat()*15;
+
+      boolean anyNear = false;
+      for (Pedestrian ped : peds) {
+        anyNear |= (Math.hypot(ped.getCenterX() - x, ped.getCenterY() - y) <= radius - 0.001f);
+      }
+      Pedestrian found = grid.findPedestrianNear(x, y, radius, null);
+      if (anyNear) {
+        assertNotNull(found);
+      }
+      if (found != null) {
+        assertTrue(Math.hypot(found.getCenterX() - x, found.getCenterY() - y) <= radius + 0.001f);
+      }
+    }
+  }
+
+  @Test
+  public void findingEveryPedestrianWithinADistanceMatchesCheckingEveryOne() {
+    Random random = new Random(11);
+    Pedestrian[] buffer = new Pedestrian[500];
+    for (int i = 0; i < 500; i++) {
+      float x = random.nextFloat()*700 - 50;
+      float y = random.nextFloat()*500 - 50;
+      float radius = random.nextFloat()*60;
+      Pedestrian ignored = peds.get(random.nextInt(peds.size()));
+
+      HashSet<Pedestrian> expected = new HashSet<Pedestrian>();
+      for (Pedestrian ped : peds) {
+        if ((ped != ignored) && (Math.hypot(ped.getCenterX() - x, ped.getCenterY() - y) <= radius - 0.001f)) {
+          expected.add(ped);
+        }
+      }
+
+      int count = grid.findPedestriansWithin(x, y, radius, ignored, buffer);
+      HashSet<Pedestrian> found = new HashSet<Pedestrian>(Arrays.asList(buffer).subList(0, count));
+      assertEquals(count, found.size());
+      assertTrue(found.containsAll(expected));
+      assertFalse(found.contains(ignored));
+      for (Pedestrian ped : found) {
+        assertTrue(Math.hypot(ped.getCenterX() - x, ped.getCenterY() - y) <= radius + 0.001f);
+      }
+    }
+  }
+
+  @Test
+  public void aFullBufferStillCountsEveryPedestrianWithinTheDistance() {
+    Pedestrian[] buffer = new Pedestrian[3];
+    assertEquals(500, grid.findPedestriansWithin(300, 200, 1000, null, buffer));
+    assertNotNull(buffer[2]);
+  }
+
+  @Test
+  public void findingTheNearestPedestriansMatchesSortingEveryOne() {
+    Random random = new Random(13);
+    for (int i = 0; i < 300; i++) {
+      float x = random.nextFloat()*800 - 100;
+      float y = random.nextFloat()*600 - 100;
+      int k = 1 + random.nextInt(20);
+      Pedestrian ignored = peds.get(random.nextInt(peds.size()));
+
+      float[] expected = new float[peds.size() - 1];
+      int n = 0;
+      for (Pedestrian ped : peds) {
+        if (ped != ignored) {
+          expected[n++] = (float) Math.hypot(ped.getCenterX() - x, ped.getCenterY() - y);
+        }
+      }
+      Arrays.sort(expected);
+
+      Pedestrian[] buffer = new Pedestrian[k];
+      float[] distances = new float[k];
+      assertEquals(k, grid.findNearestPedestrians(x, y, Float.MAX_VALUE, ignored, buffer, distances));
+      for (int j = 0; j < k; j++) {
+        assertEquals(expected[j], distances[j], 0.01f);
+        assertEquals(distances[j], Math.hypot(buffer[j].getCenterX() - x, buffer[j].getCenterY() - y), 0.01f);
+        assertNotSame(ignored, buffer[j]);
+      }
+    }
+  }
+
+  @Test
+  public void onlyPedestriansWithinTheMaximumDistanceAreNearest() {
+    ArrayList<Pedestrian> three = new ArrayList<Pedestrian>();
+    three.add(new Pedestrian(100, 100, null));
+    three.add(new Pedestrian(100 + ConfigValues.TILE_SIZE*3, 100, null));
+    three.add(new Pedestrian(100, 100 + ConfigValues.TILE_SIZE*10, null));
+    grid.rebuild(three);
+
+    Pedestrian[] buffer = new Pedestrian[3];
+    float[] distances = new float[3];
+    assertEquals(2, grid.findNearestPedestrians(95, 100, ConfigValues.TILE_SIZE*5, null, buffer, distances));
+    assertSame(three.get(0), buffer[0]);
+    assertSame(three.get(1), buffer[1]);
+    assertEquals(5, distances[0], 0.001f);
+
+    assertEquals(0, grid.findNearestPedestrians(95, 100, 1, null, buffer, distances));
+    assertEquals(0, new PedestrianGrid().findNearestPedestrians(95, 100, 1000, null, buffer, distances));
+  }
+
+  @Test
+  public void queryingAllocatesNothing() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return;
+    }
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+
+    Pedestrian[] buffer = new Pedestrian[8];
+    float[] distances = new float[8];
+    for (int i = 0; i < 1000; i++) {
+      grid.findNearestPedestrians(i % 600, i % 400, 200, null, buffer, distances);
+      grid.findPedestriansWithin(i % 600, i % 400, 40, null, buffer);
+    }
+
+    long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    for (int i = 0; i < 10000; i++) {
+      grid.findNearestPedestrians(i % 600, i % 400, 200, null, buffer, distances);
+      grid.findPedestriansWithin(i % 600, i % 400, 40, null, buffer);
+    }
+    long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+    // a little slack, for the measuring itself
+    assertTrue("querying allocated " + allocated + " bytes", allocated < 1000);
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.newdawn.slick.util.pathfinding.Path;
+import org.newdawn.slick.util.pathfinding.PathFindingContext;
+
+import com.jefflunt.pedestrians.pathfinding.PedestrianPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class PedestrianPathFinderTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private PedestrianPathFinder pathFinder;
+  
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(20, 20);
+    pathFinder = new PedestrianPathFinder(pedMap, 1000, true);
+  }
+  
+  @Test
+  public void aPathStartsAtTheSourceAndEndsAtTheTarget() {
+    Path path = pathFinder.findPath(null, 1, 1, 15, 12);
+    
+    assertNotNull(path);
+    assertEquals(1,  path.getX(0));
+    assertEquals(1,  path.getY(0));
+    assertEquals(15, path.getX(path.getLength()-1));
+    assertEquals(12, path.getY(path.getLength()-1));
+  }
+  
+  @Test
+  public void aPathGoesAroundAWall() {
+    for (int y = 0; y < 19; y++) {
+      pedMap.permanentlyBlock(10, y);
+    }
+    
+    Path path = pathFinder.findPath(null, 2, 2, 17, 2);
+    assertNotNull(path);
+    for (int i = 0; i < path.getLength(); i++) {
+      assertFalse(pedMap.blocked(null, path.getX(i), path.getY(i)));
+    }
+  }
+  
+  @Test
+  public void aBlockedTargetHasNoPath() {
+    pedMap.permanentlyBlock(5, 5);
+    assertNull(pathFinder.findPath(null, 1, 1, 5, 5));
+  }
+  
+  @Test
+  public void repeatedSearchesReturnTheSamePath() {
+    Path first  = pathFinder.findPath(null, 0, 0, 19, 7);
+    Path second = pathFinder.findPath(null, 0, 0, 19, 7);
+    
+    assertEquals(first.getLength(), second.getLength());
+    for (int i = 0; i < first.getLength(); i++) {
+      assertEquals(first.getX(i), second.getX(i));
+      assertEquals(first.getY(i), second.getY(i));
+    }
+  }
+  
+  @Test
+  public void stateLeftOverFromAnEarlierSearchDoesNotLeakIntoTheNextOne() {
+    assertNotNull(pathFinder.findPath(null, 0, 0, 19, 19));
+    
+    Path shortPath = pathFinder.findPath(null, 3, 3, 4, 4);
+    assertNotNull(shortPath);
+    assertEquals(2, shortPath.getLength());
+  }
+  
+  @Test
+  public void aSearchSteppedAFewNodesAtATimeFindsTheSamePath() {
+    for (int y = 0; y < 15; y++) {
+      pedMap.permanentlyBlock(10, y);
+    }
+    Path whole = pathFinder.findPath(null, 2, 2, 18, 2);
+    
+    pathFinder.startSearch(null, 2, 2, 18, 2);
+    int steps = 0;
+    while (pathFinder.step(3) == PedestrianPathFinder.SEARCH_IN_PROGRESS) {
+      steps++;
+    }
+    Path stepped = pathFinder.getPath();
+    
+    assertTrue(steps > 5);
+    assertEquals(PedestrianPathFinder.SEARCH_FOUND, pathFinder.getSearchState());
+    assertEquals(whole.getLength(), stepped.getLength());
+    for (int i = 0; i < whole.getLength(); i++) {
+      assertEquals(whole.getX(i), stepped.getX(i));
+      assertEquals(whole.getY(i), stepped.getY(i));
+    }
+  }
+  
+  @Test
+  public void aSteppedSearchForABlockedTargetFailsStraightAway() {
+    pedMap.permanentlyBlock(5, 5);
+    pathFinder.startSearch(null, 1, 1, 5, 5);
+    
+    assertEquals(PedestrianPathFinder.SEARCH_FAILED, pathFinder.step(1));
+    assertNull(pathFinder.getPath());
+  }
+  
+  @Test
+  public void aHugeMostlyEmptyMapCanBeSearched() {
+    // the reachability index would still need an int for every tile, so it's left out here
+    PedestrianTileBasedMap hugeMap = new PedestrianTileBasedMap(30000, 30000) {
+      @Override
+      public boolean reachable(PathFindingContext context, int sx, int sy, int tx, int ty) {
+        return true;
+      }
+    };
+    for (int y = 15000; y < 15100; y++) {
+      hugeMap.permanentlyBlock(20050, y);
+    }
+    
+    PedestrianPathFinder hugePathFinder = new PedestrianPathFinder(hugeMap, 100000, true);
+    Path path = hugePathFinder.findPath(null, 20000, 15050, 20100, 15050);
+    
+    assertNotNull(path);
+    assertEquals(20100, path.getX(path.getLength()-1));
+  }
+  
+}
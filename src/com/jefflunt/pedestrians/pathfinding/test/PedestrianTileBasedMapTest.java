@@ -4,11 +4,17 @@ import static org.junit.Assert.*;
 
 import java.awt.Point;
 import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.Pedestrian;
+import com.jefflunt.pedestrians.pathfinding.GridLine;
 import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+import com.jefflunt.pedestrians.pathfinding.TileMapListener;
 
 public class PedestrianTileBasedMapTest {
 
@@ -46,4 +52,183 @@ public class PedestrianTileBasedMapTest {
     tileMapFile.delete();
   }
   
+  @Test
+  public void listenersAreOnlyToldAboutTilesThatActuallyChange() {
+    final int[] changes = new int[1];
+    pedMap.addTileMapListener(new TileMapListener() {
+      public void tileChanged(PedestrianTileBasedMap map, int x, int y, boolean blocked) {
+        changes[0]++;
+      }
+      public void tileMapReset(PedestrianTileBasedMap map) {
+      }
+    });
+    
+    pedMap.permanentlyBlock(3, 3);
+    pedMap.permanentlyBlock(3, 3);
+    pedMap.permanentlyOpen(3, 3);
+    pedMap.permanentlyOpen(3, 3);
+    
+    assertEquals(2, changes[0]);
+  }
+  
+  @Test
+  public void lineOfSightIsBlockedByAnyTileAlongTheLine() {
+    assertTrue(pedMap.hasLineOfSight(null, 2, 2, 40, 17));
+    
+    pedMap.permanentlyBlock(21, 9);
+    assertFalse(pedMap.hasLineOfSight(null, 2, 2, 40, 17));
+    assertFalse(pedMap.hasLineOfSight(null, 40, 17, 2, 2));
+    assertTrue(pedMap.hasLineOfSight(null, 2, 3, 40, 18));
+    assertFalse(pedMap.hasLineOfSight(null, 21, 9, 21, 9));
+  }
+  
+  @Test
+  public void lineOfSightThroughACornerFollowsTheDiagonalStepRule() {
+    pedMap.permanentlyBlock(6, 5);
+    assertTrue(pedMap.hasLineOfSight(null, 5, 5, 7, 7));
+    
+    pedMap.permanentlyBlock(5, 6);
+    assertFalse(pedMap.hasLineOfSight(null, 5, 5, 7, 7));
+    assertFalse(pedMap.hasLineOfSight(null, 7, 7, 5, 5));
+  }
+  
+  @Test
+  public void lineOfSightWithAReusedLineMatchesANewOne() {
+    pedMap.permanentlyBlock(21, 9);
+    pedMap.permanentlyBlock(6, 5);
+    pedMap.permanentlyBlock(5, 6);
+    
+    GridLine line = new GridLine(0, 0, 0, 0);
+    int[][] lines = {{2, 2, 40, 17}, {2, 3, 40, 18}, {5, 5, 7, 7}, {7, 7, 5, 5}, {21, 9, 21, 9}, {0, 0, 0, 0}};
+    for (int[] l : lines) {
+      assertEquals(pedMap.hasLineOfSight(null, l[0], l[1], l[2], l[3]), pedMap.hasLineOfSight(null, l[0], l[1], l[2], l[3], line));
+    }
+  }
+  
+  @Test
+  public void lineOfSightBetweenPointsIsMeasuredInPixels() {
+    pedMap.permanentlyBlock(3, 0);
+    
+    assertTrue(pedMap.hasLineOfSight(5, 5, 55, 15));
+    assertFalse(pedMap.hasLineOfSight(5, 5, 75, 15));
+    assertTrue(pedMap.hasLineOfSight(5, 25, 75, 25));
+  }
+  
+  @Test
+  public void congestionOnlyChangesWhenTheSnapshotIsUpdated() {
+    pedMap.updatePedestrians(Collections.singletonList(new Pedestrian(4*ConfigValues.TILE_SIZE + 1, 4*ConfigValues.TILE_SIZE + 1, null)));
+    assertEquals(0, pedMap.getCost(null, 4, 4), 0);
+    
+    assertTrue(pedMap.updateCongestion(Long.MAX_VALUE/2));
+    assertEquals(1.5f, pedMap.getCost(null, 4, 4), 0);
+    assertEquals(0.5f, pedMap.getCongestion(5, 4), 0);
+    
+    // too soon for another pass
+    pedMap.updatePedestrians(Collections.<Pedestrian>emptyList());
+    assertFalse(pedMap.updateCongestion(Long.MAX_VALUE/2));
+    assertEquals(1.5f, pedMap.getCost(null, 4, 4), 0);
+  }
+  
+  @Test
+  public void aSnapshotIsNotPublishedWhileABackgroundSearchHoldsTheReadLock() throws InterruptedException {
+    final CountDownLatch locked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread search = new Thread() {
+      public void run() {
+        pedMap.getReadLock().lock();
+        try {
+          locked.countDown();
+          release.await();
+        } catch (InterruptedException e) {
+        } finally {
+          pedMap.getReadLock().unlock();
+        }
+      }
+    };
+    search.start();
+    locked.await();
+    
+    pedMap.updatePedestrians(Collections.singletonList(new Pedestrian(4*ConfigValues.TILE_SIZE + 1, 4*ConfigValues.TILE_SIZE + 1, null)));
+    assertFalse(pedMap.updateCongestion(Long.MAX_VALUE/2));
+    assertEquals(0, pedMap.getCost(null, 4, 4), 0);
+    
+    release.countDown();
+    search.join();
+    assertTrue(pedMap.updateCongestion(Long.MAX_VALUE/2));
+    assertEquals(1.5f, pedMap.getCost(null, 4, 4), 0);
+  }
+  
+  @Test
+  public void aSnapshotIsEventuallyPublishedEvenIfTheReadLockIsNeverFree() throws InterruptedException {
+    final CountDownLatch locked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread search = new Thread() {
+      public void run() {
+        pedMap.getReadLock().lock();
+        try {
+          locked.countDown();
+          release.await();
+        } catch (InterruptedException e) {
+        } finally {
+          pedMap.getReadLock().unlock();
+        }
+      }
+    };
+    search.start();
+    locked.await();
+    
+    pedMap.updatePedestrians(Collections.singletonList(new Pedestrian(4*ConfigValues.TILE_SIZE + 1, 4*ConfigValues.TILE_SIZE + 1, null)));
+    for (int i = 0; i < PedestrianTileBasedMap.MAX_DEFERRED_PUBLICATIONS; i++) {
+      assertFalse(pedMap.updateCongestion(Long.MAX_VALUE/2));
+    }
+    assertEquals(0, pedMap.getCost(null, 4, 4), 0);
+    
+    // the search finishes a little later, while the next update is waiting for it
+    Thread finish = new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+        }
+        release.countDown();
+      }
+    };
+    finish.start();
+    assertTrue(pedMap.updateCongestion(Long.MAX_VALUE/2));
+    assertEquals(1.5f, pedMap.getCost(null, 4, 4), 0);
+    assertEquals(0, release.getCount());
+    
+    search.join();
+    finish.join();
+  }
+  
+  @Test
+  public void aMapTooBigToIndexStillHandsOutOpenTiles() {
+    PedestrianTileBasedMap huge = new PedestrianTileBasedMap(PedestrianTileBasedMap.MAX_INDEXED_TILES/1000 + 1, 1000);
+    assertFalse(huge.isIndexed());
+    assertTrue(pedMap.isIndexed());
+    assertNull(huge.getReachabilityIndex());
+    assertNull(huge.getOpenTileSampler());
+    assertNull(huge.getObstacleDistanceField());
+    
+    for (int x = 0; x < 20; x++) {
+      for (int y = 0; y < 20; y++) {
+        huge.permanentlyBlock(x, y);
+      }
+    }
+    huge.permanentlyOpen(3, 4);
+    assertEquals(new Point(3, 4), huge.getRandomReachableTileNear(3, 4, 0));
+    assertNull(huge.getRandomReachableTileNear(10, 10, 5));
+    assertTrue(huge.reachable(null, 3, 4, 500, 500));
+    
+    for (int i = 0; i < 20; i++) {
+      Point tile = huge.getRandomReachableTileNear(15, 15, 12);
+      assertFalse(huge.blocked(null, tile.x, tile.y));
+      assertTrue(((tile.x - 15)*(tile.x - 15)) + ((tile.y - 15)*(tile.y - 15)) <= 144);
+      
+      tile = huge.getRandomReachableTile();
+      assertFalse(huge.blocked(null, tile.x, tile.y));
+    }
+  }
+  
 }
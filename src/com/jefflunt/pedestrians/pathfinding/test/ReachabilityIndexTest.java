@@ -0,0 +1,223 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.awt.Point;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.pathfinding.PedestrianPathFinder;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+import com.jefflunt.pedestrians.pathfinding.ReachabilityIndex;
+
+public class ReachabilityIndexTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private ReachabilityIndex index;
+
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(30, 30);
+    index = pedMap.getReachabilityIndex();
+  }
+
+  /** Checks that two indexes split the open tiles into exactly the same components, whatever they've labelled them. */
+  private void assertSameComponents(ReachabilityIndex expected, ReachabilityIndex actual) {
+    HashMap<Integer, Integer> expectedToActual = new HashMap<Integer, Integer>();
+    HashMap<Integer, Integer> actualToExpected = new HashMap<Integer, Integer>();
+
+    for (int x = 0; x < pedMap.getWidthInTiles(); x++) {
+      for (int y = 0; y < pedMap.getHeightInTiles(); y++) {
+        Integer e = expected.getComponent(x, y);
+        Integer a = actual.getComponent(x, y);
+        assertEquals("at (" + x + ", " + y + ")", expected.getComponentSize(x, y), actual.getComponentSize(x, y));
+        if (e == ReachabilityIndex.NO_COMPONENT) {
+          assertEquals(ReachabilityIndex.NO_COMPONENT, a.intValue());
+          continue;
+        }
+
+        if (!expectedToActual.containsKey(e)) {
+          expectedToActual.put(e, a);
+        }
+        if (!actualToExpected.containsKey(a)) {
+          actualToExpected.put(a, e);
+        }
+        assertEquals("at (" + x + ", " + y + ")", expectedToActual.get(e), a);
+        assertEquals("at (" + x + ", " + y + ")", actualToExpected.get(a), e);
+      }
+    }
+
+    assertEquals(expected.getNumberOfComponents(), actual.getNumberOfComponents());
+  }
+
+  @Test
+  public void anOpenMapIsOneComponent() {
+    assertEquals(1, index.getNumberOfComponents());
+    assertEquals(900, index.getComponentSize(0, 0));
+    assertTrue(index.isReachable(0, 0, 29, 29));
+  }
+
+  @Test
+  public void aWallSplitsTheMapAndAGapJoinsItAgain() {
+    for (int y = 0; y < 30; y++) {
+      pedMap.permanentlyBlock(10, y);
+    }
+
+    assertEquals(2, index.getNumberOfComponents());
+    assertFalse(index.isReachable(5, 5, 20, 5));
+    assertFalse(index.isReachable(5, 5, 10, 5));
+    assertEquals(300, index.getComponentSize(5, 5));
+    assertEquals(570, index.getComponentSize(20, 5));
+
+    pedMap.permanentlyOpen(10, 29);
+    assertEquals(1, index.getNumberOfComponents());
+    assertTrue(index.isReachable(5, 5, 20, 5));
+  }
+
+  @Test
+  public void aGapOnlyADiagonalStepWouldCrossDoesNotJoinTheMap() {
+    // a diagonal wall, with no two blocked tiles side by side - it still can't be crossed, since every diagonal step through it has both
+    // of its side tiles blocked
+    for (int i = 0; i < 30; i++) {
+      pedMap.permanentlyBlock(i, 29 - i);
+    }
+
+    assertEquals(2, index.getNumberOfComponents());
+    assertFalse(index.isReachable(0, 0, 29, 29));
+  }
+
+  @Test
+  public void cuttingOffASmallPocketOnlyRelabelsThePocket() {
+    pedMap.permanentlyBlock(1, 0);
+    pedMap.permanentlyBlock(1, 1);
+    pedMap.permanentlyBlock(1, 2);
+    long before = index.getRelabelledTiles();
+
+    pedMap.permanentlyBlock(0, 2);
+
+    assertEquals(2, index.getNumberOfComponents());
+    assertEquals(2, index.getComponentSize(0, 0));
+    assertTrue((index.getRelabelledTiles() - before) <= 2);
+  }
+
+  @Test
+  public void aPedestrianStandingOnABlockedTileCanReachTheTilesAroundThem() {
+    pedMap.permanentlyBlock(10, 10);
+
+    assertTrue(index.isReachable(10, 10, 20, 20));
+    assertFalse(index.isReachable(20, 20, 10, 10));
+
+    // boxed in on every side, a Pedestrian can't get anywhere
+    for (int x = 9; x <= 11; x++) {
+      for (int y = 9; y <= 11; y++) {
+        pedMap.permanentlyBlock(x, y);
+      }
+    }
+    assertFalse(index.isReachable(10, 10, 20, 20));
+  }
+
+  @Test
+  public void componentsStayCorrectAsTheMapIsEdited() {
+    Random random = new Random(3);
+
+    for (int edit = 0; edit < 2000; edit++) {
+      int x = random.nextInt(30);
+      int y = random.nextInt(30);
+      if (random.nextInt(5) < 2) {
+        pedMap.permanentlyOpen(x, y);
+      } else {
+        pedMap.permanentlyBlock(x, y);
+      }
+
+      if ((edit % 100) == 0) {
+        assertSameComponents(copyOf(pedMap).getReachabilityIndex(), index);
+      }
+    }
+
+    assertSameComponents(copyOf(pedMap).getReachabilityIndex(), index);
+    assertTrue(index.getNumberOfComponents() > 1);
+  }
+
+  @Test
+  public void randomizingTheObstaclesRebuildsTheIndex() {
+    for (int y = 0; y < 30; y++) {
+      pedMap.permanentlyBlock(10, y);
+    }
+    pedMap.randomizeObstacles();
+
+    assertSameComponents(copyOf(pedMap).getReachabilityIndex(), index);
+  }
+
+  @Test
+  public void aSearchForAWalledOffTargetFailsWithoutExpandingAnything() {
+    for (int y = 0; y < 30; y++) {
+      pedMap.permanentlyBlock(10, y);
+    }
+
+    PedestrianPathFinder pathFinder = new PedestrianPathFinder(pedMap, 100000, true);
+    pathFinder.startSearch(null, 5, 5, 20, 5);
+    assertEquals(PedestrianPathFinder.SEARCH_FAILED, pathFinder.getSearchState());
+    assertNull(pathFinder.findPath(null, 5, 5, 20, 5));
+  }
+
+  @Test
+  public void reachableTilesAreInTheLargestComponent() {
+    for (int y = 0; y < 30; y++) {
+      pedMap.permanentlyBlock(5, y);
+    }
+
+    for (int i = 0; i < 50; i++) {
+      assertTrue(pedMap.getRandomReachableTile().x > 5);
+    }
+  }
+
+  @Test
+  public void reachableTilesAreFoundWhenTheLargestComponentIsASmallPartOfTheMap() {
+    // 2x2 pockets everywhere, two of which are joined into the largest component, of 10 tiles out of 400
+    for (int i = 2; i < 30; i += 3) {
+      for (int j = 0; j < 30; j++) {
+        pedMap.permanentlyBlock(i, j);
+        pedMap.permanentlyBlock(j, i);
+      }
+    }
+    pedMap.permanentlyOpen(2, 0);
+    pedMap.permanentlyOpen(2, 1);
+    assertEquals(10, index.getSizeOfComponent(index.getLargestComponent()));
+
+    for (int i = 0; i < 50; i++) {
+      Point tile = pedMap.getRandomReachableTile();
+      assertTrue((tile.x <= 4) && (tile.y <= 1));
+      assertFalse(pedMap.blocked(null, tile.x, tile.y));
+    }
+  }
+
+  @Test
+  public void thereAreNoReachableTilesWhenEveryTileIsBlocked() {
+    for (int x = 0; x < 30; x++) {
+      for (int y = 0; y < 30; y++) {
+        pedMap.permanentlyBlock(x, y);
+      }
+    }
+
+    assertNull(pedMap.getRandomReachableTile());
+    assertNull(index.getTileOfComponent(index.getLargestComponent(), 0));
+  }
+
+  /** Copies the obstacles of a map onto a new map, which has no listeners. */
+  private static PedestrianTileBasedMap copyOf(PedestrianTileBasedMap original) {
+    PedestrianTileBasedMap copy = new PedestrianTileBasedMap(original.getWidthInTiles(), original.getHeightInTiles());
+    for (int x = 0; x < original.getWidthInTiles(); x++) {
+      for (int y = 0; y < original.getHeightInTiles(); y++) {
+        if (original.blocked(null, x, y)) {
+          copy.permanentlyBlock(x, y);
+        }
+      }
+    }
+
+    return copy;
+  }
+
+}
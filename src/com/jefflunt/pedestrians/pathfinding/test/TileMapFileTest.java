@@ -0,0 +1,124 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+import com.jefflunt.pedestrians.pathfinding.TileMapFile;
+
+public class TileMapFileTest {
+
+  private File tileMapFile;
+
+  @Before
+  public void setUp() throws IOException {
+    tileMapFile = File.createTempFile("tilemapfile", ".tilemap");
+  }
+
+  @After
+  public void tearDown() {
+    tileMapFile.delete();
+  }
+
+  /** A map whose size isn't a whole number of chunks, with obstacles scattered across it. */
+  private static PedestrianTileBasedMap randomMap() {
+    PedestrianTileBasedMap pedMap = new PedestrianTileBasedMap(150, 97);
+    Random random = new Random(21);
+    for (int i = 0; i < 3000; i++) {
+      pedMap.permanentlyBlock(random.nextInt(150), random.nextInt(97));
+    }
+    pedMap.permanentlyBlock(149, 96);
+    return pedMap;
+  }
+
+  private static void assertSameTiles(PedestrianTileBasedMap expected, PedestrianTileBasedMap actual) {
+    assertEquals(expected.getWidthInTiles(), actual.getWidthInTiles());
+    assertEquals(expected.getHeightInTiles(), actual.getHeightInTiles());
+    for (int x = 0; x < expected.getWidthInTiles(); x++) {
+      for (int y = 0; y < expected.getHeightInTiles(); y++) {
+        assertEquals(expected.blocked(null, x, y), actual.blocked(null, x, y));
+      }
+    }
+  }
+
+  @Test
+  public void aMapComesBackTheSame() throws IOException {
+    PedestrianTileBasedMap pedMap = randomMap();
+    TileMapFile.save(pedMap, tileMapFile.getPath());
+
+    assertSameTiles(pedMap, TileMapFile.load(tileMapFile.getPath()));
+  }
+
+  @Test
+  public void onlyChunksWithObstaclesAreWritten() throws IOException {
+    PedestrianTileBasedMap pedMap = new PedestrianTileBasedMap(1000, 1000);
+    pedMap.permanentlyBlock(500, 500);
+    TileMapFile.save(pedMap, tileMapFile.getPath());
+
+    // the header, a table of 256 chunks, and one chunk of 4096 bits
+    assertEquals(24 + 32 + 512, tileMapFile.length());
+    assertSameTiles(pedMap, TileMapFile.load(tileMapFile.getPath()));
+  }
+
+  @Test
+  public void legacyFilesAreReadAndConverted() throws IOException {
+    PedestrianTileBasedMap pedMap = randomMap();
+    TileMapFile.saveLegacy(pedMap, tileMapFile.getPath());
+    long legacyLength = tileMapFile.length();
+
+    assertSameTiles(pedMap, PedestrianTileBasedMap.loadTileMap(tileMapFile.getPath()));
+
+    TileMapFile.convertLegacy(tileMapFile.getPath(), tileMapFile.getPath());
+    assertTrue(tileMapFile.length()*4 < legacyLength);
+    assertSameTiles(pedMap, TileMapFile.load(tileMapFile.getPath()));
+  }
+
+  @Test(expected=IOException.class)
+  public void aFileThatIsNotATileMapIsRejected() throws IOException {
+    FileOutputStream out = new FileOutputStream(tileMapFile);
+    out.write(new byte[100]);
+    out.close();
+
+    TileMapFile.load(tileMapFile.getPath());
+  }
+
+  @Test(expected=IOException.class)
+  public void aTableListingMoreChunksThanWereWrittenIsRejected() throws IOException {
+    PedestrianTileBasedMap pedMap = new PedestrianTileBasedMap(1000, 1000);
+    pedMap.permanentlyBlock(500, 500);
+    TileMapFile.save(pedMap, tileMapFile.getPath());
+
+    // list the first chunk as written too, without changing the size of the file
+    RandomAccessFile file = new RandomAccessFile(tileMapFile, "rw");
+    file.seek(24);
+    int first = file.read();
+    file.seek(24);
+    file.write(first | 1);
+    file.close();
+
+    TileMapFile.load(tileMapFile.getPath());
+  }
+
+  @Test(expected=IOException.class)
+  public void aTruncatedFileIsRejected() throws IOException {
+    PedestrianTileBasedMap pedMap = new PedestrianTileBasedMap(1000, 1000);
+    pedMap.permanentlyBlock(500, 500);
+    TileMapFile.save(pedMap, tileMapFile.getPath());
+
+    RandomAccessFile file = new RandomAccessFile(tileMapFile, "rw");
+    file.setLength(file.length() - 8);
+    file.close();
+
+    TileMapFile.load(tileMapFile.getPath());
+  }
+
+}
@@ -0,0 +1,153 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.SnapshotWriter;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+import com.jefflunt.pedestrians.pathfinding.TileMapJournal;
+
+public class TileMapJournalTest {
+
+  private File baseFile;
+  private File journalFile;
+  private PedestrianTileBasedMap pedMap;
+  private TileMapJournal journal;
+
+  @Before
+  public void setUp() throws IOException {
+    baseFile = File.createTempFile("tilemapjournal", ".tilemap");
+    baseFile.delete();
+    journalFile = new File(TileMapJournal.journalFilenameFor(baseFile.getPath()));
+
+    pedMap = new PedestrianTileBasedMap(500, 300);
+    pedMap.permanentlyBlock(7, 9);
+    journal = new TileMapJournal(pedMap, baseFile.getPath(), 100);
+  }
+
+  @After
+  public void tearDown() {
+    baseFile.delete();
+    journalFile.delete();
+  }
+
+  private void assertLoadsTheSameTiles() throws IOException {
+    PedestrianTileBasedMap loaded = TileMapJournal.load(baseFile.getPath());
+    for (int x = 0; x < pedMap.getWidthInTiles(); x++) {
+      for (int y = 0; y < pedMap.getHeightInTiles(); y++) {
+        assertEquals(pedMap.blocked(null, x, y), loaded.blocked(null, x, y));
+      }
+    }
+  }
+
+  @Test
+  public void theFirstFlushWritesTheWholeMap() throws IOException {
+    journal.flush();
+
+    assertTrue(baseFile.exists());
+    assertEquals(TileMapJournal.HEADER_BYTES, journalFile.length());
+    assertLoadsTheSameTiles();
+  }
+
+  @Test
+  public void editsAreAppendedAndReplayed() throws IOException {
+    journal.flush();
+    long baseLength = baseFile.length();
+    long baseModified = baseFile.lastModified();
+
+    pedMap.permanentlyBlock(400, 250);
+    pedMap.permanentlyBlock(401, 250);
+    pedMap.permanentlyOpen(7, 9);
+    journal.flush();
+    pedMap.permanentlyOpen(400, 250);
+    journal.flush();
+
+    assertEquals(baseLength, baseFile.length());
+    assertEquals(baseModified, baseFile.lastModified());
+    assertEquals(TileMapJournal.HEADER_BYTES + (4*TileMapJournal.RECORD_BYTES), journalFile.length());
+    assertLoadsTheSameTiles();
+  }
+
+  @Test
+  public void aLongJournalIsCompacted() throws IOException {
+    journal.flush();
+    for (int x = 0; x < 150; x++) {
+      pedMap.permanentlyBlock(x, 100);
+    }
+    journal.flush();
+
+    assertEquals(0, journal.getNumberOfRecordsInJournal());
+    assertEquals(TileMapJournal.HEADER_BYTES, journalFile.length());
+    assertLoadsTheSameTiles();
+  }
+
+  @Test
+  public void randomizingTheMapCompactsTheJournal() throws IOException {
+    journal.flush();
+    pedMap.permanentlyBlock(20, 20);
+    pedMap.randomizeObstacles();
+    assertEquals(0, journal.getNumberOfPendingRecords());
+
+    journal.flush();
+    assertEquals(TileMapJournal.HEADER_BYTES, journalFile.length());
+    assertLoadsTheSameTiles();
+  }
+
+  @Test
+  public void writesCanBeHandedToABackgroundThread() throws IOException {
+    SnapshotWriter writer = new SnapshotWriter();
+    journal.detach();
+    journal = new TileMapJournal(pedMap, baseFile.getPath(), 100, writer);
+
+    journal.flush();
+    pedMap.permanentlyBlock(400, 250);
+    journal.flush();
+    pedMap.permanentlyBlock(401, 250);
+    journal.compact();
+    pedMap.permanentlyBlock(402, 250);
+    journal.flush();
+    pedMap.permanentlyBlock(403, 250);
+
+    assertTrue(writer.awaitIdle(10000));
+    writer.shutdown();
+    assertEquals(TileMapJournal.HEADER_BYTES + TileMapJournal.RECORD_BYTES, journalFile.length());
+    PedestrianTileBasedMap loaded = TileMapJournal.load(baseFile.getPath());
+    assertTrue(loaded.blocked(null, 402, 250));
+    assertFalse(loaded.blocked(null, 403, 250));
+  }
+
+  @Test
+  public void aRecordCutShortIsIgnored() throws IOException {
+    journal.flush();
+    pedMap.permanentlyBlock(30, 40);
+    pedMap.permanentlyBlock(31, 40);
+    journal.flush();
+
+    RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+    file.setLength(file.length() - 3);
+    file.close();
+
+    PedestrianTileBasedMap loaded = TileMapJournal.load(baseFile.getPath());
+    assertTrue(loaded.blocked(null, 30, 40));
+    assertFalse(loaded.blocked(null, 31, 40));
+  }
+
+  @Test
+  public void aJournalForAnotherMapIsIgnored() throws IOException {
+    journal.flush();
+    pedMap.permanentlyBlock(30, 40);
+    journal.flush();
+
+    PedestrianTileBasedMap otherMap = new PedestrianTileBasedMap(50, 50);
+    assertEquals(0, TileMapJournal.replay(otherMap, journalFile.getPath()));
+    assertFalse(otherMap.blocked(null, 30, 40));
+  }
+
+}
@@ -0,0 +1,172 @@
+package com.jefflunt.pedestrians.pathfinding.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.Pedestrian;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+import com.jefflunt.pedestrians.pathfinding.TileState;
+import com.jefflunt.pedestrians.pathfinding.TileStorage;
+
+public class TileStorageTest {
+
+  private TileStorage tiles;
+
+  @Before
+  public void setUp() {
+    tiles = new TileStorage(70, 9);
+  }
+
+  @Test
+  public void theBorderIsBlockedAndTheMapIsOpen() {
+    for (int x = -1; x <= 70; x++) {
+      assertTrue(tiles.isBlocked(tiles.indexOf(x, -1)));
+      assertTrue(tiles.isBlocked(tiles.indexOf(x, 9)));
+    }
+    for (int y = -1; y <= 9; y++) {
+      assertTrue(tiles.isBlocked(tiles.indexOf(-1, y)));
+      assertTrue(tiles.isBlocked(tiles.indexOf(70, y)));
+    }
+    for (int x = 0; x < 70; x++) {
+      for (int y = 0; y < 9; y++) {
+        assertFalse(tiles.isBlocked(x, y));
+      }
+    }
+
+    assertTrue(tiles.isBlocked(-5, 3));
+    assertTrue(tiles.isBlocked(3, 1000));
+    assertTrue(tiles.isBlocked(Integer.MIN_VALUE, Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void everyTileHasItsOwnIndex() {
+    HashSet<Integer> indices = new HashSet<Integer>();
+    for (int x = -1; x <= 70; x++) {
+      for (int y = -1; y <= 9; y++) {
+        assertTrue(indices.add(tiles.indexOf(x, y)));
+      }
+    }
+  }
+
+  @Test
+  public void onlyTheChunksThatHoldSomethingAreAllocated() {
+    TileStorage huge = new TileStorage(20000, 20000);
+    int border = huge.getNumberOfAllocatedChunks();
+
+    huge.setBlocked(huge.indexOf(10000, 10000), true);
+    huge.addOccupant(huge.indexOf(5000, 5000));
+    assertEquals(border + 2, huge.getNumberOfAllocatedChunks());
+    assertTrue(huge.isBlocked(10000, 10000));
+    assertFalse(huge.isBlocked(10001, 10000));
+
+    // emptied chunks go back to sharing, once their congestion has settled down
+    huge.setBlocked(huge.indexOf(10000, 10000), false);
+    huge.removeOccupant(huge.indexOf(5000, 5000));
+    for (int i = 0; i < 20; i++) {
+      huge.recalculateCongestion();
+    }
+    assertEquals(border, huge.getNumberOfAllocatedChunks());
+  }
+
+  @Test
+  public void blockingATileOnlyChangesThatTile() {
+    tiles.setBlocked(tiles.indexOf(63, 4), true);
+    tiles.setBlocked(tiles.indexOf(64, 4), true);
+    tiles.setBlocked(tiles.indexOf(64, 4), false);
+
+    int blocked = 0;
+    for (int x = 0; x < 70; x++) {
+      for (int y = 0; y < 9; y++) {
+        blocked += (tiles.isBlocked(x, y) ? 1 : 0);
+      }
+    }
+    assertEquals(1, blocked);
+    assertTrue(tiles.isBlocked(63, 4));
+
+    tiles.clearBlocked();
+    assertFalse(tiles.isBlocked(63, 4));
+    assertTrue(tiles.isBlocked(70, 4));
+  }
+
+  @Test
+  public void aSnapshotOfTheObstaclesDoesNotSeeLaterChanges() {
+    tiles.setBlocked(tiles.indexOf(10, 2), true);
+    tiles.setBlocked(tiles.indexOf(65, 2), true);
+    TileStorage.ObstacleSnapshot snapshot = tiles.snapshotObstacles();
+
+    tiles.setBlocked(tiles.indexOf(10, 2), false);
+    tiles.setBlocked(tiles.indexOf(11, 2), true);
+    tiles.setBlocked(tiles.indexOf(66, 2), true);
+    tiles.clearBlocked();
+    tiles.setBlocked(tiles.indexOf(65, 3), true);
+
+    assertTrue(snapshot.isBlocked(10, 2));
+    assertTrue(snapshot.isBlocked(65, 2));
+    assertFalse(snapshot.isBlocked(11, 2));
+    assertFalse(snapshot.isBlocked(66, 2));
+    assertFalse(snapshot.isBlocked(65, 3));
+    assertTrue(snapshot.isBlocked(-1, 2));
+    assertEquals(70, snapshot.getWidth());
+
+    assertTrue(tiles.isBlocked(65, 3));
+    assertFalse(tiles.isBlocked(65, 2));
+  }
+
+  @Test
+  public void occupancyFollowsTheRegisteredPedestrians() {
+    int index = tiles.indexOf(5, 5);
+    tiles.addOccupant(index);
+
+    assertEquals(1, tiles.getOccupancy(index));
+    tiles.recalculateCongestion();
+    assertEquals(1.5f, tiles.getCongestion(index), 0);
+    assertEquals(0.5f, tiles.getCongestion(tiles.indexOf(60, 2)), 0);
+
+    tiles.removeOccupant(index);
+    tiles.removeOccupant(index);
+    assertEquals(0, tiles.getOccupancy(index));
+    tiles.recalculateCongestion();
+    assertEquals(1.25f, tiles.getCongestion(index), 0);
+    assertEquals(0.75f, tiles.getCongestion(tiles.indexOf(60, 2)), 0);
+  }
+
+  @Test
+  public void aCongestionSnapshotKnowsTheHighestCongestionOfEachChunk() {
+    tiles.addOccupant(tiles.indexOf(5, 5));
+    tiles.recalculateCongestion();
+    TileStorage.CongestionSnapshot snapshot = tiles.createCongestionSnapshot();
+    tiles.copyCongestionInto(snapshot);
+
+    assertEquals(1.5f, snapshot.getHighestCongestion(0, 0, 10, 8), 0);
+    assertEquals(1.5f, snapshot.getHighestCongestion(60, 0, 69, 8), 0);
+    assertEquals(0.5f, snapshot.getHighestCongestion(65, 0, 69, 8), 0);
+  }
+
+  @Test
+  public void tileStatesAreViewsOfTheMap() {
+    PedestrianTileBasedMap pedMap = new PedestrianTileBasedMap(10, 10);
+    TileState state = pedMap.getTileStateAt(3, 4);
+
+    pedMap.permanentlyBlock(3, 4);
+    assertTrue(state.isBlocked());
+
+    Pedestrian ped = new Pedestrian(3*ConfigValues.TILE_SIZE + 5, 4*ConfigValues.TILE_SIZE + 5, null);
+    pedMap.updatePedestrians(Collections.singletonList(ped));
+    assertEquals(ped, state.getRegisteredPedestrians().getFirst());
+    assertEquals(1, pedMap.getRegisteredPedestrians(3, 4).size());
+    assertEquals(1, pedMap.getTileStorage().getOccupancy(pedMap.getTileStorage().indexOf(3, 4)));
+
+    pedMap.updatePedestrians(Collections.<Pedestrian>emptyList());
+    assertNull(pedMap.getRegisteredPedestrians(3, 4));
+    assertEquals(0, pedMap.getTileStorage().getOccupancy(pedMap.getTileStorage().indexOf(3, 4)));
+
+    assertFalse(pedMap.getTileStateAt(-1, 4).isBlocked());
+  }
+
+}
@@ -9,13 +9,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedList;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.newdawn.slick.util.pathfinding.Path;
 
 import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.MovementRecord;
 import com.jefflunt.pedestrians.Pedestrian;
+import com.jefflunt.pedestrians.PedestrianSnapshot;
+import com.jefflunt.pedestrians.pathfinding.CompactPath;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
 
 public class PedestrianTest {
 
@@ -66,6 +72,84 @@ public class PedestrianTest {
     pedFile.delete();
   }
   
+  @Test
+  public void aSnapshotOfPedestriansIsSavedInTheSameFormatAsThePedestriansThemselves() throws IOException, ClassNotFoundException {
+    File pedFile = new File("test_peds.state");
+    LinkedList<Pedestrian> peds = new LinkedList<Pedestrian>();
+    peds.add(new Pedestrian(40, 50, null));
+    peds.add(new Pedestrian(300, 7, null));
+    peds.getLast().headToward(0, 0, Pedestrian.WALKING_SPEED);
+    
+    PedestrianSnapshot snapshot = new PedestrianSnapshot(peds);
+    peds.getFirst().setNewTargetPoint(100, 100, Pedestrian.RUNNING_SPEED);
+    snapshot.save(pedFile.getPath());
+    
+    ObjectInputStream ois = new ObjectInputStream(new FileInputStream(pedFile));
+    assertEquals(2, ois.readInt());
+    Pedestrian first = new Pedestrian(ois, null);
+    Pedestrian second = new Pedestrian(ois, null);
+    ois.close();
+    pedFile.delete();
+    
+    assertEquals(40, first.getCenterX(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertEquals(40, first.getTargetX(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertEquals(0, first.getSpeed(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertEquals(peds.getLast().getUniqueID(), second.getUniqueID());
+    assertEquals(peds.getLast().getName(), second.getName());
+    assertEquals(peds.getLast().getRenderColor().getGreen(), second.getRenderColor().getGreen());
+    assertEquals(peds.getLast().getDirection(), second.getDirection(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertEquals(Pedestrian.WALKING_SPEED, second.getSpeed(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertFalse(new File(pedFile.getPath() + ".tmp").exists());
+  }
+  
+  @Test
+  public void movingAllocatesNothing() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return;
+    }
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    
+    PedestrianTileBasedMap pedMap = new PedestrianTileBasedMap(100, 100);
+    pedMap.permanentlyBlock(60, 50);
+    Pedestrian.setGlobalTileMap(pedMap);
+    Pedestrian walker = new Pedestrian(1000, 1000, null);
+    LinkedList<Pedestrian> peds = new LinkedList<Pedestrian>();
+    peds.add(walker);
+    peds.add(new Pedestrian(1030, 1005, null));
+    pedMap.updatePedestrians(peds);
+    
+    walker.headToward(1900, 1000, Pedestrian.WALKING_SPEED);
+    for (int i = 0; i < ConfigValues.pedestrianMovementHistoryDepth + 1000; i++) {
+      walker.move(1);
+    }
+    
+    long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    for (int i = 0; i < 10000; i++) {
+      walker.move(1);
+    }
+    long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+    
+    assertFalse(walker.hasReachedDestination());
+    assertEquals(ConfigValues.pedestrianMovementHistoryDepth, walker.getMovementHistorySize());
+    // a little slack, for the measuring itself
+    assertTrue("move() allocated " + allocated + " bytes", allocated < 1000);
+  }
+  
+  @Test
+  public void theMovementHistoryKeepsTheMostRecentMoves() {
+    Pedestrian.setGlobalTileMap(new PedestrianTileBasedMap(100, 100));
+    simon.setNewTargetPoint(500, 0, Pedestrian.WALKING_SPEED);
+    for (int i = 0; i < ConfigValues.pedestrianMovementHistoryDepth + 10; i++) {
+      simon.move(10);
+    }
+    
+    LinkedList<MovementRecord> history = simon.getMovementHistory();
+    assertEquals(ConfigValues.pedestrianMovementHistoryDepth, history.size());
+    assertEquals(simon.getCenterX(), history.getLast().x, 0);
+    assertTrue(history.getFirst().x < history.getLast().x);
+  }
+  
   @Test
   public void calcualtionOfRelativePointsFromCenterWorksAsExcpected() {
     Point2D.Float relativePoint = simon.getRelativePointFromCenter(1, 1);
@@ -117,6 +201,18 @@ public class PedestrianTest {
     assertEquals(175, simon.distanceToEndOfPath(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
   }
   
+  @Test
+  public void aPedestrianFollowsAPathInTilesWithoutCopyingIt() {
+    CompactPath simonsPath = new CompactPath(true);
+    simonsPath.appendStep(1, 1);
+    simonsPath.appendStep(4, 1);    // 3 tiles further along the x-axis
+    
+    simon.headAlongPath(simonsPath, Pedestrian.WALKING_SPEED);
+    assertSame(simonsPath, simon.getTargetPath());
+    assertEquals(30, simon.getTargetX(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    assertEquals(simon.distanceToTarget() + (3*ConfigValues.TILE_SIZE), simon.distanceToEndOfPath(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+  }
+  
   @Test
   public void aPedestrianKnowsIfTheyAreOnAPath() {
     assertFalse(simon.isOnAPathSomewhere());
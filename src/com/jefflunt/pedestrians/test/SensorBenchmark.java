@@ -0,0 +1,83 @@
+package com.jefflunt.pedestrians.test;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.Pedestrian;
+import com.jefflunt.pedestrians.SensorKernel;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+/** A small, stand-alone benchmark that compares working out the Pedestrians' sensors one Pedestrian at a time (as Pedestrian.move() does
+ * when left to itself) against working them all out at once with a SensorKernel. Both run over the same crowd, on the same randomized map,
+ * and the number of Pedestrians whose sensors are evaluated per second is reported for each.
+ * 
+ * Run it with: java com.jefflunt.pedestrians.test.SensorBenchmark [pedestrians] [ticks]
+ */
+public class SensorBenchmark {
+
+  public static void main(String[] args) {
+    int pedestrians = (args.length > 0) ? Integer.parseInt(args[0]) : ConfigValues.totalPedestrians;
+    int ticks       = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+    
+    int mapSize = 150;
+    PedestrianTileBasedMap tileMap = new PedestrianTileBasedMap(mapSize, mapSize);
+    tileMap.randomizeObstacles();
+    Pedestrian.setGlobalTileMap(tileMap);
+    
+    Random random = new Random(42);
+    int extent = mapSize*ConfigValues.TILE_SIZE;
+    LinkedList<Pedestrian> peds = new LinkedList<Pedestrian>();
+    for (int i = 0; i < pedestrians; i++) {
+      Pedestrian ped = new Pedestrian(random.nextFloat()*extent, random.nextFloat()*extent, null);
+      ped.setNewTargetPoint(random.nextFloat()*extent, random.nextFloat()*extent, Pedestrian.WALKING_SPEED);
+      peds.add(ped);
+    }
+    tileMap.updatePedestrians(peds);
+    SensorKernel kernel = new SensorKernel();
+    
+    // one pass each to warm up the JIT, then the timed runs
+    runPerPedestrian("per pedestrian (warm-up)", peds, ticks);
+    runBatched("batched (warm-up)", kernel, peds, tileMap, ticks);
+    runPerPedestrian("per pedestrian", peds, ticks);
+    runBatched("batched", kernel, peds, tileMap, ticks);
+  }
+  
+  /** Has each Pedestrian work out their own sensors, once per tick. */
+  private static void runPerPedestrian(String label, LinkedList<Pedestrian> peds, int ticks) {
+    long triggered = 0;
+    
+    long start = System.nanoTime();
+    for (int tick = 0; tick < ticks; tick++) {
+      for (Pedestrian ped : peds) {
+        if (!ped.hasReachedDestination() && (ped.findTriggeredSensor() >= 0)) {
+          triggered++;
+        }
+      }
+    }
+    report(label, peds.size(), ticks, triggered, System.nanoTime() - start);
+  }
+  
+  /** Works out every Pedestrian's sensors with the kernel, once per tick. */
+  private static void runBatched(String label, SensorKernel kernel, LinkedList<Pedestrian> peds, PedestrianTileBasedMap tileMap, int ticks) {
+    long triggered = 0;
+    
+    long start = System.nanoTime();
+    for (int tick = 0; tick < ticks; tick++) {
+      kernel.evaluate(peds, tileMap);
+      for (int i = 0; i < kernel.size(); i++) {
+        if (kernel.getTriggeredSensor(i) >= 0) {
+          triggered++;
+        }
+      }
+    }
+    report(label, peds.size(), ticks, triggered, System.nanoTime() - start);
+  }
+  
+  private static void report(String label, int pedestrians, int ticks, long triggered, long elapsed) {
+    double seconds = elapsed / 1000000000.0;
+    System.out.println(String.format("%-26s %8d pedestrians  %6d ticks  %10d triggered  %8.1f ms  %12.0f pedestrians/s",
+        label, pedestrians, ticks, triggered, elapsed / 1000000.0, ((long) pedestrians*ticks) / seconds));
+  }
+  
+}
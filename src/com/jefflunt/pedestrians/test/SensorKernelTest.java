@@ -0,0 +1,124 @@
+package com.jefflunt.pedestrians.test;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jefflunt.pedestrians.ConfigValues;
+import com.jefflunt.pedestrians.Pedestrian;
+import com.jefflunt.pedestrians.SensorKernel;
+import com.jefflunt.pedestrians.pathfinding.PedestrianTileBasedMap;
+
+public class SensorKernelTest {
+
+  private PedestrianTileBasedMap pedMap;
+  private SensorKernel kernel;
+
+  @Before
+  public void setUp() {
+    pedMap = new PedestrianTileBasedMap(40, 40);
+    // a fixed scattering of obstacles, so that every run tests the same map
+    Random random = new Random(3);
+    for (int i = 0; i < 120; i++) {
+      pedMap.permanentlyBlock(random.nextInt(40), random.nextInt(40));
+    }
+    Pedestrian.setGlobalTileMap(pedMap);
+    kernel = new SensorKernel();
+  }
+
+  /** Scatters a crowd of Pedestrians across the map, each walking somewhere. The same seed always gives the same crowd. */
+  private LinkedList<Pedestrian> crowd(int size, long seed) {
+    Random random = new Random(seed);
+    int extent = 40*ConfigValues.TILE_SIZE;
+
+    LinkedList<Pedestrian> peds = new LinkedList<Pedestrian>();
+    for (int i = 0; i < size; i++) {
+      Pedestrian ped = new Pedestrian(random.nextFloat()*extent, random.nextFloat()*extent, null);
+      ped.setNewTargetPoint(random.nextFloat()*extent, random.nextFloat()*extent, Pedestrian.WALKING_SPEED);
+      peds.add(ped);
+    }
+    return peds;
+  }
+
+  /** Gets the sensor a Pedestrian steers by when they move - none, if they've already arrived. */
+  private static int expectedSensor(Pedestrian ped) {
+    return (ped.hasReachedDestination() ? -1 : ped.findTriggeredSensor());
+  }
+
+  @Test
+  public void theKernelFindsTheSameSensorsAsEachPedestrianWould() {
+    LinkedList<Pedestrian> peds = crowd(500, 17);
+    pedMap.updatePedestrians(peds);
+    kernel.evaluate(peds, pedMap);
+
+    assertEquals(500, kernel.size());
+    int i = 0;
+    int triggered = 0;
+    for (Pedestrian ped : peds) {
+      assertEquals(expectedSensor(ped), kernel.getTriggeredSensor(i));
+      if (kernel.getTriggeredSensor(i) >= 0) {
+        triggered++;
+      }
+      i++;
+    }
+    assertTrue(triggered > 0);
+  }
+
+  @Test
+  public void aPedestrianWhoIsntGoingAnywhereSensesNothing() {
+    LinkedList<Pedestrian> peds = new LinkedList<Pedestrian>();
+    peds.add(new Pedestrian(100, 100, null));
+    peds.add(new Pedestrian(102, 100, null));
+    pedMap.updatePedestrians(peds);
+    kernel.evaluate(peds, pedMap);
+
+    assertEquals(-1, kernel.getTriggeredSensor(0));
+    assertEquals(-1, kernel.getTriggeredSensor(1));
+  }
+
+  @Test
+  public void pedestriansMovedByTheKernelEndUpWhereTheyWouldHaveOnTheirOwn() {
+    LinkedList<Pedestrian> batched = crowd(300, 29);
+    LinkedList<Pedestrian> alone = crowd(300, 29);
+
+    for (int tick = 0; tick < 50; tick++) {
+      pedMap.updatePedestrians(batched);
+      kernel.evaluate(batched, pedMap);
+      int i = 0;
+      for (Pedestrian ped : batched) {
+        ped.move(16, kernel.getTriggeredSensor(i++));
+      }
+
+      pedMap.updatePedestrians(alone);
+      for (Pedestrian ped : alone) {
+        ped.move(16);
+      }
+    }
+
+    for (int i = 0; i < batched.size(); i++) {
+      assertEquals(alone.get(i).getCenterX(), batched.get(i).getCenterX(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+      assertEquals(alone.get(i).getCenterY(), batched.get(i).getCenterY(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+      assertEquals(alone.get(i).getDirection(), batched.get(i).getDirection(), ConfigValues.MAX_FLOATING_POINT_PRECISION);
+    }
+  }
+
+  @Test
+  public void theKernelCopesWithTheCrowdGrowingAndShrinking() {
+    for (int size : new int[] {10, 1000, 3, 0, 200}) {
+      LinkedList<Pedestrian> peds = crowd(size, size);
+      pedMap.updatePedestrians(peds);
+      kernel.evaluate(peds, pedMap);
+
+      assertEquals(size, kernel.size());
+      int i = 0;
+      for (Pedestrian ped : peds) {
+        assertEquals(expectedSensor(ped), kernel.getTriggeredSensor(i++));
+      }
+    }
+  }
+
+}